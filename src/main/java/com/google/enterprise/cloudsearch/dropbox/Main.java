@@ -16,36 +16,44 @@
 package com.google.enterprise.cloudsearch.dropbox;
 
 import com.google.enterprise.cloudsearch.dropbox.contents.DropBoxConnector;
+import com.google.enterprise.cloudsearch.dropbox.estimate.DropBoxEstimator;
 import com.google.enterprise.cloudsearch.dropbox.identity.DropBoxIdentityConnector;
+import java.io.IOException;
 
 /**
- * Runs DropBox or identity connector based on command-line argument. With no
- * argument, runs the dropbox connector.
+ * Runs DropBox or identity connector, or estimates a traversal, based on command-line
+ * argument. With no argument, runs the dropbox connector.
  *
  * Usage:
  *
  * <pre>
  * java -jar connector.jar --dropbox
  * java -jar connector.jar --identity
+ * java -jar connector.jar --estimate
  * </pre>
  */
 public final class Main {
-  public static void main(String[] args) throws InterruptedException {
+  public static void main(String[] args) throws InterruptedException, IOException {
     boolean dropbox = false;
     boolean identity = false;
+    boolean estimate = false;
     for (String arg : args) {
       if (arg.equals("--dropbox")) {
         dropbox = true;
       } else if (arg.equals("--identity")) {
         identity = true;
+      } else if (arg.equals("--estimate")) {
+        estimate = true;
       }
     }
-    if (dropbox && identity) {
+    if ((dropbox ? 1 : 0) + (identity ? 1 : 0) + (estimate ? 1 : 0) > 1) {
       System.out.println(
-          "Invalid options; only one of --dropbox and --identity may be specified");
+          "Invalid options; only one of --dropbox, --identity and --estimate may be specified");
       return;
     }
-    if (identity) {
+    if (estimate) {
+      DropBoxEstimator.main(args);
+    } else if (identity) {
       DropBoxIdentityConnector.main(args);
     } else {
       DropBoxConnector.main(args);
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.client;
+
+import com.dropbox.core.DbxException;
+import com.dropbox.core.DbxRequestConfig;
+import com.dropbox.core.oauth.DbxCredential;
+import com.dropbox.core.oauth.DbxRefreshResult;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.enterprise.cloudsearch.dropbox.util.Metrics;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the access token of a DropBox credential fresh.
+ *
+ * <p>
+ * A short-lived token is refreshed on a single background thread ahead of its expiry, and the new
+ * token replaces the old one atomically, so the threads calling DropBox never wait for a refresh
+ * nor refresh the token themselves. A token rejected before its expiry is refreshed on the same
+ * thread, once for all the callers that saw it rejected.
+ */
+final class CredentialRefresher {
+  /** Log output */
+  private static final Logger log = Logger.getLogger(CredentialRefresher.class.getName());
+  /** Time before the expiry at which the token is refreshed */
+  private static final long REFRESH_AHEAD_MILLIS = TimeUnit.MINUTES.toMillis(10);
+  /** Time to wait before retrying a failed refresh */
+  private static final long RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+  /** Time a caller waits for the token to be refreshed after it was rejected */
+  private static final long REJECTED_WAIT_SECONDS = 60;
+
+  /** Credential holding the refresh token, only used on the refresh thread */
+  private final DbxCredential credential;
+  /** Request config of the refresh requests */
+  private final DbxRequestConfig requestConfig;
+  /** Thread refreshing the token */
+  private final ScheduledExecutorService scheduler;
+  /** Number of refreshed tokens */
+  private final AtomicLong refreshes = Metrics.counter("credential.refreshes");
+  /** Number of failed refreshes */
+  private final AtomicLong refreshFailures = Metrics.counter("credential.refreshFailures");
+
+  /** Current access token */
+  private volatile String accessToken;
+  /** Time the current access token expires in milliseconds, or {@code null} if it never does */
+  private volatile Long expiresAt;
+  /** Next scheduled refresh, guarded by {@code this} */
+  private Future<?> nextRefresh;
+  /** Refresh requested after the current token was rejected, guarded by {@code this} */
+  private Future<?> rejectedRefresh;
+
+  /**
+   * Get an instance of {@link CredentialRefresher}, refreshing the token first if it has already
+   * expired.
+   *
+   * @param credential    credential read from the credential file
+   * @param requestConfig request config of the refresh requests
+   * @param team          name of the team, or an empty string for the only team
+   */
+  CredentialRefresher(DbxCredential credential, DbxRequestConfig requestConfig, String team) {
+    this.credential = credential;
+    this.requestConfig = requestConfig;
+    this.accessToken = credential.getAccessToken();
+    this.expiresAt = credential.getExpiresAt();
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder()
+            .setNameFormat("dropbox-credential-refresh")
+            .setDaemon(true)
+            .build());
+
+    String gaugeName = team.isEmpty()
+        ? "credential.expiresInSecs" : "credential." + team + ".expiresInSecs";
+    Metrics.registerGauge(gaugeName, () -> {
+      Long expiry = expiresAt;
+      return expiry == null
+          ? -1 : TimeUnit.MILLISECONDS.toSeconds(expiry - System.currentTimeMillis());
+    });
+    if (isRefreshable()) {
+      long delayMillis = refreshDelayMillis();
+      Future<?> initialRefresh;
+      synchronized (this) {
+        initialRefresh = nextRefresh =
+            scheduler.schedule(this::scheduledRefresh, delayMillis, TimeUnit.MILLISECONDS);
+      }
+      if (delayMillis == 0) {
+        await(initialRefresh);
+      }
+    }
+  }
+
+  /** Gets current access token. */
+  String getAccessToken() {
+    return accessToken;
+  }
+
+  /**
+   * Refreshes the token after DropBox rejected it, unless it has been refreshed since. Callers
+   * seeing the same token rejected wait for a single refresh.
+   *
+   * @param rejectedToken access token rejected by DropBox
+   * @return {@code true} if a new token is available
+   */
+  boolean refreshRejected(String rejectedToken) {
+    if (!rejectedToken.equals(accessToken)) {
+      return true;
+    }
+    if (!isRefreshable()) {
+      return false;
+    }
+    Future<?> refresh;
+    synchronized (this) {
+      if (rejectedRefresh == null || rejectedRefresh.isDone()) {
+        rejectedRefresh = scheduler.submit(this::rejectedRefresh);
+      }
+      refresh = rejectedRefresh;
+    }
+    await(refresh);
+    return !rejectedToken.equals(accessToken);
+  }
+
+  /** Stops refreshing the token. */
+  void close() {
+    scheduler.shutdownNow();
+  }
+
+  private boolean isRefreshable() {
+    return credential.getRefreshToken() != null && credential.getAppKey() != null;
+  }
+
+  private long refreshDelayMillis() {
+    Long expiry = expiresAt;
+    if (expiry == null) {
+      return 0;
+    }
+    return Math.max(0, expiry - REFRESH_AHEAD_MILLIS - System.currentTimeMillis());
+  }
+
+  private void scheduledRefresh() {
+    refresh(false);
+  }
+
+  private void rejectedRefresh() {
+    refresh(true);
+  }
+
+  /**
+   * Refreshes the token and schedules the next refresh.
+   *
+   * @param cancelScheduled whether to cancel the scheduled refresh, which must not be set when
+   *                        running as the scheduled refresh itself
+   */
+  private void refresh(boolean cancelScheduled) {
+    long delayMillis;
+    try {
+      DbxRefreshResult result = credential.refresh(requestConfig);
+      expiresAt = result.getExpiresAt();
+      accessToken = result.getAccessToken();
+      refreshes.incrementAndGet();
+      log.log(Level.FINE, "access token has been refreshed");
+      delayMillis = refreshDelayMillis();
+    } catch (DbxException | RuntimeException e) {
+      refreshFailures.incrementAndGet();
+      log.log(Level.WARNING, "Failed to refresh access token", e);
+      delayMillis = RETRY_DELAY_MILLIS;
+    }
+    synchronized (this) {
+      if (cancelScheduled && nextRefresh != null) {
+        nextRefresh.cancel(false);
+      }
+      if (!scheduler.isShutdown()) {
+        nextRefresh =
+            scheduler.schedule(this::scheduledRefresh, delayMillis, TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+
+  private static void await(Future<?> refresh) {
+    try {
+      refresh.get(REJECTED_WAIT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (CancellationException | ExecutionException | TimeoutException e) {
+      log.log(Level.WARNING, "Failed to wait for access token refresh", e);
+    }
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.client;
+
+import com.dropbox.core.DbxException;
+
+/**
+ * Request to DropBox made with a client, so that it can be made again with another client.
+ *
+ * @param <C> type of the client
+ * @param <T> type of the result
+ */
+@FunctionalInterface
+interface DbxCall<C, T> {
+  /**
+   * Makes the request.
+   *
+   * @param client client making the request
+   * @return result of the request
+   * @throws DbxException when the request fails
+   */
+  T call(C client) throws DbxException;
+}
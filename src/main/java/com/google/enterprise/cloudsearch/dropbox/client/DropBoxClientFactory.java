@@ -16,27 +16,83 @@
 package com.google.enterprise.cloudsearch.dropbox.client;
 
 import com.dropbox.core.DbxRequestConfig;
+import com.dropbox.core.http.StandardHttpRequestor;
 import com.dropbox.core.json.JsonReader;
 import com.dropbox.core.oauth.DbxCredential;
+import com.google.enterprise.cloudsearch.dropbox.model.DropBoxConfiguration;
+import com.google.enterprise.cloudsearch.dropbox.model.TeamConfiguration;
+import com.google.enterprise.cloudsearch.dropbox.util.RequestLimiter;
 import com.google.enterprise.cloudsearch.sdk.InvalidConfigurationException;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /** Factory class to return DropBox client. */
 public class DropBoxClientFactory {
   private static final String IDENTIFIER = "connector";
+  /**
+   * Read timeout for long-poll requests. DropBox may hold a long-poll up to 90 seconds past the
+   * maximum timeout of 480 seconds, so this must be longer than both combined.
+   */
+  private static final long LONG_POLL_READ_TIMEOUT_MINUTES = 10;
+  /** Number of threads hedging requests when the requests in flight are not limited */
+  private static final int DEFAULT_HEDGING_THREADS = 256;
 
   private DropBoxClientFactory() {
   }
 
   /**
-   * Get an instance of {@link TeamClient}
+   * Get an instance of {@link TeamClient} for each configured team. The clients share a single
+   * request limiter and hedger, so the request rate and the requests in flight are bounded for the
+   * whole connector process rather than for each team.
    *
-   * @param credentialFile dropBox credential file path
-   * @return an instance of {@link TeamClient}
+   * @param configuration DropBox configuration
+   * @return instances of {@link TeamClient} keyed by team name, in the configured order
+   */
+  public static Map<String, TeamClient> getTeamClients(DropBoxConfiguration configuration) {
+    long connectSecs = configuration.getTimeoutsConnectSecs();
+    Map<Endpoint, DbxRequestConfig> requestConfigs = new EnumMap<>(Endpoint.class);
+    requestConfigs.put(Endpoint.METADATA, createRequestConfig(connectSecs,
+        TimeUnit.SECONDS.toMillis(configuration.getTimeoutsMetadataReadSecs())));
+    requestConfigs.put(Endpoint.DOWNLOAD, createRequestConfig(connectSecs,
+        TimeUnit.SECONDS.toMillis(configuration.getTimeoutsDownloadReadSecs())));
+    requestConfigs.put(Endpoint.LONG_POLL, createRequestConfig(connectSecs,
+        TimeUnit.MINUTES.toMillis(LONG_POLL_READ_TIMEOUT_MINUTES)));
+
+    int maxInFlight = configuration.getRequestsMaxInFlight();
+    RequestLimiter requestLimiter =
+        new RequestLimiter(configuration.getRequestsPerSecond(), maxInFlight);
+    RequestHedger requestHedger = new RequestHedger(configuration.isHedgingEnabled(),
+        TimeUnit.SECONDS.toMillis(configuration.getTimeoutsMetadataTotalSecs()),
+        maxInFlight > 0 ? maxInFlight : DEFAULT_HEDGING_THREADS);
+
+    Map<String, TeamClient> teamClients = new LinkedHashMap<>();
+    for (TeamConfiguration team : configuration.getTeams()) {
+      DbxCredential credential = createCredential(team.getCredentialFile());
+      teamClients.put(team.getName(), new TeamClient(requestConfigs,
+          new CredentialRefresher(credential, requestConfigs.get(Endpoint.METADATA),
+              team.getName()),
+          requestLimiter, requestHedger));
+    }
+    return teamClients;
+  }
+
+  /**
+   * create an instance of {@link DbxRequestConfig}
+   *
+   * @param connectSecs       seconds to wait for a connection
+   * @param readTimeoutMillis milliseconds to wait for data
+   * @return an instance of {@link DbxRequestConfig}
    */
-  public static TeamClient getTeamClient(String credentialFile) {
-    DbxCredential credential = createCredential(credentialFile);
-    DbxRequestConfig requestConfig = new DbxRequestConfig(IDENTIFIER);
-    return new TeamClient(requestConfig, credential);
+  private static DbxRequestConfig createRequestConfig(long connectSecs, long readTimeoutMillis) {
+    StandardHttpRequestor.Config config = StandardHttpRequestor.Config.builder()
+        .withConnectTimeout(connectSecs, TimeUnit.SECONDS)
+        .withReadTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS)
+        .build();
+    return DbxRequestConfig.newBuilder(IDENTIFIER)
+        .withHttpRequestor(new StandardHttpRequestor(config))
+        .build();
   }
 
   /**
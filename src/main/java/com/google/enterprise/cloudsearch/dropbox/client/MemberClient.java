@@ -19,11 +19,13 @@ import com.dropbox.core.DbxDownloader;
 import com.dropbox.core.DbxException;
 import com.dropbox.core.v2.DbxClientV2;
 import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.ListFolderLongpollResult;
 import com.dropbox.core.v2.files.ListFolderResult;
 import com.dropbox.core.v2.files.Metadata;
 import com.dropbox.core.v2.sharing.SharedFileMembers;
 import com.dropbox.core.v2.sharing.SharedFolderMembers;
 import com.google.common.collect.Lists;
+import com.google.enterprise.cloudsearch.dropbox.model.FolderChanges;
 import com.google.enterprise.cloudsearch.dropbox.model.SharingInfo;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -31,23 +33,29 @@ import java.util.stream.Collectors;
 /** The client class to make remote calls to the Dropbox API user endpoints. */
 public final class MemberClient {
 
-  /** Member client */
-  private final DbxClientV2 client;
+  /** Team client making the requests */
+  private final TeamClient teamClient;
+  /** Team member ID */
+  private final String teamMemberId;
 
   /** Get an instance of {@link MemberClient} */
-  MemberClient(DbxClientV2 client) {
-    this.client = client;
+  MemberClient(TeamClient teamClient, String teamMemberId) {
+    this.teamClient = teamClient;
+    this.teamMemberId = teamMemberId;
   }
 
   /**
-   * Fetch files and folders in the folder.
+   * Fetch files and folders in the folder. Files tell whether they are shared on their own.
    *
    * @param path parent folder path
    * @return files and folders in the folder
    * @throws DbxException when fetching files and folders from DropBox fails
    */
   public List<Metadata> listFolder(String path) throws DbxException {
-    ListFolderResult result = client.files().listFolder(path);
+    ListFolderResult result = executeIdempotent("files/list_folder",
+        client -> client.files().listFolderBuilder(path)
+            .withIncludeHasExplicitSharedMembers(true)
+            .start());
     List<Metadata> listFolder = Lists.newArrayList();
 
     while (true) {
@@ -55,11 +63,68 @@ public final class MemberClient {
       if (!result.getHasMore()) {
         break;
       }
-      result = client.files().listFolderContinue(result.getCursor());
+      String cursor = result.getCursor();
+      result = executeIdempotent("files/list_folder/continue",
+          client -> client.files().listFolderContinue(cursor));
     }
     return listFolder;
   }
 
+  /**
+   * Fetch a cursor that points at the latest state of the folder and all of its descendants. The
+   * changed files listed from the cursor tell whether they are shared on their own.
+   *
+   * @param path folder path
+   * @return cursor for the folder
+   * @throws DbxException when fetching the cursor from DropBox fails
+   */
+  public String getLatestCursor(String path) throws DbxException {
+    return executeIdempotent("files/list_folder/get_latest_cursor",
+        client -> client.files().listFolderGetLatestCursorBuilder(path)
+            .withRecursive(true)
+            .withIncludeHasExplicitSharedMembers(true)
+            .start()
+            .getCursor());
+  }
+
+  /**
+   * Wait for changes after the cursor.
+   *
+   * @param cursor cursor returned by {@link #getLatestCursor(String)} or
+   *               {@link #listFolderChanges(String)}
+   * @param timeout seconds to wait for changes
+   * @return long-poll result, which tells whether there are changes and how long to back off
+   * @throws DbxException when long-polling DropBox fails
+   */
+  public ListFolderLongpollResult longPoll(String cursor, long timeout) throws DbxException {
+    return teamClient.executeAsMember(teamMemberId, "files/list_folder/longpoll",
+        Endpoint.LONG_POLL, client -> client.files().listFolderLongpoll(cursor, timeout));
+  }
+
+  /**
+   * Fetch files and folders changed after the cursor.
+   *
+   * @param cursor cursor returned by {@link #getLatestCursor(String)} or a previous call
+   * @return changed files and folders, and the cursor to continue from
+   * @throws DbxException when fetching changes from DropBox fails
+   */
+  public FolderChanges listFolderChanges(String cursor) throws DbxException {
+    ListFolderResult result = executeIdempotent("files/list_folder/continue",
+        client -> client.files().listFolderContinue(cursor));
+    List<Metadata> entries = Lists.newArrayList();
+
+    while (true) {
+      entries.addAll(result.getEntries());
+      if (!result.getHasMore()) {
+        break;
+      }
+      String nextCursor = result.getCursor();
+      result = executeIdempotent("files/list_folder/continue",
+          client -> client.files().listFolderContinue(nextCursor));
+    }
+    return new FolderChanges.Builder(entries, result.getCursor()).build();
+  }
+
   /**
    * Fetch folder sharing information.
    *
@@ -68,7 +133,9 @@ public final class MemberClient {
    * @throws DbxException when fetching folder sharing information from DropBox fails
    */
   public SharingInfo getFolderSharingInfo(String sharedFolderId) throws DbxException {
-    SharedFolderMembers sharedFolderMembers = client.sharing().listFolderMembers(sharedFolderId);
+    SharedFolderMembers sharedFolderMembers =
+        executeIdempotent("sharing/list_folder_members",
+            client -> client.sharing().listFolderMembers(sharedFolderId));
     List<String> userIds = Lists.newArrayList();
     List<String> groupNames = Lists.newArrayList();
 
@@ -84,43 +151,94 @@ public final class MemberClient {
       if (sharedFolderMembers.getCursor() == null) {
         break;
       }
+      String cursor = sharedFolderMembers.getCursor();
       sharedFolderMembers =
-          client.sharing().listFolderMembersContinue(sharedFolderMembers.getCursor());
+          executeIdempotent("sharing/list_folder_members/continue",
+              client -> client.sharing().listFolderMembersContinue(cursor));
     }
     return new SharingInfo.Builder(userIds, groupNames).build();
   }
 
   /**
-   * Fetch file sharing information.
+   * Fetch file sharing information. Only the members the file is shared with on its own are
+   * fetched, not those inherited from its shared folder.
    *
    * @param filePath file path
    * @return file sharing information
    * @throws DbxException when fetching file sharing information from DropBox fails
    */
   public SharingInfo getFileSharingInfo(String filePath) throws DbxException {
-    SharedFileMembers sharedFileMembers = client.sharing().listFileMembers(filePath);
+    SharedFileMembers sharedFileMembers =
+        executeIdempotent("sharing/list_file_members",
+            client -> client.sharing().listFileMembers(filePath));
     List<String> userIds = Lists.newArrayList();
     List<String> groupNames = Lists.newArrayList();
 
     while (true) {
       userIds.addAll(sharedFileMembers.getUsers().stream()
+          .filter(userMember -> !userMember.getIsInherited())
           .map(userMember -> userMember.getUser().getTeamMemberId())
           .collect(Collectors.toList()));
 
       groupNames.addAll(sharedFileMembers.getGroups().stream()
+          .filter(groupMember -> !groupMember.getIsInherited())
           .map(groupMember -> groupMember.getGroup().getGroupName())
           .collect(Collectors.toList()));
 
       if (sharedFileMembers.getCursor() == null) {
         break;
       }
-      sharedFileMembers =
-          client.sharing().listFileMembersContinue(sharedFileMembers.getCursor());
+      String cursor = sharedFileMembers.getCursor();
+      sharedFileMembers = executeIdempotent("sharing/list_file_members/continue",
+          client -> client.sharing().listFileMembersContinue(cursor));
     }
     return new SharingInfo.Builder(userIds, groupNames).build();
   }
 
   public DbxDownloader<FileMetadata> download(String path) throws DbxException {
-    return client.files().download(path);
+    return teamClient.executeAsMember(teamMemberId, "files/download", Endpoint.DOWNLOAD,
+        client -> client.files().download(path));
+  }
+
+  /**
+   * Download the revision of the file from the offset, to resume an interrupted download.
+   *
+   * @param path   file path
+   * @param rev    revision of the file, so the content can not change between the requests
+   * @param offset number of bytes already received
+   * @return downloader of the rest of the content
+   * @throws DbxException when the download can not be started
+   */
+  public DbxDownloader<FileMetadata> download(String path, String rev, long offset)
+      throws DbxException {
+    return teamClient.executeAsMember(teamMemberId, "files/download", Endpoint.DOWNLOAD,
+        client -> client.files().downloadBuilder(path)
+            .withRev(rev)
+            .range(offset)
+            .start());
+  }
+
+  /**
+   * Download a byte range of the revision of the file, to download a large file in parallel.
+   *
+   * @param path   file path
+   * @param rev    revision of the file, so the content can not change between the requests
+   * @param offset first byte of the range
+   * @param length number of bytes of the range
+   * @return downloader of the range
+   * @throws DbxException when the download can not be started
+   */
+  public DbxDownloader<FileMetadata> download(String path, String rev, long offset, long length)
+      throws DbxException {
+    return teamClient.executeAsMember(teamMemberId, "files/download", Endpoint.DOWNLOAD,
+        client -> client.files().downloadBuilder(path)
+            .withRev(rev)
+            .range(offset, length)
+            .start());
+  }
+
+  private <T> T executeIdempotent(String route, DbxCall<DbxClientV2, T> call)
+      throws DbxException {
+    return teamClient.executeIdempotentAsMember(teamMemberId, route, call);
   }
 }
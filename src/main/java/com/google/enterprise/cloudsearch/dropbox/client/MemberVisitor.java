@@ -0,0 +1,34 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.client;
+
+import com.dropbox.core.v2.team.TeamMemberInfo;
+import java.io.IOException;
+
+/**
+ * Receives the members of a team one page at a time, so that the whole team is never held in
+ * memory. The next page is only fetched once every member of the current page has been visited.
+ */
+@FunctionalInterface
+public interface MemberVisitor {
+  /**
+   * Receives a member.
+   *
+   * @param member team member
+   * @throws IOException when processing the member fails, which stops the listing
+   */
+  void visit(TeamMemberInfo member) throws IOException;
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.client;
+
+import com.dropbox.core.DbxException;
+import com.dropbox.core.NetworkIOException;
+import com.google.enterprise.cloudsearch.dropbox.util.IoExecutors;
+import com.google.enterprise.cloudsearch.dropbox.util.LatencyTracker;
+import com.google.enterprise.cloudsearch.dropbox.util.Metrics;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds the time of idempotent requests and hedges the slow ones.
+ *
+ * <p>
+ * A hedged request is sent a second time once it has taken longer than the 95th percentile of
+ * the recent latencies of its endpoint, and whichever attempt answers first wins. Both attempts go
+ * through the request limiter, so hedging never exceeds the configured load. A request still
+ * running past the total timeout is abandoned, and its attempts are interrupted.
+ *
+ * <p>
+ * Both attempts run on the same threads, so while they are all busy, the second attempt waits
+ * for a thread like any other and hedges nothing; the total timeout counts the time attempts wait
+ * for a thread. Requests are made directly on the calling thread once too many attempts wait.
+ */
+final class RequestHedger {
+  /** Percentile of the recent latencies after which a request is hedged */
+  private static final double HEDGE_PERCENTILE = 95;
+  /** Number of recent latencies kept for each endpoint */
+  private static final int LATENCY_SAMPLES = 1024;
+  /** Number of attempts waiting for a thread, beyond which requests are made directly */
+  private static final int QUEUE_CAPACITY = 10000;
+
+  /** Whether to hedge slow requests */
+  private final boolean hedgingEnabled;
+  /** Time to wait for a request to complete in milliseconds, or 0 for no limit */
+  private final long totalTimeoutMillis;
+  /** Executor running the attempts, or {@code null} if requests are made directly */
+  private final ExecutorService executor;
+  /** Recent latencies keyed by endpoint route */
+  private final ConcurrentMap<String, LatencyTracker> latencies = new ConcurrentHashMap<>();
+  /** Number of requests sent a second time */
+  private final AtomicLong hedgedRequests = Metrics.counter("hedging.hedgedRequests");
+  /** Number of requests answered first by their second attempt */
+  private final AtomicLong hedgeWins = Metrics.counter("hedging.hedgeWins");
+  /** Number of requests abandoned after the total timeout */
+  private final AtomicLong timedOutRequests = Metrics.counter("requests.timedOut");
+
+  /**
+   * Request attempted by the hedger.
+   *
+   * @param <T> type of the result
+   */
+  @FunctionalInterface
+  interface Attempt<T> {
+    /**
+     * Makes the request.
+     *
+     * @return result of the request
+     * @throws DbxException when the request fails
+     */
+    T run() throws DbxException;
+  }
+
+  /**
+   * Get an instance of {@link RequestHedger}.
+   *
+   * @param hedgingEnabled     whether to hedge slow requests
+   * @param totalTimeoutMillis time to wait for a request to complete in milliseconds, or 0 for
+   *                           no limit
+   * @param threads            number of threads running the attempts
+   */
+  RequestHedger(boolean hedgingEnabled, long totalTimeoutMillis, int threads) {
+    this.hedgingEnabled = hedgingEnabled;
+    this.totalTimeoutMillis = totalTimeoutMillis;
+    this.executor = hedgingEnabled || totalTimeoutMillis > 0
+        ? IoExecutors.newExecutor("dropbox-request-%d", threads, QUEUE_CAPACITY)
+        : null;
+  }
+
+  /**
+   * Makes an idempotent request, hedging it if it is slow.
+   *
+   * @param route   route of the endpoint, whose recent latencies decide when to hedge
+   * @param attempt request, which may run twice at the same time
+   * @return result of the first attempt to answer
+   * @throws DbxException when every attempt failed or the request timed out
+   */
+  <T> T execute(String route, Attempt<T> attempt) throws DbxException {
+    if (executor == null) {
+      return attempt.run();
+    }
+    LatencyTracker latency =
+        latencies.computeIfAbsent(route, key -> new LatencyTracker(LATENCY_SAMPLES));
+    long hedgeDelayMillis = hedgingEnabled ? latency.percentile(HEDGE_PERCENTILE) : -1;
+    long deadline = totalTimeoutMillis > 0
+        ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(totalTimeoutMillis)
+        : Long.MAX_VALUE;
+
+    CompletionService<T> completion = new ExecutorCompletionService<>(executor);
+    List<Future<T>> attempts = new ArrayList<>(2);
+    try {
+      if (!submit(completion, attempts, latency, attempt)) {
+        return attempt.run();
+      }
+      Future<T> done = null;
+      if (hedgeDelayMillis >= 0) {
+        done = completion.poll(Math.min(hedgeDelayMillis, remainingMillis(deadline)),
+            TimeUnit.MILLISECONDS);
+        if (done == null && remainingMillis(deadline) > 0
+            && submit(completion, attempts, latency, attempt)) {
+          hedgedRequests.incrementAndGet();
+        }
+      }
+      for (int pending = attempts.size(); pending > 0; pending--) {
+        if (done == null) {
+          done = completion.poll(remainingMillis(deadline), TimeUnit.MILLISECONDS);
+          if (done == null) {
+            timedOutRequests.incrementAndGet();
+            throw new NetworkIOException(new SocketTimeoutException(
+                route + " did not complete within " + totalTimeoutMillis + " ms"));
+          }
+        }
+        try {
+          T result = done.get();
+          if (done != attempts.get(0)) {
+            hedgeWins.incrementAndGet();
+          }
+          return result;
+        } catch (ExecutionException e) {
+          if (pending == 1) {
+            throw unwrap(e);
+          }
+        }
+        done = null;
+      }
+      throw new IllegalStateException("no attempt completed");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new NetworkIOException(new InterruptedIOException("Interrupted while waiting for "
+          + route));
+    } finally {
+      attempts.forEach(future -> future.cancel(true));
+    }
+  }
+
+  /** Stops the threads running the attempts. */
+  void close() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Submits an attempt, unless the executor is saturated.
+   *
+   * @return {@code true} if the attempt has been submitted
+   */
+  private static <T> boolean submit(CompletionService<T> completion, List<Future<T>> attempts,
+      LatencyTracker latency, Attempt<T> attempt) {
+    try {
+      attempts.add(completion.submit(() -> timed(latency, attempt)));
+      return true;
+    } catch (RejectedExecutionException e) {
+      return false;
+    }
+  }
+
+  private static <T> T timed(LatencyTracker latency, Attempt<T> attempt) throws DbxException {
+    long start = System.nanoTime();
+    T result = attempt.run();
+    latency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    return result;
+  }
+
+  private static long remainingMillis(long deadline) {
+    if (deadline == Long.MAX_VALUE) {
+      return Long.MAX_VALUE;
+    }
+    return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+  }
+
+  private static DbxException unwrap(ExecutionException e) {
+    Throwable cause = e.getCause();
+    if (cause instanceof DbxException) {
+      return (DbxException) cause;
+    }
+    if (cause instanceof RuntimeException) {
+      throw (RuntimeException) cause;
+    }
+    if (cause instanceof Error) {
+      throw (Error) cause;
+    }
+    return new NetworkIOException(new IOException(cause));
+  }
+}
@@ -17,27 +17,62 @@ package com.google.enterprise.cloudsearch.dropbox.client;
 
 import com.dropbox.core.DbxException;
 import com.dropbox.core.DbxRequestConfig;
-import com.dropbox.core.oauth.DbxCredential;
+import com.dropbox.core.InvalidAccessTokenException;
+import com.dropbox.core.NetworkIOException;
+import com.dropbox.core.v2.DbxClientV2;
 import com.dropbox.core.v2.DbxTeamClientV2;
 import com.dropbox.core.v2.team.GroupMemberInfo;
 import com.dropbox.core.v2.team.GroupSelector;
 import com.dropbox.core.v2.team.GroupsListResult;
 import com.dropbox.core.v2.team.GroupsMembersListResult;
+import com.dropbox.core.v2.team.MembersGetInfoItem;
 import com.dropbox.core.v2.team.MembersListResult;
 import com.dropbox.core.v2.team.TeamMemberInfo;
+import com.dropbox.core.v2.team.UserSelectorArg;
 import com.dropbox.core.v2.teamcommon.GroupSummary;
 import com.google.common.collect.Lists;
+import com.google.enterprise.cloudsearch.dropbox.util.FlightEvents;
+import com.google.enterprise.cloudsearch.dropbox.util.Metrics;
+import com.google.enterprise.cloudsearch.dropbox.util.RequestLimiter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /** The client class to make remote calls to the Dropbox API team endpoints. */
 public final class TeamClient {
+  /** Log output */
+  private static final Logger log = Logger.getLogger(TeamClient.class.getName());
+  /** Maximum number of members fetched by a single members/get_info request */
+  private static final int MEMBERS_GET_INFO_BATCH_SIZE = 100;
 
-  /** Team client */
-  private final DbxTeamClientV2 client;
+  /** Request configs, whose timeouts suit each endpoint */
+  private final Map<Endpoint, DbxRequestConfig> requestConfigs;
+  /** Refresher of the access token */
+  private final CredentialRefresher credentialRefresher;
+  /** Limiter of the requests */
+  private final RequestLimiter requestLimiter;
+  /** Hedger of the idempotent member requests */
+  private final RequestHedger requestHedger;
+  /** Clients using the current access token */
+  private volatile Clients clients;
 
   /** Get an instance of {@link TeamClient}. */
-  TeamClient(DbxRequestConfig requestConfig, DbxCredential credential) {
-    this.client = new DbxTeamClientV2(requestConfig, credential);
+  TeamClient(Map<Endpoint, DbxRequestConfig> requestConfigs,
+      CredentialRefresher credentialRefresher, RequestLimiter requestLimiter,
+      RequestHedger requestHedger) {
+    this.requestConfigs = new EnumMap<>(requestConfigs);
+    this.credentialRefresher = credentialRefresher;
+    this.requestLimiter = requestLimiter;
+    this.requestHedger = requestHedger;
+    this.clients = new Clients(credentialRefresher.getAccessToken());
+
+    Metrics.registerGauge("requests.inFlight", requestLimiter::getInFlight);
   }
 
   /**
@@ -48,7 +83,13 @@ public final class TeamClient {
    * @return dropbox client that as the given team member.
    */
   public MemberClient asMember(String teamMemberId) {
-    return new MemberClient(client.asMember(teamMemberId));
+    return new MemberClient(this, teamMemberId);
+  }
+
+  /** Stops refreshing the access token and hedging requests. */
+  public void close() {
+    credentialRefresher.close();
+    requestHedger.close();
   }
 
   /**
@@ -58,15 +99,66 @@ public final class TeamClient {
    * @throws DbxException when fetching members from DropBox fails.
    */
   public List<TeamMemberInfo> getMembers() throws DbxException {
-    MembersListResult result = client.team().membersList();
     List<TeamMemberInfo> members = Lists.newArrayList();
+    try {
+      forEachMember(members::add);
+    } catch (IOException e) {
+      // adding to a list does not throw
+      throw new IllegalStateException(e);
+    }
+    return members;
+  }
+
+  /**
+   * Fetch members of a team page by page, handing each member to the visitor before the next
+   * page is fetched. Pages are fetched sequentially on the calling thread, so the visitor never
+   * runs while a page is being fetched, and only one page of members is held at a time.
+   *
+   * @param visitor visitor of the members.
+   * @throws DbxException when fetching members from DropBox fails.
+   * @throws IOException when the visitor fails.
+   */
+  public void forEachMember(MemberVisitor visitor) throws DbxException, IOException {
+    MembersListResult result = execute("team/members/list", client -> client.team().membersList());
 
     while (true) {
-      members.addAll(result.getMembers());
+      for (TeamMemberInfo member : result.getMembers()) {
+        visitor.visit(member);
+      }
       if (!result.getHasMore()) {
         break;
       }
-      result = client.team().membersListContinue(result.getCursor());
+      String cursor = result.getCursor();
+      result = execute("team/members/list/continue",
+          client -> client.team().membersListContinue(cursor));
+    }
+  }
+
+  /**
+   * Fetch the given members of a team, without listing the whole team. IDs not found in the team
+   * are skipped.
+   *
+   * @param teamMemberIds team member IDs.
+   * @return team members found, in the order of the IDs.
+   * @throws DbxException when fetching members from DropBox fails.
+   */
+  public List<TeamMemberInfo> getMembers(Collection<String> teamMemberIds) throws DbxException {
+    List<UserSelectorArg> selectors = Lists.newArrayList();
+    for (String teamMemberId : new LinkedHashSet<>(teamMemberIds)) {
+      selectors.add(UserSelectorArg.teamMemberId(teamMemberId));
+    }
+    List<TeamMemberInfo> members = Lists.newArrayList();
+
+    for (List<UserSelectorArg> batch : Lists.partition(selectors, MEMBERS_GET_INFO_BATCH_SIZE)) {
+      List<MembersGetInfoItem> items =
+          execute("team/members/get_info", client -> client.team().membersGetInfo(batch));
+      for (MembersGetInfoItem item : items) {
+        if (item.isMemberInfo()) {
+          members.add(item.getMemberInfoValue());
+        } else if (item.isIdNotFound()) {
+          log.log(Level.WARNING, "team member {0} is not found", item.getIdNotFoundValue());
+        }
+      }
     }
     return members;
   }
@@ -78,7 +170,7 @@ public final class TeamClient {
    * @throws DbxException when fetching groups from DropBox fails.
    */
   public List<GroupSummary> getGroups() throws DbxException {
-    GroupsListResult result = client.team().groupsList();
+    GroupsListResult result = execute("team/groups/list", client -> client.team().groupsList());
     List<GroupSummary> groups = Lists.newArrayList();
 
     while (true) {
@@ -86,7 +178,9 @@ public final class TeamClient {
       if (!result.getHasMore()) {
         break;
       }
-      result = client.team().groupsListContinue(result.getCursor());
+      String cursor = result.getCursor();
+      result = execute("team/groups/list/continue",
+          client -> client.team().groupsListContinue(cursor));
     }
     return groups;
   }
@@ -100,7 +194,9 @@ public final class TeamClient {
    */
   public List<GroupMemberInfo> getGroupMembers(String groupId) throws DbxException {
     GroupSelector groupSelector = GroupSelector.groupId(groupId);
-    GroupsMembersListResult result = client.team().groupsMembersList(groupSelector);
+    GroupsMembersListResult result =
+        execute("team/groups/members/list",
+            client -> client.team().groupsMembersList(groupSelector));
     List<GroupMemberInfo> groupMembers = Lists.newArrayList();
 
     while (true) {
@@ -108,8 +204,140 @@ public final class TeamClient {
       if (!result.getHasMore()) {
         break;
       }
-      result = client.team().groupsMembersListContinue(result.getCursor());
+      String cursor = result.getCursor();
+      result = execute("team/groups/members/list/continue",
+          client -> client.team().groupsMembersListContinue(cursor));
     }
     return groupMembers;
   }
+
+  /**
+   * Makes an idempotent metadata request as the team member, within the total timeout and
+   * hedged if it is slow.
+   *
+   * @param teamMemberId team member ID
+   * @param route        route of the endpoint, such as {@code files/list_folder}
+   * @param call         request, which may be made twice at the same time
+   * @return result of the request
+   * @throws DbxException when the request fails or times out
+   */
+  <T> T executeIdempotentAsMember(String teamMemberId, String route,
+      DbxCall<DbxClientV2, T> call) throws DbxException {
+    return requestHedger.execute(route,
+        () -> executeAsMember(teamMemberId, route, Endpoint.METADATA, call));
+  }
+
+  /**
+   * Makes a request as the team member, retrying it once with a new access token if DropBox
+   * rejected the token. The request is recorded as a Flight Recorder event.
+   *
+   * @param teamMemberId team member ID
+   * @param route        route of the endpoint, such as {@code files/download}
+   * @param endpoint     kind of the request
+   * @param call         request
+   * @return result of the request
+   * @throws DbxException when the request fails
+   */
+  <T> T executeAsMember(String teamMemberId, String route, Endpoint endpoint,
+      DbxCall<DbxClientV2, T> call) throws DbxException {
+    DbxCall<DbxTeamClientV2, T> memberCall = client -> call.call(client.asMember(teamMemberId));
+    try (FlightEvents.Span span = FlightEvents.dropBoxCall(route, teamMemberId)) {
+      try {
+        return executeRefreshed(endpoint, memberCall);
+      } catch (DbxException | RuntimeException e) {
+        span.setFailure(e);
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Makes a request as the team. The request is recorded as a Flight Recorder event.
+   */
+  private <T> T execute(String route, DbxCall<DbxTeamClientV2, T> call) throws DbxException {
+    try (FlightEvents.Span span = FlightEvents.dropBoxCall(route, "")) {
+      try {
+        return executeRefreshed(Endpoint.METADATA, call);
+      } catch (DbxException | RuntimeException e) {
+        span.setFailure(e);
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Makes a request, retrying it once with a new access token if DropBox rejected the token.
+   */
+  private <T> T executeRefreshed(Endpoint endpoint, DbxCall<DbxTeamClientV2, T> call)
+      throws DbxException {
+    Clients current = currentClients();
+    try {
+      return executeLimited(current.get(endpoint), endpoint, call);
+    } catch (InvalidAccessTokenException e) {
+      if (!credentialRefresher.refreshRejected(current.accessToken)) {
+        throw e;
+      }
+      return executeLimited(currentClients().get(endpoint), endpoint, call);
+    }
+  }
+
+  /**
+   * Makes a request once the request limiter allows it. A long-poll request waits for the rate
+   * only, so that idle long-polls do not hold the slots of the other requests.
+   */
+  private <T> T executeLimited(DbxTeamClientV2 client, Endpoint endpoint,
+      DbxCall<DbxTeamClientV2, T> call) throws DbxException {
+    if (endpoint == Endpoint.LONG_POLL) {
+      requestLimiter.acquireRate();
+      return call.call(client);
+    }
+    RequestLimiter.Slot slot;
+    try {
+      slot = requestLimiter.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new NetworkIOException(
+          new InterruptedIOException("Interrupted while waiting for a request slot"));
+    }
+    try {
+      return call.call(client);
+    } finally {
+      slot.close();
+    }
+  }
+
+  /** Gets the clients using the current access token, creating them after a refresh. */
+  private Clients currentClients() {
+    String accessToken = credentialRefresher.getAccessToken();
+    Clients current = clients;
+    if (current.accessToken.equals(accessToken)) {
+      return current;
+    }
+    synchronized (this) {
+      current = clients;
+      if (!current.accessToken.equals(accessToken)) {
+        current = new Clients(accessToken);
+        clients = current;
+      }
+      return current;
+    }
+  }
+
+  /** Clients using the same access token. */
+  private final class Clients {
+    /** Access token */
+    private final String accessToken;
+    /** Team clients keyed by endpoint */
+    private final Map<Endpoint, DbxTeamClientV2> teamClients = new EnumMap<>(Endpoint.class);
+
+    Clients(String accessToken) {
+      this.accessToken = accessToken;
+      requestConfigs.forEach((endpoint, requestConfig) ->
+          teamClients.put(endpoint, new DbxTeamClientV2(requestConfig, accessToken)));
+    }
+
+    DbxTeamClientV2 get(Endpoint endpoint) {
+      return teamClients.get(endpoint);
+    }
+  }
 }
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.contents;
+
+import com.dropbox.core.DbxException;
+import com.dropbox.core.v2.files.ListFolderContinueErrorException;
+import com.google.enterprise.cloudsearch.dropbox.client.MemberClient;
+import com.google.enterprise.cloudsearch.dropbox.client.TeamClient;
+import com.google.enterprise.cloudsearch.dropbox.model.FolderChanges;
+import com.google.enterprise.cloudsearch.dropbox.util.IoExecutors;
+import com.google.enterprise.cloudsearch.dropbox.util.Metrics;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Polls the changes of team members at an interval depending on their activity, so that idle
+ * members cost few DropBox calls while the active ones are polled often.
+ *
+ * <p>
+ * The activity of a member is the number of changes found by its polls, halved every hour. A
+ * member with at least the hot number of recent changes is polled at the hot interval, a member
+ * with any change in the last hours at the warm interval, and the others at the cold interval.
+ * Members are polled when {@link #pollDue()} is called, so the intervals are rounded up to the
+ * interval of those calls. Cursors are kept in memory: the first poll of a member only fetches
+ * its latest cursor, and the changes made before are found by the traversal.
+ */
+final class ChangePoller {
+  /** Log output */
+  private static final Logger log = Logger.getLogger(ChangePoller.class.getName());
+  /** Member's root path */
+  private static final String ROOT_PATH = "";
+  /** Time after which the changes found by a poll count half in the activity of a member */
+  private static final long ACTIVITY_HALF_LIFE_MILLIS = TimeUnit.HOURS.toMillis(1);
+  /** Activity from which a member is warm, which a single change keeps for about 3 hours */
+  private static final double WARM_MIN_ACTIVITY = 0.1;
+
+  /** Polling tier of a member. */
+  enum Tier {
+    HOT, WARM, COLD
+  }
+
+  /** Lists the changes of a member, as its {@link MemberClient} does. */
+  interface ChangeLister {
+    /**
+     * Fetches a cursor that points at the latest state of the member's root folder.
+     *
+     * @return cursor
+     * @throws DbxException when fetching the cursor from DropBox fails
+     */
+    String getLatestCursor() throws DbxException;
+
+    /**
+     * Fetches the files and folders changed after the cursor.
+     *
+     * @param cursor cursor returned by {@link #getLatestCursor()} or a previous call
+     * @return changed files and folders, and the cursor to continue from
+     * @throws DbxException when fetching changes from DropBox fails
+     */
+    FolderChanges listFolderChanges(String cursor) throws DbxException;
+  }
+
+  /** Milliseconds between two polls of a hot member */
+  private final long hotIntervalMillis;
+  /** Milliseconds between two polls of a warm member */
+  private final long warmIntervalMillis;
+  /** Milliseconds between two polls of a cold member */
+  private final long coldIntervalMillis;
+  /** Number of recent changes from which a member is hot */
+  private final int hotMinChanges;
+  /** Handler of the detected changes */
+  private final LongPollWatcher.ChangeHandler changeHandler;
+  /** Clock in milliseconds */
+  private final LongSupplier clock;
+  /** Executor running polls */
+  private final ExecutorService executor;
+  /** Polled members keyed by team member ID */
+  private final ConcurrentMap<String, MemberPoll> members = new ConcurrentHashMap<>();
+  /** Number of polls made */
+  private final AtomicLong polls = Metrics.counter("changes.polls");
+  /** Number of polls saved, compared to polling every member each time */
+  private final AtomicLong savedPolls = Metrics.counter("changes.savedPolls");
+  /** Number of changed files and folders found */
+  private final AtomicLong changedItems = Metrics.counter("changes.changedItems");
+
+  /**
+   * Get an instance of {@link ChangePoller}.
+   *
+   * @param threads          number of polling threads, unused when running on virtual threads
+   * @param hotIntervalSecs  seconds between two polls of a hot member
+   * @param warmIntervalSecs seconds between two polls of a warm member
+   * @param coldIntervalSecs seconds between two polls of a cold member
+   * @param hotMinChanges    number of recent changes from which a member is hot
+   * @param changeHandler    handler of the detected changes
+   */
+  ChangePoller(int threads, long hotIntervalSecs, long warmIntervalSecs, long coldIntervalSecs,
+      int hotMinChanges, LongPollWatcher.ChangeHandler changeHandler) {
+    this(threads, hotIntervalSecs, warmIntervalSecs, coldIntervalSecs, hotMinChanges,
+        changeHandler, System::currentTimeMillis);
+  }
+
+  /**
+   * Get an instance of {@link ChangePoller} reading the time from the clock.
+   *
+   * @param threads          number of polling threads, unused when running on virtual threads
+   * @param hotIntervalSecs  seconds between two polls of a hot member
+   * @param warmIntervalSecs seconds between two polls of a warm member
+   * @param coldIntervalSecs seconds between two polls of a cold member
+   * @param hotMinChanges    number of recent changes from which a member is hot
+   * @param changeHandler    handler of the detected changes
+   * @param clock            clock in milliseconds
+   */
+  ChangePoller(int threads, long hotIntervalSecs, long warmIntervalSecs, long coldIntervalSecs,
+      int hotMinChanges, LongPollWatcher.ChangeHandler changeHandler, LongSupplier clock) {
+    this.clock = clock;
+    this.hotIntervalMillis = TimeUnit.SECONDS.toMillis(hotIntervalSecs);
+    this.warmIntervalMillis = TimeUnit.SECONDS.toMillis(warmIntervalSecs);
+    this.coldIntervalMillis = TimeUnit.SECONDS.toMillis(coldIntervalSecs);
+    this.hotMinChanges = hotMinChanges;
+    this.changeHandler = changeHandler;
+    this.executor = IoExecutors.newExecutor("dropbox-changes-%d", threads, Integer.MAX_VALUE);
+
+    Metrics.registerGauge("changes.hotMembers", () -> countMembers(Tier.HOT));
+    Metrics.registerGauge("changes.warmMembers", () -> countMembers(Tier.WARM));
+    Metrics.registerGauge("changes.coldMembers", () -> countMembers(Tier.COLD));
+  }
+
+  /**
+   * Starts polling the changes of the member. Calling this method for a member already being
+   * polled does nothing.
+   *
+   * @param teamClient   client of the member's team
+   * @param team         team name, or an empty string for the only team
+   * @param teamMemberId team member ID
+   * @param memberName   member display name
+   */
+  void track(TeamClient teamClient, String team, String teamMemberId, String memberName) {
+    track(new MemberChangeLister(teamClient, teamMemberId), team, teamMemberId, memberName);
+  }
+
+  /**
+   * Starts polling the changes of the member listed by the lister. Calling this method for a
+   * member already being polled does nothing.
+   *
+   * @param changeLister lister of the member's changes
+   * @param team         team name, or an empty string for the only team
+   * @param teamMemberId team member ID
+   * @param memberName   member display name
+   */
+  void track(ChangeLister changeLister, String team, String teamMemberId, String memberName) {
+    members.computeIfAbsent(teamMemberId,
+        id -> new MemberPoll(changeLister, team, teamMemberId, memberName));
+  }
+
+  /**
+   * Polls the changes of the members whose interval has elapsed, and waits for the polls to
+   * complete.
+   *
+   * @throws InterruptedException when interrupted while waiting for the polls
+   */
+  void pollDue() throws InterruptedException {
+    long now = clock.getAsLong();
+    List<Callable<Void>> due = members.values().stream()
+        .filter(member -> member.nextPollMillis <= now)
+        .map(member -> (Callable<Void>) () -> {
+          member.poll();
+          return null;
+        })
+        .collect(Collectors.toList());
+    savedPolls.addAndGet(members.size() - due.size());
+    executor.invokeAll(due);
+    log.log(Level.INFO, "changes of {0} of {1} members have been polled",
+        new Object[] {due.size(), members.size()});
+  }
+
+  /** Stops polling. */
+  void close() {
+    executor.shutdownNow();
+  }
+
+  private long countMembers(Tier tier) {
+    return members.values().stream().filter(member -> member.tier == tier).count();
+  }
+
+  private long intervalMillis(Tier tier) {
+    switch (tier) {
+      case HOT:
+        return hotIntervalMillis;
+      case WARM:
+        return warmIntervalMillis;
+      default:
+        return coldIntervalMillis;
+    }
+  }
+
+  /** Lister of the changes of a member using the client of its team. */
+  private static final class MemberChangeLister implements ChangeLister {
+    /** Client of the member's team */
+    private final TeamClient teamClient;
+    /** Team member ID */
+    private final String teamMemberId;
+
+    MemberChangeLister(TeamClient teamClient, String teamMemberId) {
+      this.teamClient = teamClient;
+      this.teamMemberId = teamMemberId;
+    }
+
+    @Override
+    public String getLatestCursor() throws DbxException {
+      return teamClient.asMember(teamMemberId).getLatestCursor(ROOT_PATH);
+    }
+
+    @Override
+    public FolderChanges listFolderChanges(String cursor) throws DbxException {
+      return teamClient.asMember(teamMemberId).listFolderChanges(cursor);
+    }
+  }
+
+  /** Polling state of a member. */
+  private final class MemberPoll {
+    /** Lister of the member's changes */
+    private final ChangeLister changeLister;
+    /** Team name */
+    private final String team;
+    /** Team member ID */
+    private final String teamMemberId;
+    /** Member display name */
+    private final String memberName;
+    /** Cursor of the member's root folder, or {@code null} if it has to be fetched */
+    private String cursor;
+    /** Number of recent changes, halved every hour */
+    private double activity;
+    /** Time of the last successful poll, or 0 if none */
+    private long lastPollMillis;
+    /** Current tier, warm until the activity of the member is known */
+    private volatile Tier tier = Tier.WARM;
+    /** Time from which the member is due for a poll */
+    private volatile long nextPollMillis;
+
+    MemberPoll(ChangeLister changeLister, String team, String teamMemberId, String memberName) {
+      this.changeLister = changeLister;
+      this.team = team;
+      this.teamMemberId = teamMemberId;
+      this.memberName = memberName;
+    }
+
+    void poll() {
+      long now = clock.getAsLong();
+      try {
+        polls.incrementAndGet();
+        if (cursor == null) {
+          cursor = changeLister.getLatestCursor();
+        } else {
+          FolderChanges changes = changeLister.listFolderChanges(cursor);
+          int changeCount = changes.getEntries().size();
+          if (changeCount > 0) {
+            changeHandler.onChanges(team, teamMemberId, memberName, changes.getEntries());
+            changedItems.addAndGet(changeCount);
+          }
+          cursor = changes.getCursor();
+          updateTier(now, changeCount);
+        }
+      } catch (ListFolderContinueErrorException e) {
+        if (e.errorValue.isReset()) {
+          cursor = null;
+        }
+        log.log(Level.WARNING, "Failed to list changes of member " + teamMemberId, e);
+      } catch (DbxException | IOException | RuntimeException e) {
+        log.log(Level.WARNING, "Failed to poll changes of member " + teamMemberId, e);
+      }
+      nextPollMillis = now + intervalMillis(tier);
+    }
+
+    private void updateTier(long now, int changeCount) {
+      if (lastPollMillis > 0) {
+        activity *= Math.pow(0.5, (double) (now - lastPollMillis) / ACTIVITY_HALF_LIFE_MILLIS);
+      }
+      activity += changeCount;
+      lastPollMillis = now;
+
+      Tier newTier;
+      if (activity >= hotMinChanges) {
+        newTier = Tier.HOT;
+      } else if (activity >= WARM_MIN_ACTIVITY) {
+        newTier = Tier.WARM;
+      } else {
+        newTier = Tier.COLD;
+      }
+      if (newTier != tier) {
+        log.log(Level.FINE, "member {0} has moved from {1} to {2} tier",
+            new Object[] {teamMemberId, tier, newTier});
+        tier = newTier;
+      }
+    }
+  }
+}
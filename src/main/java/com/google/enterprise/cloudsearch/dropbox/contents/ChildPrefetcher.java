@@ -0,0 +1,264 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.contents;
+
+import com.dropbox.core.DbxException;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.enterprise.cloudsearch.dropbox.client.MemberClient;
+import com.google.enterprise.cloudsearch.dropbox.model.DropBoxObject;
+import com.google.enterprise.cloudsearch.dropbox.model.SharingInfo;
+import com.google.enterprise.cloudsearch.dropbox.util.IoExecutors;
+import com.google.enterprise.cloudsearch.dropbox.util.Metrics;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Prefetches the sharing information of files shared on their own and the content of small files
+ * listed in a folder, so that polling those files does not have to wait for DropBox.
+ *
+ * <p>
+ * Prefetched files are kept in a cache bounded by bytes and by time. Content evicted from the
+ * cache before being polled is released, so it does not hold the memory budget. Expired files are
+ * evicted periodically, since the cache only evicts them while it is accessed otherwise. Content
+ * is prefetched only when the memory budget is available right away, so a prefetch never waits
+ * for budget held by the cache itself.
+ */
+final class ChildPrefetcher {
+  /** Log output */
+  private static final Logger log = Logger.getLogger(ChildPrefetcher.class.getName());
+  /** Number of files waiting to be prefetched, beyond which new files are not prefetched */
+  private static final int QUEUE_CAPACITY = 10000;
+  /** Weight of a cache entry besides its content */
+  private static final int ENTRY_OVERHEAD_BYTES = 1024;
+  /** Seconds between the evictions of expired files */
+  private static final long CLEANUP_INTERVAL_SECS = 5;
+
+  /** Downloader of file content */
+  private final FileDownloader fileDownloader;
+  /** Size up to which file content is prefetched */
+  private final long maxFileSizeBytes;
+  /** Prefetched files keyed by item name */
+  private final Cache<String, PrefetchedFile> cache;
+  /** Names of the files being prefetched and not taken yet */
+  private final ConcurrentMap<String, Boolean> pending = new ConcurrentHashMap<>();
+  /** Executor running prefetches */
+  private final ExecutorService executor;
+  /** Scheduler evicting expired files */
+  private final ScheduledExecutorService cleanupScheduler;
+  /** Number of files submitted and not prefetched yet */
+  private final AtomicInteger queuedFiles = new AtomicInteger();
+  /** Number of polled files found in the cache */
+  private final AtomicLong hits = Metrics.counter("prefetch.hits");
+  /** Number of polled files not found in the cache */
+  private final AtomicLong misses = Metrics.counter("prefetch.misses");
+  /** Number of prefetched files dropped because they were polled before the prefetch ended */
+  private final AtomicLong lateFiles = Metrics.counter("prefetch.lateFiles");
+
+  /**
+   * Get an instance of {@link ChildPrefetcher}.
+   *
+   * @param fileDownloader   downloader of file content
+   * @param threads          number of prefetch threads, unused when running on virtual threads
+   * @param maxFileSizeBytes size up to which file content is prefetched
+   * @param cacheBytes       bytes of prefetched files kept in the cache
+   * @param ttlSecs          seconds a prefetched file is kept in the cache
+   */
+  ChildPrefetcher(FileDownloader fileDownloader, int threads, long maxFileSizeBytes,
+      long cacheBytes, long ttlSecs) {
+    this.fileDownloader = fileDownloader;
+    this.maxFileSizeBytes = maxFileSizeBytes;
+    this.cache = CacheBuilder.newBuilder()
+        .maximumWeight(cacheBytes)
+        .weigher((String name, PrefetchedFile file) -> file.getWeight())
+        .expireAfterWrite(ttlSecs, TimeUnit.SECONDS)
+        .removalListener(notification -> {
+          if (notification.getCause() != RemovalCause.EXPLICIT) {
+            notification.getValue().release();
+          }
+        })
+        .build();
+    this.executor = IoExecutors.newExecutor("dropbox-prefetch-%d", threads, QUEUE_CAPACITY);
+    this.cleanupScheduler = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder()
+            .setNameFormat("dropbox-prefetch-cleanup")
+            .setDaemon(true)
+            .build());
+    cleanupScheduler.scheduleWithFixedDelay(cache::cleanUp, CLEANUP_INTERVAL_SECS,
+        CLEANUP_INTERVAL_SECS, TimeUnit.SECONDS);
+
+    Metrics.registerGauge("prefetch.queuedFiles", queuedFiles::get);
+    Metrics.registerGauge("prefetch.cachedFiles", cache::size);
+  }
+
+  /**
+   * Starts prefetching the files in the background. Files are skipped while the prefetch queue is
+   * full.
+   *
+   * @param memberClient member client
+   * @param files        files keyed by item name
+   */
+  void prefetch(MemberClient memberClient, Map<String, DropBoxObject> files) {
+    files.forEach((name, file) -> {
+      queuedFiles.incrementAndGet();
+      pending.put(name, Boolean.TRUE);
+      try {
+        executor.execute(() -> {
+          queuedFiles.decrementAndGet();
+          prefetch(memberClient, name, file);
+        });
+      } catch (RejectedExecutionException e) {
+        queuedFiles.decrementAndGet();
+        pending.remove(name);
+      }
+    });
+  }
+
+  /**
+   * Takes the prefetched file out of the cache. The caller owns the returned content and has to
+   * release it. A prefetch of the file still running is dropped once it ends.
+   *
+   * @param name item name
+   * @param file file being polled
+   * @return prefetched file, or {@code null} if the file has not been prefetched or has been
+   *         modified since
+   */
+  PrefetchedFile take(String name, DropBoxObject file) {
+    // Once the name is no longer pending, a prefetch ending later does not cache the file.
+    pending.remove(name);
+    PrefetchedFile prefetched = cache.asMap().remove(name);
+    if (prefetched == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    if (!Objects.equals(prefetched.rev, file.getRev())
+        || !Objects.equals(prefetched.serverModified, file.getServerModified())) {
+      prefetched.release();
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    return prefetched;
+  }
+
+  /** Stops prefetching and releases the prefetched files. */
+  void close() {
+    executor.shutdownNow();
+    cleanupScheduler.shutdownNow();
+    pending.clear();
+    releaseCachedFiles();
+  }
+
+  private void releaseCachedFiles() {
+    // Explicit removals are not released by the removal listener, since take() hands them over.
+    for (String name : cache.asMap().keySet()) {
+      PrefetchedFile prefetched = cache.asMap().remove(name);
+      if (prefetched != null) {
+        prefetched.release();
+      }
+    }
+  }
+
+  private void prefetch(MemberClient memberClient, String name, DropBoxObject file) {
+    if (!pending.containsKey(name)) {
+      // the file has been polled or the prefetcher closed while the prefetch was queued
+      return;
+    }
+    DownloadedContent content = null;
+    try {
+      SharingInfo sharingInfo = file.getHasExplicitSharedMembers()
+          ? memberClient.getFileSharingInfo(file.getPathDisplay()) : null;
+      if (file.getIsDownloadable() && file.getSize() <= maxFileSizeBytes) {
+        content = fileDownloader.downloadIfBudgetAvailable(memberClient, file);
+      }
+      PrefetchedFile prefetched = new PrefetchedFile(file, sharingInfo, content);
+      content = null;
+      // Cached only if the file has not been taken meanwhile, atomically with take() and close().
+      AtomicBoolean cached = new AtomicBoolean();
+      pending.computeIfPresent(name, (key, value) -> {
+        cache.put(name, prefetched);
+        cached.set(true);
+        return null;
+      });
+      if (!cached.get()) {
+        lateFiles.incrementAndGet();
+        prefetched.release();
+      }
+    } catch (DbxException | IOException | RuntimeException e) {
+      pending.remove(name);
+      if (content != null) {
+        content.release();
+      }
+      log.log(Level.FINE, "Failed to prefetch " + name, e);
+    }
+  }
+
+  /** Sharing information and content of a prefetched file. */
+  static final class PrefetchedFile {
+    /** Revision of the file when prefetched */
+    private final String rev;
+    /** Last modified time of the file when prefetched */
+    private final Date serverModified;
+    /** Sharing information, or {@code null} if the file is not shared on its own */
+    private final SharingInfo sharingInfo;
+    /** Content, or {@code null} if the content has not been prefetched */
+    private final DownloadedContent content;
+
+    private PrefetchedFile(DropBoxObject file, SharingInfo sharingInfo,
+        DownloadedContent content) {
+      this.rev = file.getRev();
+      this.serverModified = file.getServerModified();
+      this.sharingInfo = sharingInfo;
+      this.content = content;
+    }
+
+    /** Gets sharing information, or {@code null} if the file is not shared on its own. */
+    SharingInfo getSharingInfo() {
+      return sharingInfo;
+    }
+
+    /** Gets prefetched content, or {@code null} if the content has not been prefetched. */
+    DownloadedContent getContent() {
+      return content;
+    }
+
+    private int getWeight() {
+      return ENTRY_OVERHEAD_BYTES + (content == null ? 0 : (int) content.getLength());
+    }
+
+    private void release() {
+      if (content != null) {
+        content.release();
+      }
+    }
+  }
+}
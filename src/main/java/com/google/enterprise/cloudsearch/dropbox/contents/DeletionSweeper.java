@@ -0,0 +1,286 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.contents;
+
+import com.google.enterprise.cloudsearch.dropbox.util.MetadataStore;
+import com.google.enterprise.cloudsearch.dropbox.util.Metrics;
+import com.google.enterprise.cloudsearch.dropbox.util.SeenSet;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Deletes from the index the files indexed before and not listed by the last traversal, such as
+ * files deleted in DropBox while their member was not watched.
+ *
+ * <p>
+ * The names of the files added to the metadata store are appended to a log in its directory,
+ * and the names listed during a traversal are added to a {@link SeenSet}. When the next traversal
+ * starts, the log is read once: the files still in the store but not seen are deleted, and the
+ * other names are written to a new log. The sweep is skipped when nothing has been seen since the
+ * connector started, when a folder or a member of the last traversal has not been listed because
+ * it was deferred or failed, as its children have not been seen, and when it would delete more
+ * than the allowed share of the files, which more likely means that the last traversal did not
+ * complete.
+ */
+final class DeletionSweeper {
+  /** Log output */
+  private static final Logger log = Logger.getLogger(DeletionSweeper.class.getName());
+  /** Log of the names of the indexed files */
+  static final String NAMES_FILE = "indexed-names.log";
+  /** Log being swept, renamed from the names log when the sweep starts */
+  static final String SWEPT_NAMES_FILE = "indexed-names.swept";
+
+  /** Store of indexed item metadata */
+  private final MetadataStore metadataStore;
+  /** Log of the names of the indexed files */
+  private final File namesFile;
+  /** Log being swept */
+  private final File sweptNamesFile;
+  /** Maximum percentage of the indexed files a sweep may delete */
+  private final int maxDeletePercent;
+  /** Number of files deleted by sweeps */
+  private final AtomicLong deletedItems = Metrics.counter("sweep.deletedItems");
+  /** Number of sweeps skipped because they would have deleted too many files */
+  private final AtomicLong skippedSweeps = Metrics.counter("sweep.skippedSweeps");
+
+  /** Names seen during the current traversal */
+  private volatile SeenSet seen = new SeenSet(0);
+  /** Names of the folders and members of the current traversal not listed yet */
+  private volatile Set<String> unlisted = ConcurrentHashMap.newKeySet();
+  /** Stream appending to the names log, guarded by {@code this} */
+  private DataOutputStream names;
+
+  /**
+   * Get an instance of {@link DeletionSweeper}. Names left in the log of a sweep interrupted by a
+   * previous run are kept.
+   *
+   * @param directory        directory of the names log, which is the metadata store directory
+   * @param metadataStore    store of indexed item metadata
+   * @param maxDeletePercent maximum percentage of the indexed files a sweep may delete
+   * @throws IOException when the names log can not be opened
+   */
+  DeletionSweeper(File directory, MetadataStore metadataStore, int maxDeletePercent)
+      throws IOException {
+    this.metadataStore = metadataStore;
+    this.namesFile = new File(directory, NAMES_FILE);
+    this.sweptNamesFile = new File(directory, SWEPT_NAMES_FILE);
+    this.maxDeletePercent = maxDeletePercent;
+    this.names = openNames();
+    if (sweptNamesFile.exists()) {
+      copyNames(name -> true);
+    }
+
+    Metrics.registerGauge("sweep.seenItems", () -> seen.size());
+    Metrics.registerGauge("sweep.seenBytes", () -> seen.getCapacityBytes());
+    Metrics.registerGauge("sweep.unlistedContainers", () -> unlisted.size());
+  }
+
+  /**
+   * Records the name of a file added to the metadata store.
+   *
+   * @param name item name
+   * @throws IOException when writing the names log fails
+   */
+  synchronized void onIndexed(String name) throws IOException {
+    names.writeUTF(name);
+    names.flush();
+  }
+
+  /**
+   * Records the name of an item listed in DropBox during the current traversal.
+   *
+   * @param name item name
+   */
+  void markSeen(String name) {
+    seen.add(name);
+  }
+
+  /**
+   * Records a folder or a member whose children have not been listed, because its listing has
+   * been deferred or has failed. The next sweep is skipped unless it is listed later.
+   *
+   * @param name item name
+   */
+  void markUnlisted(String name) {
+    unlisted.add(name);
+  }
+
+  /**
+   * Records a folder or a member whose children have been listed.
+   *
+   * @param name item name
+   */
+  void markListed(String name) {
+    unlisted.remove(name);
+  }
+
+  /**
+   * Deletes the indexed files not seen since the previous sweep, and starts recording the names
+   * seen by a new traversal.
+   *
+   * @param deleter deleter of an item from the index and from the metadata store
+   * @return number of deleted files
+   * @throws IOException when reading or writing the names log fails
+   */
+  long sweep(Consumer<String> deleter) throws IOException {
+    SeenSet traversal = seen;
+    seen = new SeenSet(traversal.size());
+    Set<String> unlistedContainers = unlisted;
+    unlisted = ConcurrentHashMap.newKeySet();
+    if (traversal.size() == 0) {
+      return 0;
+    }
+    if (!unlistedContainers.isEmpty()) {
+      skippedSweeps.incrementAndGet();
+      log.log(Level.WARNING, "deletion sweep has been skipped: {0} folders or members have not been"
+          + " listed by the last traversal", unlistedContainers.size());
+      return 0;
+    }
+
+    if (sweptNamesFile.exists()) {
+      // left by a sweep that failed
+      copyNames(name -> true);
+    }
+    synchronized (this) {
+      names.close();
+      if (!namesFile.renameTo(sweptNamesFile)) {
+        names = openNames();
+        throw new IOException("Failed to rename " + namesFile + " to " + sweptNamesFile);
+      }
+      names = openNames();
+    }
+
+    long[] counts = new long[2];
+    readNames(name -> {
+      if (metadataStore.get(name) != null) {
+        counts[0]++;
+        if (!traversal.contains(name)) {
+          counts[1]++;
+        }
+      }
+    });
+    long indexed = counts[0];
+    long unseen = counts[1];
+    if (unseen * 100 > indexed * maxDeletePercent) {
+      skippedSweeps.incrementAndGet();
+      log.log(Level.WARNING, "deletion sweep has been skipped: {0} of {1} indexed files have not"
+          + " been seen by the last traversal", new Object[] {unseen, indexed});
+      copyNames(name -> true);
+      return 0;
+    }
+
+    AtomicLong deleted = new AtomicLong();
+    copyNames(name -> {
+      if (metadataStore.get(name) == null) {
+        return false;
+      }
+      if (!traversal.contains(name)) {
+        deleter.accept(name);
+        deleted.incrementAndGet();
+        return false;
+      }
+      return true;
+    });
+    deletedItems.addAndGet(deleted.get());
+    log.log(Level.INFO, "deletion sweep has deleted {0} of {1} indexed files",
+        new Object[] {deleted.get(), indexed});
+    return deleted.get();
+  }
+
+  /** Stops appending to the names log. */
+  synchronized void close() {
+    try {
+      names.close();
+    } catch (IOException e) {
+      log.log(Level.WARNING, "Failed to close " + namesFile, e);
+    }
+  }
+
+  private DataOutputStream openNames() throws IOException {
+    return new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(namesFile, true)));
+  }
+
+  /**
+   * Appends the names of the swept log kept by the filter to the names log, then deletes the
+   * swept log.
+   */
+  private void copyNames(Predicate<String> filter) throws IOException {
+    readNames(name -> {
+      if (filter.test(name)) {
+        synchronized (this) {
+          try {
+            names.writeUTF(name);
+          } catch (IOException e) {
+            throw new NamesLogException(e);
+          }
+        }
+      }
+    });
+    synchronized (this) {
+      names.flush();
+    }
+    if (!sweptNamesFile.delete()) {
+      log.log(Level.WARNING, "Failed to delete {0}", sweptNamesFile);
+    }
+  }
+
+  /** Reads the names of the swept log, up to a record truncated by a crash. */
+  private void readNames(Consumer<String> reader) throws IOException {
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(sweptNamesFile)))) {
+      while (true) {
+        String name;
+        try {
+          name = in.readUTF();
+        } catch (EOFException e) {
+          return;
+        }
+        reader.accept(name);
+      }
+    } catch (NamesLogException e) {
+      throw e.getCause();
+    }
+  }
+
+  /** Failure to write the names log while reading the swept log. */
+  private static final class NamesLogException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    NamesLogException(IOException cause) {
+      super(cause);
+    }
+
+    @Override
+    public synchronized IOException getCause() {
+      return (IOException) super.getCause();
+    }
+  }
+}
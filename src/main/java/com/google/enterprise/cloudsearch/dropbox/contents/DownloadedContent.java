@@ -0,0 +1,160 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.contents;
+
+import com.google.api.client.http.AbstractInputStreamContent;
+import com.google.enterprise.cloudsearch.dropbox.util.ContentCache;
+import com.google.enterprise.cloudsearch.dropbox.util.MemoryBudget;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * File content downloaded from DropBox, held either in memory, in a spool file or in the content
+ * cache.
+ *
+ * <p>
+ * The memory reservation, the spool file or the cache lease is released once the uploader has
+ * read the content and closed the stream returned by {@link #getInputStream()}.
+ */
+final class DownloadedContent extends AbstractInputStreamContent {
+  /** Log output */
+  private static final Logger log = Logger.getLogger(DownloadedContent.class.getName());
+
+  /** Content held in memory, or {@code null} if spooled */
+  private final byte[] bytes;
+  /** Spool file or cached file holding the content, or {@code null} if held in memory */
+  private final File file;
+  /** Reservation of the memory holding the content, or {@code null} if not in memory */
+  private final MemoryBudget.Reservation reservation;
+  /** Lease of the cached content, or {@code null} if not cached */
+  private final ContentCache.Lease lease;
+  /** Whether the content has been released */
+  private final AtomicBoolean released = new AtomicBoolean();
+
+  private DownloadedContent(String type, byte[] bytes, File file,
+      MemoryBudget.Reservation reservation, ContentCache.Lease lease) {
+    super(type);
+    this.bytes = bytes;
+    this.file = file;
+    this.reservation = reservation;
+    this.lease = lease;
+  }
+
+  /**
+   * Get an instance of {@link DownloadedContent} held in memory.
+   *
+   * @param type        MIME type
+   * @param bytes       content
+   * @param reservation reservation of the memory holding the content
+   * @return an instance of {@link DownloadedContent}
+   */
+  static DownloadedContent inMemory(String type, byte[] bytes,
+      MemoryBudget.Reservation reservation) {
+    DownloadedContent content = new DownloadedContent(type, bytes, null, reservation, null);
+    reservation.releaseWhenUnreachable(content);
+    return content;
+  }
+
+  /**
+   * Get an instance of {@link DownloadedContent} held in a spool file.
+   *
+   * @param type      MIME type
+   * @param spoolFile spool file holding the content, deleted when the content is released
+   * @return an instance of {@link DownloadedContent}
+   */
+  static DownloadedContent spooled(String type, File spoolFile) {
+    return new DownloadedContent(type, null, spoolFile, null, null);
+  }
+
+  /**
+   * Get an instance of {@link DownloadedContent} held in the content cache.
+   *
+   * @param type  MIME type
+   * @param lease lease of the cached content, closed when the content is released
+   * @return an instance of {@link DownloadedContent}
+   */
+  static DownloadedContent cached(String type, ContentCache.Lease lease) {
+    return new DownloadedContent(type, null, lease.getFile(), null, lease);
+  }
+
+  /**
+   * Opens a stream for reading the content, which releases the content when closed.
+   */
+  @Override
+  public InputStream getInputStream() throws IOException {
+    return new FilterInputStream(openStream()) {
+      @Override
+      public void close() throws IOException {
+        try {
+          super.close();
+        } finally {
+          release();
+        }
+      }
+    };
+  }
+
+  /**
+   * Opens a stream for reading the content without releasing it when closed.
+   *
+   * @return stream of the content
+   * @throws IOException when opening the file fails
+   */
+  InputStream openStream() throws IOException {
+    return bytes != null ? new ByteArrayInputStream(bytes) : new FileInputStream(file);
+  }
+
+  @Override
+  public long getLength() {
+    return bytes != null ? bytes.length : file.length();
+  }
+
+  /**
+   * Content in memory can be read again, but a spool file is gone once the first read released
+   * it, and so may be a cached file.
+   */
+  @Override
+  public boolean retrySupported() {
+    return bytes != null;
+  }
+
+  /** Gets whether the content has been written to a spool file. */
+  boolean isSpooled() {
+    return file != null && lease == null;
+  }
+
+  /** Releases the memory reservation or the cache lease, or deletes the spool file. */
+  void release() {
+    if (!released.compareAndSet(false, true)) {
+      return;
+    }
+    if (reservation != null) {
+      reservation.release();
+    }
+    if (lease != null) {
+      lease.close();
+    } else if (file != null && !file.delete()) {
+      log.log(Level.WARNING, "Failed to delete spool file {0}", file);
+    }
+  }
+}
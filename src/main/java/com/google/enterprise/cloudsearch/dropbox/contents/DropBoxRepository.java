@@ -17,26 +17,39 @@ package com.google.enterprise.cloudsearch.dropbox.contents;
 
 import static com.google.enterprise.cloudsearch.sdk.indexing.IndexingItemBuilder.FieldOrValue.withValue;
 
-import com.dropbox.core.DbxDownloader;
 import com.dropbox.core.DbxException;
+import com.dropbox.core.v2.files.DeletedMetadata;
 import com.dropbox.core.v2.files.FileMetadata;
 import com.dropbox.core.v2.files.FolderMetadata;
 import com.dropbox.core.v2.files.Metadata;
 import com.dropbox.core.v2.team.TeamMemberInfo;
+import com.google.api.client.http.AbstractInputStreamContent;
 import com.google.api.client.http.ByteArrayContent;
 import com.google.api.client.util.DateTime;
 import com.google.api.services.cloudsearch.v1.model.Item;
 import com.google.api.services.cloudsearch.v1.model.Principal;
 import com.google.api.services.cloudsearch.v1.model.PushItem;
 import com.google.common.collect.Lists;
-import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.enterprise.cloudsearch.dropbox.client.DropBoxClientFactory;
 import com.google.enterprise.cloudsearch.dropbox.client.MemberClient;
+import com.google.enterprise.cloudsearch.dropbox.client.MemberVisitor;
 import com.google.enterprise.cloudsearch.dropbox.client.TeamClient;
 import com.google.enterprise.cloudsearch.dropbox.model.DropBoxConfiguration;
 import com.google.enterprise.cloudsearch.dropbox.model.DropBoxObject;
 import com.google.enterprise.cloudsearch.dropbox.model.SharingInfo;
+import com.google.enterprise.cloudsearch.dropbox.model.TeamConfiguration;
+import com.google.enterprise.cloudsearch.dropbox.util.BandwidthLimiter;
+import com.google.enterprise.cloudsearch.dropbox.util.BufferPool;
+import com.google.enterprise.cloudsearch.dropbox.util.ContentCache;
+import com.google.enterprise.cloudsearch.dropbox.util.Fingerprint;
+import com.google.enterprise.cloudsearch.dropbox.util.FlightEvents;
+import com.google.enterprise.cloudsearch.dropbox.util.MemoryBudget;
+import com.google.enterprise.cloudsearch.dropbox.util.MetadataStore;
+import com.google.enterprise.cloudsearch.dropbox.util.Metrics;
 import com.google.enterprise.cloudsearch.dropbox.util.Path;
+import com.google.enterprise.cloudsearch.dropbox.util.PathFilter;
+import com.google.enterprise.cloudsearch.dropbox.util.RetryJournal;
 import com.google.enterprise.cloudsearch.sdk.CheckpointCloseableIterable;
 import com.google.enterprise.cloudsearch.sdk.CheckpointCloseableIterableImpl;
 import com.google.enterprise.cloudsearch.sdk.RepositoryException;
@@ -51,12 +64,20 @@ import com.google.enterprise.cloudsearch.sdk.indexing.template.PushItems;
 import com.google.enterprise.cloudsearch.sdk.indexing.template.Repository;
 import com.google.enterprise.cloudsearch.sdk.indexing.template.RepositoryContext;
 import com.google.enterprise.cloudsearch.sdk.indexing.template.RepositoryDoc;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -71,11 +92,67 @@ final class DropBoxRepository implements Repository {
   private static final String ROOT_PATH = "";
   /** Root URL of Dropbox */
   private static final String ROOT_URL = "https://www.dropbox.com/home";
+  /** Push type of items that have been modified in DropBox */
+  private static final String PUSH_TYPE_MODIFIED = "MODIFIED";
+  /** Push type of items that have not been modified since they were indexed */
+  private static final String PUSH_TYPE_NOT_MODIFIED = "NOT_MODIFIED";
+  /** Push type of polled items to be polled again later */
+  private static final String PUSH_TYPE_REQUEUE = "REQUEUE";
+  /** Item status codes telling that the item is not in the index as last indexed */
+  private static final List<String> UNINDEXED_STATUS_CODES = Arrays.asList("NEW_ITEM", "ERROR");
+  /** MIME type of the text extracted from file content */
+  private static final String TEXT_MIME_TYPE = "text/plain";
+  /** Seconds between two checks of the items due for a retry */
+  private static final long RETRY_INTERVAL_SECS = 10;
+  /** Maximum number of items retried in a check */
+  private static final int RETRY_BATCH_SIZE = 100;
+  /** Number of deletions posted together by a deletion sweep */
+  private static final int SWEEP_BATCH_SIZE = 1000;
+  /** Size of the buffers copying file content to spool files and to the content cache */
+  private static final int TRANSFER_BUFFER_BYTES = 64 * 1024;
 
-  /** Team client */
-  private TeamClient teamClient;
-  /** List of team member IDs to be processed */
-  private List<String> teamMemberIds;
+  /** Repository context */
+  private RepositoryContext repositoryContext;
+  /** Team clients keyed by team name */
+  private Map<String, TeamClient> teamClients;
+  /** Teams to be processed */
+  private List<TeamConfiguration> teams;
+  /** Team member IDs whose changes are watched by long-polling */
+  private Set<String> longPollTeamMemberIds;
+  /** Watcher of the changes by long-polling, or {@code null} if no member is watched */
+  private LongPollWatcher longPollWatcher;
+  /** Poller of the changes of the other members, or {@code null} if disabled */
+  private ChangePoller changePoller;
+  /** Extractor of text from file content, or {@code null} if extraction is disabled */
+  private TextExtractor textExtractor;
+  /** Downloader of file content */
+  private FileDownloader fileDownloader;
+  /** Prefetcher of the children of listed folders, or {@code null} if prefetch is disabled */
+  private ChildPrefetcher childPrefetcher;
+  /** Store of indexed item metadata, or {@code null} if disabled */
+  private MetadataStore metadataStore;
+  /** Sweeper of the files no longer listed, or {@code null} if disabled */
+  private DeletionSweeper deletionSweeper;
+  /** Number of polled files skipped because they have not changed since indexed */
+  private final AtomicLong skippedItems = Metrics.counter("metadataStore.skippedItems");
+  /** Scheduler sharing the processing between members */
+  private MemberScheduler memberScheduler;
+  /** Circuit breaker deferring the items of failing members */
+  private MemberCircuitBreaker circuitBreaker;
+  /** Journal of the items to retry, or {@code null} if failed items are left to the SDK */
+  private RetryJournal retryJournal;
+  /** Low priority thread retrying the failed items, or {@code null} if disabled */
+  private ScheduledExecutorService retryScheduler;
+  /** Number of items retried from the journal */
+  private final AtomicLong retriedItems = Metrics.counter("retry.retriedItems");
+  /** Number of items processed successfully after a retry */
+  private final AtomicLong recoveredItems = Metrics.counter("retry.recoveredItems");
+  /** Number of items given up and written to the dead-letter file */
+  private final AtomicLong deadLetterItems = Metrics.counter("retry.deadLetterItems");
+  /** Include and exclude rules on the paths to index */
+  private PathFilter pathFilter;
+  /** Number of listed or polled items excluded by the path rules */
+  private final AtomicLong excludedItems = Metrics.counter("paths.excludedItems");
 
   DropBoxRepository() {
   }
@@ -88,9 +165,126 @@ final class DropBoxRepository implements Repository {
    */
   @Override
   public void init(RepositoryContext repositoryContext) throws RepositoryException {
+    this.repositoryContext = repositoryContext;
     DropBoxConfiguration dropBoxConfiguration = DropBoxConfiguration.fromConfiguration();
-    teamMemberIds = dropBoxConfiguration.getTeamMemberIds();
-    teamClient = DropBoxClientFactory.getTeamClient(dropBoxConfiguration.getCredentialFile());
+    teams = dropBoxConfiguration.getTeams();
+    pathFilter = dropBoxConfiguration.getPathFilter();
+    teamClients = DropBoxClientFactory.getTeamClients(dropBoxConfiguration);
+
+    longPollTeamMemberIds = new HashSet<>(dropBoxConfiguration.getLongPollTeamMemberIds());
+    if (!longPollTeamMemberIds.isEmpty()) {
+      longPollWatcher = new LongPollWatcher(
+          dropBoxConfiguration.getLongPollMaxConcurrent(),
+          dropBoxConfiguration.getLongPollTimeoutSecs(),
+          this::pushChanges);
+    }
+    if (dropBoxConfiguration.isChangesEnabled()) {
+      changePoller = new ChangePoller(
+          dropBoxConfiguration.getChangesThreads(),
+          dropBoxConfiguration.getChangesHotIntervalSecs(),
+          dropBoxConfiguration.getChangesWarmIntervalSecs(),
+          dropBoxConfiguration.getChangesColdIntervalSecs(),
+          dropBoxConfiguration.getChangesHotMinChanges(),
+          this::pushChanges);
+    }
+
+    if (dropBoxConfiguration.isExtractionEnabled()) {
+      textExtractor = new TextExtractor(dropBoxConfiguration.getExtractionThreads(),
+          dropBoxConfiguration.getExtractionMaxTextLength(),
+          dropBoxConfiguration.getExtractionTimeoutSecs());
+    }
+
+    BufferPool bufferPool = new BufferPool(TRANSFER_BUFFER_BYTES,
+        dropBoxConfiguration.getContentBufferPoolSize());
+    ContentCache contentCache = null;
+    String contentCacheDirectory = dropBoxConfiguration.getContentCacheDirectory();
+    if (!contentCacheDirectory.isEmpty()) {
+      try {
+        contentCache = ContentCache.open(new File(contentCacheDirectory),
+            dropBoxConfiguration.getContentCacheMaxBytes(), bufferPool);
+      } catch (IOException e) {
+        throw new RepositoryException.Builder()
+            .setErrorMessage("Failed to open content cache")
+            .setCause(e)
+            .build();
+      }
+    }
+
+    fileDownloader = new FileDownloader(
+        new MemoryBudget(dropBoxConfiguration.getContentMemoryBudgetBytes()),
+        dropBoxConfiguration.getContentSpoolThresholdBytes(),
+        new File(dropBoxConfiguration.getContentSpoolDirectory()),
+        dropBoxConfiguration.getTimeoutsDownloadTotalSecs(),
+        dropBoxConfiguration.getContentDownloadResumes(),
+        new BandwidthLimiter(dropBoxConfiguration.getBandwidthKbPerSecond() * 1024L,
+            dropBoxConfiguration.getBandwidthProfiles()),
+        contentCache,
+        dropBoxConfiguration.getContentParallelThresholdBytes(),
+        dropBoxConfiguration.getContentParallelChunks(),
+        bufferPool);
+
+    if (dropBoxConfiguration.isPrefetchEnabled()) {
+      childPrefetcher = new ChildPrefetcher(fileDownloader,
+          dropBoxConfiguration.getPrefetchThreads(),
+          dropBoxConfiguration.getPrefetchMaxFileSizeBytes(),
+          dropBoxConfiguration.getPrefetchCacheBytes(),
+          dropBoxConfiguration.getPrefetchTtlSecs());
+    }
+
+    String metadataStoreDirectory = dropBoxConfiguration.getMetadataStoreDirectory();
+    if (!metadataStoreDirectory.isEmpty()) {
+      try {
+        metadataStore = MetadataStore.open(new File(metadataStoreDirectory));
+      } catch (IOException e) {
+        throw new RepositoryException.Builder()
+            .setErrorMessage("Failed to open metadata store")
+            .setCause(e)
+            .build();
+      }
+      Metrics.registerGauge("metadataStore.entries", metadataStore::size);
+
+      if (dropBoxConfiguration.isDeletionSweepEnabled()) {
+        try {
+          deletionSweeper = new DeletionSweeper(new File(metadataStoreDirectory), metadataStore,
+              dropBoxConfiguration.getDeletionSweepMaxDeletePercent());
+        } catch (IOException e) {
+          throw new RepositoryException.Builder()
+              .setErrorMessage("Failed to open deletion sweep log")
+              .setCause(e)
+              .build();
+        }
+      }
+    }
+
+    memberScheduler = new MemberScheduler(
+        dropBoxConfiguration.getFairnessMaxConcurrentPerMember(),
+        dropBoxConfiguration.getFairnessMaxBacklogPerMember());
+    circuitBreaker = new MemberCircuitBreaker(
+        dropBoxConfiguration.getBreakerFailureThreshold(),
+        dropBoxConfiguration.getBreakerOpenSecs());
+
+    String retryJournalDirectory = dropBoxConfiguration.getRetryJournalDirectory();
+    if (!retryJournalDirectory.isEmpty()) {
+      try {
+        retryJournal = RetryJournal.open(new File(retryJournalDirectory),
+            dropBoxConfiguration.getRetryMaxAttempts(),
+            TimeUnit.SECONDS.toMillis(dropBoxConfiguration.getRetryInitialDelaySecs()));
+      } catch (IOException e) {
+        throw new RepositoryException.Builder()
+            .setErrorMessage("Failed to open retry journal")
+            .setCause(e)
+            .build();
+      }
+      Metrics.registerGauge("retry.journalEntries", retryJournal::size);
+      retryScheduler = Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder()
+              .setNameFormat("dropbox-retry")
+              .setDaemon(true)
+              .setPriority(Thread.MIN_PRIORITY)
+              .build());
+      retryScheduler.scheduleWithFixedDelay(this::retryDueItems, RETRY_INTERVAL_SECS,
+          RETRY_INTERVAL_SECS, TimeUnit.SECONDS);
+    }
   }
 
   /**
@@ -98,7 +292,9 @@ final class DropBoxRepository implements Repository {
    *
    * <p>
    * Every user's data in the <em>repository</em> is pushed to the Cloud Search queue. Each pushed
-   * data is later polled and processed in the {@link #getDoc(Item)} method.
+   * data is later polled and processed in the {@link #getDoc(Item)} method. The members of all
+   * the configured teams share the same queue and polling threads. When the deletion sweep is
+   * enabled, the files indexed before and not listed by the previous traversal are deleted first.
    *
    * @param checkpoint value defined and maintained by this connector.
    * @return {@link CheckpointCloseableIterable} object containing list of {@link PushItem}.
@@ -107,35 +303,51 @@ final class DropBoxRepository implements Repository {
   @Override
   public CheckpointCloseableIterable<ApiOperation> getIds(byte[] checkpoint)
       throws RepositoryException {
+    if (deletionSweeper != null) {
+      sweepDeletedItems();
+    }
     PushItems.Builder pushItemsBuilder = new PushItems.Builder();
 
-    int totalMembers = 0;
-    try {
-      List<TeamMemberInfo> members = teamClient.getMembers();
-
-      for (TeamMemberInfo member : members) {
+    AtomicLong totalMembers = new AtomicLong();
+    for (TeamConfiguration team : teams) {
+      String teamName = team.getName();
+      TeamClient teamClient = teamClients.get(teamName);
+      MemberVisitor pushMember = member -> {
         String teamMemberId = member.getProfile().getTeamMemberId();
         String memberName = member.getProfile().getName().getDisplayName();
+        totalMembers.incrementAndGet();
 
-        if (!(teamMemberIds.isEmpty() || teamMemberIds.contains(teamMemberId))) {
-          log.log(Level.FINE, "skip member {0}", teamMemberId);
-          continue;
+        if (longPollWatcher != null && longPollTeamMemberIds.contains(teamMemberId)) {
+          longPollWatcher.watch(teamClient, teamName, teamMemberId, memberName);
+        } else if (changePoller != null) {
+          changePoller.track(teamClient, teamName, teamMemberId, memberName);
         }
-        totalMembers++;
 
         DropBoxObject dropBoxObject =
             new DropBoxObject.Builder(DropBoxObject.MEMBER, teamMemberId, memberName)
+                .setTeam(teamName)
                 .build();
 
-        String url = Path.createPath(ROOT_URL, memberName);
+        String url = createItemName(teamName, memberName);
         pushItemsBuilder.addPushItem(
             url, new PushItem().encodePayload(dropBoxObject.encodePayload()));
+      };
+      try {
+        // Only the configured members are fetched, so that a pilot does not list the whole team.
+        if (team.getTeamMemberIds().isEmpty()) {
+          teamClient.forEachMember(pushMember);
+        } else {
+          for (TeamMemberInfo member : teamClient.getMembers(team.getTeamMemberIds())) {
+            pushMember.visit(member);
+          }
+        }
+      } catch (DbxException | IOException e) {
+        throw new RepositoryException.Builder()
+            .setErrorMessage(teamName.isEmpty()
+                ? "Failed to get user IDs" : "Failed to get user IDs of team " + teamName)
+            .setCause(e)
+            .build();
       }
-    } catch (DbxException | IOException e) {
-      throw new RepositoryException.Builder()
-          .setErrorMessage("Failed to get user IDs")
-          .setCause(e)
-          .build();
     }
 
     ApiOperation pushItems = pushItemsBuilder.build();
@@ -143,13 +355,46 @@ final class DropBoxRepository implements Repository {
         new CheckpointCloseableIterableImpl.Builder<>(Collections.singleton(pushItems)).build();
     log.log(Level.INFO,
         "process of get user IDs has been completed successfully. total member: {0}",
-        totalMembers);
+        totalMembers.get());
     return allIds;
   }
 
+  /**
+   * Delete the files indexed before and not listed by the previous traversal, posting the
+   * deletions in batches.
+   */
+  private void sweepDeletedItems() {
+    List<ApiOperation> deletions = Lists.newArrayList();
+    try {
+      deletionSweeper.sweep(name -> {
+        deletions.add(deleteItem(name));
+        if (deletions.size() >= SWEEP_BATCH_SIZE) {
+          postDeletions(deletions);
+        }
+      });
+    } catch (IOException e) {
+      log.log(Level.WARNING, "Failed to sweep deleted items", e);
+    }
+    postDeletions(deletions);
+  }
+
+  private void postDeletions(List<ApiOperation> deletions) {
+    if (deletions.isEmpty()) {
+      return;
+    }
+    repositoryContext.postApiOperationAsync(
+        ApiOperations.batch(new ArrayList<>(deletions).iterator()));
+    deletions.clear();
+  }
+
   /**
    * Gets all changed documents since the last traversal.
    *
+   * <p>
+   * The changes of the members listed by the traversal and not watched by long-polling are
+   * polled, each member at the interval of its activity tier, and pushed to the Cloud Search
+   * queue. The cursors are kept in memory, so the returned checkpoint is always empty.
+   *
    * @param checkpoint encoded checkpoint bytes.
    * @return {@link CheckpointCloseableIterable} object containing list of {@link ApiOperation} to
    *         execute with new traversal checkpoint value.
@@ -158,7 +403,17 @@ final class DropBoxRepository implements Repository {
   @Override
   public CheckpointCloseableIterable<ApiOperation> getChanges(byte[] checkpoint)
       throws RepositoryException {
-    // TODO
+    if (changePoller != null) {
+      try {
+        changePoller.pollDue();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RepositoryException.Builder()
+            .setErrorMessage("Interrupted while polling changes")
+            .setCause(e)
+            .build();
+      }
+    }
     return new CheckpointCloseableIterableImpl.Builder<ApiOperation>(
         Collections.emptyList())
             .setHasMore(false)
@@ -185,36 +440,210 @@ final class DropBoxRepository implements Repository {
       dropBoxObject = DropBoxObject.decodePayload(item.decodePayload());
     } catch (IOException e) {
       log.log(Level.WARNING, String.format("Invalid DropBox payload Object on item %s", item), e);
-      return ApiOperations.deleteItem(item.getName());
+      return deleteItem(item.getName());
     }
     if (!dropBoxObject.isValid()) {
       log.log(Level.WARNING, "Invalid DropBox payload Object {0} on item {1}",
           new Object[] {dropBoxObject, item});
-      return ApiOperations.deleteItem(item.getName());
+      return deleteItem(item.getName());
     }
 
-    MemberClient memberClient = teamClient.asMember(dropBoxObject.getTeamMemberId());
+    TeamClient teamClient = teamClients.get(dropBoxObject.getTeam());
+    if (teamClient == null) {
+      // indexed before its team was removed from the configuration
+      log.log(Level.FINE, "item of an unconfigured team has been deleted [{0}]", item.getName());
+      return deleteItem(item.getName());
+    }
+
+    boolean isFile = DropBoxObject.FILE.equals(dropBoxObject.getObjectType());
+    if (!DropBoxObject.MEMBER.equals(dropBoxObject.getObjectType())
+        && !pathFilter.accepts(dropBoxObject.getPathDisplay(), !isFile)) {
+      // indexed before the path rules excluded it
+      excludedItems.incrementAndGet();
+      log.log(Level.FINE, "item has been excluded by the path rules [{0}]", item.getName());
+      return deleteItem(item.getName());
+    }
 
+    boolean expandsFolder = !isFile;
+    if (deletionSweeper != null) {
+      // the item still exists even when it is requeued or deferred below
+      deletionSweeper.markSeen(item.getName());
+    }
+
+    String teamMemberId = dropBoxObject.getTeamMemberId();
+    if (!circuitBreaker.allows(teamMemberId)) {
+      log.log(Level.FINE, "item has been requeued while its member is failing [{0}]",
+          item.getName());
+      recordListing(item.getName(), expandsFolder, false);
+      return new PushItems.Builder()
+          .addPushItem(item.getName(), new PushItem().setType(PUSH_TYPE_REQUEUE))
+          .build();
+    }
+
+    MemberScheduler.Permit permit =
+        memberScheduler.tryStart(teamMemberId, expandsFolder);
+    if (permit == null) {
+      log.log(Level.FINE, "item has been requeued for fairness [{0}]", item.getName());
+      recordListing(item.getName(), expandsFolder, false);
+      return new PushItems.Builder()
+          .addPushItem(item.getName(), new PushItem().setType(PUSH_TYPE_REQUEUE))
+          .build();
+    }
+
+    MemberClient memberClient = teamClient.asMember(teamMemberId);
+
+    boolean listed = false;
     try {
-      switch (dropBoxObject.getObjectType()) {
-        case DropBoxObject.MEMBER:
-          return createMemberDoc(memberClient, item, dropBoxObject);
-        case DropBoxObject.FOLDER:
-          return createFolderDoc(memberClient, item, dropBoxObject);
-        case DropBoxObject.FILE:
-          return createFileDoc(memberClient, item, dropBoxObject);
-        default:
-          throw new RepositoryException.Builder()
-              .setErrorMessage(String.format("Unexpected item received: [%s]", item.getName()))
-              .setErrorType(RepositoryException.ErrorType.UNKNOWN)
-              .build();
+      ApiOperation operation = createDoc(memberClient, item, dropBoxObject);
+      listed = true;
+      circuitBreaker.onSuccess(teamMemberId);
+      if (retryJournal != null && retryJournal.resolve(item.getName())) {
+        recoveredItems.incrementAndGet();
       }
+      return operation;
     } catch (IOException e) {
+      circuitBreaker.onFailure(teamMemberId, e);
+      if (deferRetry(item, e)) {
+        log.log(Level.WARNING, "item has been deferred to the retry journal [" + item.getName()
+            + "]", e);
+        return new PushItems.Builder()
+            .addPushItem(item.getName(), new PushItem().setType(PUSH_TYPE_NOT_MODIFIED))
+            .build();
+      }
       throw new RepositoryException.Builder()
           .setErrorMessage(String.format("Failed to process item: [%s]", item.getName()))
           .setCause(e)
           .build();
+    } finally {
+      permit.close();
+      recordListing(item.getName(), expandsFolder, listed);
+    }
+  }
+
+  /**
+   * Record for the deletion sweep whether the children of a folder or a member have been listed,
+   * as the files under an unlisted one have not been seen by the traversal.
+   */
+  private void recordListing(String itemName, boolean expandsFolder, boolean listed) {
+    if (deletionSweeper == null || !expandsFolder) {
+      return;
+    }
+    if (listed) {
+      deletionSweeper.markListed(itemName);
+    } else {
+      deletionSweeper.markUnlisted(itemName);
+    }
+  }
+
+  /**
+   * Create an operation indexing the item according to its type. The build is recorded as a
+   * Flight Recorder event.
+   */
+  private ApiOperation createDoc(MemberClient memberClient, Item item,
+      DropBoxObject dropBoxObject) throws IOException, RepositoryException {
+    try (FlightEvents.Span span =
+        FlightEvents.documentBuild(item.getName(), dropBoxObject.getObjectType())) {
+      try {
+        switch (dropBoxObject.getObjectType()) {
+          case DropBoxObject.MEMBER:
+            return createMemberDoc(memberClient, item, dropBoxObject);
+          case DropBoxObject.FOLDER:
+            return createFolderDoc(memberClient, item, dropBoxObject);
+          case DropBoxObject.FILE:
+            return createFileDoc(memberClient, item, dropBoxObject);
+          default:
+            throw new RepositoryException.Builder()
+                .setErrorMessage(String.format("Unexpected item received: [%s]", item.getName()))
+                .setErrorType(RepositoryException.ErrorType.UNKNOWN)
+                .build();
+        }
+      } catch (IOException | RuntimeException e) {
+        span.setFailure(e);
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Record the failed item in the retry journal, so that it is retried by the retry thread
+   * instead of being polled again from the Cloud Search queue.
+   * Return {@code false} if the journal is disabled or the item has been given up.
+   */
+  private boolean deferRetry(Item item, IOException cause) {
+    if (retryJournal == null) {
+      return false;
     }
+    try {
+      if (retryJournal.recordFailure(item.getName(), item.decodePayload(), cause.toString())) {
+        return true;
+      }
+      deadLetterItems.incrementAndGet();
+    } catch (IOException e) {
+      log.log(Level.WARNING, "Failed to write retry journal", e);
+    }
+    return false;
+  }
+
+  /**
+   * Retry the items of the journal due for a retry, and post the resulting operations.
+   * Items whose member is failing are left for a later check. Items given up are pushed back to
+   * the Cloud Search queue, so that they are polled again with the retries of the SDK rather than
+   * left out of the index.
+   */
+  private void retryDueItems() {
+    for (RetryJournal.Entry entry
+        : retryJournal.getDue(System.currentTimeMillis(), RETRY_BATCH_SIZE)) {
+      if (Thread.currentThread().isInterrupted()) {
+        return;
+      }
+      Item item = new Item().setName(entry.getName()).encodePayload(entry.getPayload());
+      String teamMemberId = null;
+      try {
+        DropBoxObject dropBoxObject = DropBoxObject.decodePayload(entry.getPayload());
+        TeamClient teamClient = teamClients.get(dropBoxObject.getTeam());
+        if (teamClient == null) {
+          retryJournal.resolve(entry.getName());
+          continue;
+        }
+        teamMemberId = dropBoxObject.getTeamMemberId();
+        if (!circuitBreaker.allows(teamMemberId)) {
+          continue;
+        }
+        retriedItems.incrementAndGet();
+        ApiOperation operation =
+            createDoc(teamClient.asMember(teamMemberId), item, dropBoxObject);
+        recordListing(entry.getName(),
+            !DropBoxObject.FILE.equals(dropBoxObject.getObjectType()), true);
+        circuitBreaker.onSuccess(teamMemberId);
+        repositoryContext.postApiOperationAsync(operation);
+        retryJournal.resolve(entry.getName());
+        recoveredItems.incrementAndGet();
+        log.log(Level.INFO, "item has been recovered after {0} attempts [{1}]",
+            new Object[] {entry.getAttempts(), entry.getName()});
+      } catch (IOException e) {
+        if (teamMemberId != null) {
+          circuitBreaker.onFailure(teamMemberId, e);
+        }
+        if (!deferRetry(item, e)) {
+          log.log(Level.WARNING, "item has been given up and pushed back to the queue ["
+              + entry.getName() + "]", e);
+          repositoryContext.postApiOperationAsync(new PushItems.Builder()
+              .addPushItem(entry.getName(), createGivenUpPushItem(entry.getPayload()))
+              .build());
+        }
+      } catch (RuntimeException e) {
+        log.log(Level.WARNING, "Failed to retry " + entry.getName(), e);
+      }
+    }
+  }
+
+  /**
+   * Create the push item returning an item given up by the retry journal to the Cloud Search
+   * queue. The item is marked modified, since it was pushed as not modified when deferred, and
+   * keeps its payload so that it can be processed when polled again.
+   */
+  static PushItem createGivenUpPushItem(byte[] payload) {
+    return new PushItem().setType(PUSH_TYPE_MODIFIED).encodePayload(payload);
   }
 
   /**
@@ -234,11 +663,41 @@ final class DropBoxRepository implements Repository {
   }
 
   /**
-   * Not implemented by this repository.
+   * Stops watching the changes by long-polling, the text extraction threads and the prefetch
+   * threads and the access token refresh, and closes the metadata store.
    */
   @Override
   public void close() {
-    // Performs any data repository shut down code here.
+    if (retryScheduler != null) {
+      retryScheduler.shutdownNow();
+    }
+    if (retryJournal != null) {
+      retryJournal.close();
+    }
+    if (longPollWatcher != null) {
+      longPollWatcher.close();
+    }
+    if (changePoller != null) {
+      changePoller.close();
+    }
+    if (textExtractor != null) {
+      textExtractor.close();
+    }
+    if (childPrefetcher != null) {
+      childPrefetcher.close();
+    }
+    if (fileDownloader != null) {
+      fileDownloader.close();
+    }
+    if (deletionSweeper != null) {
+      deletionSweeper.close();
+    }
+    if (metadataStore != null) {
+      metadataStore.close();
+    }
+    if (teamClients != null) {
+      teamClients.values().forEach(TeamClient::close);
+    }
   }
 
   /**
@@ -268,15 +727,15 @@ final class DropBoxRepository implements Repository {
     }
     Item item = itemBuilder.build();
 
-    RepositoryDoc.Builder docBuilder = new RepositoryDoc.Builder().setItem(item);
+    RepositoryDoc document = new RepositoryDoc.Builder().setItem(item).build();
 
     // child items
-    Map<String, PushItem> items = getChildItems(teamMemberId, memberName, memberClient, ROOT_PATH);
-    items.entrySet().stream().forEach(e -> docBuilder.addChildId(e.getKey(), e.getValue()));
+    Map<String, PushItem> items = getChildItems(dropBoxObject.getTeam(), teamMemberId,
+        memberName, memberClient, polledItemName, ROOT_PATH);
+    memberScheduler.onChildrenPushed(teamMemberId, items.size());
 
-    RepositoryDoc document = docBuilder.build();
     log.log(Level.INFO, SUCCESS_LOG, polledItemName);
-    return document;
+    return withChildItems(document, items);
   }
 
   /**
@@ -291,21 +750,20 @@ final class DropBoxRepository implements Repository {
     String sharedFolderId = dropBoxObject.getSharedFolderId();
 
     // ACL
-    List<Principal> permits;
-    if (sharedFolderId.isEmpty()) {
-      permits = Collections.singletonList(Acl.getUserPrincipal(teamMemberId));
-    } else {
-      SharingInfo sharingInfo;
-      try {
-        sharingInfo = memberClient.getFolderSharingInfo(sharedFolderId);
+    SharingInfo sharingInfo = null;
+    if (!sharedFolderId.isEmpty()) {
+      try (FlightEvents.Span span = FlightEvents.aclLookup(polledItemName)) {
+        try {
+          sharingInfo = memberClient.getFolderSharingInfo(sharedFolderId);
+        } catch (DbxException | RuntimeException e) {
+          span.setFailure(e);
+          throw e;
+        }
       } catch (DbxException e) {
         throw new IOException(e);
       }
-      permits = createSharedReaders(sharingInfo);
     }
-    Acl acl = new Acl.Builder()
-        .setReaders(permits)
-        .build();
+    Acl acl = createInheritedAcl(dropBoxObject, sharingInfo);
 
     // build item
     IndexingItemBuilder itemBuilder = new IndexingItemBuilder(polledItemName)
@@ -319,15 +777,15 @@ final class DropBoxRepository implements Repository {
     }
     Item item = itemBuilder.build();
 
-    RepositoryDoc.Builder docBuilder = new RepositoryDoc.Builder().setItem(item);
+    RepositoryDoc document = new RepositoryDoc.Builder().setItem(item).build();
 
     // child items
-    Map<String, PushItem> items = getChildItems(teamMemberId, memberName, memberClient, folderPath);
-    items.entrySet().stream().forEach(e -> docBuilder.addChildId(e.getKey(), e.getValue()));
+    Map<String, PushItem> items = getChildItems(dropBoxObject.getTeam(), teamMemberId,
+        memberName, memberClient, polledItemName, folderPath);
+    memberScheduler.onChildrenPushed(teamMemberId, items.size());
 
-    RepositoryDoc document = docBuilder.build();
     log.log(Level.INFO, SUCCESS_LOG, polledItemName);
-    return document;
+    return withChildItems(document, items);
   }
 
   /**
@@ -336,35 +794,53 @@ final class DropBoxRepository implements Repository {
   private ApiOperation createFileDoc(MemberClient memberClient, Item polledItem,
       DropBoxObject dropBoxObject) throws IOException {
     String polledItemName = polledItem.getName();
-    String filePath = dropBoxObject.getPathDisplay();
+    ChildPrefetcher.PrefetchedFile prefetched =
+        childPrefetcher == null ? null : childPrefetcher.take(polledItemName, dropBoxObject);
+
+    // ACL: only a file shared on its own carries readers besides those of its folder
+    SharingInfo sharingInfo = prefetched != null
+        ? prefetched.getSharingInfo()
+        : getOwnSharingInfo(memberClient, polledItemName, dropBoxObject);
+    Acl acl = createInheritedAcl(dropBoxObject, sharingInfo);
+
+    // skip the file if it has been indexed at the same revision and with the same ACL
+    MetadataStore.Entry indexedEntry = createIndexedEntry(dropBoxObject, sharingInfo);
+    if (isIndexed(polledItem, indexedEntry)) {
+      if (prefetched != null && prefetched.getContent() != null) {
+        prefetched.getContent().release();
+      }
+      skippedItems.incrementAndGet();
+      log.log(Level.FINE, "item has not been modified since indexed [{0}]", polledItemName);
+      return new PushItems.Builder()
+          .addPushItem(polledItemName, new PushItem().setType(PUSH_TYPE_NOT_MODIFIED))
+          .build();
+    }
 
     // File Content
-    ByteArrayContent fileContent = null;
+    AbstractInputStreamContent fileContent = null;
+    ContentFormat contentFormat = ContentFormat.RAW;
     if (dropBoxObject.getIsDownloadable()) {
-      DbxDownloader<FileMetadata> file;
-      try {
-        file = memberClient.download(filePath);
-      } catch (DbxException e) {
-        throw new IOException(e);
+      DownloadedContent content = prefetched != null && prefetched.getContent() != null
+          ? prefetched.getContent()
+          : fileDownloader.download(memberClient, dropBoxObject);
+      String text = null;
+      if (textExtractor != null) {
+        try {
+          text = textExtractor.extract(dropBoxObject.getName(), content);
+        } catch (IOException e) {
+          content.release();
+          throw e;
+        }
       }
-      try (InputStream contentStream = file.getInputStream()) {
-        String mimeType = file.getContentType();
-        fileContent = new ByteArrayContent(mimeType, ByteStreams.toByteArray(contentStream));
+      if (text == null) {
+        fileContent = content;
+      } else {
+        content.release();
+        fileContent = ByteArrayContent.fromString(TEXT_MIME_TYPE, text);
+        contentFormat = ContentFormat.TEXT;
       }
     }
 
-    // ACL
-    SharingInfo sharingInfo;
-    try {
-      sharingInfo = memberClient.getFileSharingInfo(filePath);
-    } catch (DbxException e) {
-      throw new IOException(e);
-    }
-    List<Principal> permits = createSharedReaders(sharingInfo);
-    Acl acl = new Acl.Builder()
-        .setReaders(permits)
-        .build();
-
     // build item
     IndexingItemBuilder itemBuilder = new IndexingItemBuilder(polledItemName)
         .setTitle(withValue(dropBoxObject.getName()))
@@ -382,25 +858,138 @@ final class DropBoxRepository implements Repository {
         .setItem(item);
 
     if (fileContent != null) {
-      docBuilder.setContent(fileContent, ContentFormat.RAW);
+      docBuilder.setContent(fileContent, contentFormat);
     }
 
     RepositoryDoc document = docBuilder.build();
+    if (indexedEntry != null) {
+      try {
+        boolean isNew = metadataStore.get(polledItemName) == null;
+        metadataStore.put(polledItemName, indexedEntry);
+        if (isNew && deletionSweeper != null) {
+          deletionSweeper.onIndexed(polledItemName);
+        }
+      } catch (IOException e) {
+        log.log(Level.WARNING, "Failed to store metadata of " + polledItemName, e);
+      }
+    }
     log.log(Level.INFO, SUCCESS_LOG, polledItemName);
     return document;
   }
 
   /**
-   * Based on the sharing information, create a list of readable users and groups.
+   * Get the sharing information of a file shared on its own. The lookup is recorded as a Flight
+   * Recorder event.
+   * If the file only inherits the readers of its folder, return {@code null} without requesting
+   * DropBox.
+   */
+  static SharingInfo getOwnSharingInfo(MemberClient memberClient, String itemName,
+      DropBoxObject dropBoxObject) throws IOException {
+    if (!dropBoxObject.getHasExplicitSharedMembers()) {
+      return null;
+    }
+    try (FlightEvents.Span span = FlightEvents.aclLookup(itemName)) {
+      try {
+        return memberClient.getFileSharingInfo(dropBoxObject.getPathDisplay());
+      } catch (DbxException | RuntimeException e) {
+        span.setFailure(e);
+        throw e;
+      }
+    } catch (DbxException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Create the metadata store entry of a file to be indexed. The ACL is described by the own
+   * readers of the file and by its parent, so a change of the readers of the parent does not
+   * change the entry.
+   * If the store is disabled or the revision of the file is unknown, return {@code null}.
+   */
+  private MetadataStore.Entry createIndexedEntry(DropBoxObject dropBoxObject,
+      SharingInfo sharingInfo) {
+    if (metadataStore == null || dropBoxObject.getRev().isEmpty()) {
+      return null;
+    }
+    return new MetadataStore.Entry(
+        Fingerprint.of(dropBoxObject.getRev()),
+        Fingerprint.of(dropBoxObject.getContentHash()),
+        Fingerprint.of(describeAcl(dropBoxObject, sharingInfo)),
+        System.currentTimeMillis());
+  }
+
+  /**
+   * Describe the ACL created by {@link #createInheritedAcl(DropBoxObject, SharingInfo)} as the
+   * item it inherits from followed by its own readers.
+   */
+  static List<String> describeAcl(DropBoxObject dropBoxObject, SharingInfo sharingInfo) {
+    List<String> readers = Lists.newArrayList();
+    readers.add("inherit:" + getParentItemName(dropBoxObject));
+    if (sharingInfo != null) {
+      sharingInfo.getUserIds().forEach(userId -> readers.add("user:" + userId));
+      sharingInfo.getGroupNames().forEach(groupName -> readers.add(
+          "group:" + SharingInfo.getGroupKey(dropBoxObject.getTeam(), groupName)));
+    }
+    return readers;
+  }
+
+  /**
+   * Whether the polled item is in the index as described by the metadata store entry.
+   */
+  private boolean isIndexed(Item polledItem, MetadataStore.Entry entry) {
+    if (entry == null) {
+      return false;
+    }
+    if (polledItem.getStatus() != null
+        && UNINDEXED_STATUS_CODES.contains(polledItem.getStatus().getCode())) {
+      return false;
+    }
+    MetadataStore.Entry indexed = metadataStore.get(polledItem.getName());
+    return indexed != null
+        && indexed.getRevFingerprint() == entry.getRevFingerprint()
+        && indexed.getContentHashFingerprint() == entry.getContentHashFingerprint()
+        && indexed.getAclFingerprint() == entry.getAclFingerprint();
+  }
+
+  /**
+   * Create an operation to delete the item from the index, and forget its metadata.
    */
-  private List<Principal> createSharedReaders(SharingInfo sharingInfo) {
+  private ApiOperation deleteItem(String itemName) {
+    if (metadataStore != null) {
+      metadataStore.remove(itemName);
+    }
+    return ApiOperations.deleteItem(itemName);
+  }
+
+  /**
+   * Create the ACL of a folder or a file, which inherits the readers of its parent container.
+   * Only an item shared on its own carries the readers of its sharing information, who are
+   * granted besides the readers of the parent. So a change of the members of a shared folder
+   * updates the folder item alone, not every item below it.
+   * {@code sharingInfo} argument should be {@code null} if the item is not shared on its own.
+   */
+  static Acl createInheritedAcl(DropBoxObject dropBoxObject, SharingInfo sharingInfo) {
+    Acl.Builder aclBuilder = new Acl.Builder()
+        .setInheritFrom(getParentItemName(dropBoxObject))
+        .setInheritanceType(Acl.InheritanceType.CHILD_OVERRIDE);
+    if (sharingInfo != null) {
+      aclBuilder.setReaders(createSharedReaders(dropBoxObject.getTeam(), sharingInfo));
+    }
+    return aclBuilder.build();
+  }
+
+  /**
+   * Based on the sharing information, create a list of readable users and groups. Groups are
+   * identified by their name within the team.
+   */
+  private static List<Principal> createSharedReaders(String team, SharingInfo sharingInfo) {
     List<Principal> readers = Lists.newArrayList();
 
     List<Principal> users = sharingInfo.getUserIds().stream()
         .map(Acl::getUserPrincipal)
         .collect(Collectors.toList());
     List<Principal> groups = sharingInfo.getGroupNames().stream()
-        .map(Acl::getGroupPrincipal)
+        .map(groupName -> Acl.getGroupPrincipal(SharingInfo.getGroupKey(team, groupName)))
         .collect(Collectors.toList());
 
     readers.addAll(users);
@@ -409,12 +998,27 @@ final class DropBoxRepository implements Repository {
   }
 
   /**
-   * Get the child items under the item to be processed.
-   * {@code path} argument should be the path to the item to be processed.
+   * Create an operation indexing the container document, then pushing its child items in the
+   * iteration order of the map. Children added to a {@link RepositoryDoc} are pushed in no
+   * particular order.
+   */
+  private static ApiOperation withChildItems(RepositoryDoc document,
+      Map<String, PushItem> items) {
+    PushItems.Builder pushItemsBuilder = new PushItems.Builder();
+    items.forEach(pushItemsBuilder::addPushItem);
+    return ApiOperations.batch(Arrays.asList(document, pushItemsBuilder.build()).iterator());
+  }
+
+  /**
+   * Get the child items under the item to be processed, in the order they should be indexed.
+   * {@code parentItemName} and {@code path} arguments should be the name of and the path to the
+   * item to be processed.
    */
-  private Map<String, PushItem> getChildItems(String teamMemberId, String memberName,
-      MemberClient memberClient, String path) throws IOException {
-    Map<String, PushItem> items = new HashMap<>();
+  private Map<String, PushItem> getChildItems(String team, String teamMemberId,
+      String memberName, MemberClient memberClient, String parentItemName, String path)
+      throws IOException {
+    Map<String, PushItem> items = new LinkedHashMap<>();
+    Map<String, DropBoxObject> files = new LinkedHashMap<>();
 
     List<Metadata> contents;
     try {
@@ -423,33 +1027,141 @@ final class DropBoxRepository implements Repository {
       throw new IOException(e);
     }
 
+    List<DropBoxObject> children = Lists.newArrayList();
     for (Metadata content : contents) {
-      DropBoxObject dropBoxObject = null;
-
-      if (content instanceof FolderMetadata) {
-        FolderMetadata folder = (FolderMetadata) content;
-        dropBoxObject =
-            new DropBoxObject.Builder(DropBoxObject.FOLDER, teamMemberId, memberName)
-                .setName(folder.getName())
-                .setPathDisplay(folder.getPathDisplay())
-                .setSharedFolderId(folder.getSharedFolderId())
-                .build();
-      } else if (content instanceof FileMetadata) {
-        FileMetadata file = (FileMetadata) content;
-        dropBoxObject =
-            new DropBoxObject.Builder(DropBoxObject.FILE, teamMemberId, memberName)
-                .setName(file.getName())
-                .setPathDisplay(file.getPathDisplay())
-                .setDownloadable(file.getIsDownloadable())
-                .setServerModified(file.getServerModified())
-                .build();
-      } else {
+      if (!pathFilter.accepts(content.getPathDisplay(), content instanceof FolderMetadata)) {
+        excludedItems.incrementAndGet();
         continue;
       }
+      DropBoxObject dropBoxObject =
+          createDropBoxObject(team, teamMemberId, memberName, parentItemName, content);
+      if (dropBoxObject != null) {
+        children.add(dropBoxObject);
+      }
+    }
+    children.sort(DropBoxObject.PUSH_ORDER);
 
-      String url = Path.createPath(ROOT_URL, memberName, dropBoxObject.getPathDisplay());
+    for (DropBoxObject dropBoxObject : children) {
+      String url = createItemName(team, memberName, dropBoxObject.getPathDisplay());
       items.put(url, new PushItem().encodePayload(dropBoxObject.encodePayload()));
+      if (deletionSweeper != null) {
+        deletionSweeper.markSeen(url);
+      }
+      if (DropBoxObject.FILE.equals(dropBoxObject.getObjectType())) {
+        files.put(url, dropBoxObject);
+      }
+    }
+
+    if (childPrefetcher != null) {
+      childPrefetcher.prefetch(memberClient, files);
     }
     return items;
   }
+
+  /**
+   * Push the files and folders changed in DropBox to the Cloud Search queue, and delete the
+   * deleted ones from the index, without waiting for the next traversal.
+   */
+  private void pushChanges(String team, String teamMemberId, String memberName,
+      List<Metadata> changes) throws IOException {
+    PushItems.Builder pushItemsBuilder = new PushItems.Builder();
+    List<ApiOperation> operations = Lists.newArrayList();
+
+    for (Metadata change : changes) {
+      String url = createItemName(team, memberName, change.getPathDisplay());
+      if (change instanceof DeletedMetadata) {
+        operations.add(deleteItem(url));
+        continue;
+      }
+      if (!pathFilter.accepts(change.getPathDisplay(), change instanceof FolderMetadata)) {
+        excludedItems.incrementAndGet();
+        continue;
+      }
+
+      String parentItemName = getParentItemName(team, memberName, change.getPathDisplay());
+      DropBoxObject dropBoxObject =
+          createDropBoxObject(team, teamMemberId, memberName, parentItemName, change);
+      if (dropBoxObject == null) {
+        continue;
+      }
+      pushItemsBuilder.addPushItem(url, new PushItem()
+          .setType(PUSH_TYPE_MODIFIED)
+          .encodePayload(dropBoxObject.encodePayload()));
+      if (deletionSweeper != null) {
+        deletionSweeper.markSeen(url);
+      }
+    }
+    operations.add(pushItemsBuilder.build());
+
+    for (ApiOperation operation : operations) {
+      repositoryContext.postApiOperationAsync(operation);
+    }
+    log.log(Level.INFO, "{0} changes of member {1} have been pushed",
+        new Object[] {changes.size(), teamMemberId});
+  }
+
+  /**
+   * Create a payload object of the file or folder.
+   * If the content is neither a file nor a folder, return {@code null}.
+   */
+  static DropBoxObject createDropBoxObject(String team, String teamMemberId, String memberName,
+      String parentItemName, Metadata content) {
+    if (content instanceof FolderMetadata) {
+      FolderMetadata folder = (FolderMetadata) content;
+      return new DropBoxObject.Builder(DropBoxObject.FOLDER, teamMemberId, memberName)
+          .setName(folder.getName())
+          .setPathDisplay(folder.getPathDisplay())
+          .setSharedFolderId(folder.getSharedFolderId())
+          .setTeam(team)
+          .setParentItemName(parentItemName)
+          .build();
+    } else if (content instanceof FileMetadata) {
+      FileMetadata file = (FileMetadata) content;
+      return new DropBoxObject.Builder(DropBoxObject.FILE, teamMemberId, memberName)
+          .setName(file.getName())
+          .setPathDisplay(file.getPathDisplay())
+          .setDownloadable(file.getIsDownloadable())
+          .setServerModified(file.getServerModified())
+          .setSize(file.getSize())
+          .setRev(file.getRev())
+          .setContentHash(file.getContentHash())
+          .setHasExplicitSharedMembers(file.getHasExplicitSharedMembers())
+          .setTeam(team)
+          .setParentItemName(parentItemName)
+          .build();
+    }
+    return null;
+  }
+
+  /**
+   * Get the item name of the container the folder or file inherits its ACL from. Payloads pushed
+   * before the parent was recorded get it from the path.
+   */
+  private static String getParentItemName(DropBoxObject dropBoxObject) {
+    if (!dropBoxObject.getParentItemName().isEmpty()) {
+      return dropBoxObject.getParentItemName();
+    }
+    return getParentItemName(dropBoxObject.getTeam(), dropBoxObject.getMemberDisplayName(),
+        dropBoxObject.getPathDisplay());
+  }
+
+  /**
+   * Get the item name of the parent folder of the path, or of the member if the path is at the
+   * root of the member's DropBox.
+   */
+  private static String getParentItemName(String team, String memberName, String path) {
+    String parentPath = path.substring(0, Math.max(0, path.lastIndexOf('/')));
+    return parentPath.isEmpty()
+        ? createItemName(team, memberName) : createItemName(team, memberName, parentPath);
+  }
+
+  /**
+   * Create the item name of a member, or of a file or folder of the member. The name of an item of
+   * a named team ends with the team as URL fragment, so that the items of several teams never
+   * collide while the name still opens the item in DropBox.
+   */
+  private static String createItemName(String team, String... paths) {
+    String url = Path.createPath(ROOT_URL, paths);
+    return team.isEmpty() ? url : url + "#" + team;
+  }
 }
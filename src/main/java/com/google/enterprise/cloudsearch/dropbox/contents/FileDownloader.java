@@ -0,0 +1,649 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.contents;
+
+import com.dropbox.core.DbxDownloader;
+import com.dropbox.core.DbxException;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.enterprise.cloudsearch.dropbox.client.MemberClient;
+import com.google.enterprise.cloudsearch.dropbox.model.DropBoxObject;
+import com.google.enterprise.cloudsearch.dropbox.util.BandwidthLimiter;
+import com.google.enterprise.cloudsearch.dropbox.util.BufferPool;
+import com.google.enterprise.cloudsearch.dropbox.util.ContentCache;
+import com.google.enterprise.cloudsearch.dropbox.util.ContentHasher;
+import com.google.enterprise.cloudsearch.dropbox.util.FlightEvents;
+import com.google.enterprise.cloudsearch.dropbox.util.IoExecutors;
+import com.google.enterprise.cloudsearch.dropbox.util.MemoryBudget;
+import com.google.enterprise.cloudsearch.dropbox.util.Metrics;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.SocketTimeoutException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Downloads file content from DropBox within a process-wide memory budget.
+ *
+ * <p>
+ * Files up to the spool threshold are read into memory once their size has been reserved from
+ * the budget, waiting while the budget is exhausted. Prefetches are skipped instead of waiting.
+ * Larger files are written to a spool file instead, so they never count against the heap. A
+ * download taking longer than the total timeout is aborted by closing its connection. A spooled
+ * download interrupted by a network failure is resumed from the last byte written, pinned to the
+ * revision of the first response.
+ *
+ * <p>
+ * Files from the parallel threshold are downloaded in several byte ranges at the same time, each
+ * over its own connection and pinned to the revision listed in DropBox, into a spool file of the
+ * full size. The first range is downloaded on the calling thread and the others on the range
+ * threads, and the assembled content is verified against the DropBox content hash.
+ */
+final class FileDownloader {
+  /** Log output */
+  private static final Logger log = Logger.getLogger(FileDownloader.class.getName());
+  /** Prefix of spool file names */
+  private static final String SPOOL_FILE_PREFIX = "dropbox-spool-";
+  /** MIME type DropBox returns for every download, used for content not read from a response */
+  private static final String DOWNLOAD_CONTENT_TYPE = "application/octet-stream";
+
+  /** Budget of the memory holding file content */
+  private final MemoryBudget memoryBudget;
+  /** Size above which file content is written to a spool file */
+  private final long spoolThresholdBytes;
+  /** Directory of spool files */
+  private final File spoolDirectory;
+  /** Seconds to wait for a download to complete, or 0 for no limit */
+  private final long totalTimeoutSecs;
+  /** Number of times an interrupted download of a spooled file is resumed */
+  private final int maxResumes;
+  /** Limit of the bandwidth shared by all the downloads */
+  private final BandwidthLimiter bandwidthLimiter;
+  /** Cache of content keyed by content hash, or {@code null} if disabled */
+  private final ContentCache contentCache;
+  /** Pool of the buffers copying content to spool files */
+  private final BufferPool bufferPool;
+  /** Size from which a file is downloaded in parallel ranges, or 0 if disabled */
+  private final long parallelThresholdBytes;
+  /** Number of ranges a large file is downloaded in */
+  private final int parallelChunks;
+  /** Executor downloading the ranges besides the first, or {@code null} if disabled */
+  private final ExecutorService rangeExecutor;
+  /** Thread aborting the downloads past the total timeout, or {@code null} if not limited */
+  private final ScheduledExecutorService deadlineScheduler;
+  /** Number of downloads aborted past the total timeout */
+  private final AtomicLong timedOutDownloads = Metrics.counter("content.timedOutDownloads");
+  /** Number of files written to spool files */
+  private final AtomicLong spooledFiles = Metrics.counter("content.spooledFiles");
+  /** Number of downloads resumed after a network failure */
+  private final AtomicLong resumedDownloads = Metrics.counter("content.resumedDownloads");
+  /** Number of bytes not downloaded again thanks to resumed downloads */
+  private final AtomicLong resumedBytes = Metrics.counter("content.resumedBytes");
+  /** Number of files downloaded in parallel ranges */
+  private final AtomicLong parallelDownloads = Metrics.counter("content.parallelDownloads");
+  /** Number of files downloaded in parallel ranges whose content hash did not match */
+  private final AtomicLong hashMismatches = Metrics.counter("content.hashMismatches");
+  /** Number of downloads served from the content cache */
+  private final AtomicLong cacheHits = Metrics.counter("contentCache.hits");
+  /** Number of prefetch downloads skipped because the memory budget was exhausted */
+  private final AtomicLong budgetSkippedDownloads =
+      Metrics.counter("content.budgetSkippedDownloads");
+  /** Number of downloads not found in the content cache */
+  private final AtomicLong cacheMisses = Metrics.counter("contentCache.misses");
+  /** Number of bytes served from the content cache */
+  private final AtomicLong cacheHitBytes = Metrics.counter("contentCache.hitBytes");
+
+  /**
+   * Get an instance of {@link FileDownloader}. Spool files left behind by a previous run are
+   * deleted.
+   *
+   * @param memoryBudget        budget of the memory holding file content
+   * @param spoolThresholdBytes size above which file content is written to a spool file
+   * @param spoolDirectory      directory of spool files
+   * @param totalTimeoutSecs    seconds to wait for a download to complete, or 0 for no limit
+   * @param maxResumes          number of times an interrupted download of a spooled file is
+   *                            resumed
+   * @param bandwidthLimiter    limit of the bandwidth shared by all the downloads
+   * @param contentCache        cache of content keyed by content hash, or {@code null} if
+   *                            disabled
+   * @param parallelThresholdBytes size from which a file is downloaded in parallel ranges, or 0
+   *                               if disabled
+   * @param parallelChunks         number of ranges a large file is downloaded in
+   * @param bufferPool             pool of the buffers copying content to spool files
+   */
+  FileDownloader(MemoryBudget memoryBudget, long spoolThresholdBytes, File spoolDirectory,
+      long totalTimeoutSecs, int maxResumes, BandwidthLimiter bandwidthLimiter,
+      ContentCache contentCache, long parallelThresholdBytes, int parallelChunks,
+      BufferPool bufferPool) {
+    this.memoryBudget = memoryBudget;
+    this.spoolThresholdBytes = spoolThresholdBytes;
+    this.spoolDirectory = spoolDirectory;
+    this.totalTimeoutSecs = totalTimeoutSecs;
+    this.maxResumes = maxResumes;
+    this.bandwidthLimiter = bandwidthLimiter;
+    this.contentCache = contentCache;
+    this.parallelThresholdBytes = parallelThresholdBytes;
+    this.parallelChunks = parallelChunks;
+    this.bufferPool = bufferPool;
+    this.rangeExecutor = parallelThresholdBytes > 0
+        ? IoExecutors.newExecutor("dropbox-download-range-%d", parallelChunks - 1,
+            Integer.MAX_VALUE)
+        : null;
+    this.deadlineScheduler = totalTimeoutSecs > 0
+        ? Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("dropbox-download-deadline")
+                .setDaemon(true)
+                .build())
+        : null;
+
+    Metrics.registerGauge("content.memoryBudget.capacityBytes", memoryBudget::getCapacityBytes);
+    Metrics.registerGauge("content.memoryBudget.reservedBytes", memoryBudget::getReservedBytes);
+    Metrics.registerGauge("content.memoryBudget.waitingThreads",
+        memoryBudget::getWaitingThreads);
+    Metrics.registerGauge("bandwidth.limitBytesPerSecond",
+        bandwidthLimiter::getLimitBytesPerSecond);
+    Metrics.registerGauge("bandwidth.currentBytesPerSecond",
+        bandwidthLimiter::getCurrentBytesPerSecond);
+    Metrics.registerGauge("bufferPool.pooledBuffers", bufferPool::size);
+    Metrics.registerGauge("bufferPool.allocatedBuffers", bufferPool::getAllocatedBuffers);
+    if (contentCache != null) {
+      Metrics.registerGauge("contentCache.entries", contentCache::size);
+      Metrics.registerGauge("contentCache.totalBytes", contentCache::getTotalBytes);
+    }
+    deleteStaleSpoolFiles();
+  }
+
+  /**
+   * Gets the file content from the content cache, or downloads it and adds it to the cache. The
+   * download is recorded as a Flight Recorder event.
+   *
+   * @param memberClient  member client
+   * @param dropBoxObject file to download
+   * @return downloaded content, which must be released once it is no longer used
+   * @throws IOException when downloading the file fails
+   */
+  DownloadedContent download(MemberClient memberClient, DropBoxObject dropBoxObject)
+      throws IOException {
+    return download(memberClient, dropBoxObject, true);
+  }
+
+  /**
+   * Same as {@link #download(MemberClient, DropBoxObject)}, except that the download is skipped
+   * instead of waiting when the memory budget is exhausted. Used by the prefetch, whose cached
+   * content holds the budget, so that it never waits for budget only the cache would release.
+   *
+   * @param memberClient  member client
+   * @param dropBoxObject file to download
+   * @return downloaded content, which must be released once it is no longer used, or
+   *         {@code null} if the memory budget is exhausted
+   * @throws IOException when downloading the file fails
+   */
+  DownloadedContent downloadIfBudgetAvailable(MemberClient memberClient,
+      DropBoxObject dropBoxObject) throws IOException {
+    return download(memberClient, dropBoxObject, false);
+  }
+
+  private DownloadedContent download(MemberClient memberClient, DropBoxObject dropBoxObject,
+      boolean waitForBudget) throws IOException {
+    try (FlightEvents.Span span = FlightEvents.download(dropBoxObject.getTeamMemberId(),
+        dropBoxObject.getPathDisplay())) {
+      try {
+        DownloadedContent content =
+            downloadOrGetCached(memberClient, dropBoxObject, waitForBudget, span);
+        if (content == null) {
+          budgetSkippedDownloads.incrementAndGet();
+          span.setOutcome("skipped");
+          return null;
+        }
+        span.setBytes(content.getLength());
+        return content;
+      } catch (IOException | RuntimeException e) {
+        span.setFailure(e);
+        throw e;
+      }
+    }
+  }
+
+  private DownloadedContent downloadOrGetCached(MemberClient memberClient,
+      DropBoxObject dropBoxObject, boolean waitForBudget, FlightEvents.Span span)
+      throws IOException {
+    String contentHash = dropBoxObject.getContentHash();
+    // Payloads pushed before the size was recorded declare 0, and are not looked up.
+    if (contentCache == null || contentHash.isEmpty() || dropBoxObject.getSize() == 0) {
+      return downloadFromDropBox(memberClient, dropBoxObject, waitForBudget);
+    }
+    ContentCache.Lease lease = contentCache.get(contentHash, dropBoxObject.getSize());
+    if (lease != null) {
+      cacheHits.incrementAndGet();
+      cacheHitBytes.addAndGet(lease.getSize());
+      span.setOutcome("cached");
+      return DownloadedContent.cached(DOWNLOAD_CONTENT_TYPE, lease);
+    }
+    cacheMisses.incrementAndGet();
+
+    DownloadedContent content = downloadFromDropBox(memberClient, dropBoxObject, waitForBudget);
+    if (content == null) {
+      return null;
+    }
+    try (InputStream in = content.openStream()) {
+      contentCache.put(contentHash, content.getLength(), in);
+    } catch (IOException e) {
+      log.log(Level.WARNING, "Failed to cache content of " + dropBoxObject.getPathDisplay(), e);
+    }
+    return content;
+  }
+
+  private DownloadedContent downloadFromDropBox(MemberClient memberClient,
+      DropBoxObject dropBoxObject, boolean waitForBudget) throws IOException {
+    String filePath = dropBoxObject.getPathDisplay();
+    long declaredSize = dropBoxObject.getSize();
+    if (isParallel(dropBoxObject)) {
+      return downloadInRanges(memberClient, dropBoxObject);
+    }
+    // Reserve the declared size before starting the download. Payloads pushed before the size
+    // was recorded declare 0, and are reserved once the response tells the size.
+    MemoryBudget.Reservation reservation = null;
+    if (declaredSize <= spoolThresholdBytes) {
+      reservation = reserve(declaredSize, waitForBudget);
+      if (reservation == null) {
+        return null;
+      }
+    }
+
+    DbxDownloader<FileMetadata> file;
+    try {
+      file = memberClient.download(filePath);
+    } catch (DbxException e) {
+      release(reservation);
+      throw new IOException(e);
+    }
+
+    Deadline deadline = new Deadline(file);
+    try (InputStream contentStream = bandwidthLimiter.limit(file.getInputStream())) {
+      String mimeType = file.getContentType();
+      long size = file.getResult().getSize();
+      if (size > spoolThresholdBytes) {
+        release(reservation);
+        return spool(memberClient, file.getResult(), mimeType, contentStream, deadline);
+      }
+      if (reservation == null || size > declaredSize) {
+        release(reservation);
+        reservation = reserve(size, waitForBudget);
+        if (reservation == null) {
+          return null;
+        }
+      }
+      byte[] content = new byte[(int) size];
+      ByteStreams.readFully(contentStream, content);
+      return DownloadedContent.inMemory(mimeType, content, reservation);
+    } catch (IOException | RuntimeException e) {
+      release(reservation);
+      if (deadline.isExpired()) {
+        timedOutDownloads.incrementAndGet();
+        SocketTimeoutException timeout = new SocketTimeoutException(
+            "Download of " + filePath + " did not complete within " + totalTimeoutSecs + " s");
+        timeout.initCause(e);
+        throw timeout;
+      }
+      throw e;
+    } finally {
+      deadline.cancel();
+    }
+  }
+
+  /** Stops aborting the downloads past the total timeout and downloading ranges. */
+  void close() {
+    if (deadlineScheduler != null) {
+      deadlineScheduler.shutdownNow();
+    }
+    if (rangeExecutor != null) {
+      rangeExecutor.shutdownNow();
+    }
+  }
+
+  /**
+   * Whether the file is downloaded in parallel ranges. The revision and the content hash are
+   * required to pin the ranges and to verify the assembled content.
+   */
+  private boolean isParallel(DropBoxObject dropBoxObject) {
+    long size = dropBoxObject.getSize();
+    return rangeExecutor != null
+        && size >= parallelThresholdBytes
+        && size > spoolThresholdBytes
+        && !dropBoxObject.getRev().isEmpty()
+        && !dropBoxObject.getContentHash().isEmpty();
+  }
+
+  private DownloadedContent downloadInRanges(MemberClient memberClient,
+      DropBoxObject dropBoxObject) throws IOException {
+    String filePath = dropBoxObject.getPathDisplay();
+    long size = dropBoxObject.getSize();
+    long rangeBytes = (size + parallelChunks - 1) / parallelChunks;
+    List<Future<?>> ranges = new ArrayList<>();
+    File spoolFile = File.createTempFile(SPOOL_FILE_PREFIX, null, spoolDirectory);
+    try {
+      try (RandomAccessFile file = new RandomAccessFile(spoolFile, "rw")) {
+        file.setLength(size);
+      }
+      for (long start = rangeBytes; start < size; start += rangeBytes) {
+        long offset = start;
+        long length = Math.min(rangeBytes, size - start);
+        ranges.add(rangeExecutor.submit(() -> {
+          downloadRange(memberClient, dropBoxObject, spoolFile, offset, length);
+          return null;
+        }));
+      }
+      downloadRange(memberClient, dropBoxObject, spoolFile, 0, Math.min(rangeBytes, size));
+      for (Future<?> range : ranges) {
+        awaitRange(range, filePath);
+      }
+      verifyContentHash(spoolFile, dropBoxObject);
+    } catch (IOException | RuntimeException e) {
+      ranges.forEach(range -> range.cancel(true));
+      if (!spoolFile.delete()) {
+        log.log(Level.WARNING, "Failed to delete spool file {0}", spoolFile);
+      }
+      throw e;
+    }
+    spooledFiles.incrementAndGet();
+    parallelDownloads.incrementAndGet();
+    return DownloadedContent.spooled(DOWNLOAD_CONTENT_TYPE, spoolFile);
+  }
+
+  /**
+   * Downloads a byte range of the file into its place in the spool file, resuming the range from
+   * the last byte written when reading the response fails.
+   */
+  private void downloadRange(MemberClient memberClient, DropBoxObject dropBoxObject,
+      File spoolFile, long offset, long length) throws IOException {
+    String filePath = dropBoxObject.getPathDisplay();
+    long written = 0;
+    try (RandomAccessFile file = new RandomAccessFile(spoolFile, "rw")) {
+      file.seek(offset);
+      OutputStream out = Channels.newOutputStream(file.getChannel());
+      for (int resumes = 0; ; resumes++) {
+        DbxDownloader<FileMetadata> range;
+        try {
+          range = memberClient.download(filePath, dropBoxObject.getRev(), offset + written,
+              length - written);
+        } catch (DbxException e) {
+          throw new IOException(e);
+        }
+        Deadline deadline = new Deadline(range);
+        try (InputStream in = bandwidthLimiter.limit(range.getInputStream())) {
+          written = copy(in, out, written);
+          break;
+        } catch (ReadFailure e) {
+          written = e.written;
+          if (deadline.isExpired()) {
+            timedOutDownloads.incrementAndGet();
+            SocketTimeoutException timeout = new SocketTimeoutException("Download of "
+                + filePath + " did not complete within " + totalTimeoutSecs + " s");
+            timeout.initCause(e.getCause());
+            throw timeout;
+          }
+          if (resumes >= maxResumes || Thread.currentThread().isInterrupted()) {
+            throw e.getCause();
+          }
+          log.log(Level.FINE, "Resuming download of " + filePath + " at byte "
+              + (offset + written), e.getCause());
+          resumedDownloads.incrementAndGet();
+          resumedBytes.addAndGet(written);
+        } finally {
+          deadline.cancel();
+          range.close();
+        }
+      }
+    }
+    if (written != length) {
+      throw new IOException("Downloaded " + written + " of " + length + " bytes at byte "
+          + offset + " of " + filePath);
+    }
+  }
+
+  private static void awaitRange(Future<?> range, String filePath) throws IOException {
+    try {
+      range.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while downloading " + filePath);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Failed to download a range of " + filePath, e.getCause());
+    }
+  }
+
+  private void verifyContentHash(File spoolFile, DropBoxObject dropBoxObject)
+      throws IOException {
+    ContentHasher hasher = new ContentHasher();
+    byte[] buffer = bufferPool.acquire();
+    try (InputStream in = new FileInputStream(spoolFile)) {
+      for (int read; (read = in.read(buffer)) > 0; ) {
+        hasher.write(buffer, 0, read);
+      }
+    } finally {
+      bufferPool.release(buffer);
+    }
+    String actualHash = hasher.digest();
+    if (!actualHash.equals(dropBoxObject.getContentHash())) {
+      hashMismatches.incrementAndGet();
+      throw new IOException("Content hash mismatch of " + dropBoxObject.getPathDisplay()
+          + ": expected " + dropBoxObject.getContentHash() + " but got " + actualHash);
+    }
+  }
+
+  private MemoryBudget.Reservation reserve(long bytes, boolean waitForBudget)
+      throws IOException {
+    if (!waitForBudget) {
+      return memoryBudget.tryReserve(bytes);
+    }
+    try {
+      return memoryBudget.reserve(bytes);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for memory budget");
+    }
+  }
+
+  private static void release(MemoryBudget.Reservation reservation) {
+    if (reservation != null) {
+      reservation.release();
+    }
+  }
+
+  private DownloadedContent spool(MemberClient memberClient, FileMetadata metadata,
+      String mimeType, InputStream contentStream, Deadline deadline) throws IOException {
+    File spoolFile = File.createTempFile(SPOOL_FILE_PREFIX, null, spoolDirectory);
+    try (OutputStream out = new FileOutputStream(spoolFile)) {
+      copyResuming(memberClient, metadata, contentStream, out, deadline);
+    } catch (IOException | RuntimeException e) {
+      if (!spoolFile.delete()) {
+        log.log(Level.WARNING, "Failed to delete spool file {0}", spoolFile);
+      }
+      throw e;
+    }
+    spooledFiles.incrementAndGet();
+    return DownloadedContent.spooled(mimeType, spoolFile);
+  }
+
+  /**
+   * Copies the content to the spool file, resuming the download from the last byte written when
+   * reading the response fails.
+   */
+  private void copyResuming(MemberClient memberClient, FileMetadata metadata,
+      InputStream contentStream, OutputStream out, Deadline deadline) throws IOException {
+    InputStream in = contentStream;
+    DbxDownloader<FileMetadata> resumed = null;
+    long written = 0;
+    try {
+      for (int resumes = 0; ; resumes++) {
+        try {
+          written = copy(in, out, written);
+          break;
+        } catch (ReadFailure e) {
+          written = e.written;
+          if (resumes >= maxResumes || deadline.isExpired()
+              || Thread.currentThread().isInterrupted()) {
+            throw e.getCause();
+          }
+          log.log(Level.FINE, "Resuming download of " + metadata.getPathDisplay() + " at byte "
+              + written, e.getCause());
+          if (resumed != null) {
+            resumed.close();
+          }
+          try {
+            resumed = memberClient.download(metadata.getPathDisplay(), metadata.getRev(),
+                written);
+          } catch (DbxException dbxException) {
+            e.getCause().addSuppressed(dbxException);
+            throw e.getCause();
+          }
+          deadline.watch(resumed);
+          in = bandwidthLimiter.limit(resumed.getInputStream());
+          resumedDownloads.incrementAndGet();
+          resumedBytes.addAndGet(written);
+        }
+      }
+    } finally {
+      if (resumed != null) {
+        resumed.close();
+      }
+    }
+    if (written != metadata.getSize()) {
+      throw new IOException("Downloaded " + written + " of " + metadata.getSize() + " bytes of "
+          + metadata.getPathDisplay());
+    }
+  }
+
+  /**
+   * Copies the stream until its end.
+   *
+   * @return number of bytes written in total
+   * @throws ReadFailure when reading the stream fails
+   * @throws IOException when writing fails
+   */
+  private long copy(InputStream in, OutputStream out, long written) throws IOException {
+    byte[] buffer = bufferPool.acquire();
+    try {
+      while (true) {
+        int read;
+        try {
+          read = in.read(buffer);
+        } catch (IOException e) {
+          throw new ReadFailure(e, written);
+        }
+        if (read < 0) {
+          return written;
+        }
+        out.write(buffer, 0, read);
+        written += read;
+      }
+    } finally {
+      bufferPool.release(buffer);
+    }
+  }
+
+  private void deleteStaleSpoolFiles() {
+    File[] staleFiles = spoolDirectory.listFiles(
+        (dir, name) -> name.startsWith(SPOOL_FILE_PREFIX));
+    if (staleFiles == null) {
+      return;
+    }
+    for (File staleFile : staleFiles) {
+      if (!staleFile.delete()) {
+        log.log(Level.WARNING, "Failed to delete stale spool file {0}", staleFile);
+      }
+    }
+  }
+
+  /** Failure to read the response, as opposed to a failure to write the content. */
+  private static final class ReadFailure extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    /** Number of bytes written before the failure */
+    private final long written;
+
+    ReadFailure(IOException cause, long written) {
+      super(cause);
+      this.written = written;
+    }
+
+    @Override
+    public synchronized IOException getCause() {
+      return (IOException) super.getCause();
+    }
+  }
+
+  /** Total timeout of a download, which aborts the download by closing its connection. */
+  private final class Deadline {
+    /** Downloader currently reading the response */
+    private final AtomicReference<DbxDownloader<FileMetadata>> current;
+    /** Whether the timeout has expired */
+    private final AtomicBoolean expired = new AtomicBoolean();
+    /** Task aborting the download, or {@code null} if not limited */
+    private final ScheduledFuture<?> abort;
+
+    Deadline(DbxDownloader<FileMetadata> downloader) {
+      this.current = new AtomicReference<>(downloader);
+      this.abort = deadlineScheduler == null ? null
+          : deadlineScheduler.schedule(() -> {
+            expired.set(true);
+            current.get().close();
+          }, totalTimeoutSecs, TimeUnit.SECONDS);
+    }
+
+    /** Watches the downloader resuming the download. */
+    void watch(DbxDownloader<FileMetadata> downloader) {
+      current.set(downloader);
+      if (expired.get()) {
+        downloader.close();
+      }
+    }
+
+    boolean isExpired() {
+      return expired.get();
+    }
+
+    void cancel() {
+      if (abort != null) {
+        abort.cancel(false);
+      }
+    }
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.contents;
+
+import com.dropbox.core.DbxException;
+import com.dropbox.core.v2.files.ListFolderContinueErrorException;
+import com.dropbox.core.v2.files.ListFolderLongpollError;
+import com.dropbox.core.v2.files.ListFolderLongpollErrorException;
+import com.dropbox.core.v2.files.ListFolderLongpollResult;
+import com.dropbox.core.v2.files.Metadata;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.enterprise.cloudsearch.dropbox.client.MemberClient;
+import com.google.enterprise.cloudsearch.dropbox.client.TeamClient;
+import com.google.enterprise.cloudsearch.dropbox.model.FolderChanges;
+import com.google.enterprise.cloudsearch.dropbox.util.IoExecutors;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches the changes of team members by long-polling their list-folder cursors.
+ *
+ * <p>
+ * Each watched member is served by a task that makes a single long-poll request and then
+ * reschedules itself, so the number of concurrent long-polls never exceeds the size of the thread
+ * pool while every member still gets its turn. On Java 21 and later, each long-poll runs on its
+ * own virtual thread instead, so every watched member is polled at the same time without holding
+ * a platform thread; the scheduler thread only waits for the delays between long-polls. The members of all the configured teams share the same threads.
+ */
+final class LongPollWatcher {
+  /** Log output */
+  private static final Logger log = Logger.getLogger(LongPollWatcher.class.getName());
+  /** Member's root path */
+  private static final String ROOT_PATH = "";
+  /** Seconds to wait before retrying a member whose long-poll failed */
+  private static final long RETRY_DELAY_SECS = 60;
+
+  /** Seconds to wait for changes in a long-poll request */
+  private final long timeoutSecs;
+  /** Handler of the detected changes */
+  private final ChangeHandler changeHandler;
+  /** Thread waiting for the delays between long-poll requests */
+  private final ScheduledExecutorService scheduler;
+  /** Executor running long-poll requests */
+  private final ExecutorService executor;
+  /** Team member IDs being watched */
+  private final Set<String> watchedMemberIds = ConcurrentHashMap.newKeySet();
+
+  /** Handles files and folders changed in a member's account. */
+  interface ChangeHandler {
+    /**
+     * Handles the changes.
+     *
+     * @param team         team name, or an empty string for the only team
+     * @param teamMemberId team member ID
+     * @param memberName   member display name
+     * @param changes      changed files and folders
+     * @throws IOException when handling the changes fails
+     */
+    void onChanges(String team, String teamMemberId, String memberName, List<Metadata> changes)
+        throws IOException;
+  }
+
+  /**
+   * Get an instance of {@link LongPollWatcher}.
+   *
+   * @param maxConcurrent maximum number of concurrent long-poll requests, unused when running on
+   *                      virtual threads
+   * @param timeoutSecs   seconds to wait for changes in a long-poll request
+   * @param changeHandler handler of the detected changes
+   */
+  LongPollWatcher(int maxConcurrent, long timeoutSecs, ChangeHandler changeHandler) {
+    this.timeoutSecs = timeoutSecs;
+    this.changeHandler = changeHandler;
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder()
+            .setNameFormat("dropbox-longpoll-scheduler")
+            .setDaemon(true)
+            .build());
+    this.executor =
+        IoExecutors.newExecutor("dropbox-longpoll-%d", maxConcurrent, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Starts watching the member. Calling this method for a member already being watched does
+   * nothing.
+   *
+   * @param teamClient   client of the member's team
+   * @param team         team name, or an empty string for the only team
+   * @param teamMemberId team member ID
+   * @param memberName   member display name
+   */
+  void watch(TeamClient teamClient, String team, String teamMemberId, String memberName) {
+    if (!watchedMemberIds.add(teamMemberId)) {
+      return;
+    }
+    log.log(Level.INFO, "start watching changes of member {0}", teamMemberId);
+    schedule(new MemberWatch(teamClient, team, teamMemberId, memberName), 0);
+  }
+
+  /** Stops watching all members. */
+  void close() {
+    scheduler.shutdownNow();
+    executor.shutdownNow();
+  }
+
+  private void schedule(MemberWatch watch, long delaySecs) {
+    try {
+      scheduler.schedule(() -> execute(watch), delaySecs, TimeUnit.SECONDS);
+    } catch (RejectedExecutionException e) {
+      log.log(Level.FINE, "watcher has been closed, stop watching member {0}",
+          watch.teamMemberId);
+    }
+  }
+
+  private void execute(MemberWatch watch) {
+    try {
+      executor.execute(watch);
+    } catch (RejectedExecutionException e) {
+      log.log(Level.FINE, "watcher has been closed, stop watching member {0}",
+          watch.teamMemberId);
+    }
+  }
+
+  /** Makes a single long-poll request for a member and reschedules itself. */
+  private class MemberWatch implements Runnable {
+    /** Client of the member's team */
+    private final TeamClient teamClient;
+    /** Team name */
+    private final String team;
+    /** Team member ID */
+    private final String teamMemberId;
+    /** Member display name */
+    private final String memberName;
+    /** Cursor of the member's root folder, or {@code null} if it has to be fetched */
+    private String cursor;
+
+    MemberWatch(TeamClient teamClient, String team, String teamMemberId, String memberName) {
+      this.teamClient = teamClient;
+      this.team = team;
+      this.teamMemberId = teamMemberId;
+      this.memberName = memberName;
+    }
+
+    @Override
+    public void run() {
+      long delaySecs = 0;
+      try {
+        MemberClient memberClient = teamClient.asMember(teamMemberId);
+        if (cursor == null) {
+          cursor = memberClient.getLatestCursor(ROOT_PATH);
+        }
+
+        ListFolderLongpollResult result = memberClient.longPoll(cursor, timeoutSecs);
+        if (result.getChanges()) {
+          FolderChanges changes = memberClient.listFolderChanges(cursor);
+          changeHandler.onChanges(team, teamMemberId, memberName, changes.getEntries());
+          cursor = changes.getCursor();
+        }
+        if (result.getBackoff() != null) {
+          delaySecs = result.getBackoff();
+        }
+      } catch (ListFolderLongpollErrorException e) {
+        if (e.errorValue == ListFolderLongpollError.RESET) {
+          cursor = null;
+        }
+        log.log(Level.WARNING, "Failed to long-poll changes of member " + teamMemberId, e);
+        delaySecs = RETRY_DELAY_SECS;
+      } catch (ListFolderContinueErrorException e) {
+        if (e.errorValue.isReset()) {
+          cursor = null;
+        }
+        log.log(Level.WARNING, "Failed to list changes of member " + teamMemberId, e);
+        delaySecs = RETRY_DELAY_SECS;
+      } catch (DbxException | IOException | RuntimeException e) {
+        log.log(Level.WARNING, "Failed to watch changes of member " + teamMemberId, e);
+        delaySecs = RETRY_DELAY_SECS;
+      }
+      schedule(this, delaySecs);
+    }
+  }
+}
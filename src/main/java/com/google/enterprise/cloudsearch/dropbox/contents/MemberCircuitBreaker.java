@@ -0,0 +1,249 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.contents;
+
+import com.dropbox.core.AccessErrorException;
+import com.dropbox.core.BadResponseCodeException;
+import com.dropbox.core.DbxException;
+import com.dropbox.core.InvalidAccessTokenException;
+import com.dropbox.core.RetryException;
+import com.dropbox.core.ServerException;
+import com.google.enterprise.cloudsearch.dropbox.util.Metrics;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stops processing the items of a member whose account keeps failing, such as a suspended or
+ * locked account, so that its items do not take the threads away from the healthy members.
+ *
+ * <p>
+ * Only the failures of the member's account or of DropBox count: an invalid or suspended account,
+ * a rejected token or access, a rate limit or a server error. The failure of a single item, such
+ * as a missing file or a content that can not be read, neither opens nor closes the breaker.
+ *
+ * <p>
+ * The breaker of a member opens after a number of consecutive failures. While it is open, the
+ * items of the member are to be requeued without calling DropBox. Once the open time has passed,
+ * a single item is let through as a probe: its success closes the breaker, and its failure opens
+ * it again for twice as long, up to a limit.
+ *
+ * <p>
+ * Metrics count the breakers in each state rather than reporting each member, so that their
+ * number does not grow with the team. Failures of each member are logged at the {@code FINE}
+ * level, and breakers opening and closing at the {@code WARNING} and {@code INFO} levels.
+ */
+final class MemberCircuitBreaker {
+  /** Log output */
+  private static final Logger log = Logger.getLogger(MemberCircuitBreaker.class.getName());
+  /** Maximum factor applied to the open time after failed probes */
+  private static final int MAX_OPEN_FACTOR = 16;
+  /** HTTP status code from which a response is a server error */
+  private static final int MIN_SERVER_ERROR_STATUS = 500;
+
+  /** Number of consecutive failures opening the breaker, or 0 if never opened */
+  private final int failureThreshold;
+  /** Time the breaker stays open after it first opened */
+  private final long openNanos;
+  /** Clock in nanoseconds */
+  private final LongSupplier nanoClock;
+  /** Breaker of each member keyed by team member ID */
+  private final ConcurrentMap<String, Breaker> breakers = new ConcurrentHashMap<>();
+  /** Number of items requeued because the breaker of their member was open */
+  private final AtomicLong rejectedItems = Metrics.counter("breaker.rejectedItems");
+  /** Number of times a breaker opened */
+  private final AtomicLong openings = Metrics.counter("breaker.openings");
+
+  /**
+   * Get an instance of {@link MemberCircuitBreaker}.
+   *
+   * @param failureThreshold number of consecutive failures opening the breaker of a member, or
+   *                         0 to never open it
+   * @param openSecs         seconds the breaker stays open before an item is let through
+   */
+  MemberCircuitBreaker(int failureThreshold, long openSecs) {
+    this(failureThreshold, openSecs, System::nanoTime);
+  }
+
+  /**
+   * Get an instance of {@link MemberCircuitBreaker} reading the time from the clock.
+   *
+   * @param failureThreshold number of consecutive failures opening the breaker of a member, or
+   *                         0 to never open it
+   * @param openSecs         seconds the breaker stays open before an item is let through
+   * @param nanoClock        clock in nanoseconds
+   */
+  MemberCircuitBreaker(int failureThreshold, long openSecs, LongSupplier nanoClock) {
+    this.failureThreshold = failureThreshold;
+    this.openNanos = TimeUnit.SECONDS.toNanos(openSecs);
+    this.nanoClock = nanoClock;
+
+    Metrics.registerGauge("breaker.openMembers", () -> countBreakers(State.OPEN));
+    Metrics.registerGauge("breaker.probingMembers", () -> countBreakers(State.HALF_OPEN));
+    Metrics.registerGauge("breaker.failingMembers", () -> breakers.values().stream()
+        .filter(breaker -> breaker.consecutiveFailures > 0)
+        .count());
+  }
+
+  /**
+   * Tells whether an item of the member may be processed now. Once the open time has passed, only
+   * the first caller is let through until its outcome is recorded, or until the open time passes
+   * again without an outcome.
+   *
+   * @param teamMemberId team member ID
+   * @return {@code true} if the item may be processed, {@code false} if it has to be requeued
+   */
+  boolean allows(String teamMemberId) {
+    if (failureThreshold == 0) {
+      return true;
+    }
+    Breaker breaker = breakers.computeIfAbsent(teamMemberId, id -> new Breaker());
+    synchronized (breaker) {
+      long now = nanoClock.getAsLong();
+      switch (breaker.state) {
+        case CLOSED:
+          return true;
+        case OPEN:
+          if (now - breaker.openedNanos >= openNanos * breaker.openFactor) {
+            breaker.state = State.HALF_OPEN;
+            breaker.probeStartedNanos = now;
+            return true;
+          }
+          break;
+        case HALF_OPEN:
+          // The outcome of a probe requeued before reaching DropBox is never recorded.
+          if (now - breaker.probeStartedNanos >= openNanos) {
+            breaker.probeStartedNanos = now;
+            return true;
+          }
+          break;
+        default:
+          break;
+      }
+    }
+    rejectedItems.incrementAndGet();
+    return false;
+  }
+
+  /**
+   * Records an item of the member processed successfully, closing its breaker.
+   *
+   * @param teamMemberId team member ID
+   */
+  void onSuccess(String teamMemberId) {
+    Breaker breaker = failureThreshold == 0 ? null : breakers.get(teamMemberId);
+    if (breaker == null) {
+      return;
+    }
+    synchronized (breaker) {
+      if (breaker.state != State.CLOSED) {
+        log.log(Level.INFO, "circuit breaker of member {0} has closed", teamMemberId);
+      }
+      breaker.state = State.CLOSED;
+      breaker.consecutiveFailures = 0;
+      breaker.openFactor = 1;
+    }
+  }
+
+  /**
+   * Records an item of the member that failed, opening its breaker once the failures of the
+   * member reach the threshold or the item was a probe. A failure of the item alone is ignored.
+   *
+   * @param teamMemberId team member ID
+   * @param cause        failure of the item
+   */
+  void onFailure(String teamMemberId, Throwable cause) {
+    if (failureThreshold == 0 || !isMemberFailure(cause)) {
+      return;
+    }
+    Breaker breaker = breakers.computeIfAbsent(teamMemberId, id -> new Breaker());
+    synchronized (breaker) {
+      breaker.consecutiveFailures++;
+      log.log(Level.FINE, "item of member {0} failed, {1} consecutive failures",
+          new Object[] {teamMemberId, breaker.consecutiveFailures});
+      if (breaker.state == State.HALF_OPEN) {
+        breaker.openFactor = Math.min(breaker.openFactor * 2, MAX_OPEN_FACTOR);
+      } else if (breaker.state == State.OPEN
+          || breaker.consecutiveFailures < failureThreshold) {
+        return;
+      }
+      breaker.state = State.OPEN;
+      breaker.openedNanos = nanoClock.getAsLong();
+      openings.incrementAndGet();
+      log.log(Level.WARNING, "circuit breaker of member {0} has opened after {1} consecutive"
+          + " failures; its items are deferred for {2} seconds", new Object[] {teamMemberId,
+              breaker.consecutiveFailures,
+              TimeUnit.NANOSECONDS.toSeconds(openNanos * breaker.openFactor)});
+    }
+  }
+
+  /**
+   * Tells whether the failure, or the DropBox error causing it, is a failure of the member's
+   * account or of DropBox rather than of the item.
+   *
+   * @param failure failure of an item
+   * @return {@code true} if the failure counts against the member
+   */
+  static boolean isMemberFailure(Throwable failure) {
+    for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+      if (cause instanceof DbxException) {
+        return cause instanceof InvalidAccessTokenException
+            || cause instanceof AccessErrorException
+            || cause instanceof RetryException
+            || cause instanceof ServerException
+            || (cause instanceof BadResponseCodeException
+                && ((BadResponseCodeException) cause).getStatusCode()
+                    >= MIN_SERVER_ERROR_STATUS);
+      }
+      if (cause.getCause() == cause) {
+        break;
+      }
+    }
+    return false;
+  }
+
+  private long countBreakers(State state) {
+    return breakers.values().stream().filter(breaker -> breaker.state == state).count();
+  }
+
+  /** State of a breaker. */
+  private enum State {
+    /** Items are processed */
+    CLOSED,
+    /** Items are requeued */
+    OPEN,
+    /** A probe item is being processed, and the others are requeued */
+    HALF_OPEN
+  }
+
+  /** Breaker of a member, guarded by itself. */
+  private static final class Breaker {
+    /** Current state */
+    private volatile State state = State.CLOSED;
+    /** Number of consecutive failed items */
+    private volatile long consecutiveFailures;
+    /** Time the breaker last opened */
+    private long openedNanos;
+    /** Time the current probe was let through */
+    private long probeStartedNanos;
+    /** Factor applied to the open time */
+    private int openFactor = 1;
+  }
+}
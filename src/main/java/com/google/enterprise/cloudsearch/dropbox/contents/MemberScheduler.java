@@ -0,0 +1,244 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.contents;
+
+import com.google.enterprise.cloudsearch.dropbox.util.Metrics;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Shares the polling threads and the indexing queue fairly between members, so that a member
+ * with millions of files does not hold back the others.
+ *
+ * <p>
+ * Each member may process only a limited number of items at the same time. Besides, while other
+ * members have items to process, a member whose pushed children are still waiting in the queue
+ * beyond its backlog does not expand more folders, so it can not flood the queue. Items that may
+ * not be processed now are to be requeued, which costs no DropBox call.
+ *
+ * <p>
+ * Pushed children are not all polled back: children already indexed and unchanged are not, nor
+ * are children excluded or deleted meanwhile. So pushed children count in the backlog for a
+ * limited time only, after which they are no longer considered waiting in the queue.
+ *
+ * <p>
+ * Metrics are aggregated over the members, so that their number does not grow with the team.
+ * Deferred items are logged per member at the {@code FINE} level.
+ */
+final class MemberScheduler {
+  /** Log output */
+  private static final Logger log = Logger.getLogger(MemberScheduler.class.getName());
+  /** Time during which a member is considered active after one of its items was polled */
+  private static final long ACTIVE_WINDOW_NANOS = TimeUnit.MINUTES.toNanos(1);
+  /** Time after which pushed children no longer count in the backlog of their member */
+  static final long BACKLOG_EXPIRY_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+  /** Maximum number of items of a member processed at the same time, or 0 for no limit */
+  private final int maxConcurrentPerMember;
+  /** Number of queued children of a member beyond which its folders are deferred, or 0 */
+  private final int maxBacklogPerMember;
+  /** Clock in nanoseconds */
+  private final LongSupplier nanoClock;
+  /** Accounting of each member keyed by team member ID */
+  private final ConcurrentMap<String, MemberState> members = new ConcurrentHashMap<>();
+  /** Number of items processed */
+  private final AtomicLong processedItems = Metrics.counter("fairness.processedItems");
+  /** Number of items requeued because their member used up its share */
+  private final AtomicLong deferredItems = Metrics.counter("fairness.deferredItems");
+
+  /**
+   * Get an instance of {@link MemberScheduler}.
+   *
+   * @param maxConcurrentPerMember maximum number of items of a member processed at the same
+   *                               time, or 0 for no limit
+   * @param maxBacklogPerMember    number of queued children of a member beyond which its folders
+   *                               are deferred while other members are active, or 0 for no limit
+   */
+  MemberScheduler(int maxConcurrentPerMember, int maxBacklogPerMember) {
+    this(maxConcurrentPerMember, maxBacklogPerMember, System::nanoTime);
+  }
+
+  /**
+   * Get an instance of {@link MemberScheduler} reading the time from the clock.
+   *
+   * @param maxConcurrentPerMember maximum number of items of a member processed at the same
+   *                               time, or 0 for no limit
+   * @param maxBacklogPerMember    number of queued children of a member beyond which its folders
+   *                               are deferred while other members are active, or 0 for no limit
+   * @param nanoClock              clock in nanoseconds
+   */
+  MemberScheduler(int maxConcurrentPerMember, int maxBacklogPerMember, LongSupplier nanoClock) {
+    this.maxConcurrentPerMember = maxConcurrentPerMember;
+    this.maxBacklogPerMember = maxBacklogPerMember;
+    this.nanoClock = nanoClock;
+
+    Metrics.registerGauge("fairness.activeItems",
+        () -> members.values().stream().mapToLong(member -> member.active.get()).sum());
+    Metrics.registerGauge("fairness.backlogItems", () -> {
+      long now = nanoClock.getAsLong();
+      return members.values().stream().mapToLong(member -> member.getBacklog(now)).sum();
+    });
+    Metrics.registerGauge("fairness.membersOverBacklog", () -> {
+      if (maxBacklogPerMember == 0) {
+        return 0;
+      }
+      long now = nanoClock.getAsLong();
+      return members.values().stream()
+          .filter(member -> member.getBacklog(now) > maxBacklogPerMember)
+          .count();
+    });
+  }
+
+  /**
+   * Starts processing an item of the member, unless the member has used up its share.
+   *
+   * @param teamMemberId  team member ID
+   * @param expandsFolder whether processing the item pushes its children
+   * @return permit to release once the item has been processed, or {@code null} if the item has
+   *         to be requeued
+   */
+  Permit tryStart(String teamMemberId, boolean expandsFolder) {
+    MemberState member = members.computeIfAbsent(teamMemberId, MemberState::new);
+    long now = nanoClock.getAsLong();
+    member.lastPolledNanos = now;
+
+    if (expandsFolder && maxBacklogPerMember > 0
+        && member.getBacklog(now) > maxBacklogPerMember
+        && hasOtherActiveMember(member, now)) {
+      deferredItems.incrementAndGet();
+      log.log(Level.FINE, "deferred folder of member {0} with {1} items in backlog",
+          new Object[] {teamMemberId, member.getBacklog(now)});
+      return null;
+    }
+    if (member.permits != null && !member.permits.tryAcquire()) {
+      deferredItems.incrementAndGet();
+      log.log(Level.FINE, "deferred item of member {0} with {1} items in process",
+          new Object[] {teamMemberId, member.active.get()});
+      return null;
+    }
+    member.active.incrementAndGet();
+    return new Permit(member);
+  }
+
+  /**
+   * Records the children of the member pushed to the queue.
+   *
+   * @param teamMemberId team member ID
+   * @param count        number of pushed children
+   */
+  void onChildrenPushed(String teamMemberId, int count) {
+    if (count > 0) {
+      members.computeIfAbsent(teamMemberId, MemberState::new)
+          .addBacklog(nanoClock.getAsLong(), count);
+    }
+  }
+
+  private boolean hasOtherActiveMember(MemberState member, long now) {
+    return members.values().stream()
+        .anyMatch(other -> other != member
+            && now - other.lastPolledNanos < ACTIVE_WINDOW_NANOS);
+  }
+
+  /** Right to process an item of a member. */
+  final class Permit implements AutoCloseable {
+    /** Member whose item is processed */
+    private final MemberState member;
+
+    private Permit(MemberState member) {
+      this.member = member;
+    }
+
+    /** Records the item as processed and releases the permit. */
+    @Override
+    public void close() {
+      member.active.decrementAndGet();
+      processedItems.incrementAndGet();
+      member.removeBacklog(nanoClock.getAsLong());
+      if (member.permits != null) {
+        member.permits.release();
+      }
+    }
+  }
+
+  /** Work accounting of a member. */
+  private final class MemberState {
+    /** Permits of concurrent processing, or {@code null} if not limited */
+    private final Semaphore permits;
+    /** Number of items being processed */
+    private final AtomicLong active = new AtomicLong();
+    /** Children pushed at the same time and not processed yet, oldest first */
+    private final Deque<PushedChildren> pushed = new ArrayDeque<>();
+    /** Number of pushed children not processed nor expired yet */
+    private final AtomicLong backlog = new AtomicLong();
+    /** Time an item of the member was last polled, or before the active window if never */
+    private volatile long lastPolledNanos = nanoClock.getAsLong() - ACTIVE_WINDOW_NANOS;
+
+    MemberState(String teamMemberId) {
+      this.permits = maxConcurrentPerMember > 0 ? new Semaphore(maxConcurrentPerMember) : null;
+    }
+
+    synchronized void addBacklog(long now, int count) {
+      expireBacklog(now);
+      pushed.addLast(new PushedChildren(now, count));
+      backlog.addAndGet(count);
+    }
+
+    /** Counts a processed item against the oldest pushed children. */
+    synchronized void removeBacklog(long now) {
+      expireBacklog(now);
+      PushedChildren oldest = pushed.peekFirst();
+      if (oldest == null) {
+        return;
+      }
+      if (--oldest.remaining == 0) {
+        pushed.removeFirst();
+      }
+      backlog.decrementAndGet();
+    }
+
+    synchronized long getBacklog(long now) {
+      expireBacklog(now);
+      return backlog.get();
+    }
+
+    private void expireBacklog(long now) {
+      while (!pushed.isEmpty() && now - pushed.peekFirst().pushedNanos >= BACKLOG_EXPIRY_NANOS) {
+        backlog.addAndGet(-pushed.removeFirst().remaining);
+      }
+    }
+  }
+
+  /** Children of a folder pushed to the queue. */
+  private static final class PushedChildren {
+    /** Time the children were pushed */
+    private final long pushedNanos;
+    /** Number of children not processed yet */
+    private long remaining;
+
+    PushedChildren(long pushedNanos, long remaining) {
+      this.pushedNanos = pushedNanos;
+      this.remaining = remaining;
+    }
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.contents;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.enterprise.cloudsearch.dropbox.util.Metrics;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.tika.Tika;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.TikaCoreProperties;
+
+/**
+ * Extracts plain text from file content such as office documents, PDFs and text files.
+ *
+ * <p>
+ * Extraction is CPU bound, so it runs on its own bounded thread pool instead of the threads
+ * waiting on DropBox and Cloud Search I/O. A file whose extraction takes longer than the timeout,
+ * such as a pathological document or a decompression bomb, is given up and its raw content is
+ * uploaded instead; its extraction is cancelled, which frees the extraction thread as soon as the
+ * parser checks for interruption.
+ */
+final class TextExtractor {
+  /** Log output */
+  private static final Logger log = Logger.getLogger(TextExtractor.class.getName());
+
+  /** Tika facade, which is thread safe */
+  private final Tika tika = new Tika();
+  /** Maximum number of characters to extract */
+  private final int maxTextLength;
+  /** Seconds to wait for the extraction of a file */
+  private final long timeoutSecs;
+  /** Thread pool running extraction */
+  private final ExecutorService executor;
+  /** Number of extractions given up after the timeout */
+  private final AtomicLong timeouts = Metrics.counter("extraction.timeouts");
+
+  /**
+   * Get an instance of {@link TextExtractor}.
+   *
+   * @param threads       number of extraction threads
+   * @param maxTextLength maximum number of characters to extract; the rest is truncated
+   * @param timeoutSecs   seconds to wait for the extraction of a file
+   */
+  TextExtractor(int threads, int maxTextLength, long timeoutSecs) {
+    this.maxTextLength = maxTextLength;
+    this.timeoutSecs = timeoutSecs;
+    this.executor = Executors.newFixedThreadPool(threads,
+        new ThreadFactoryBuilder()
+            .setNameFormat("dropbox-extraction-%d")
+            .setDaemon(true)
+            .build());
+  }
+
+  /**
+   * Extracts plain text from the file content, truncated at the maximum text length.
+   *
+   * @param fileName file name, used as a hint to detect the format
+   * @param content  file content, which is not released by the extraction
+   * @return extracted text, or {@code null} if no text could be extracted in time
+   * @throws IOException when interrupted while waiting for the extraction
+   */
+  String extract(String fileName, DownloadedContent content) throws IOException {
+    Future<String> result = executor.submit(() -> parse(fileName, content));
+    try {
+      return result.get(timeoutSecs, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      result.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while extracting text from " + fileName);
+    } catch (ExecutionException e) {
+      log.log(Level.WARNING, "Failed to extract text from " + fileName, e.getCause());
+      return null;
+    } catch (TimeoutException e) {
+      result.cancel(true);
+      timeouts.incrementAndGet();
+      log.log(Level.WARNING, "Gave up extracting text from {0} after {1} seconds",
+          new Object[] {fileName, timeoutSecs});
+      return null;
+    }
+  }
+
+  /** Stops the extraction threads. */
+  void close() {
+    executor.shutdownNow();
+  }
+
+  private String parse(String fileName, DownloadedContent content) {
+    Metadata metadata = new Metadata();
+    metadata.set(TikaCoreProperties.RESOURCE_NAME_KEY, fileName);
+    try (InputStream stream = content.openStream()) {
+      String text = tika.parseToString(stream, metadata, maxTextLength);
+      return text.trim().isEmpty() ? null : text;
+    } catch (IOException | TikaException e) {
+      log.log(Level.FINE, "No text extracted from " + fileName, e);
+      return null;
+    }
+  }
+}
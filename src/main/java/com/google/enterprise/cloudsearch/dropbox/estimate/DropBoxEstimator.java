@@ -0,0 +1,243 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.estimate;
+
+import com.dropbox.core.DbxException;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.FolderMetadata;
+import com.dropbox.core.v2.files.Metadata;
+import com.dropbox.core.v2.team.TeamMemberInfo;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.enterprise.cloudsearch.dropbox.client.DropBoxClientFactory;
+import com.google.enterprise.cloudsearch.dropbox.client.MemberClient;
+import com.google.enterprise.cloudsearch.dropbox.client.MemberVisitor;
+import com.google.enterprise.cloudsearch.dropbox.client.TeamClient;
+import com.google.enterprise.cloudsearch.dropbox.model.DropBoxConfiguration;
+import com.google.enterprise.cloudsearch.dropbox.model.SharingInfo;
+import com.google.enterprise.cloudsearch.dropbox.model.TeamConfiguration;
+import com.google.enterprise.cloudsearch.dropbox.util.PathFilter;
+import com.google.enterprise.cloudsearch.sdk.config.Configuration;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Walks the members of a team with listing requests only, and reports the size of the team and
+ * the projected cost of a full traversal. Nothing is downloaded nor indexed.
+ */
+public final class DropBoxEstimator {
+  /** Log output */
+  private static final Logger log = Logger.getLogger(DropBoxEstimator.class.getName());
+  /** Member's root path */
+  private static final String ROOT_PATH = "";
+  /** Configuration key of the number of traversal threads of the connector SDK */
+  private static final String TRAVERSAL_THREADS = "traverse.threadPoolSize";
+  /** Default number of traversal threads of the connector SDK */
+  private static final int DEFAULT_TRAVERSAL_THREADS = 5;
+  /**
+   * One explicitly shared file out of this many has its sharing members fetched to measure the
+   * latency
+   */
+  private static final int FILE_SHARING_SAMPLE_INTERVAL = 100;
+  /** Maximum number of files whose sharing members are fetched */
+  private static final int MAX_FILE_SHARING_SAMPLES = 200;
+
+  /** Team clients keyed by team name */
+  private final Map<String, TeamClient> teamClients;
+  /** Teams to be walked */
+  private final List<TeamConfiguration> teams;
+  /** Include and exclude rules on the paths to walk */
+  private final PathFilter pathFilter;
+  /** Thread pool listing folders */
+  private final ExecutorService executor;
+  /** Statistics of the walk */
+  private final TraversalReport report = new TraversalReport();
+  /** IDs of the shared folders whose sharing members have been fetched */
+  private final Set<String> measuredSharedFolderIds = ConcurrentHashMap.newKeySet();
+  /** Number of explicitly shared files seen */
+  private final AtomicLong seenSharedFiles = new AtomicLong();
+  /** Number of files whose sharing members have been fetched */
+  private final AtomicLong sampledFiles = new AtomicLong();
+  /** Number of folders submitted and not listed yet, guarded by {@code this} */
+  private long pendingFolders;
+
+  DropBoxEstimator(Map<String, TeamClient> teamClients, List<TeamConfiguration> teams,
+      PathFilter pathFilter, int threads) {
+    this.teamClients = teamClients;
+    this.teams = teams;
+    this.pathFilter = pathFilter;
+    this.executor = Executors.newFixedThreadPool(threads,
+        new ThreadFactoryBuilder()
+            .setNameFormat("dropbox-estimate-%d")
+            .setDaemon(true)
+            .build());
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    Configuration.initConfig(args);
+    DropBoxConfiguration configuration = DropBoxConfiguration.fromConfiguration();
+    Map<String, TeamClient> teamClients = DropBoxClientFactory.getTeamClients(configuration);
+    try {
+      DropBoxEstimator estimator = new DropBoxEstimator(teamClients,
+          configuration.getTeams(), configuration.getPathFilter(),
+          configuration.getEstimateThreads());
+      long start = System.nanoTime();
+      estimator.walk();
+      Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+      int traversalThreads =
+          Configuration.getInteger(TRAVERSAL_THREADS, DEFAULT_TRAVERSAL_THREADS).get();
+      String text = estimator.report.render(elapsed, traversalThreads,
+          configuration.getRequestsPerSecond());
+      File reportFile = new File(configuration.getEstimateReportFile());
+      Files.write(reportFile.toPath(), text.getBytes(StandardCharsets.UTF_8));
+      log.log(Level.INFO, "estimate has been written to {0}", reportFile.getAbsolutePath());
+    } finally {
+      teamClients.values().forEach(TeamClient::close);
+    }
+  }
+
+  /**
+   * Walks all the folders of the members of all the teams, waiting until every folder has been
+   * listed.
+   *
+   * @throws IOException when fetching the members fails
+   * @throws InterruptedException when interrupted while waiting
+   */
+  void walk() throws IOException, InterruptedException {
+    try {
+      for (TeamConfiguration team : teams) {
+        TeamClient teamClient = teamClients.get(team.getName());
+        MemberVisitor walkMember = member -> {
+          String teamMemberId = member.getProfile().getTeamMemberId();
+          report.addMember();
+          String memberName = member.getProfile().getName().getDisplayName();
+          submit(teamClient.asMember(teamMemberId), memberName, ROOT_PATH);
+        };
+        try {
+          if (team.getTeamMemberIds().isEmpty()) {
+            teamClient.forEachMember(walkMember);
+          } else {
+            for (TeamMemberInfo member : teamClient.getMembers(team.getTeamMemberIds())) {
+              walkMember.visit(member);
+            }
+          }
+        } catch (DbxException e) {
+          throw new IOException("Failed to get members", e);
+        }
+      }
+      synchronized (this) {
+        while (pendingFolders > 0) {
+          wait();
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void submit(MemberClient memberClient, String memberName, String path) {
+    synchronized (this) {
+      pendingFolders++;
+    }
+    executor.execute(() -> {
+      try {
+        listFolder(memberClient, memberName, path);
+      } finally {
+        synchronized (this) {
+          if (--pendingFolders == 0) {
+            notifyAll();
+          }
+        }
+      }
+    });
+  }
+
+  private void listFolder(MemberClient memberClient, String memberName, String path) {
+    List<Metadata> entries;
+    try {
+      long start = System.nanoTime();
+      entries = memberClient.listFolder(path);
+      report.addRequest(TraversalReport.LIST_FOLDER, elapsedMillis(start));
+    } catch (DbxException | RuntimeException e) {
+      report.addFailure();
+      log.log(Level.WARNING, "Failed to list folder " + memberName + ":" + path, e);
+      return;
+    }
+    report.addFolderSize(memberName, path.isEmpty() ? "/" : path, entries.size());
+
+    for (Metadata entry : entries) {
+      if (!pathFilter.accepts(entry.getPathDisplay(), entry instanceof FolderMetadata)) {
+        continue;
+      }
+      if (entry instanceof FolderMetadata) {
+        FolderMetadata folder = (FolderMetadata) entry;
+        String sharedFolderId = folder.getSharedFolderId();
+        report.addFolder(sharedFolderId != null);
+        if (sharedFolderId != null && measuredSharedFolderIds.add(sharedFolderId)) {
+          measureFolderSharing(memberClient, sharedFolderId);
+        }
+        submit(memberClient, memberName, folder.getPathDisplay());
+      } else if (entry instanceof FileMetadata) {
+        FileMetadata file = (FileMetadata) entry;
+        // the connector fetches the sharing members of explicitly shared files only
+        boolean shared = Boolean.TRUE.equals(file.getHasExplicitSharedMembers());
+        report.addFile(file.getName(), file.getSize(), shared);
+        if (shared && seenSharedFiles.getAndIncrement() % FILE_SHARING_SAMPLE_INTERVAL == 0
+            && sampledFiles.incrementAndGet() <= MAX_FILE_SHARING_SAMPLES) {
+          measureFileSharing(memberClient, file.getPathDisplay());
+        }
+      }
+    }
+  }
+
+  private void measureFolderSharing(MemberClient memberClient, String sharedFolderId) {
+    try {
+      long start = System.nanoTime();
+      SharingInfo sharingInfo = memberClient.getFolderSharingInfo(sharedFolderId);
+      report.addRequest(TraversalReport.LIST_FOLDER_MEMBERS, elapsedMillis(start));
+      report.addSharedFolderFanOut(
+          sharingInfo.getUserIds().size() + sharingInfo.getGroupNames().size());
+    } catch (DbxException | RuntimeException e) {
+      log.log(Level.FINE, "Failed to get sharing members of folder " + sharedFolderId, e);
+    }
+  }
+
+  private void measureFileSharing(MemberClient memberClient, String filePath) {
+    try {
+      long start = System.nanoTime();
+      memberClient.getFileSharingInfo(filePath);
+      report.addRequest(TraversalReport.LIST_FILE_MEMBERS, elapsedMillis(start));
+    } catch (DbxException | RuntimeException e) {
+      log.log(Level.FINE, "Failed to get sharing members of file " + filePath, e);
+    }
+  }
+
+  private static long elapsedMillis(long startNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+  }
+}
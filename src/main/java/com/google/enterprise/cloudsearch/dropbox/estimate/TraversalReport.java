@@ -0,0 +1,254 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.estimate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Statistics of a dry-run traversal, and the cost of a full traversal projected from them.
+ *
+ * <p>
+ * A full traversal lists every folder, fetches the sharing members of every shared folder and
+ * of every file shared on its own, and downloads every file. The listing requests are measured
+ * during the dry run, and the sharing requests of files on a sample, so the projection uses the
+ * latency actually seen from this host.
+ */
+final class TraversalReport {
+  /** Route listing a folder */
+  static final String LIST_FOLDER = "files/list_folder";
+  /** Route fetching the sharing members of a folder */
+  static final String LIST_FOLDER_MEMBERS = "sharing/list_folder_members";
+  /** Route fetching the sharing members of a file */
+  static final String LIST_FILE_MEMBERS = "sharing/list_file_members";
+  /** Upper bounds of the file size buckets in bytes */
+  private static final long[] SIZE_BOUNDS = {
+      1L << 10, 16L << 10, 256L << 10, 1L << 20, 16L << 20, 256L << 20, 1L << 30, Long.MAX_VALUE};
+  /** Labels of the file size buckets */
+  private static final String[] SIZE_LABELS = {
+      "< 1 KB", "< 16 KB", "< 256 KB", "< 1 MB", "< 16 MB", "< 256 MB", "< 1 GB", ">= 1 GB"};
+  /** Upper bounds of the shared folder fan-out buckets in principals */
+  private static final int[] FAN_OUT_BOUNDS = {1, 5, 20, 100, Integer.MAX_VALUE};
+  /** Labels of the shared folder fan-out buckets */
+  private static final String[] FAN_OUT_LABELS = {"1", "2-5", "6-20", "21-100", "> 100"};
+  /** Number of extensions and of largest folders in the report */
+  private static final int TOP_COUNT = 20;
+  /** Extension of files without one */
+  private static final String NO_EXTENSION = "(none)";
+
+  /** Number of members */
+  private long members;
+  /** Number of folders */
+  private long folders;
+  /** Number of shared folders */
+  private long sharedFolders;
+  /** Number of files */
+  private long files;
+  /** Number of files with explicitly shared members */
+  private long sharedFiles;
+  /** Bytes of all files */
+  private long totalBytes;
+  /** Number of folders that could not be listed */
+  private long failures;
+  /** Number of files keyed by extension */
+  private final Map<String, Long> extensionFiles = new TreeMap<>();
+  /** Bytes of files keyed by extension */
+  private final Map<String, Long> extensionBytes = new TreeMap<>();
+  /** Number of files in each size bucket */
+  private final long[] sizeHistogram = new long[SIZE_BOUNDS.length];
+  /** Number of shared folders in each fan-out bucket */
+  private final long[] fanOutHistogram = new long[FAN_OUT_BOUNDS.length];
+  /** Largest fan-out of a shared folder */
+  private int maxFanOut;
+  /** Folders with the most children, smallest first */
+  private final PriorityQueue<FolderSize> largestFolders =
+      new PriorityQueue<>(Comparator.comparingLong(folder -> folder.children));
+  /** Number of measured requests keyed by route */
+  private final Map<String, Long> requests = new TreeMap<>();
+  /** Total latency of measured requests in milliseconds keyed by route */
+  private final Map<String, Long> latencyMillis = new TreeMap<>();
+
+  synchronized void addMember() {
+    members++;
+  }
+
+  synchronized void addFolder(boolean shared) {
+    folders++;
+    if (shared) {
+      sharedFolders++;
+    }
+  }
+
+  synchronized void addFile(String name, long size, boolean shared) {
+    files++;
+    if (shared) {
+      sharedFiles++;
+    }
+    totalBytes += size;
+    String extension = getExtension(name);
+    extensionFiles.merge(extension, 1L, Long::sum);
+    extensionBytes.merge(extension, size, Long::sum);
+    for (int i = 0; i < SIZE_BOUNDS.length; i++) {
+      if (size < SIZE_BOUNDS[i]) {
+        sizeHistogram[i]++;
+        break;
+      }
+    }
+  }
+
+  synchronized void addSharedFolderFanOut(int principals) {
+    maxFanOut = Math.max(maxFanOut, principals);
+    for (int i = 0; i < FAN_OUT_BOUNDS.length; i++) {
+      if (principals <= FAN_OUT_BOUNDS[i]) {
+        fanOutHistogram[i]++;
+        break;
+      }
+    }
+  }
+
+  synchronized void addFolderSize(String memberName, String path, long children) {
+    largestFolders.add(new FolderSize(memberName + ":" + path, children));
+    if (largestFolders.size() > TOP_COUNT) {
+      largestFolders.poll();
+    }
+  }
+
+  synchronized void addRequest(String route, long millis) {
+    requests.merge(route, 1L, Long::sum);
+    latencyMillis.merge(route, millis, Long::sum);
+  }
+
+  synchronized void addFailure() {
+    failures++;
+  }
+
+  /**
+   * Renders the report.
+   *
+   * @param elapsed           duration of the dry run
+   * @param traversalThreads  number of threads of a full traversal
+   * @param requestsPerSecond requests per second allowed to the connector, or 0 for no limit
+   * @return report text
+   */
+  synchronized String render(Duration elapsed, int traversalThreads, int requestsPerSecond) {
+    StringBuilder out = new StringBuilder();
+    out.append("DropBox traversal estimate\n\n");
+    out.append(String.format(Locale.ROOT, "Members:        %,d%n", members));
+    out.append(String.format(Locale.ROOT, "Folders:        %,d (shared: %,d)%n",
+        folders, sharedFolders));
+    out.append(String.format(Locale.ROOT, "Files:          %,d (shared: %,d)%n",
+        files, sharedFiles));
+    out.append(String.format(Locale.ROOT, "Bytes:          %,d%n", totalBytes));
+    out.append(String.format(Locale.ROOT, "Failed folders: %,d%n", failures));
+    out.append(String.format(Locale.ROOT, "Dry run took:   %s%n", format(elapsed)));
+
+    out.append("\nFiles by extension (top ").append(TOP_COUNT).append(")\n");
+    List<Map.Entry<String, Long>> extensions = new ArrayList<>(extensionFiles.entrySet());
+    extensions.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+    for (Map.Entry<String, Long> extension : extensions.subList(0,
+        Math.min(TOP_COUNT, extensions.size()))) {
+      out.append(String.format(Locale.ROOT, "  %-12s %,12d files %,18d bytes%n",
+          extension.getKey(), extension.getValue(), extensionBytes.get(extension.getKey())));
+    }
+
+    out.append("\nFile size histogram\n");
+    for (int i = 0; i < SIZE_BOUNDS.length; i++) {
+      out.append(String.format(Locale.ROOT, "  %-10s %,12d%n", SIZE_LABELS[i], sizeHistogram[i]));
+    }
+
+    out.append("\nShared folder fan-out (users and groups per shared folder)\n");
+    for (int i = 0; i < FAN_OUT_BOUNDS.length; i++) {
+      out.append(String.format(Locale.ROOT, "  %-10s %,12d%n", FAN_OUT_LABELS[i],
+          fanOutHistogram[i]));
+    }
+    out.append(String.format(Locale.ROOT, "  maximum    %,12d%n", maxFanOut));
+
+    out.append("\nLargest folders (direct children)\n");
+    List<FolderSize> folderSizes = new ArrayList<>(largestFolders);
+    folderSizes.sort(Comparator.comparingLong((FolderSize folder) -> folder.children).reversed());
+    for (FolderSize folder : folderSizes) {
+      out.append(String.format(Locale.ROOT, "  %,12d  %s%n", folder.children, folder.path));
+    }
+
+    out.append("\nMeasured latency\n");
+    for (Map.Entry<String, Long> route : requests.entrySet()) {
+      out.append(String.format(Locale.ROOT, "  %-28s %,8d requests, mean %,6d ms%n",
+          route.getKey(), route.getValue(), meanMillis(route.getKey())));
+    }
+
+    long listFolderCalls = members + folders;
+    long totalCalls = listFolderCalls + sharedFolders + sharedFiles + files;
+    long latencyTotalMillis = listFolderCalls * meanMillis(LIST_FOLDER)
+        + sharedFolders * meanMillis(LIST_FOLDER_MEMBERS)
+        + sharedFiles * meanMillis(LIST_FILE_MEMBERS);
+    long projectedMillis = latencyTotalMillis / traversalThreads;
+    if (requestsPerSecond > 0) {
+      projectedMillis = Math.max(projectedMillis,
+          TimeUnit.SECONDS.toMillis(totalCalls) / requestsPerSecond);
+    }
+    out.append("\nProjected full traversal\n");
+    out.append(String.format(Locale.ROOT, "  %-28s %,12d%n", LIST_FOLDER, listFolderCalls));
+    out.append(String.format(Locale.ROOT, "  %-28s %,12d%n", LIST_FOLDER_MEMBERS,
+        sharedFolders));
+    out.append(String.format(Locale.ROOT, "  %-28s %,12d%n", LIST_FILE_MEMBERS, sharedFiles));
+    out.append(String.format(Locale.ROOT, "  %-28s %,12d (%,d bytes)%n", "files/download",
+        files, totalBytes));
+    out.append(String.format(Locale.ROOT, "  %-28s %,12d%n", "total requests", totalCalls));
+    out.append(String.format(Locale.ROOT,
+        "  ETA with %d threads: %s, plus the time to download %,d bytes%n",
+        traversalThreads, format(Duration.ofMillis(projectedMillis)), totalBytes));
+    return out.toString();
+  }
+
+  private long meanMillis(String route) {
+    Long count = requests.get(route);
+    return count == null ? 0 : latencyMillis.get(route) / count;
+  }
+
+  private static String getExtension(String name) {
+    int dot = name.lastIndexOf('.');
+    if (dot <= 0 || dot == name.length() - 1) {
+      return NO_EXTENSION;
+    }
+    return name.substring(dot + 1).toLowerCase(Locale.ROOT);
+  }
+
+  private static String format(Duration duration) {
+    long seconds = duration.getSeconds();
+    return String.format(Locale.ROOT, "%dd %02dh %02dm %02ds", seconds / 86400,
+        seconds % 86400 / 3600, seconds % 3600 / 60, seconds % 60);
+  }
+
+  /** Number of direct children of a folder. */
+  private static final class FolderSize {
+    /** Member name and path of the folder */
+    private final String path;
+    /** Number of direct children */
+    private final long children;
+
+    FolderSize(String path, long children) {
+      this.path = path;
+      this.children = children;
+    }
+  }
+}
@@ -31,6 +31,7 @@ import com.google.common.collect.Lists;
 import com.google.enterprise.cloudsearch.dropbox.client.DropBoxClientFactory;
 import com.google.enterprise.cloudsearch.dropbox.client.TeamClient;
 import com.google.enterprise.cloudsearch.dropbox.model.DropBoxConfiguration;
+import com.google.enterprise.cloudsearch.dropbox.model.SharingInfo;
 import com.google.enterprise.cloudsearch.sdk.CheckpointCloseableIterable;
 import com.google.enterprise.cloudsearch.sdk.CheckpointCloseableIterableImpl;
 import com.google.enterprise.cloudsearch.sdk.identity.IdentityGroup;
@@ -40,6 +41,7 @@ import com.google.enterprise.cloudsearch.sdk.identity.RepositoryContext;
 import java.io.IOException;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.function.Supplier;
@@ -57,8 +59,8 @@ final class DropBoxIdentityRepository implements Repository {
 
   /** Injected context, provides convenience methods for building users & groups */
   private RepositoryContext repositoryContext;
-  /** Team client */
-  private TeamClient teamClient;
+  /** Team clients keyed by team name */
+  private Map<String, TeamClient> teamClients;
 
   DropBoxIdentityRepository() {
   }
@@ -73,11 +75,11 @@ final class DropBoxIdentityRepository implements Repository {
   public void init(RepositoryContext context) throws IOException {
     repositoryContext = checkNotNull(context, "repository context can not be null");
     DropBoxConfiguration dropBoxConfiguration = DropBoxConfiguration.fromConfiguration();
-    teamClient = DropBoxClientFactory.getTeamClient(dropBoxConfiguration.getCredentialFile());
+    teamClients = DropBoxClientFactory.getTeamClients(dropBoxConfiguration);
   }
 
   /**
-   * Retrieves all user identity mappings for the identity source.
+   * Retrieves all user identity mappings for the identity source, from all the configured teams.
    *
    * @param checkpoint saved state if paging over large result sets.
    * @return iterator of user identity mappings.
@@ -85,9 +87,11 @@ final class DropBoxIdentityRepository implements Repository {
    */
   @Override
   public CheckpointCloseableIterable<IdentityUser> listUsers(byte[] checkpoint) throws IOException {
-    List<TeamMemberInfo> members;
+    List<TeamMemberInfo> members = Lists.newArrayList();
     try {
-      members = teamClient.getMembers();
+      for (TeamClient teamClient : teamClients.values()) {
+        members.addAll(teamClient.getMembers());
+      }
     } catch (DbxException e) {
       throw new IOException("Failed to get members", e);
     }
@@ -101,7 +105,7 @@ final class DropBoxIdentityRepository implements Repository {
   }
 
   /**
-   * Retrieves all group rosters for the identity source.
+   * Retrieves all group rosters for the identity source, from all the configured teams.
    *
    * @param checkpoint saved state if paging over large result sets.
    * @return iterator of group rosters.
@@ -110,16 +114,19 @@ final class DropBoxIdentityRepository implements Repository {
   @Override
   public CheckpointCloseableIterable<IdentityGroup> listGroups(byte[] checkpoint)
       throws IOException {
-    List<GroupSummary> groups;
-    try {
-      groups = teamClient.getGroups();
-    } catch (DbxException e) {
-      throw new IOException("Failed to get groups", e);
-    }
-
     List<IdentityGroup> identityGroups = Lists.newArrayList();
-    for (GroupSummary group : groups) {
-      identityGroups.add(convertToIdentityGroup(group));
+    for (Map.Entry<String, TeamClient> team : teamClients.entrySet()) {
+      TeamClient teamClient = team.getValue();
+      List<GroupSummary> groups;
+      try {
+        groups = teamClient.getGroups();
+      } catch (DbxException e) {
+        throw new IOException("Failed to get groups", e);
+      }
+
+      for (GroupSummary group : groups) {
+        identityGroups.add(convertToIdentityGroup(team.getKey(), teamClient, group));
+      }
     }
     return new CheckpointCloseableIterableImpl.Builder<>(identityGroups).build();
   }
@@ -150,31 +157,37 @@ final class DropBoxIdentityRepository implements Repository {
   }
 
   /**
-   * Convert a DropBox group to an identity group.
+   * Convert a DropBox group to an identity group, named after the group within its team.
    *
+   * @param team name of the group's team.
+   * @param teamClient client of the group's team.
    * @param group a DropBox group.
    * @return an identity group.
    * @throws IOException if unable to convert to an identity group.
    */
-  private IdentityGroup convertToIdentityGroup(GroupSummary group) throws IOException {
-    List<GroupMemberInfo> groupMembers = listGroupMembers(group.getGroupId());
+  private IdentityGroup convertToIdentityGroup(String team, TeamClient teamClient,
+      GroupSummary group) throws IOException {
+    List<GroupMemberInfo> groupMembers = listGroupMembers(teamClient, group.getGroupId());
 
     List<GroupMemberInfo> filteredGroupMembers = groupMembers
         .stream()
         .filter(groupMember -> isValidMember(groupMember.getProfile()))
         .collect(Collectors.toList());
     Supplier<Set<Membership>> memberships = new MembershipsSupplier(filteredGroupMembers);
-    return repositoryContext.buildIdentityGroup(group.getGroupName(), memberships);
+    return repositoryContext.buildIdentityGroup(
+        SharingInfo.getGroupKey(team, group.getGroupName()), memberships);
   }
 
   /**
    * Retrieves all group members for the identity source.
    *
+   * @param teamClient client of the group's team.
    * @param groupId a DropBox group ID.
    * @return group members.
    * @throws IOException if unable to retrieve group members.
    */
-  private List<GroupMemberInfo> listGroupMembers(String groupId) throws IOException {
+  private List<GroupMemberInfo> listGroupMembers(TeamClient teamClient, String groupId)
+      throws IOException {
     List<GroupMemberInfo> groupMembers;
     try {
       groupMembers = teamClient.getGroupMembers(groupId);
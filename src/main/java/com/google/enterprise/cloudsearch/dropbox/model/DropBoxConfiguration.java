@@ -17,10 +17,16 @@ package com.google.enterprise.cloudsearch.dropbox.model;
 
 import static com.google.common.base.Preconditions.checkState;
 
+import com.google.enterprise.cloudsearch.dropbox.util.BandwidthLimiter;
+import com.google.enterprise.cloudsearch.dropbox.util.PathFilter;
 import com.google.enterprise.cloudsearch.sdk.InvalidConfigurationException;
 import com.google.enterprise.cloudsearch.sdk.config.Configuration;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 /** Object used to manage DropBox configuration. */
 public class DropBoxConfiguration {
@@ -28,21 +34,643 @@ public class DropBoxConfiguration {
   private static final String CREDENTIAL_FILE = "dropbox.credentialFile";
   /** Configuration key for list of team member IDs to be processed */
   private static final String TEAM_MEMBER_IDS = "dropbox.teamMemberIds";
+  /** Configuration key for list of names of the teams indexed together */
+  private static final String TEAMS = "dropbox.teams";
+  /** Prefix of the configuration keys of a team listed in {@link #TEAMS} */
+  private static final String TEAM_PREFIX = "dropbox.team.";
+  /** Configuration key suffix for path to the credential file of a team */
+  private static final String TEAM_CREDENTIAL_FILE = ".credentialFile";
+  /** Configuration key suffix for list of team member IDs of a team to be processed */
+  private static final String TEAM_TEAM_MEMBER_IDS = ".teamMemberIds";
+  /** Pattern of a team name, which is part of configuration keys and item names */
+  private static final Pattern TEAM_NAME_PATTERN = Pattern.compile("[A-Za-z0-9_-]+");
+  /** Configuration key for list of team member IDs whose changes are watched by long-polling */
+  private static final String LONG_POLL_TEAM_MEMBER_IDS = "dropbox.longPoll.teamMemberIds";
+  /** Configuration key for maximum number of concurrent long-poll requests */
+  private static final String LONG_POLL_MAX_CONCURRENT = "dropbox.longPoll.maxConcurrent";
+  /** Configuration key for seconds to wait for changes in a long-poll request */
+  private static final String LONG_POLL_TIMEOUT_SECS = "dropbox.longPoll.timeoutSecs";
+  /** Configuration key for whether to extract text from file content before uploading */
+  private static final String EXTRACTION_ENABLED = "dropbox.extraction.enabled";
+  /** Configuration key for maximum number of characters to extract from a file */
+  private static final String EXTRACTION_MAX_TEXT_LENGTH = "dropbox.extraction.maxTextLength";
+  /** Configuration key for number of text extraction threads */
+  private static final String EXTRACTION_THREADS = "dropbox.extraction.threads";
+  /** Configuration key for seconds to wait for the text extraction of a file */
+  private static final String EXTRACTION_TIMEOUT_SECS = "dropbox.extraction.timeoutSecs";
+  /** Configuration key for megabytes of file content held in memory at the same time */
+  private static final String CONTENT_MEMORY_BUDGET_MB = "dropbox.content.memoryBudgetMb";
+  /** Configuration key for megabytes above which file content is written to a spool file */
+  private static final String CONTENT_SPOOL_THRESHOLD_MB = "dropbox.content.spoolThresholdMb";
+  /** Configuration key for directory of spool files */
+  private static final String CONTENT_SPOOL_DIRECTORY = "dropbox.content.spoolDirectory";
+  /** Configuration key for whether to prefetch the children of a listed folder */
+  private static final String PREFETCH_ENABLED = "dropbox.prefetch.enabled";
+  /** Configuration key for number of prefetch threads */
+  private static final String PREFETCH_THREADS = "dropbox.prefetch.threads";
+  /** Configuration key for kilobytes up to which file content is prefetched */
+  private static final String PREFETCH_MAX_FILE_SIZE_KB = "dropbox.prefetch.maxFileSizeKb";
+  /** Configuration key for megabytes of prefetched files kept in the cache */
+  private static final String PREFETCH_CACHE_MB = "dropbox.prefetch.cacheMb";
+  /** Configuration key for seconds a prefetched file is kept in the cache */
+  private static final String PREFETCH_TTL_SECS = "dropbox.prefetch.ttlSecs";
+  /** Configuration key for directory of the store of indexed item metadata */
+  private static final String METADATA_STORE_DIRECTORY = "dropbox.metadataStore.directory";
+  /** Configuration key for maximum number of items of a member processed at the same time */
+  private static final String FAIRNESS_MAX_CONCURRENT_PER_MEMBER =
+      "dropbox.fairness.maxConcurrentPerMember";
+  /** Configuration key for number of queued children beyond which folders are deferred */
+  private static final String FAIRNESS_MAX_BACKLOG_PER_MEMBER =
+      "dropbox.fairness.maxBacklogPerMember";
+  /** Configuration key for DropBox requests started per second */
+  private static final String REQUESTS_PER_SECOND = "dropbox.requests.perSecond";
+  /** Configuration key for maximum number of DropBox requests in flight at the same time */
+  private static final String REQUESTS_MAX_IN_FLIGHT = "dropbox.requests.maxInFlight";
+  /** Configuration key for seconds to wait for a connection to DropBox */
+  private static final String TIMEOUTS_CONNECT_SECS = "dropbox.timeouts.connectSecs";
+  /** Configuration key for seconds to wait for data of a metadata request */
+  private static final String TIMEOUTS_METADATA_READ_SECS = "dropbox.timeouts.metadataReadSecs";
+  /** Configuration key for seconds to wait for a metadata request to complete, or 0 for no limit */
+  private static final String TIMEOUTS_METADATA_TOTAL_SECS = "dropbox.timeouts.metadataTotalSecs";
+  /** Configuration key for seconds to wait for data of a download */
+  private static final String TIMEOUTS_DOWNLOAD_READ_SECS = "dropbox.timeouts.downloadReadSecs";
+  /** Configuration key for seconds to wait for a download to complete, or 0 for no limit */
+  private static final String TIMEOUTS_DOWNLOAD_TOTAL_SECS = "dropbox.timeouts.downloadTotalSecs";
+  /** Configuration key for whether to hedge slow metadata requests */
+  private static final String HEDGING_ENABLED = "dropbox.hedging.enabled";
+  /** Configuration key for number of times an interrupted download of a spooled file is resumed */
+  private static final String CONTENT_DOWNLOAD_RESUMES = "dropbox.content.downloadResumes";
+  /** Configuration key for number of threads listing folders in estimate mode */
+  private static final String ESTIMATE_THREADS = "dropbox.estimate.threads";
+  /** Configuration key for path of the report written in estimate mode */
+  private static final String ESTIMATE_REPORT_FILE = "dropbox.estimate.reportFile";
+  /** Configuration key for kilobytes per second downloaded from DropBox, or 0 for no limit */
+  private static final String BANDWIDTH_KB_PER_SECOND = "dropbox.bandwidth.kbPerSecond";
+  /** Configuration key for limits of the bandwidth at some times of day */
+  private static final String BANDWIDTH_PROFILES = "dropbox.bandwidth.profiles";
+  /** Configuration key for rules on the paths of the files to index */
+  private static final String PATHS_INCLUDE = "dropbox.paths.include";
+  /** Configuration key for rules on the paths of the files and folders not to index */
+  private static final String PATHS_EXCLUDE = "dropbox.paths.exclude";
+  /** Configuration key for number of consecutive failures of a member opening its circuit breaker */
+  private static final String BREAKER_FAILURE_THRESHOLD = "dropbox.breaker.failureThreshold";
+  /** Configuration key for seconds the circuit breaker of a member stays open */
+  private static final String BREAKER_OPEN_SECS = "dropbox.breaker.openSecs";
+  /** Configuration key for directory of the retry journal */
+  private static final String RETRY_JOURNAL_DIRECTORY = "dropbox.retry.journalDirectory";
+  /** Configuration key for number of failed attempts after which an item is given up */
+  private static final String RETRY_MAX_ATTEMPTS = "dropbox.retry.maxAttempts";
+  /** Configuration key for seconds before the first retry of a failed item */
+  private static final String RETRY_INITIAL_DELAY_SECS = "dropbox.retry.initialDelaySecs";
+  /** Configuration key for directory of the content cache */
+  private static final String CONTENT_CACHE_DIRECTORY = "dropbox.contentCache.directory";
+  /** Configuration key for megabytes of content kept in the content cache */
+  private static final String CONTENT_CACHE_MAX_MB = "dropbox.contentCache.maxMb";
+  /** Configuration key for megabytes from which a file is downloaded in parallel ranges */
+  private static final String CONTENT_PARALLEL_THRESHOLD_MB =
+      "dropbox.content.parallelThresholdMb";
+  /** Configuration key for number of ranges a large file is downloaded in at the same time */
+  private static final String CONTENT_PARALLEL_CHUNKS = "dropbox.content.parallelChunks";
+  /** Configuration key for number of buffers kept for reuse by the content transfers */
+  private static final String CONTENT_BUFFER_POOL_SIZE = "dropbox.content.bufferPoolSize";
+  /** Configuration key for whether to delete the indexed files not listed by the last traversal */
+  private static final String DELETION_SWEEP_ENABLED = "dropbox.deletionSweep.enabled";
+  /** Configuration key for maximum percentage of the indexed files a deletion sweep may delete */
+  private static final String DELETION_SWEEP_MAX_DELETE_PERCENT =
+      "dropbox.deletionSweep.maxDeletePercent";
+  /** Configuration key for whether to poll the changes of the members not long-polled */
+  private static final String CHANGES_ENABLED = "dropbox.changes.enabled";
+  /** Configuration key for seconds between two polls of the changes of a hot member */
+  private static final String CHANGES_HOT_INTERVAL_SECS = "dropbox.changes.hotIntervalSecs";
+  /** Configuration key for seconds between two polls of the changes of a warm member */
+  private static final String CHANGES_WARM_INTERVAL_SECS = "dropbox.changes.warmIntervalSecs";
+  /** Configuration key for seconds between two polls of the changes of a cold member */
+  private static final String CHANGES_COLD_INTERVAL_SECS = "dropbox.changes.coldIntervalSecs";
+  /** Configuration key for number of recent changes from which a member is hot */
+  private static final String CHANGES_HOT_MIN_CHANGES = "dropbox.changes.hotMinChanges";
+  /** Configuration key for number of threads polling the changes of members */
+  private static final String CHANGES_THREADS = "dropbox.changes.threads";
+
+  /** Default maximum number of concurrent long-poll requests */
+  private static final int DEFAULT_LONG_POLL_MAX_CONCURRENT = 4;
+  /** Default seconds to wait for changes in a long-poll request */
+  private static final int DEFAULT_LONG_POLL_TIMEOUT_SECS = 30;
+  /** Minimum seconds to wait for changes accepted by DropBox */
+  private static final int MIN_LONG_POLL_TIMEOUT_SECS = 30;
+  /** Maximum seconds to wait for changes accepted by DropBox */
+  private static final int MAX_LONG_POLL_TIMEOUT_SECS = 480;
+  /** Default maximum number of characters to extract from a file */
+  private static final int DEFAULT_EXTRACTION_MAX_TEXT_LENGTH = 1024 * 1024;
+  /** Default number of text extraction threads */
+  private static final int DEFAULT_EXTRACTION_THREADS = Runtime.getRuntime().availableProcessors();
+  /** Default seconds to wait for the text extraction of a file */
+  private static final int DEFAULT_EXTRACTION_TIMEOUT_SECS = 60;
+  /** Bytes in a megabyte */
+  private static final long MB = 1024 * 1024;
+  /** Default megabytes of file content held in memory at the same time, a quarter of the heap */
+  private static final int DEFAULT_CONTENT_MEMORY_BUDGET_MB =
+      (int) Math.max(1, Runtime.getRuntime().maxMemory() / 4 / MB);
+  /** Default megabytes above which file content is written to a spool file */
+  private static final int DEFAULT_CONTENT_SPOOL_THRESHOLD_MB = 16;
+  /** Maximum megabytes of file content held in a byte array */
+  private static final int MAX_CONTENT_SPOOL_THRESHOLD_MB = 2047;
+  /** Bytes in a kilobyte */
+  private static final long KB = 1024;
+  /** Default number of prefetch threads */
+  private static final int DEFAULT_PREFETCH_THREADS = 4;
+  /** Default kilobytes up to which file content is prefetched */
+  private static final int DEFAULT_PREFETCH_MAX_FILE_SIZE_KB = 1024;
+  /** Default megabytes of prefetched files kept in the cache */
+  private static final int DEFAULT_PREFETCH_CACHE_MB = 64;
+  /** Default seconds a prefetched file is kept in the cache */
+  private static final int DEFAULT_PREFETCH_TTL_SECS = 300;
+  /** Default number of queued children of a member beyond which its folders are deferred */
+  private static final int DEFAULT_FAIRNESS_MAX_BACKLOG_PER_MEMBER = 10000;
+  /** Default maximum number of DropBox requests in flight at the same time */
+  private static final int DEFAULT_REQUESTS_MAX_IN_FLIGHT = 256;
+  /** Default seconds to wait for a connection to or a response from DropBox */
+  private static final int DEFAULT_TIMEOUTS_SECS = 20;
+  /** Default number of times an interrupted download of a spooled file is resumed */
+  private static final int DEFAULT_CONTENT_DOWNLOAD_RESUMES = 3;
+  /** Default number of threads listing folders in estimate mode */
+  private static final int DEFAULT_ESTIMATE_THREADS = 8;
+  /** Default path of the report written in estimate mode */
+  private static final String DEFAULT_ESTIMATE_REPORT_FILE = "dropbox-estimate.txt";
+  /** Default number of consecutive failures of a member opening its circuit breaker */
+  private static final int DEFAULT_BREAKER_FAILURE_THRESHOLD = 10;
+  /** Default seconds the circuit breaker of a member stays open */
+  private static final int DEFAULT_BREAKER_OPEN_SECS = 60;
+  /** Default number of failed attempts after which an item is given up */
+  private static final int DEFAULT_RETRY_MAX_ATTEMPTS = 5;
+  /** Default seconds before the first retry of a failed item */
+  private static final int DEFAULT_RETRY_INITIAL_DELAY_SECS = 60;
+  /** Default megabytes of content kept in the content cache */
+  private static final int DEFAULT_CONTENT_CACHE_MAX_MB = 10240;
+  /** Default number of ranges a large file is downloaded in at the same time */
+  private static final int DEFAULT_CONTENT_PARALLEL_CHUNKS = 4;
+  /** Default number of buffers kept for reuse by the content transfers */
+  private static final int DEFAULT_CONTENT_BUFFER_POOL_SIZE = 256;
+  /** Default maximum percentage of the indexed files a deletion sweep may delete */
+  private static final int DEFAULT_DELETION_SWEEP_MAX_DELETE_PERCENT = 10;
+  /** Default seconds between two polls of the changes of a hot member */
+  private static final int DEFAULT_CHANGES_HOT_INTERVAL_SECS = 60;
+  /** Default seconds between two polls of the changes of a warm member */
+  private static final int DEFAULT_CHANGES_WARM_INTERVAL_SECS = 900;
+  /** Default seconds between two polls of the changes of a cold member */
+  private static final int DEFAULT_CHANGES_COLD_INTERVAL_SECS = 3600;
+  /** Default number of recent changes from which a member is hot */
+  private static final int DEFAULT_CHANGES_HOT_MIN_CHANGES = 10;
+  /** Default number of threads polling the changes of members */
+  private static final int DEFAULT_CHANGES_THREADS = 4;
 
   /** Path to the DropBox credential file */
   private final String credentialFile;
   /** List of team member IDs to be processed */
   private final List<String> teamMemberIds;
+  /** Teams to be processed */
+  private final List<TeamConfiguration> teams;
+  /** List of team member IDs whose changes are watched by long-polling */
+  private final List<String> longPollTeamMemberIds;
+  /** Maximum number of concurrent long-poll requests */
+  private final int longPollMaxConcurrent;
+  /** Seconds to wait for changes in a long-poll request */
+  private final int longPollTimeoutSecs;
+  /** Whether to extract text from file content before uploading */
+  private final boolean extractionEnabled;
+  /** Maximum number of characters to extract from a file */
+  private final int extractionMaxTextLength;
+  /** Number of text extraction threads */
+  private final int extractionThreads;
+  /** Seconds to wait for the text extraction of a file */
+  private final int extractionTimeoutSecs;
+  /** Bytes of file content held in memory at the same time */
+  private final long contentMemoryBudgetBytes;
+  /** Bytes above which file content is written to a spool file */
+  private final long contentSpoolThresholdBytes;
+  /** Directory of spool files */
+  private final String contentSpoolDirectory;
+  /** Whether to prefetch the children of a listed folder */
+  private final boolean prefetchEnabled;
+  /** Number of prefetch threads */
+  private final int prefetchThreads;
+  /** Bytes up to which file content is prefetched */
+  private final long prefetchMaxFileSizeBytes;
+  /** Bytes of prefetched files kept in the cache */
+  private final long prefetchCacheBytes;
+  /** Seconds a prefetched file is kept in the cache */
+  private final int prefetchTtlSecs;
+  /** Directory of the store of indexed item metadata, or an empty string if disabled */
+  private final String metadataStoreDirectory;
+  /** Maximum number of items of a member processed at the same time, or 0 for no limit */
+  private final int fairnessMaxConcurrentPerMember;
+  /** Number of queued children of a member beyond which its folders are deferred, or 0 */
+  private final int fairnessMaxBacklogPerMember;
+  /** DropBox requests started per second, or 0 for no limit */
+  private final int requestsPerSecond;
+  /** Maximum number of DropBox requests in flight at the same time, or 0 for no limit */
+  private final int requestsMaxInFlight;
+  /** Seconds to wait for a connection to DropBox */
+  private final int timeoutsConnectSecs;
+  /** Seconds to wait for data of a metadata request */
+  private final int timeoutsMetadataReadSecs;
+  /** Seconds to wait for a metadata request to complete, or 0 for no limit */
+  private final int timeoutsMetadataTotalSecs;
+  /** Seconds to wait for data of a download */
+  private final int timeoutsDownloadReadSecs;
+  /** Seconds to wait for a download to complete, or 0 for no limit */
+  private final int timeoutsDownloadTotalSecs;
+  /** Whether to hedge slow metadata requests */
+  private final boolean hedgingEnabled;
+  /** Number of times an interrupted download of a spooled file is resumed */
+  private final int contentDownloadResumes;
+  /** Number of threads listing folders in estimate mode */
+  private final int estimateThreads;
+  /** Path of the report written in estimate mode */
+  private final String estimateReportFile;
+  /** Kilobytes per second downloaded from DropBox, or 0 for no limit */
+  private final int bandwidthKbPerSecond;
+  /** Limits of the bandwidth at some times of day */
+  private final List<BandwidthLimiter.Profile> bandwidthProfiles;
+  /** Include and exclude rules on the paths to index */
+  private final PathFilter pathFilter;
+  /** Number of consecutive failures of a member opening its circuit breaker */
+  private final int breakerFailureThreshold;
+  /** Seconds the circuit breaker of a member stays open */
+  private final int breakerOpenSecs;
+  /** Directory of the retry journal, or empty if disabled */
+  private final String retryJournalDirectory;
+  /** Number of failed attempts after which an item is given up */
+  private final int retryMaxAttempts;
+  /** Seconds before the first retry of a failed item */
+  private final int retryInitialDelaySecs;
+  /** Directory of the content cache, or empty if disabled */
+  private final String contentCacheDirectory;
+  /** Bytes of content kept in the content cache */
+  private final long contentCacheMaxBytes;
+  /** Bytes from which a file is downloaded in parallel ranges, or 0 if disabled */
+  private final long contentParallelThresholdBytes;
+  /** Number of ranges a large file is downloaded in at the same time */
+  private final int contentParallelChunks;
+  /** Number of buffers kept for reuse by the content transfers */
+  private final int contentBufferPoolSize;
+  /** Whether to delete the indexed files not listed by the last traversal */
+  private final boolean deletionSweepEnabled;
+  /** Maximum percentage of the indexed files a deletion sweep may delete */
+  private final int deletionSweepMaxDeletePercent;
+  /** Whether to poll the changes of the members not watched by long-polling */
+  private final boolean changesEnabled;
+  /** Seconds between two polls of the changes of a hot member */
+  private final int changesHotIntervalSecs;
+  /** Seconds between two polls of the changes of a warm member */
+  private final int changesWarmIntervalSecs;
+  /** Seconds between two polls of the changes of a cold member */
+  private final int changesColdIntervalSecs;
+  /** Number of recent changes from which a member is hot */
+  private final int changesHotMinChanges;
+  /** Number of threads polling the changes of members */
+  private final int changesThreads;
 
   /** Get an instance of {@link DropBoxConfiguration}. */
   private DropBoxConfiguration() {
-    String configCredentialFile = Configuration.getString(CREDENTIAL_FILE, "").get();
-    if (configCredentialFile.isEmpty()) {
-      throw new InvalidConfigurationException("credentialFile can not be empty");
-    }
-    this.credentialFile = configCredentialFile;
+    this.credentialFile = Configuration.getString(CREDENTIAL_FILE, "").get();
     this.teamMemberIds = Configuration
         .getMultiValue(TEAM_MEMBER_IDS, Collections.emptyList(), Configuration.STRING_PARSER).get();
+    List<String> configTeams = Configuration
+        .getMultiValue(TEAMS, Collections.emptyList(), Configuration.STRING_PARSER).get();
+    List<TeamConfiguration> teamList = new ArrayList<>();
+    if (configTeams.isEmpty()) {
+      if (credentialFile.isEmpty()) {
+        throw new InvalidConfigurationException("credentialFile can not be empty");
+      }
+      teamList.add(new TeamConfiguration.Builder("", credentialFile, teamMemberIds).build());
+    } else {
+      Set<String> teamNames = new HashSet<>();
+      for (String team : configTeams) {
+        if (!TEAM_NAME_PATTERN.matcher(team).matches()) {
+          throw new InvalidConfigurationException(
+              "teams must be names of letters, digits, '_' and '-': " + team);
+        }
+        if (!teamNames.add(team)) {
+          throw new InvalidConfigurationException("teams must not be duplicated: " + team);
+        }
+        String teamCredentialFile =
+            Configuration.getString(TEAM_PREFIX + team + TEAM_CREDENTIAL_FILE, "").get();
+        if (teamCredentialFile.isEmpty()) {
+          throw new InvalidConfigurationException(
+              "team." + team + ".credentialFile can not be empty");
+        }
+        List<String> teamTeamMemberIds = Configuration
+            .getMultiValue(TEAM_PREFIX + team + TEAM_TEAM_MEMBER_IDS, Collections.emptyList(),
+                Configuration.STRING_PARSER)
+            .get();
+        teamList.add(
+            new TeamConfiguration.Builder(team, teamCredentialFile, teamTeamMemberIds).build());
+      }
+    }
+    this.teams = Collections.unmodifiableList(teamList);
+    this.longPollTeamMemberIds = Configuration
+        .getMultiValue(LONG_POLL_TEAM_MEMBER_IDS, Collections.emptyList(),
+            Configuration.STRING_PARSER)
+        .get();
+
+    int configLongPollMaxConcurrent =
+        Configuration.getInteger(LONG_POLL_MAX_CONCURRENT, DEFAULT_LONG_POLL_MAX_CONCURRENT).get();
+    if (configLongPollMaxConcurrent < 1) {
+      throw new InvalidConfigurationException("longPoll.maxConcurrent must be greater than 0");
+    }
+    this.longPollMaxConcurrent = configLongPollMaxConcurrent;
+
+    int configLongPollTimeoutSecs =
+        Configuration.getInteger(LONG_POLL_TIMEOUT_SECS, DEFAULT_LONG_POLL_TIMEOUT_SECS).get();
+    if (configLongPollTimeoutSecs < MIN_LONG_POLL_TIMEOUT_SECS
+        || configLongPollTimeoutSecs > MAX_LONG_POLL_TIMEOUT_SECS) {
+      throw new InvalidConfigurationException(
+          "longPoll.timeoutSecs must be between 30 and 480");
+    }
+    this.longPollTimeoutSecs = configLongPollTimeoutSecs;
+
+    this.extractionEnabled = Configuration.getBoolean(EXTRACTION_ENABLED, false).get();
+    int configExtractionMaxTextLength = Configuration
+        .getInteger(EXTRACTION_MAX_TEXT_LENGTH, DEFAULT_EXTRACTION_MAX_TEXT_LENGTH).get();
+    if (configExtractionMaxTextLength < 1) {
+      throw new InvalidConfigurationException("extraction.maxTextLength must be greater than 0");
+    }
+    this.extractionMaxTextLength = configExtractionMaxTextLength;
+    int configExtractionThreads =
+        Configuration.getInteger(EXTRACTION_THREADS, DEFAULT_EXTRACTION_THREADS).get();
+    if (configExtractionThreads < 1) {
+      throw new InvalidConfigurationException("extraction.threads must be greater than 0");
+    }
+    this.extractionThreads = configExtractionThreads;
+    int configExtractionTimeoutSecs =
+        Configuration.getInteger(EXTRACTION_TIMEOUT_SECS, DEFAULT_EXTRACTION_TIMEOUT_SECS).get();
+    if (configExtractionTimeoutSecs < 1) {
+      throw new InvalidConfigurationException("extraction.timeoutSecs must be greater than 0");
+    }
+    this.extractionTimeoutSecs = configExtractionTimeoutSecs;
+
+    int configContentMemoryBudgetMb = Configuration
+        .getInteger(CONTENT_MEMORY_BUDGET_MB, DEFAULT_CONTENT_MEMORY_BUDGET_MB).get();
+    if (configContentMemoryBudgetMb < 1) {
+      throw new InvalidConfigurationException("content.memoryBudgetMb must be greater than 0");
+    }
+    this.contentMemoryBudgetBytes = configContentMemoryBudgetMb * MB;
+    int configContentSpoolThresholdMb = Configuration.getInteger(CONTENT_SPOOL_THRESHOLD_MB,
+        Math.min(DEFAULT_CONTENT_SPOOL_THRESHOLD_MB, configContentMemoryBudgetMb)).get();
+    if (configContentSpoolThresholdMb < 0
+        || configContentSpoolThresholdMb > configContentMemoryBudgetMb
+        || configContentSpoolThresholdMb > MAX_CONTENT_SPOOL_THRESHOLD_MB) {
+      throw new InvalidConfigurationException(
+          "content.spoolThresholdMb must be between 0 and content.memoryBudgetMb (up to 2047)");
+    }
+    this.contentSpoolThresholdBytes = configContentSpoolThresholdMb * MB;
+    this.contentSpoolDirectory = Configuration
+        .getString(CONTENT_SPOOL_DIRECTORY, System.getProperty("java.io.tmpdir")).get();
+
+    this.prefetchEnabled = Configuration.getBoolean(PREFETCH_ENABLED, false).get();
+    int configPrefetchThreads =
+        Configuration.getInteger(PREFETCH_THREADS, DEFAULT_PREFETCH_THREADS).get();
+    if (configPrefetchThreads < 1) {
+      throw new InvalidConfigurationException("prefetch.threads must be greater than 0");
+    }
+    this.prefetchThreads = configPrefetchThreads;
+    // The cache leaves room for a download up to the spool threshold, so polled files can always
+    // be downloaded while the cache is full.
+    int maxPrefetchCacheMb = configContentMemoryBudgetMb - configContentSpoolThresholdMb;
+    int configPrefetchCacheMb = Configuration.getInteger(PREFETCH_CACHE_MB,
+        Math.min(DEFAULT_PREFETCH_CACHE_MB, maxPrefetchCacheMb)).get();
+    if (prefetchEnabled
+        && (configPrefetchCacheMb < 1 || configPrefetchCacheMb > maxPrefetchCacheMb)) {
+      throw new InvalidConfigurationException("prefetch.cacheMb must be between 1 and"
+          + " content.memoryBudgetMb minus content.spoolThresholdMb");
+    }
+    this.prefetchCacheBytes = configPrefetchCacheMb * MB;
+    long maxPrefetchMaxFileSizeBytes = Math.min(prefetchCacheBytes, contentSpoolThresholdBytes);
+    int configPrefetchMaxFileSizeKb = Configuration.getInteger(PREFETCH_MAX_FILE_SIZE_KB,
+        (int) Math.min(DEFAULT_PREFETCH_MAX_FILE_SIZE_KB, maxPrefetchMaxFileSizeBytes / KB)).get();
+    if (configPrefetchMaxFileSizeKb < 0
+        || configPrefetchMaxFileSizeKb * KB > maxPrefetchMaxFileSizeBytes) {
+      throw new InvalidConfigurationException(
+          "prefetch.maxFileSizeKb must be between 0 and the smaller of prefetch.cacheMb"
+              + " and content.spoolThresholdMb");
+    }
+    this.prefetchMaxFileSizeBytes = configPrefetchMaxFileSizeKb * KB;
+    int configPrefetchTtlSecs =
+        Configuration.getInteger(PREFETCH_TTL_SECS, DEFAULT_PREFETCH_TTL_SECS).get();
+    if (configPrefetchTtlSecs < 1) {
+      throw new InvalidConfigurationException("prefetch.ttlSecs must be greater than 0");
+    }
+    this.prefetchTtlSecs = configPrefetchTtlSecs;
+
+    this.metadataStoreDirectory = Configuration.getString(METADATA_STORE_DIRECTORY, "").get();
+
+    int configFairnessMaxConcurrentPerMember =
+        Configuration.getInteger(FAIRNESS_MAX_CONCURRENT_PER_MEMBER, 0).get();
+    if (configFairnessMaxConcurrentPerMember < 0) {
+      throw new InvalidConfigurationException(
+          "fairness.maxConcurrentPerMember must not be negative");
+    }
+    this.fairnessMaxConcurrentPerMember = configFairnessMaxConcurrentPerMember;
+    int configFairnessMaxBacklogPerMember = Configuration.getInteger(
+        FAIRNESS_MAX_BACKLOG_PER_MEMBER, DEFAULT_FAIRNESS_MAX_BACKLOG_PER_MEMBER).get();
+    if (configFairnessMaxBacklogPerMember < 0) {
+      throw new InvalidConfigurationException("fairness.maxBacklogPerMember must not be negative");
+    }
+    this.fairnessMaxBacklogPerMember = configFairnessMaxBacklogPerMember;
+
+    int configRequestsPerSecond = Configuration.getInteger(REQUESTS_PER_SECOND, 0).get();
+    if (configRequestsPerSecond < 0) {
+      throw new InvalidConfigurationException("requests.perSecond must not be negative");
+    }
+    this.requestsPerSecond = configRequestsPerSecond;
+    int configRequestsMaxInFlight = Configuration.getInteger(
+        REQUESTS_MAX_IN_FLIGHT, DEFAULT_REQUESTS_MAX_IN_FLIGHT).get();
+    if (configRequestsMaxInFlight < 0) {
+      throw new InvalidConfigurationException("requests.maxInFlight must not be negative");
+    }
+    this.requestsMaxInFlight = configRequestsMaxInFlight;
+
+    int configTimeoutsConnectSecs =
+        Configuration.getInteger(TIMEOUTS_CONNECT_SECS, DEFAULT_TIMEOUTS_SECS).get();
+    if (configTimeoutsConnectSecs < 1) {
+      throw new InvalidConfigurationException("timeouts.connectSecs must be greater than 0");
+    }
+    this.timeoutsConnectSecs = configTimeoutsConnectSecs;
+    int configTimeoutsMetadataReadSecs =
+        Configuration.getInteger(TIMEOUTS_METADATA_READ_SECS, DEFAULT_TIMEOUTS_SECS).get();
+    if (configTimeoutsMetadataReadSecs < 1) {
+      throw new InvalidConfigurationException("timeouts.metadataReadSecs must be greater than 0");
+    }
+    this.timeoutsMetadataReadSecs = configTimeoutsMetadataReadSecs;
+    int configTimeoutsMetadataTotalSecs =
+        Configuration.getInteger(TIMEOUTS_METADATA_TOTAL_SECS, 0).get();
+    if (configTimeoutsMetadataTotalSecs < 0) {
+      throw new InvalidConfigurationException("timeouts.metadataTotalSecs must not be negative");
+    }
+    this.timeoutsMetadataTotalSecs = configTimeoutsMetadataTotalSecs;
+    int configTimeoutsDownloadReadSecs =
+        Configuration.getInteger(TIMEOUTS_DOWNLOAD_READ_SECS, DEFAULT_TIMEOUTS_SECS).get();
+    if (configTimeoutsDownloadReadSecs < 1) {
+      throw new InvalidConfigurationException("timeouts.downloadReadSecs must be greater than 0");
+    }
+    this.timeoutsDownloadReadSecs = configTimeoutsDownloadReadSecs;
+    int configTimeoutsDownloadTotalSecs =
+        Configuration.getInteger(TIMEOUTS_DOWNLOAD_TOTAL_SECS, 0).get();
+    if (configTimeoutsDownloadTotalSecs < 0) {
+      throw new InvalidConfigurationException("timeouts.downloadTotalSecs must not be negative");
+    }
+    this.timeoutsDownloadTotalSecs = configTimeoutsDownloadTotalSecs;
+
+    this.hedgingEnabled = Configuration.getBoolean(HEDGING_ENABLED, false).get();
+
+    int configContentDownloadResumes =
+        Configuration.getInteger(CONTENT_DOWNLOAD_RESUMES, DEFAULT_CONTENT_DOWNLOAD_RESUMES).get();
+    if (configContentDownloadResumes < 0) {
+      throw new InvalidConfigurationException("content.downloadResumes must not be negative");
+    }
+    this.contentDownloadResumes = configContentDownloadResumes;
+
+    int configEstimateThreads =
+        Configuration.getInteger(ESTIMATE_THREADS, DEFAULT_ESTIMATE_THREADS).get();
+    if (configEstimateThreads < 1) {
+      throw new InvalidConfigurationException("estimate.threads must be greater than 0");
+    }
+    this.estimateThreads = configEstimateThreads;
+    this.estimateReportFile =
+        Configuration.getString(ESTIMATE_REPORT_FILE, DEFAULT_ESTIMATE_REPORT_FILE).get();
+
+    int configBandwidthKbPerSecond = Configuration.getInteger(BANDWIDTH_KB_PER_SECOND, 0).get();
+    if (configBandwidthKbPerSecond < 0) {
+      throw new InvalidConfigurationException("bandwidth.kbPerSecond must not be negative");
+    }
+    this.bandwidthKbPerSecond = configBandwidthKbPerSecond;
+    List<String> configBandwidthProfiles = Configuration
+        .getMultiValue(BANDWIDTH_PROFILES, Collections.emptyList(), Configuration.STRING_PARSER)
+        .get();
+    List<BandwidthLimiter.Profile> parsedBandwidthProfiles = new ArrayList<>();
+    for (String profile : configBandwidthProfiles) {
+      try {
+        parsedBandwidthProfiles.add(BandwidthLimiter.Profile.parse(profile));
+      } catch (IllegalArgumentException e) {
+        throw new InvalidConfigurationException(e.getMessage(), e);
+      }
+    }
+    this.bandwidthProfiles = Collections.unmodifiableList(parsedBandwidthProfiles);
+
+    List<String> configPathsInclude = Configuration
+        .getMultiValue(PATHS_INCLUDE, Collections.emptyList(), Configuration.STRING_PARSER).get();
+    List<String> configPathsExclude = Configuration
+        .getMultiValue(PATHS_EXCLUDE, Collections.emptyList(), Configuration.STRING_PARSER).get();
+    try {
+      this.pathFilter = new PathFilter(configPathsInclude, configPathsExclude);
+    } catch (IllegalArgumentException e) {
+      throw new InvalidConfigurationException("Invalid path rule: " + e.getMessage(), e);
+    }
+
+    int configBreakerFailureThreshold =
+        Configuration.getInteger(BREAKER_FAILURE_THRESHOLD, DEFAULT_BREAKER_FAILURE_THRESHOLD).get();
+    if (configBreakerFailureThreshold < 0) {
+      throw new InvalidConfigurationException("breaker.failureThreshold must not be negative");
+    }
+    this.breakerFailureThreshold = configBreakerFailureThreshold;
+    int configBreakerOpenSecs =
+        Configuration.getInteger(BREAKER_OPEN_SECS, DEFAULT_BREAKER_OPEN_SECS).get();
+    if (configBreakerOpenSecs < 1) {
+      throw new InvalidConfigurationException("breaker.openSecs must be greater than 0");
+    }
+    this.breakerOpenSecs = configBreakerOpenSecs;
+
+    this.retryJournalDirectory = Configuration.getString(RETRY_JOURNAL_DIRECTORY, "").get();
+    int configRetryMaxAttempts =
+        Configuration.getInteger(RETRY_MAX_ATTEMPTS, DEFAULT_RETRY_MAX_ATTEMPTS).get();
+    if (configRetryMaxAttempts < 1) {
+      throw new InvalidConfigurationException("retry.maxAttempts must be greater than 0");
+    }
+    this.retryMaxAttempts = configRetryMaxAttempts;
+    int configRetryInitialDelaySecs =
+        Configuration.getInteger(RETRY_INITIAL_DELAY_SECS, DEFAULT_RETRY_INITIAL_DELAY_SECS).get();
+    if (configRetryInitialDelaySecs < 1) {
+      throw new InvalidConfigurationException("retry.initialDelaySecs must be greater than 0");
+    }
+    this.retryInitialDelaySecs = configRetryInitialDelaySecs;
+
+    this.contentCacheDirectory = Configuration.getString(CONTENT_CACHE_DIRECTORY, "").get();
+    int configContentCacheMaxMb =
+        Configuration.getInteger(CONTENT_CACHE_MAX_MB, DEFAULT_CONTENT_CACHE_MAX_MB).get();
+    if (configContentCacheMaxMb < 1) {
+      throw new InvalidConfigurationException("contentCache.maxMb must be greater than 0");
+    }
+    this.contentCacheMaxBytes = configContentCacheMaxMb * MB;
+
+    int configContentParallelThresholdMb =
+        Configuration.getInteger(CONTENT_PARALLEL_THRESHOLD_MB, 0).get();
+    if (configContentParallelThresholdMb < 0) {
+      throw new InvalidConfigurationException("content.parallelThresholdMb must not be negative");
+    }
+    this.contentParallelThresholdBytes = configContentParallelThresholdMb * MB;
+    int configContentParallelChunks =
+        Configuration.getInteger(CONTENT_PARALLEL_CHUNKS, DEFAULT_CONTENT_PARALLEL_CHUNKS).get();
+    if (configContentParallelChunks < 2) {
+      throw new InvalidConfigurationException("content.parallelChunks must be greater than 1");
+    }
+    this.contentParallelChunks = configContentParallelChunks;
+
+    int configContentBufferPoolSize =
+        Configuration.getInteger(CONTENT_BUFFER_POOL_SIZE, DEFAULT_CONTENT_BUFFER_POOL_SIZE).get();
+    if (configContentBufferPoolSize < 0) {
+      throw new InvalidConfigurationException("content.bufferPoolSize must not be negative");
+    }
+    this.contentBufferPoolSize = configContentBufferPoolSize;
+
+    this.deletionSweepEnabled = Configuration.getBoolean(DELETION_SWEEP_ENABLED, false).get();
+    if (deletionSweepEnabled && metadataStoreDirectory.isEmpty()) {
+      throw new InvalidConfigurationException(
+          "deletionSweep.enabled requires metadataStore.directory");
+    }
+    int configDeletionSweepMaxDeletePercent = Configuration.getInteger(
+        DELETION_SWEEP_MAX_DELETE_PERCENT, DEFAULT_DELETION_SWEEP_MAX_DELETE_PERCENT).get();
+    if (configDeletionSweepMaxDeletePercent < 1 || configDeletionSweepMaxDeletePercent > 100) {
+      throw new InvalidConfigurationException(
+          "deletionSweep.maxDeletePercent must be between 1 and 100");
+    }
+    this.deletionSweepMaxDeletePercent = configDeletionSweepMaxDeletePercent;
+
+    this.changesEnabled = Configuration.getBoolean(CHANGES_ENABLED, false).get();
+    int configChangesHotIntervalSecs =
+        Configuration.getInteger(CHANGES_HOT_INTERVAL_SECS, DEFAULT_CHANGES_HOT_INTERVAL_SECS)
+            .get();
+    if (configChangesHotIntervalSecs < 1) {
+      throw new InvalidConfigurationException("changes.hotIntervalSecs must be greater than 0");
+    }
+    this.changesHotIntervalSecs = configChangesHotIntervalSecs;
+    int configChangesWarmIntervalSecs =
+        Configuration.getInteger(CHANGES_WARM_INTERVAL_SECS, DEFAULT_CHANGES_WARM_INTERVAL_SECS)
+            .get();
+    if (configChangesWarmIntervalSecs < configChangesHotIntervalSecs) {
+      throw new InvalidConfigurationException(
+          "changes.warmIntervalSecs must not be less than changes.hotIntervalSecs");
+    }
+    this.changesWarmIntervalSecs = configChangesWarmIntervalSecs;
+    int configChangesColdIntervalSecs =
+        Configuration.getInteger(CHANGES_COLD_INTERVAL_SECS, DEFAULT_CHANGES_COLD_INTERVAL_SECS)
+            .get();
+    if (configChangesColdIntervalSecs < configChangesWarmIntervalSecs) {
+      throw new InvalidConfigurationException(
+          "changes.coldIntervalSecs must not be less than changes.warmIntervalSecs");
+    }
+    this.changesColdIntervalSecs = configChangesColdIntervalSecs;
+    int configChangesHotMinChanges =
+        Configuration.getInteger(CHANGES_HOT_MIN_CHANGES, DEFAULT_CHANGES_HOT_MIN_CHANGES).get();
+    if (configChangesHotMinChanges < 1) {
+      throw new InvalidConfigurationException("changes.hotMinChanges must be greater than 0");
+    }
+    this.changesHotMinChanges = configChangesHotMinChanges;
+    int configChangesThreads =
+        Configuration.getInteger(CHANGES_THREADS, DEFAULT_CHANGES_THREADS).get();
+    if (configChangesThreads < 1) {
+      throw new InvalidConfigurationException("changes.threads must be greater than 0");
+    }
+    this.changesThreads = configChangesThreads;
   }
 
   /**
@@ -65,12 +693,372 @@ public class DropBoxConfiguration {
     return teamMemberIds;
   }
 
+  /**
+   * Gets teams to be processed. Unless several teams are configured, the only team is named
+   * with an empty string and uses the credential file and team member IDs above.
+   */
+  public List<TeamConfiguration> getTeams() {
+    return teams;
+  }
+
+  /** Gets list of team member IDs whose changes are watched by long-polling. */
+  public List<String> getLongPollTeamMemberIds() {
+    return longPollTeamMemberIds;
+  }
+
+  /** Gets maximum number of concurrent long-poll requests. */
+  public int getLongPollMaxConcurrent() {
+    return longPollMaxConcurrent;
+  }
+
+  /** Gets seconds to wait for changes in a long-poll request. */
+  public int getLongPollTimeoutSecs() {
+    return longPollTimeoutSecs;
+  }
+
+  /** Gets whether to extract text from file content before uploading. */
+  public boolean isExtractionEnabled() {
+    return extractionEnabled;
+  }
+
+  /** Gets maximum number of characters to extract from a file. */
+  public int getExtractionMaxTextLength() {
+    return extractionMaxTextLength;
+  }
+
+  /** Gets number of text extraction threads. */
+  public int getExtractionThreads() {
+    return extractionThreads;
+  }
+
+  /** Gets seconds to wait for the text extraction of a file. */
+  public int getExtractionTimeoutSecs() {
+    return extractionTimeoutSecs;
+  }
+
+  /** Gets bytes of file content held in memory at the same time. */
+  public long getContentMemoryBudgetBytes() {
+    return contentMemoryBudgetBytes;
+  }
+
+  /** Gets bytes above which file content is written to a spool file. */
+  public long getContentSpoolThresholdBytes() {
+    return contentSpoolThresholdBytes;
+  }
+
+  /** Gets directory of spool files. */
+  public String getContentSpoolDirectory() {
+    return contentSpoolDirectory;
+  }
+
+  /** Gets whether to prefetch the children of a listed folder. */
+  public boolean isPrefetchEnabled() {
+    return prefetchEnabled;
+  }
+
+  /** Gets number of prefetch threads. */
+  public int getPrefetchThreads() {
+    return prefetchThreads;
+  }
+
+  /** Gets bytes up to which file content is prefetched. */
+  public long getPrefetchMaxFileSizeBytes() {
+    return prefetchMaxFileSizeBytes;
+  }
+
+  /** Gets bytes of prefetched files kept in the cache. */
+  public long getPrefetchCacheBytes() {
+    return prefetchCacheBytes;
+  }
+
+  /** Gets seconds a prefetched file is kept in the cache. */
+  public int getPrefetchTtlSecs() {
+    return prefetchTtlSecs;
+  }
+
+  /** Gets directory of the store of indexed item metadata, or an empty string if disabled. */
+  public String getMetadataStoreDirectory() {
+    return metadataStoreDirectory;
+  }
+
+  /** Gets maximum number of items of a member processed at the same time, or 0 for no limit. */
+  public int getFairnessMaxConcurrentPerMember() {
+    return fairnessMaxConcurrentPerMember;
+  }
+
+  /** Gets number of queued children of a member beyond which its folders are deferred, or 0. */
+  public int getFairnessMaxBacklogPerMember() {
+    return fairnessMaxBacklogPerMember;
+  }
+
+  /** Gets DropBox requests started per second, or 0 for no limit. */
+  public int getRequestsPerSecond() {
+    return requestsPerSecond;
+  }
+
+  /** Gets maximum number of DropBox requests in flight at the same time, or 0 for no limit. */
+  public int getRequestsMaxInFlight() {
+    return requestsMaxInFlight;
+  }
+
+  /** Gets seconds to wait for a connection to DropBox. */
+  public int getTimeoutsConnectSecs() {
+    return timeoutsConnectSecs;
+  }
+
+  /** Gets seconds to wait for data of a metadata request. */
+  public int getTimeoutsMetadataReadSecs() {
+    return timeoutsMetadataReadSecs;
+  }
+
+  /** Gets seconds to wait for a metadata request to complete, or 0 for no limit. */
+  public int getTimeoutsMetadataTotalSecs() {
+    return timeoutsMetadataTotalSecs;
+  }
+
+  /** Gets seconds to wait for data of a download. */
+  public int getTimeoutsDownloadReadSecs() {
+    return timeoutsDownloadReadSecs;
+  }
+
+  /** Gets seconds to wait for a download to complete, or 0 for no limit. */
+  public int getTimeoutsDownloadTotalSecs() {
+    return timeoutsDownloadTotalSecs;
+  }
+
+  /** Gets whether to hedge slow metadata requests. */
+  public boolean isHedgingEnabled() {
+    return hedgingEnabled;
+  }
+
+  /** Gets number of times an interrupted download of a spooled file is resumed. */
+  public int getContentDownloadResumes() {
+    return contentDownloadResumes;
+  }
+
+  /** Gets number of threads listing folders in estimate mode. */
+  public int getEstimateThreads() {
+    return estimateThreads;
+  }
+
+  /** Gets path of the report written in estimate mode. */
+  public String getEstimateReportFile() {
+    return estimateReportFile;
+  }
+
+  /** Gets kilobytes per second downloaded from DropBox, or 0 for no limit. */
+  public int getBandwidthKbPerSecond() {
+    return bandwidthKbPerSecond;
+  }
+
+  /** Gets limits of the bandwidth at some times of day. */
+  public List<BandwidthLimiter.Profile> getBandwidthProfiles() {
+    return bandwidthProfiles;
+  }
+
+  /** Gets include and exclude rules on the paths to index. */
+  public PathFilter getPathFilter() {
+    return pathFilter;
+  }
+
+  /** Gets number of consecutive failures of a member opening its circuit breaker. */
+  public int getBreakerFailureThreshold() {
+    return breakerFailureThreshold;
+  }
+
+  /** Gets seconds the circuit breaker of a member stays open. */
+  public int getBreakerOpenSecs() {
+    return breakerOpenSecs;
+  }
+
+  /** Gets directory of the retry journal, or empty if disabled. */
+  public String getRetryJournalDirectory() {
+    return retryJournalDirectory;
+  }
+
+  /** Gets number of failed attempts after which an item is given up. */
+  public int getRetryMaxAttempts() {
+    return retryMaxAttempts;
+  }
+
+  /** Gets seconds before the first retry of a failed item. */
+  public int getRetryInitialDelaySecs() {
+    return retryInitialDelaySecs;
+  }
+
+  /** Gets directory of the content cache, or empty if disabled. */
+  public String getContentCacheDirectory() {
+    return contentCacheDirectory;
+  }
+
+  /** Gets bytes of content kept in the content cache. */
+  public long getContentCacheMaxBytes() {
+    return contentCacheMaxBytes;
+  }
+
+  /** Gets bytes from which a file is downloaded in parallel ranges, or 0 if disabled. */
+  public long getContentParallelThresholdBytes() {
+    return contentParallelThresholdBytes;
+  }
+
+  /** Gets number of ranges a large file is downloaded in at the same time. */
+  public int getContentParallelChunks() {
+    return contentParallelChunks;
+  }
+
+  /** Gets number of buffers kept for reuse by the content transfers. */
+  public int getContentBufferPoolSize() {
+    return contentBufferPoolSize;
+  }
+
+  /** Gets whether to delete the indexed files not listed by the last traversal. */
+  public boolean isDeletionSweepEnabled() {
+    return deletionSweepEnabled;
+  }
+
+  /** Gets maximum percentage of the indexed files a deletion sweep may delete. */
+  public int getDeletionSweepMaxDeletePercent() {
+    return deletionSweepMaxDeletePercent;
+  }
+
+  /** Gets whether to poll the changes of the members not watched by long-polling. */
+  public boolean isChangesEnabled() {
+    return changesEnabled;
+  }
+
+  /** Gets seconds between two polls of the changes of a hot member. */
+  public int getChangesHotIntervalSecs() {
+    return changesHotIntervalSecs;
+  }
+
+  /** Gets seconds between two polls of the changes of a warm member. */
+  public int getChangesWarmIntervalSecs() {
+    return changesWarmIntervalSecs;
+  }
+
+  /** Gets seconds between two polls of the changes of a cold member. */
+  public int getChangesColdIntervalSecs() {
+    return changesColdIntervalSecs;
+  }
+
+  /** Gets number of recent changes from which a member is hot. */
+  public int getChangesHotMinChanges() {
+    return changesHotMinChanges;
+  }
+
+  /** Gets number of threads polling the changes of members. */
+  public int getChangesThreads() {
+    return changesThreads;
+  }
+
   @Override
   public String toString() {
     return "DropBoxConfiguration [credentialFile="
         + credentialFile
         + ", teamMemberIds="
         + teamMemberIds
+        + ", teams="
+        + teams
+        + ", longPollTeamMemberIds="
+        + longPollTeamMemberIds
+        + ", longPollMaxConcurrent="
+        + longPollMaxConcurrent
+        + ", longPollTimeoutSecs="
+        + longPollTimeoutSecs
+        + ", extractionEnabled="
+        + extractionEnabled
+        + ", extractionMaxTextLength="
+        + extractionMaxTextLength
+        + ", extractionThreads="
+        + extractionThreads
+        + ", extractionTimeoutSecs="
+        + extractionTimeoutSecs
+        + ", contentMemoryBudgetBytes="
+        + contentMemoryBudgetBytes
+        + ", contentSpoolThresholdBytes="
+        + contentSpoolThresholdBytes
+        + ", contentSpoolDirectory="
+        + contentSpoolDirectory
+        + ", prefetchEnabled="
+        + prefetchEnabled
+        + ", prefetchThreads="
+        + prefetchThreads
+        + ", prefetchMaxFileSizeBytes="
+        + prefetchMaxFileSizeBytes
+        + ", prefetchCacheBytes="
+        + prefetchCacheBytes
+        + ", prefetchTtlSecs="
+        + prefetchTtlSecs
+        + ", metadataStoreDirectory="
+        + metadataStoreDirectory
+        + ", fairnessMaxConcurrentPerMember="
+        + fairnessMaxConcurrentPerMember
+        + ", fairnessMaxBacklogPerMember="
+        + fairnessMaxBacklogPerMember
+        + ", requestsPerSecond="
+        + requestsPerSecond
+        + ", requestsMaxInFlight="
+        + requestsMaxInFlight
+        + ", timeoutsConnectSecs="
+        + timeoutsConnectSecs
+        + ", timeoutsMetadataReadSecs="
+        + timeoutsMetadataReadSecs
+        + ", timeoutsMetadataTotalSecs="
+        + timeoutsMetadataTotalSecs
+        + ", timeoutsDownloadReadSecs="
+        + timeoutsDownloadReadSecs
+        + ", timeoutsDownloadTotalSecs="
+        + timeoutsDownloadTotalSecs
+        + ", hedgingEnabled="
+        + hedgingEnabled
+        + ", contentDownloadResumes="
+        + contentDownloadResumes
+        + ", estimateThreads="
+        + estimateThreads
+        + ", estimateReportFile="
+        + estimateReportFile
+        + ", bandwidthKbPerSecond="
+        + bandwidthKbPerSecond
+        + ", bandwidthProfiles="
+        + bandwidthProfiles
+        + ", pathFilter="
+        + pathFilter
+        + ", breakerFailureThreshold="
+        + breakerFailureThreshold
+        + ", breakerOpenSecs="
+        + breakerOpenSecs
+        + ", retryJournalDirectory="
+        + retryJournalDirectory
+        + ", retryMaxAttempts="
+        + retryMaxAttempts
+        + ", retryInitialDelaySecs="
+        + retryInitialDelaySecs
+        + ", contentCacheDirectory="
+        + contentCacheDirectory
+        + ", contentCacheMaxBytes="
+        + contentCacheMaxBytes
+        + ", contentParallelThresholdBytes="
+        + contentParallelThresholdBytes
+        + ", contentParallelChunks="
+        + contentParallelChunks
+        + ", contentBufferPoolSize="
+        + contentBufferPoolSize
+        + ", deletionSweepEnabled="
+        + deletionSweepEnabled
+        + ", deletionSweepMaxDeletePercent="
+        + deletionSweepMaxDeletePercent
+        + ", changesEnabled="
+        + changesEnabled
+        + ", changesHotIntervalSecs="
+        + changesHotIntervalSecs
+        + ", changesWarmIntervalSecs="
+        + changesWarmIntervalSecs
+        + ", changesColdIntervalSecs="
+        + changesColdIntervalSecs
+        + ", changesHotMinChanges="
+        + changesHotMinChanges
+        + ", changesThreads="
+        + changesThreads
         + "]";
   }
 }
@@ -25,6 +25,7 @@ import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import java.io.IOException;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 import java.util.Set;
@@ -47,6 +48,15 @@ public final class DropBoxObject extends GenericJson {
   /** DropBox object type */
   private static final Set<String> SUPPORTED_TYPE = ImmutableSet.of(MEMBER, FOLDER, FILE);
 
+  /**
+   * Order in which items are pushed for indexing: folders first so that the tree expands
+   * quickly, then files from the most recently modified, which are the most likely searched.
+   */
+  public static final Comparator<DropBoxObject> PUSH_ORDER =
+      Comparator.comparing((DropBoxObject object) -> FILE.equals(object.objectType))
+          .thenComparing(DropBoxObject::getServerModified,
+              Comparator.nullsLast(Comparator.reverseOrder()));
+
   @Key
   private String objectType;
   @Key
@@ -63,6 +73,18 @@ public final class DropBoxObject extends GenericJson {
   private boolean isDownloadable;
   @Key
   private Date serverModified;
+  @Key
+  private long size;
+  @Key
+  private String rev;
+  @Key
+  private String contentHash;
+  @Key
+  private String team;
+  @Key
+  private String parentItemName;
+  @Key
+  private Boolean hasExplicitSharedMembers;
 
   /** Default constructor for json parsing. */
   public DropBoxObject() {
@@ -80,6 +102,12 @@ public final class DropBoxObject extends GenericJson {
     this.sharedFolderId = builder.sharedFolderId;
     this.isDownloadable = builder.isDownloadable;
     this.serverModified = builder.serverModified;
+    this.size = builder.size;
+    this.rev = builder.rev;
+    this.contentHash = builder.contentHash;
+    this.team = builder.team;
+    this.parentItemName = builder.parentItemName;
+    this.hasExplicitSharedMembers = builder.hasExplicitSharedMembers;
     setFactory(JSON_FACTORY);
   }
 
@@ -175,6 +203,39 @@ public final class DropBoxObject extends GenericJson {
     return serverModified;
   }
 
+  /** Gets file size in bytes, or 0 if unknown. */
+  public long getSize() {
+    return size;
+  }
+
+  /** Gets file revision, or an empty string if unknown. */
+  public String getRev() {
+    return Strings.nullToEmpty(rev);
+  }
+
+  /** Gets DropBox content hash of the file, or an empty string if unknown. */
+  public String getContentHash() {
+    return Strings.nullToEmpty(contentHash);
+  }
+
+  /** Gets name of the team the object belongs to, or an empty string for the only team. */
+  public String getTeam() {
+    return Strings.nullToEmpty(team);
+  }
+
+  /** Gets item name of the container the object inherits its ACL from, or an empty string. */
+  public String getParentItemName() {
+    return Strings.nullToEmpty(parentItemName);
+  }
+
+  /**
+   * Gets whether the file is shared on its own besides its folder, or {@code false} if unknown,
+   * as for payloads saved before the field was added.
+   */
+  public boolean getHasExplicitSharedMembers() {
+    return Boolean.TRUE.equals(hasExplicitSharedMembers);
+  }
+
   @Override
   public String toString() {
     return super.toString();
@@ -193,6 +254,12 @@ public final class DropBoxObject extends GenericJson {
     private String sharedFolderId = "";
     private boolean isDownloadable = false;
     private Date serverModified = null;
+    private long size = 0;
+    private String rev = "";
+    private String contentHash = "";
+    private String team = "";
+    private String parentItemName = "";
+    private Boolean hasExplicitSharedMembers = null;
 
     /**
      * Constructs a {@link DropBoxObject.Builder} that wraps given DropBox object type, team
@@ -233,6 +300,36 @@ public final class DropBoxObject extends GenericJson {
       return this;
     }
 
+    public Builder setSize(long size) {
+      this.size = size;
+      return this;
+    }
+
+    public Builder setRev(String rev) {
+      this.rev = Strings.nullToEmpty(rev);
+      return this;
+    }
+
+    public Builder setContentHash(String contentHash) {
+      this.contentHash = Strings.nullToEmpty(contentHash);
+      return this;
+    }
+
+    public Builder setTeam(String team) {
+      this.team = Strings.nullToEmpty(team);
+      return this;
+    }
+
+    public Builder setParentItemName(String parentItemName) {
+      this.parentItemName = Strings.nullToEmpty(parentItemName);
+      return this;
+    }
+
+    public Builder setHasExplicitSharedMembers(Boolean hasExplicitSharedMembers) {
+      this.hasExplicitSharedMembers = hasExplicitSharedMembers;
+      return this;
+    }
+
     /**
      * Builds an instance of {@link DropBoxObject}.
      *
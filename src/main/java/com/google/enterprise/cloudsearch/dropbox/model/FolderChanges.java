@@ -0,0 +1,53 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.model;
+
+import com.dropbox.core.v2.files.Metadata;
+import java.util.Collections;
+import java.util.List;
+
+/** Changed entries of a folder listing together with the cursor to continue from. */
+public class FolderChanges {
+  private final List<Metadata> entries;
+  private final String cursor;
+
+  private FolderChanges(Builder builder) {
+    this.entries = Collections.unmodifiableList(builder.entries);
+    this.cursor = builder.cursor;
+  }
+
+  public List<Metadata> getEntries() {
+    return entries;
+  }
+
+  public String getCursor() {
+    return cursor;
+  }
+
+  public static final class Builder {
+    private List<Metadata> entries;
+    private String cursor;
+
+    public Builder(List<Metadata> entries, String cursor) {
+      this.entries = entries;
+      this.cursor = cursor;
+    }
+
+    public FolderChanges build() {
+      return new FolderChanges(this);
+    }
+  }
+}
@@ -35,6 +35,19 @@ public class SharingInfo {
     return groupNames;
   }
 
+  /**
+   * Gets the name identifying a group in Cloud Search. The name of a group of a named team ends
+   * with the team, like the names of its items, so that groups of the same name in several teams
+   * never collide.
+   *
+   * @param team      team name, or an empty string for the team configured without a name
+   * @param groupName DropBox group name
+   * @return group key
+   */
+  public static String getGroupKey(String team, String groupName) {
+    return team.isEmpty() ? groupName : groupName + "#" + team;
+  }
+
   public static final class Builder {
     private List<String> userIds;
     private List<String> groupNames;
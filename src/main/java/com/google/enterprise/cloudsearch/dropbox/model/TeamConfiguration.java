@@ -0,0 +1,73 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.model;
+
+import java.util.Collections;
+import java.util.List;
+
+/** Credential and members of a DropBox team indexed by the connector. */
+public class TeamConfiguration {
+  private final String name;
+  private final String credentialFile;
+  private final List<String> teamMemberIds;
+
+  private TeamConfiguration(Builder builder) {
+    this.name = builder.name;
+    this.credentialFile = builder.credentialFile;
+    this.teamMemberIds = Collections.unmodifiableList(builder.teamMemberIds);
+  }
+
+  /** Gets team name, or an empty string for the only team of a single-team connector. */
+  public String getName() {
+    return name;
+  }
+
+  public String getCredentialFile() {
+    return credentialFile;
+  }
+
+  /** Gets team member IDs to be processed, or an empty list for all members. */
+  public List<String> getTeamMemberIds() {
+    return teamMemberIds;
+  }
+
+  @Override
+  public String toString() {
+    return "TeamConfiguration [name="
+        + name
+        + ", credentialFile="
+        + credentialFile
+        + ", teamMemberIds="
+        + teamMemberIds
+        + "]";
+  }
+
+  public static final class Builder {
+    private String name;
+    private String credentialFile;
+    private List<String> teamMemberIds;
+
+    public Builder(String name, String credentialFile, List<String> teamMemberIds) {
+      this.name = name;
+      this.credentialFile = credentialFile;
+      this.teamMemberIds = teamMemberIds;
+    }
+
+    public TeamConfiguration build() {
+      return new TeamConfiguration(this);
+    }
+  }
+}
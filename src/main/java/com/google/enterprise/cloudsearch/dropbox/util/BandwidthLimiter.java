@@ -0,0 +1,270 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.time.Clock;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Process-wide limit of the bytes per second read from DropBox.
+ *
+ * <p>
+ * Reads are granted in small chunks, in the order they were requested, so concurrent downloads
+ * share the bandwidth evenly and a large file can not hold back the small ones. The limit may
+ * change with the time of day according to profiles.
+ */
+public final class BandwidthLimiter {
+  /** Maximum number of bytes granted to a single read while limited */
+  static final int CHUNK_BYTES = 16 * 1024;
+  /** Interval at which the current time of day and the current bandwidth are evaluated */
+  private static final long EVALUATION_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  /** Bytes per second outside of the profiles, or 0 for no limit */
+  private final long defaultBytesPerSecond;
+  /** Limits applying at some times of day */
+  private final List<Profile> profiles;
+  /** Clock telling the time of day */
+  private final Clock clock;
+  /** Fair lock ordering the reads */
+  private final ReentrantLock lock = new ReentrantLock(true);
+  /** Number of bytes read */
+  private final AtomicLong readBytes = new AtomicLong();
+  /** Time at which the next read may start, guarded by {@code lock} */
+  private long nextFreeNanos = System.nanoTime();
+  /** Current limit in bytes per second, or 0 for no limit */
+  private volatile long limitBytesPerSecond;
+  /** Time the current limit was evaluated */
+  private volatile long limitEvaluatedNanos;
+  /** Measured bytes per second, guarded by {@code this} */
+  private long currentBytesPerSecond;
+  /** Number of bytes read when the bandwidth was last measured, guarded by {@code this} */
+  private long measuredBytes;
+  /** Time the bandwidth was last measured, guarded by {@code this} */
+  private long measuredNanos = System.nanoTime();
+
+  /**
+   * Get an instance of {@link BandwidthLimiter}.
+   *
+   * @param defaultBytesPerSecond bytes per second outside of the profiles, or 0 for no limit
+   * @param profiles              limits applying at some times of day; the first one matching
+   *                              the current time applies
+   */
+  public BandwidthLimiter(long defaultBytesPerSecond, List<Profile> profiles) {
+    this(defaultBytesPerSecond, profiles, Clock.systemDefaultZone());
+  }
+
+  BandwidthLimiter(long defaultBytesPerSecond, List<Profile> profiles, Clock clock) {
+    checkArgument(defaultBytesPerSecond >= 0, "bytes per second must not be negative");
+    this.defaultBytesPerSecond = defaultBytesPerSecond;
+    this.profiles = new ArrayList<>(profiles);
+    this.clock = clock;
+    this.limitBytesPerSecond = evaluateLimit();
+    this.limitEvaluatedNanos = System.nanoTime();
+  }
+
+  /**
+   * Wraps the stream so that reading it counts against the limit.
+   *
+   * @param in stream to read from DropBox
+   * @return limited stream
+   */
+  public InputStream limit(InputStream in) {
+    return new LimitedInputStream(in);
+  }
+
+  /** Gets current limit in bytes per second, or 0 if not limited. */
+  public long getLimitBytesPerSecond() {
+    refreshLimit(System.nanoTime());
+    return limitBytesPerSecond;
+  }
+
+  /** Gets bytes per second read since the bandwidth was last measured. */
+  public synchronized long getCurrentBytesPerSecond() {
+    long now = System.nanoTime();
+    long elapsed = now - measuredNanos;
+    if (elapsed >= EVALUATION_INTERVAL_NANOS) {
+      long total = readBytes.get();
+      currentBytesPerSecond = (total - measuredBytes) * TimeUnit.SECONDS.toNanos(1) / elapsed;
+      measuredBytes = total;
+      measuredNanos = now;
+    }
+    return currentBytesPerSecond;
+  }
+
+  /**
+   * Waits until the bytes may be read.
+   *
+   * @param bytes number of bytes to read
+   * @throws InterruptedIOException when interrupted while waiting
+   */
+  void acquire(int bytes) throws InterruptedIOException {
+    long now = System.nanoTime();
+    refreshLimit(now);
+    long limit = limitBytesPerSecond;
+    if (limit == 0) {
+      return;
+    }
+    long waitNanos;
+    lock.lock();
+    try {
+      now = System.nanoTime();
+      long start = Math.max(now, nextFreeNanos);
+      nextFreeNanos = start + bytes * TimeUnit.SECONDS.toNanos(1) / limit;
+      waitNanos = start - now;
+    } finally {
+      lock.unlock();
+    }
+    if (waitNanos > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+      }
+    }
+  }
+
+  private void refreshLimit(long now) {
+    if (profiles.isEmpty() || now - limitEvaluatedNanos < EVALUATION_INTERVAL_NANOS) {
+      return;
+    }
+    limitBytesPerSecond = evaluateLimit();
+    limitEvaluatedNanos = now;
+  }
+
+  private long evaluateLimit() {
+    LocalTime time = LocalTime.now(clock);
+    for (Profile profile : profiles) {
+      if (profile.contains(time)) {
+        return profile.bytesPerSecond;
+      }
+    }
+    return defaultBytesPerSecond;
+  }
+
+  /** Stream reading at most a chunk at a time within the limit. */
+  private final class LimitedInputStream extends FilterInputStream {
+    LimitedInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      acquire(1);
+      int read = super.read();
+      if (read >= 0) {
+        readBytes.incrementAndGet();
+      }
+      return read;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      int chunk = getLimitBytesPerSecond() == 0 ? length : Math.min(length, CHUNK_BYTES);
+      acquire(chunk);
+      int read = super.read(buffer, offset, chunk);
+      if (read > 0) {
+        readBytes.addAndGet(read);
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      byte[] buffer = new byte[(int) Math.min(n, CHUNK_BYTES)];
+      int read = read(buffer, 0, buffer.length);
+      return Math.max(0, read);
+    }
+  }
+
+  /** Limit applying between two times of day. */
+  public static final class Profile {
+    /** Format of a profile, such as {@code 09:00-18:00=512} */
+    private static final Pattern FORMAT =
+        Pattern.compile("(\\d{2}:\\d{2})-(\\d{2}:\\d{2})=(\\d+)");
+
+    /** Time of day the profile starts at, inclusive */
+    private final LocalTime start;
+    /** Time of day the profile ends at, exclusive */
+    private final LocalTime end;
+    /** Bytes per second, or 0 for no limit */
+    private final long bytesPerSecond;
+
+    /**
+     * Get an instance of {@link Profile}. A profile whose end is before its start spans midnight.
+     *
+     * @param start          time of day the profile starts at, inclusive
+     * @param end            time of day the profile ends at, exclusive
+     * @param bytesPerSecond bytes per second, or 0 for no limit
+     */
+    public Profile(LocalTime start, LocalTime end, long bytesPerSecond) {
+      checkArgument(bytesPerSecond >= 0, "bytes per second must not be negative");
+      this.start = start;
+      this.end = end;
+      this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Parses a profile formatted as {@code HH:mm-HH:mm=kilobytesPerSecond}.
+     *
+     * @param value profile such as {@code 09:00-18:00=512}
+     * @return profile
+     * @throws IllegalArgumentException if the profile is malformed
+     */
+    public static Profile parse(String value) {
+      Matcher matcher = FORMAT.matcher(value.trim());
+      checkArgument(matcher.matches(), "bandwidth profile must be HH:mm-HH:mm=kbPerSecond: %s",
+          value);
+      try {
+        return new Profile(LocalTime.parse(matcher.group(1)), LocalTime.parse(matcher.group(2)),
+            Long.parseLong(matcher.group(3)) * 1024);
+      } catch (DateTimeParseException | NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid bandwidth profile: " + value, e);
+      }
+    }
+
+    /** Gets bytes per second, or 0 for no limit. */
+    public long getBytesPerSecond() {
+      return bytesPerSecond;
+    }
+
+    boolean contains(LocalTime time) {
+      if (start.isAfter(end)) {
+        return !time.isBefore(start) || time.isBefore(end);
+      }
+      return !time.isBefore(start) && time.isBefore(end);
+    }
+
+    @Override
+    public String toString() {
+      return start + "-" + end + "=" + bytesPerSecond / 1024;
+    }
+  }
+}
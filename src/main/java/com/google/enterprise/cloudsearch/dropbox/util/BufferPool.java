@@ -0,0 +1,93 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of reusable buffers copying file content between streams, so that copying the
+ * content of a file to a spool file or to the content cache does not allocate a new buffer.
+ *
+ * <p>
+ * A buffer is allocated when the pool is empty, and a buffer given back while the pool is full is
+ * left to the garbage collector, so the pool never holds more buffers than its capacity.
+ */
+public final class BufferPool {
+  /** Size of a buffer in bytes */
+  private final int bufferBytes;
+  /** Buffers ready to be reused, or {@code null} if pooling is disabled */
+  private final BlockingQueue<byte[]> buffers;
+  /** Number of buffers allocated because the pool was empty */
+  private final AtomicLong allocatedBuffers = new AtomicLong();
+
+  /**
+   * Get an instance of {@link BufferPool}.
+   *
+   * @param bufferBytes size of a buffer in bytes
+   * @param capacity    maximum number of buffers kept for reuse, or 0 to allocate a buffer every
+   *                    time
+   */
+  public BufferPool(int bufferBytes, int capacity) {
+    checkArgument(bufferBytes > 0, "buffer size must be greater than 0");
+    checkArgument(capacity >= 0, "capacity must not be negative");
+    this.bufferBytes = bufferBytes;
+    this.buffers = capacity > 0 ? new ArrayBlockingQueue<>(capacity) : null;
+  }
+
+  /**
+   * Takes a buffer from the pool, allocating one if the pool is empty.
+   *
+   * @return buffer, to be given back by {@link #release(byte[])} once it is no longer used
+   */
+  public byte[] acquire() {
+    byte[] buffer = buffers == null ? null : buffers.poll();
+    if (buffer == null) {
+      allocatedBuffers.incrementAndGet();
+      buffer = new byte[bufferBytes];
+    }
+    return buffer;
+  }
+
+  /**
+   * Gives a buffer back to the pool. The caller must not use the buffer afterwards.
+   *
+   * @param buffer buffer taken by {@link #acquire()}
+   */
+  public void release(byte[] buffer) {
+    if (buffers != null && buffer.length == bufferBytes) {
+      buffers.offer(buffer);
+    }
+  }
+
+  /** Gets size of a buffer in bytes. */
+  public int getBufferBytes() {
+    return bufferBytes;
+  }
+
+  /** Gets number of buffers ready to be reused. */
+  public int size() {
+    return buffers == null ? 0 : buffers.size();
+  }
+
+  /** Gets number of buffers allocated because the pool was empty. */
+  public long getAllocatedBuffers() {
+    return allocatedBuffers.get();
+  }
+}
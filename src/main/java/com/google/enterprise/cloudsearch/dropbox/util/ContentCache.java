@@ -0,0 +1,291 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * On-disk cache of file content keyed by DropBox content hash, so that content seen before, such
+ * as a copy in the folder of another member, is not downloaded again.
+ *
+ * <p>
+ * Content is hashed while it is written to the cache and discarded if the hash does not match,
+ * so the cache never serves content under a wrong key. The least recently used entries are
+ * evicted once the cache exceeds its size, except the ones being read, which are leased. The
+ * order of use is kept in the modification time of the files, so it survives a restart.
+ */
+public final class ContentCache {
+  /** Log output */
+  private static final Logger log = Logger.getLogger(ContentCache.class.getName());
+  /** Format of a content hash */
+  private static final Pattern CONTENT_HASH = Pattern.compile("[0-9a-f]{64}");
+  /** Suffix of the files being written */
+  private static final String TEMP_SUFFIX = ".tmp";
+  /** Directory of the cache */
+  private final File directory;
+  /** Maximum total size of the cached content */
+  private final long maxBytes;
+  /** Pool of the buffers copying content to the cache */
+  private final BufferPool bufferPool;
+  /** Entries keyed by content hash, least recently used first, guarded by {@code this} */
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  /** Total size of the cached content, guarded by {@code this} */
+  private long totalBytes;
+
+  private ContentCache(File directory, long maxBytes, BufferPool bufferPool) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    this.bufferPool = bufferPool;
+  }
+
+  /**
+   * Opens the cache in the directory, creating it if it does not exist. Files left being written
+   * by a previous run are deleted.
+   *
+   * @param directory  directory of the cache
+   * @param maxBytes   maximum total size of the cached content
+   * @param bufferPool pool of the buffers copying content to the cache
+   * @return an instance of {@link ContentCache}
+   * @throws IOException when the directory can not be created
+   */
+  public static ContentCache open(File directory, long maxBytes, BufferPool bufferPool)
+      throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Failed to create directory " + directory);
+    }
+    ContentCache cache = new ContentCache(directory, maxBytes, bufferPool);
+    cache.load();
+    return cache;
+  }
+
+  /**
+   * Leases the cached content with the hash. The content is not evicted until the lease is
+   * closed.
+   *
+   * @param contentHash DropBox content hash
+   * @param size        expected size of the content
+   * @return lease of the content, or {@code null} if the content is not in the cache
+   */
+  public synchronized Lease get(String contentHash, long size) {
+    Entry entry = entries.get(contentHash);
+    if (entry == null) {
+      return null;
+    }
+    if (entry.file.length() != entry.size) {
+      // modified or truncated outside of the cache, removed once no longer read
+      if (entry.leases == 0) {
+        entries.remove(contentHash);
+        delete(entry);
+      }
+      return null;
+    }
+    if (entry.size != size) {
+      return null;
+    }
+    if (!entry.file.setLastModified(System.currentTimeMillis())) {
+      log.log(Level.FINE, "Failed to touch {0}", entry.file);
+    }
+    entry.leases++;
+    return new Lease(entry);
+  }
+
+  /**
+   * Writes the content to the cache, unless it is already cached or larger than the cache.
+   *
+   * @param contentHash DropBox content hash of the content
+   * @param size        size of the content
+   * @param content     stream of the content, which is not closed
+   * @return {@code true} if the content has been cached
+   * @throws IOException when writing the content fails
+   */
+  public boolean put(String contentHash, long size, InputStream content) throws IOException {
+    if (size > maxBytes || !CONTENT_HASH.matcher(contentHash).matches()) {
+      return false;
+    }
+    synchronized (this) {
+      if (entries.containsKey(contentHash)) {
+        return false;
+      }
+    }
+
+    File file = fileOf(contentHash);
+    File shard = file.getParentFile();
+    if (!shard.isDirectory() && !shard.mkdirs()) {
+      throw new IOException("Failed to create directory " + shard);
+    }
+    File tempFile = File.createTempFile(contentHash, TEMP_SUFFIX, shard);
+    try {
+      ContentHasher hasher = new ContentHasher();
+      long written = 0;
+      byte[] buffer = bufferPool.acquire();
+      try (OutputStream out = new FileOutputStream(tempFile)) {
+        for (int read; (read = content.read(buffer)) > 0; ) {
+          out.write(buffer, 0, read);
+          hasher.write(buffer, 0, read);
+          written += read;
+        }
+      } finally {
+        bufferPool.release(buffer);
+      }
+      String actualHash = hasher.digest();
+      if (written != size || !actualHash.equals(contentHash)) {
+        log.log(Level.WARNING, "Content hash mismatch: expected {0} ({1} bytes) but got {2}"
+            + " ({3} bytes)", new Object[] {contentHash, size, actualHash, written});
+        return false;
+      }
+      synchronized (this) {
+        if (entries.containsKey(contentHash)) {
+          return false;
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        entries.put(contentHash, new Entry(file, size));
+        totalBytes += size;
+        evict();
+      }
+      return true;
+    } finally {
+      if (tempFile.exists() && !tempFile.delete()) {
+        log.log(Level.WARNING, "Failed to delete {0}", tempFile);
+      }
+    }
+  }
+
+  /** Gets number of cached contents. */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /** Gets total size of the cached content. */
+  public synchronized long getTotalBytes() {
+    return totalBytes;
+  }
+
+  private File fileOf(String contentHash) {
+    return new File(new File(directory, contentHash.substring(0, 2)), contentHash);
+  }
+
+  private synchronized void load() {
+    List<File> files = new ArrayList<>();
+    File[] shards = directory.listFiles(File::isDirectory);
+    for (File shard : shards == null ? new File[0] : shards) {
+      File[] shardFiles = shard.listFiles();
+      for (File file : shardFiles == null ? new File[0] : shardFiles) {
+        if (CONTENT_HASH.matcher(file.getName()).matches()) {
+          files.add(file);
+        } else if (file.getName().endsWith(TEMP_SUFFIX) && !file.delete()) {
+          log.log(Level.WARNING, "Failed to delete {0}", file);
+        }
+      }
+    }
+    files.sort(Comparator.comparingLong(File::lastModified));
+    for (File file : files) {
+      long size = file.length();
+      entries.put(file.getName(), new Entry(file, size));
+      totalBytes += size;
+    }
+    evict();
+  }
+
+  private void evict() {
+    Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+    while (totalBytes > maxBytes && iterator.hasNext()) {
+      Entry entry = iterator.next().getValue();
+      if (entry.leases > 0) {
+        continue;
+      }
+      iterator.remove();
+      delete(entry);
+    }
+  }
+
+  private void delete(Entry entry) {
+    totalBytes -= entry.size;
+    if (!entry.file.delete()) {
+      log.log(Level.WARNING, "Failed to delete {0}", entry.file);
+    }
+  }
+
+  private synchronized void release(Entry entry) {
+    entry.leases--;
+    evict();
+  }
+
+  /** Cached content, guarded by the cache. */
+  private static final class Entry {
+    /** File holding the content */
+    private final File file;
+    /** Size of the content */
+    private final long size;
+    /** Number of open leases */
+    private int leases;
+
+    Entry(File file, long size) {
+      this.file = file;
+      this.size = size;
+    }
+  }
+
+  /** Right to read cached content, which is not evicted until the lease is closed. */
+  public final class Lease implements Closeable {
+    /** Leased entry */
+    private final Entry entry;
+    /** Whether the lease has been closed, guarded by the cache */
+    private boolean closed;
+
+    private Lease(Entry entry) {
+      this.entry = entry;
+    }
+
+    /** Gets file holding the content, which must not be modified. */
+    public File getFile() {
+      return entry.file;
+    }
+
+    /** Gets size of the content. */
+    public long getSize() {
+      return entry.size;
+    }
+
+    /** Releases the content, which may then be evicted. */
+    @Override
+    public void close() {
+      synchronized (ContentCache.this) {
+        if (closed) {
+          return;
+        }
+        closed = true;
+        release(entry);
+      }
+    }
+  }
+}
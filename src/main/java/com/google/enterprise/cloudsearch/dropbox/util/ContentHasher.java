@@ -0,0 +1,108 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.util;
+
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes the DropBox content hash of a stream of bytes: the SHA-256 of the concatenated
+ * SHA-256 of each 4 MB block, as lowercase hex.
+ *
+ * <p>
+ * The hasher is an {@link OutputStream}, so content can be hashed while it is copied.
+ */
+public final class ContentHasher extends OutputStream {
+  /** Size of a block hashed on its own */
+  static final int BLOCK_SIZE = 4 * 1024 * 1024;
+  /** Hex digits */
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  /** Hash of the whole content, fed with the hash of each block */
+  private final MessageDigest overallHasher = newSha256();
+  /** Hash of the current block */
+  private final MessageDigest blockHasher = newSha256();
+  /** Number of bytes of the current block hashed so far */
+  private int blockPosition;
+
+  @Override
+  public void write(int b) {
+    blockHasher.update((byte) b);
+    blockPosition++;
+    if (blockPosition == BLOCK_SIZE) {
+      finishBlock();
+    }
+  }
+
+  @Override
+  public void write(byte[] bytes, int offset, int length) {
+    while (length > 0) {
+      int chunk = Math.min(length, BLOCK_SIZE - blockPosition);
+      blockHasher.update(bytes, offset, chunk);
+      blockPosition += chunk;
+      offset += chunk;
+      length -= chunk;
+      if (blockPosition == BLOCK_SIZE) {
+        finishBlock();
+      }
+    }
+  }
+
+  /**
+   * Completes the hash. The hasher can not be used afterwards.
+   *
+   * @return content hash as lowercase hex
+   */
+  public String digest() {
+    if (blockPosition > 0) {
+      finishBlock();
+    }
+    byte[] hash = overallHasher.digest();
+    char[] hex = new char[hash.length * 2];
+    for (int i = 0; i < hash.length; i++) {
+      hex[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+      hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xf];
+    }
+    return new String(hex);
+  }
+
+  /**
+   * Computes the content hash of the bytes.
+   *
+   * @param bytes content
+   * @return content hash as lowercase hex
+   */
+  public static String hash(byte[] bytes) {
+    ContentHasher hasher = new ContentHasher();
+    hasher.write(bytes, 0, bytes.length);
+    return hasher.digest();
+  }
+
+  private void finishBlock() {
+    overallHasher.update(blockHasher.digest());
+    blockPosition = 0;
+  }
+
+  private static MessageDigest newSha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // every Java platform supports SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+}
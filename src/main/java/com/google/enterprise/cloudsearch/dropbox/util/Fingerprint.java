@@ -0,0 +1,59 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/** Utility class for computing 64-bit fingerprints, which are stable across runs. */
+public class Fingerprint {
+  /** Hash function, whose output never changes between releases */
+  private static final HashFunction HASH_FUNCTION = Hashing.farmHashFingerprint64();
+  /** Separator of the values of a collection, which does not appear in the values */
+  private static final String SEPARATOR = "\0";
+
+  private Fingerprint() {
+  }
+
+  /**
+   * Computes the fingerprint of a string.
+   *
+   * @param value string
+   * @return fingerprint, which is never 0
+   */
+  public static long of(String value) {
+    long fingerprint = HASH_FUNCTION.hashString(value, UTF_8).asLong();
+    return fingerprint == 0 ? 1 : fingerprint;
+  }
+
+  /**
+   * Computes the fingerprint of a collection of strings, regardless of their order.
+   *
+   * @param values strings
+   * @return fingerprint, which is never 0
+   */
+  public static long of(Collection<String> values) {
+    List<String> sorted = new ArrayList<>(values);
+    Collections.sort(sorted);
+    return of(String.join(SEPARATOR, sorted));
+  }
+}
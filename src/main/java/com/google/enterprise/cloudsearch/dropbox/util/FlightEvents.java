@@ -0,0 +1,122 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.util;
+
+/**
+ * Factory of JDK Flight Recorder events timing DropBox calls and the phases of indexing an item.
+ *
+ * <p>
+ * This class records nothing, since Java 8 has no Flight Recorder API. On Java 11 and later, the
+ * multi-release JAR replaces it with a version committing {@code jdk.jfr} events, which cost next
+ * to nothing while no recording is running.
+ */
+public class FlightEvents {
+  /** Outcome of an operation that did not fail */
+  public static final String SUCCESS = "success";
+  /** Span recording nothing */
+  private static final Span NO_SPAN = new NoSpan();
+
+  private FlightEvents() {
+  }
+
+  /**
+   * Starts timing a DropBox call.
+   *
+   * @param route        route of the endpoint, such as {@code files/list_folder}
+   * @param teamMemberId team member ID, or an empty string for a call made as the team
+   * @return span to close once the call has completed
+   */
+  public static Span dropBoxCall(String route, String teamMemberId) {
+    return NO_SPAN;
+  }
+
+  /**
+   * Starts timing the download of a file content, from DropBox or from the content cache.
+   *
+   * @param teamMemberId team member ID
+   * @param path         path of the file
+   * @return span to close once the content has been downloaded
+   */
+  public static Span download(String teamMemberId, String path) {
+    return NO_SPAN;
+  }
+
+  /**
+   * Starts timing the lookup of the sharing information of an item.
+   *
+   * @param itemName item name
+   * @return span to close once the sharing information has been fetched
+   */
+  public static Span aclLookup(String itemName) {
+    return NO_SPAN;
+  }
+
+  /**
+   * Starts timing the build of the document of a polled item.
+   *
+   * @param itemName   item name
+   * @param objectType DropBox object type of the item
+   * @return span to close once the document has been built
+   */
+  public static Span documentBuild(String itemName, String objectType) {
+    return NO_SPAN;
+  }
+
+  /** Operation timed by an event, which is committed when the span is closed. */
+  public interface Span extends AutoCloseable {
+    /**
+     * Sets the number of bytes transferred by the operation.
+     *
+     * @param bytes number of bytes
+     */
+    void setBytes(long bytes);
+
+    /**
+     * Sets the outcome of the operation, which is {@link FlightEvents#SUCCESS} unless set.
+     *
+     * @param outcome outcome
+     */
+    void setOutcome(String outcome);
+
+    /**
+     * Sets the outcome of the operation to the class of its failure.
+     *
+     * @param cause failure of the operation
+     */
+    default void setFailure(Throwable cause) {
+      setOutcome(cause.getClass().getSimpleName());
+    }
+
+    /** Ends the operation and commits the event. */
+    @Override
+    void close();
+  }
+
+  /** Span recording nothing. */
+  private static final class NoSpan implements Span {
+    @Override
+    public void setBytes(long bytes) {
+    }
+
+    @Override
+    public void setOutcome(String outcome) {
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Factory of executors running tasks that block on DropBox I/O.
+ *
+ * <p>
+ * This class runs the tasks on a fixed pool of platform threads. On Java 21 and later, the
+ * multi-release JAR replaces it with a version that starts a virtual thread per task.
+ */
+public class IoExecutors {
+
+  private IoExecutors() {
+  }
+
+  /**
+   * Gets whether the tasks run on virtual threads.
+   *
+   * @return {@code false}
+   */
+  public static boolean isVirtual() {
+    return false;
+  }
+
+  /**
+   * Creates an executor for tasks blocking on DropBox I/O. Tasks submitted while the executor
+   * already holds as many pending tasks as its capacity are rejected with a
+   * {@link java.util.concurrent.RejectedExecutionException}.
+   *
+   * @param nameFormat    format of the thread names, with {@code %d} for the thread number
+   * @param threads       number of threads running the tasks
+   * @param queueCapacity number of tasks waiting for a thread
+   * @return executor, whose threads do not prevent the JVM from exiting
+   */
+  public static ExecutorService newExecutor(String nameFormat, int threads, int queueCapacity) {
+    return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<>(queueCapacity),
+        new ThreadFactoryBuilder()
+            .setNameFormat(nameFormat)
+            .setDaemon(true)
+            .build());
+  }
+}
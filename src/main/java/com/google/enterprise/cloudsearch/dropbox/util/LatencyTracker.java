@@ -0,0 +1,84 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the latencies of the most recent requests to estimate their percentiles.
+ *
+ * <p>
+ * Percentiles are recomputed once every few recorded latencies rather than on every read, so
+ * reading them on each request costs nothing.
+ */
+public final class LatencyTracker {
+  /** Minimum number of recorded latencies before percentiles are estimated */
+  private static final int MIN_SAMPLES = 20;
+
+  /** Most recent latencies in milliseconds, used as a ring buffer */
+  private final long[] samples;
+  /** Number of latencies recorded between two computations of the percentiles */
+  private final int refreshInterval;
+  /** Number of recorded latencies, guarded by {@code this} */
+  private long recorded;
+  /** Sorted copy of the samples the percentiles are read from, guarded by {@code this} */
+  private long[] sorted = new long[0];
+  /** Number of recorded latencies when the sorted copy was made, guarded by {@code this} */
+  private long sortedAt = -1;
+
+  /**
+   * Get an instance of {@link LatencyTracker}.
+   *
+   * @param capacity number of most recent latencies kept
+   */
+  public LatencyTracker(int capacity) {
+    checkArgument(capacity >= MIN_SAMPLES, "capacity must be at least %s", MIN_SAMPLES);
+    this.samples = new long[capacity];
+    this.refreshInterval = Math.max(1, capacity / 16);
+  }
+
+  /**
+   * Records the latency of a request.
+   *
+   * @param latencyMillis latency in milliseconds
+   */
+  public synchronized void record(long latencyMillis) {
+    samples[(int) (recorded % samples.length)] = latencyMillis;
+    recorded++;
+  }
+
+  /**
+   * Estimates a percentile of the recent latencies.
+   *
+   * @param percentile percentile between 0 and 100
+   * @return latency in milliseconds, or -1 if too few latencies have been recorded
+   */
+  public synchronized long percentile(double percentile) {
+    checkArgument(percentile >= 0 && percentile <= 100, "percentile must be between 0 and 100");
+    if (recorded < MIN_SAMPLES) {
+      return -1;
+    }
+    if (sortedAt < 0 || recorded - sortedAt >= refreshInterval) {
+      sorted = Arrays.copyOf(samples, (int) Math.min(recorded, samples.length));
+      Arrays.sort(sorted);
+      sortedAt = recorded;
+    }
+    int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+    return sorted[Math.max(0, index)];
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Weighted semaphore limiting the number of bytes held in memory at the same time.
+ *
+ * <p>
+ * The semaphore is fair, so a large reservation waiting for memory is not overtaken forever by
+ * smaller ones.
+ */
+public final class MemoryBudget {
+  /** Log output */
+  private static final Logger log = Logger.getLogger(MemoryBudget.class.getName());
+  /** Bytes represented by a permit, so budgets larger than 2 GB fit in a semaphore */
+  private static final int BYTES_PER_PERMIT = 1024;
+
+  /** Budget in bytes */
+  private final long capacityBytes;
+  /** Permits of the budget */
+  private final Semaphore permits;
+  /** Number of threads waiting for a reservation */
+  private final AtomicInteger waitingThreads = new AtomicInteger();
+  /** Queue of the owners of reservations that became unreachable */
+  private final ReferenceQueue<Object> unreachableOwners = new ReferenceQueue<>();
+  /** References keeping track of the reservation owners until they are collected */
+  private final Set<OwnerReference> ownerReferences = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Get an instance of {@link MemoryBudget}.
+   *
+   * @param capacityBytes budget in bytes
+   */
+  public MemoryBudget(long capacityBytes) {
+    checkArgument(capacityBytes >= BYTES_PER_PERMIT, "capacity must be at least 1 KB");
+    this.capacityBytes = capacityBytes;
+    this.permits = new Semaphore(toPermits(capacityBytes), true);
+  }
+
+  /**
+   * Reserves memory, waiting until enough of the budget is released.
+   *
+   * @param bytes number of bytes to reserve, which must not exceed the capacity
+   * @return reservation, which must be released once the memory is no longer used
+   * @throws InterruptedException when interrupted while waiting
+   */
+  public Reservation reserve(long bytes) throws InterruptedException {
+    checkArgument(bytes >= 0 && bytes <= capacityBytes,
+        "reservation of %s bytes does not fit in the budget of %s bytes", bytes, capacityBytes);
+    releaseUnreachable();
+    int requested = toPermits(bytes);
+    if (!permits.tryAcquire(requested)) {
+      waitingThreads.incrementAndGet();
+      try {
+        permits.acquire(requested);
+      } finally {
+        waitingThreads.decrementAndGet();
+      }
+    }
+    return new Reservation(requested);
+  }
+
+  /**
+   * Reserves memory if enough of the budget is available, without waiting.
+   *
+   * @param bytes number of bytes to reserve, which must not exceed the capacity
+   * @return reservation, which must be released once the memory is no longer used, or
+   *         {@code null} if not enough of the budget is available
+   */
+  public Reservation tryReserve(long bytes) {
+    checkArgument(bytes >= 0 && bytes <= capacityBytes,
+        "reservation of %s bytes does not fit in the budget of %s bytes", bytes, capacityBytes);
+    releaseUnreachable();
+    int requested = toPermits(bytes);
+    return permits.tryAcquire(requested) ? new Reservation(requested) : null;
+  }
+
+  /** Gets budget in bytes. */
+  public long getCapacityBytes() {
+    return capacityBytes;
+  }
+
+  /** Gets number of bytes currently reserved. */
+  public long getReservedBytes() {
+    return (long) (toPermits(capacityBytes) - permits.availablePermits()) * BYTES_PER_PERMIT;
+  }
+
+  /** Gets number of threads waiting for a reservation. */
+  public int getWaitingThreads() {
+    return waitingThreads.get();
+  }
+
+  private void releaseUnreachable() {
+    Reference<?> reference;
+    while ((reference = unreachableOwners.poll()) != null) {
+      OwnerReference ownerReference = (OwnerReference) reference;
+      ownerReferences.remove(ownerReference);
+      if (ownerReference.reservation.release()) {
+        log.log(Level.FINE, "released reservation of unreachable owner");
+      }
+    }
+  }
+
+  private static int toPermits(long bytes) {
+    return (int) ((bytes + BYTES_PER_PERMIT - 1) / BYTES_PER_PERMIT);
+  }
+
+  /** Memory reserved from the budget. */
+  public final class Reservation implements AutoCloseable {
+    /** Number of reserved permits */
+    private final int reserved;
+    /** Whether the reservation has been released */
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private Reservation(int reserved) {
+      this.reserved = reserved;
+    }
+
+    /**
+     * Releases the reservation once the owner becomes unreachable, unless it has been released
+     * before. This guards against leaking the budget when the owner is dropped without being
+     * closed.
+     *
+     * @param owner object holding the reserved memory
+     */
+    public void releaseWhenUnreachable(Object owner) {
+      ownerReferences.add(new OwnerReference(owner, this, unreachableOwners));
+    }
+
+    /**
+     * Releases the reservation. Releasing more than once has no effect.
+     *
+     * @return {@code true} if this call released the reservation
+     */
+    public boolean release() {
+      if (!released.compareAndSet(false, true)) {
+        return false;
+      }
+      permits.release(reserved);
+      return true;
+    }
+
+    @Override
+    public void close() {
+      release();
+    }
+  }
+
+  /** Reference to the owner of a reservation. */
+  private static class OwnerReference extends PhantomReference<Object> {
+    private final Reservation reservation;
+
+    OwnerReference(Object owner, Reservation reservation, ReferenceQueue<Object> queue) {
+      super(owner, queue);
+      this.reservation = reservation;
+    }
+  }
+}
@@ -0,0 +1,452 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * On-disk store of what has been indexed for each item: the fingerprints of the revision, the
+ * content hash and the ACL, and the time it was indexed.
+ *
+ * <p>
+ * Entries are kept in memory-mapped open-addressing hash tables split into segments, so the
+ * heap footprint does not grow with the number of entries, and opening the store only maps the
+ * files. Item names are stored as 64-bit fingerprints, so two names sharing a fingerprint share
+ * an entry; with tens of millions of items the odds of that are around one in a million.
+ */
+public final class MetadataStore implements Closeable {
+  /** Log output */
+  private static final Logger log = Logger.getLogger(MetadataStore.class.getName());
+  /** Number of segments, which must be a power of two */
+  private static final int SEGMENT_COUNT = 64;
+  /** Bits of the key fingerprint selecting the segment */
+  private static final int SEGMENT_SHIFT = Long.SIZE - Integer.numberOfTrailingZeros(SEGMENT_COUNT);
+  /** Initial number of slots of a segment, which must be a power of two */
+  private static final int INITIAL_CAPACITY = 1024;
+  /** Number of slots of a segment beyond which it can not be mapped in a single buffer */
+  private static final int MAX_CAPACITY = 1 << 25;
+
+  /** Identifies a segment file */
+  private static final int MAGIC = 0x44424d53;
+  /** Format version of segment files */
+  private static final int FORMAT_VERSION = 1;
+  /** Header offset of the magic number */
+  private static final int HEADER_MAGIC = 0;
+  /** Header offset of the format version */
+  private static final int HEADER_VERSION = 4;
+  /** Header offset of the number of slots */
+  private static final int HEADER_CAPACITY = 8;
+  /** Header offset of the number of entries */
+  private static final int HEADER_COUNT = 12;
+  /** Header offset of the flag telling that the segment has been closed cleanly */
+  private static final int HEADER_CLEAN = 16;
+  /** Size of the header */
+  private static final int HEADER_SIZE = 32;
+
+  /** Slot offset of the key fingerprint, which is 0 for empty slots */
+  private static final int SLOT_KEY = 0;
+  /** Slot offset of the revision fingerprint */
+  private static final int SLOT_REV = 8;
+  /** Slot offset of the content hash fingerprint */
+  private static final int SLOT_CONTENT_HASH = 16;
+  /** Slot offset of the ACL fingerprint */
+  private static final int SLOT_ACL = 24;
+  /** Slot offset of the indexed time */
+  private static final int SLOT_INDEXED_TIME = 32;
+  /** Size of a slot */
+  private static final int SLOT_SIZE = 40;
+
+  /** Segments of the store */
+  private final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+  private MetadataStore(File directory) throws IOException {
+    for (int i = 0; i < SEGMENT_COUNT; i++) {
+      segments[i] = new Segment(new File(directory, String.format("segment-%02d.dat", i)));
+    }
+  }
+
+  /**
+   * Opens the store in the directory, creating it if it does not exist.
+   *
+   * @param directory directory of the store
+   * @return an instance of {@link MetadataStore}
+   * @throws IOException when the store can not be opened
+   */
+  public static MetadataStore open(File directory) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Failed to create directory " + directory);
+    }
+    return new MetadataStore(directory);
+  }
+
+  /**
+   * Gets the entry of the item.
+   *
+   * @param key item name
+   * @return entry, or {@code null} if the item is not in the store
+   */
+  public Entry get(String key) {
+    long fingerprint = Fingerprint.of(key);
+    return segmentFor(fingerprint).get(fingerprint);
+  }
+
+  /**
+   * Puts the entry of the item, replacing the previous one.
+   *
+   * @param key   item name
+   * @param entry entry
+   * @throws IOException when the segment can not grow
+   */
+  public void put(String key, Entry entry) throws IOException {
+    long fingerprint = Fingerprint.of(key);
+    segmentFor(fingerprint).put(fingerprint, entry);
+  }
+
+  /**
+   * Removes the entry of the item.
+   *
+   * @param key item name
+   * @return {@code true} if the item was in the store
+   */
+  public boolean remove(String key) {
+    long fingerprint = Fingerprint.of(key);
+    return segmentFor(fingerprint).remove(fingerprint);
+  }
+
+  /** Gets number of entries. */
+  public long size() {
+    long size = 0;
+    for (Segment segment : segments) {
+      size += segment.size();
+    }
+    return size;
+  }
+
+  /** Writes the entries to disk and marks the store as closed cleanly. */
+  @Override
+  public void close() {
+    for (Segment segment : segments) {
+      segment.close();
+    }
+  }
+
+  private Segment segmentFor(long fingerprint) {
+    return segments[(int) (fingerprint >>> SEGMENT_SHIFT)];
+  }
+
+  /** What has been indexed for an item. */
+  public static final class Entry {
+    /** Fingerprint of the revision */
+    private final long revFingerprint;
+    /** Fingerprint of the content hash */
+    private final long contentHashFingerprint;
+    /** Fingerprint of the ACL */
+    private final long aclFingerprint;
+    /** Time the item was indexed in milliseconds */
+    private final long indexedTimeMillis;
+
+    /**
+     * Get an instance of {@link Entry}.
+     *
+     * @param revFingerprint         fingerprint of the revision
+     * @param contentHashFingerprint fingerprint of the content hash
+     * @param aclFingerprint         fingerprint of the ACL
+     * @param indexedTimeMillis      time the item was indexed in milliseconds
+     */
+    public Entry(long revFingerprint, long contentHashFingerprint, long aclFingerprint,
+        long indexedTimeMillis) {
+      this.revFingerprint = revFingerprint;
+      this.contentHashFingerprint = contentHashFingerprint;
+      this.aclFingerprint = aclFingerprint;
+      this.indexedTimeMillis = indexedTimeMillis;
+    }
+
+    /** Gets fingerprint of the revision. */
+    public long getRevFingerprint() {
+      return revFingerprint;
+    }
+
+    /** Gets fingerprint of the content hash. */
+    public long getContentHashFingerprint() {
+      return contentHashFingerprint;
+    }
+
+    /** Gets fingerprint of the ACL. */
+    public long getAclFingerprint() {
+      return aclFingerprint;
+    }
+
+    /** Gets time the item was indexed in milliseconds. */
+    public long getIndexedTimeMillis() {
+      return indexedTimeMillis;
+    }
+  }
+
+  /** Open-addressing hash table with linear probing, mapped from a file. */
+  private static final class Segment {
+    /** File of the segment */
+    private final File file;
+    /** Lock guarding the buffer */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    /** Mapped file */
+    private MappedByteBuffer buffer;
+    /** Number of slots */
+    private int capacity;
+    /** Number of entries */
+    private int count;
+
+    Segment(File file) throws IOException {
+      this.file = file;
+      if (file.exists()) {
+        try {
+          load();
+          return;
+        } catch (IOException e) {
+          log.log(Level.WARNING, "Discarding unreadable metadata segment " + file, e);
+        }
+      }
+      capacity = INITIAL_CAPACITY;
+      count = 0;
+      buffer = createBuffer(file, capacity);
+    }
+
+    Entry get(long fingerprint) {
+      lock.readLock().lock();
+      try {
+        int slot = find(fingerprint);
+        if (slot < 0) {
+          return null;
+        }
+        int offset = offsetOf(slot);
+        return new Entry(
+            buffer.getLong(offset + SLOT_REV),
+            buffer.getLong(offset + SLOT_CONTENT_HASH),
+            buffer.getLong(offset + SLOT_ACL),
+            buffer.getLong(offset + SLOT_INDEXED_TIME));
+      } finally {
+        lock.readLock().unlock();
+      }
+    }
+
+    void put(long fingerprint, Entry entry) throws IOException {
+      lock.writeLock().lock();
+      try {
+        int slot = find(fingerprint);
+        if (slot < 0) {
+          if (isFull(count + 1)) {
+            grow();
+          }
+          slot = probe(buffer, capacity, fingerprint);
+          count++;
+          buffer.putInt(HEADER_COUNT, count);
+        }
+        writeSlot(buffer, offsetOf(slot), fingerprint, entry);
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+
+    boolean remove(long fingerprint) {
+      lock.writeLock().lock();
+      try {
+        int slot = find(fingerprint);
+        if (slot < 0) {
+          return false;
+        }
+        // Shift the following entries of the cluster back, so that no tombstone is needed
+        int mask = capacity - 1;
+        int next = slot;
+        while (true) {
+          next = (next + 1) & mask;
+          long key = buffer.getLong(offsetOf(next) + SLOT_KEY);
+          if (key == 0) {
+            break;
+          }
+          int home = (int) key & mask;
+          boolean homeBetween = slot <= next
+              ? slot < home && home <= next
+              : slot < home || home <= next;
+          if (!homeBetween) {
+            copySlot(next, slot);
+            slot = next;
+          }
+        }
+        buffer.putLong(offsetOf(slot) + SLOT_KEY, 0);
+        count--;
+        buffer.putInt(HEADER_COUNT, count);
+        return true;
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+
+    int size() {
+      lock.readLock().lock();
+      try {
+        return count;
+      } finally {
+        lock.readLock().unlock();
+      }
+    }
+
+    void close() {
+      lock.writeLock().lock();
+      try {
+        buffer.force();
+        buffer.putInt(HEADER_CLEAN, 1);
+        buffer.force();
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+
+    private void load() throws IOException {
+      long length = file.length();
+      MappedByteBuffer mapped;
+      try (FileChannel channel = FileChannel.open(file.toPath(),
+          StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        if (length < HEADER_SIZE) {
+          throw new IOException("truncated header");
+        }
+        mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+      }
+      int mappedCapacity = mapped.getInt(HEADER_CAPACITY);
+      if (mapped.getInt(HEADER_MAGIC) != MAGIC
+          || mapped.getInt(HEADER_VERSION) != FORMAT_VERSION
+          || Integer.bitCount(mappedCapacity) != 1
+          || mappedCapacity > MAX_CAPACITY
+          || length != HEADER_SIZE + (long) mappedCapacity * SLOT_SIZE) {
+        throw new IOException("unexpected header");
+      }
+      buffer = mapped;
+      capacity = mappedCapacity;
+      if (mapped.getInt(HEADER_CLEAN) == 1) {
+        count = mapped.getInt(HEADER_COUNT);
+      } else {
+        // The count may be off after a crash, while the slots themselves are written in place
+        count = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+          if (mapped.getLong(offsetOf(slot) + SLOT_KEY) != 0) {
+            count++;
+          }
+        }
+        mapped.putInt(HEADER_COUNT, count);
+      }
+      mapped.putInt(HEADER_CLEAN, 0);
+    }
+
+    private boolean isFull(int entries) {
+      return (long) entries * 4 > (long) capacity * 3;
+    }
+
+    private void grow() throws IOException {
+      if (capacity >= MAX_CAPACITY) {
+        throw new IOException("Metadata segment " + file + " is full");
+      }
+      int newCapacity = capacity * 2;
+      File newFile = new File(file.getPath() + ".tmp");
+      MappedByteBuffer newBuffer = createBuffer(newFile, newCapacity);
+      for (int slot = 0; slot < capacity; slot++) {
+        int offset = offsetOf(slot);
+        long key = buffer.getLong(offset + SLOT_KEY);
+        if (key == 0) {
+          continue;
+        }
+        int newOffset = offsetOf(probe(newBuffer, newCapacity, key));
+        for (int field = 0; field < SLOT_SIZE; field += Long.BYTES) {
+          newBuffer.putLong(newOffset + field, buffer.getLong(offset + field));
+        }
+      }
+      newBuffer.putInt(HEADER_COUNT, count);
+      newBuffer.force();
+      Files.move(newFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      buffer = newBuffer;
+      capacity = newCapacity;
+    }
+
+    private int find(long fingerprint) {
+      int mask = capacity - 1;
+      for (int slot = (int) fingerprint & mask; ; slot = (slot + 1) & mask) {
+        long key = buffer.getLong(offsetOf(slot) + SLOT_KEY);
+        if (key == fingerprint) {
+          return slot;
+        }
+        if (key == 0) {
+          return -1;
+        }
+      }
+    }
+
+    private void copySlot(int from, int to) {
+      int fromOffset = offsetOf(from);
+      int toOffset = offsetOf(to);
+      // Write the key last, so that a crash never leaves a key with another item's values
+      for (int field = SLOT_SIZE - Long.BYTES; field >= 0; field -= Long.BYTES) {
+        buffer.putLong(toOffset + field, buffer.getLong(fromOffset + field));
+      }
+    }
+
+    private static int probe(MappedByteBuffer buffer, int capacity, long fingerprint) {
+      int mask = capacity - 1;
+      int slot = (int) fingerprint & mask;
+      while (buffer.getLong(offsetOf(slot) + SLOT_KEY) != 0) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    private static void writeSlot(MappedByteBuffer buffer, int offset, long fingerprint,
+        Entry entry) {
+      buffer.putLong(offset + SLOT_REV, entry.getRevFingerprint());
+      buffer.putLong(offset + SLOT_CONTENT_HASH, entry.getContentHashFingerprint());
+      buffer.putLong(offset + SLOT_ACL, entry.getAclFingerprint());
+      buffer.putLong(offset + SLOT_INDEXED_TIME, entry.getIndexedTimeMillis());
+      buffer.putLong(offset + SLOT_KEY, fingerprint);
+    }
+
+    private static MappedByteBuffer createBuffer(File file, int capacity) throws IOException {
+      MappedByteBuffer mapped;
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+          StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING)) {
+        mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+            HEADER_SIZE + (long) capacity * SLOT_SIZE);
+      }
+      mapped.putInt(HEADER_MAGIC, MAGIC);
+      mapped.putInt(HEADER_VERSION, FORMAT_VERSION);
+      mapped.putInt(HEADER_CAPACITY, capacity);
+      mapped.putInt(HEADER_COUNT, 0);
+      mapped.putInt(HEADER_CLEAN, 0);
+      return mapped;
+    }
+
+    private static int offsetOf(int slot) {
+      return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+  }
+}
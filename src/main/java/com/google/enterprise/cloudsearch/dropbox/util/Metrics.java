@@ -0,0 +1,172 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registry of connector metrics.
+ *
+ * <p>
+ * Every metric is a named {@code long} value and is exposed as an attribute of the
+ * {@value #OBJECT_NAME} MBean, so it can be read with any JMX client.
+ */
+public final class Metrics {
+  /** Log output */
+  private static final Logger log = Logger.getLogger(Metrics.class.getName());
+  /** Object name of the MBean exposing the metrics */
+  static final String OBJECT_NAME = "com.google.enterprise.cloudsearch.dropbox:type=Metrics";
+  /** Registered metrics */
+  private static final ConcurrentMap<String, LongSupplier> METRICS = new ConcurrentHashMap<>();
+
+  static {
+    registerMBean();
+  }
+
+  private Metrics() {
+  }
+
+  /**
+   * Registers a metric whose value is read from the supplier. A metric registered with the same
+   * name before is replaced.
+   *
+   * @param name  metric name
+   * @param gauge supplier of the current value
+   */
+  public static void registerGauge(String name, LongSupplier gauge) {
+    METRICS.put(name, gauge);
+  }
+
+  /**
+   * Gets the counter registered with the name, registering a new one if absent.
+   *
+   * @param name metric name
+   * @return counter
+   */
+  public static AtomicLong counter(String name) {
+    AtomicLong counter = new AtomicLong();
+    LongSupplier registered = METRICS.putIfAbsent(name, new Counter(counter));
+    if (registered == null) {
+      return counter;
+    }
+    if (!(registered instanceof Counter)) {
+      throw new IllegalArgumentException(name + " is already registered as a gauge");
+    }
+    return ((Counter) registered).value;
+  }
+
+  /**
+   * Gets the current values of all metrics.
+   *
+   * @return metric values sorted by name
+   */
+  public static Map<String, Long> snapshot() {
+    Map<String, Long> snapshot = new TreeMap<>();
+    METRICS.forEach((name, metric) -> snapshot.put(name, metric.getAsLong()));
+    return snapshot;
+  }
+
+  private static void registerMBean() {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      ObjectName objectName = new ObjectName(OBJECT_NAME);
+      if (!server.isRegistered(objectName)) {
+        server.registerMBean(new MetricsMBean(), objectName);
+      }
+    } catch (JMException e) {
+      log.log(Level.WARNING, "Failed to register metrics MBean", e);
+    }
+  }
+
+  /** Metric backed by a counter. */
+  private static class Counter implements LongSupplier {
+    private final AtomicLong value;
+
+    Counter(AtomicLong value) {
+      this.value = value;
+    }
+
+    @Override
+    public long getAsLong() {
+      return value.get();
+    }
+  }
+
+  /** Read-only MBean whose attributes are the registered metrics. */
+  private static class MetricsMBean implements DynamicMBean {
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+      LongSupplier metric = METRICS.get(attribute);
+      if (metric == null) {
+        throw new AttributeNotFoundException(attribute);
+      }
+      return metric.getAsLong();
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) {
+      throw new UnsupportedOperationException("metrics are read-only");
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+      AttributeList list = new AttributeList();
+      for (String attribute : attributes) {
+        LongSupplier metric = METRICS.get(attribute);
+        if (metric != null) {
+          list.add(new Attribute(attribute, metric.getAsLong()));
+        }
+      }
+      return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+      return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+      throw new UnsupportedOperationException("metrics have no operations");
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+      MBeanAttributeInfo[] attributes = snapshot().keySet().stream()
+          .map(name -> new MBeanAttributeInfo(name, "long", name, true, false, false))
+          .toArray(MBeanAttributeInfo[]::new);
+      return new MBeanInfo(getClass().getName(), "DropBox connector metrics", attributes,
+          null, null, null);
+    }
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Include and exclude rules on the DropBox paths to index.
+ *
+ * <p>
+ * A rule is either a glob, optionally prefixed with {@code glob:}, or a regular expression
+ * prefixed with {@code regex:}. A glob matches the whole path case-insensitively, where
+ * {@code *} and {@code ?} do not cross a {@code /} and {@code **} does. A glob not starting with
+ * {@code /} matches at any depth, so {@code node_modules} matches every folder of that name. A
+ * regular expression only has to match part of the path. A rule matching a folder also matches
+ * everything under it.
+ *
+ * <p>
+ * Excluded folders are not traversed. Include rules only apply to files, so the folders holding
+ * included files are still traversed. All the rules of a kind are compiled into a single pattern,
+ * so checking a path costs one match whatever the number of rules.
+ */
+public final class PathFilter {
+  /** Prefix of a glob rule */
+  private static final String GLOB_PREFIX = "glob:";
+  /** Prefix of a regular expression rule */
+  private static final String REGEX_PREFIX = "regex:";
+
+  /** Rules on the files to index, or {@code null} if every file is included */
+  private final Pattern includes;
+  /** Rules on the files and folders not to index, or {@code null} if none is excluded */
+  private final Pattern excludes;
+  /** Rules as configured, for display */
+  private final String description;
+
+  /**
+   * Get an instance of {@link PathFilter}.
+   *
+   * @param includes rules on the files to index; every file is included if empty
+   * @param excludes rules on the files and folders not to index
+   * @throws IllegalArgumentException if a rule is malformed
+   */
+  public PathFilter(List<String> includes, List<String> excludes) {
+    this.includes = compile(includes);
+    this.excludes = compile(excludes);
+    this.description = "includes=" + includes + ", excludes=" + excludes;
+  }
+
+  /** Gets a filter accepting every path. */
+  public static PathFilter acceptAll() {
+    return new PathFilter(Collections.emptyList(), Collections.emptyList());
+  }
+
+  /**
+   * Tells whether the file or folder is to be indexed.
+   *
+   * @param path   path of the file or folder, such as {@code /Projects/app/node_modules}
+   * @param folder whether the path is a folder
+   * @return {@code true} if the path is to be indexed
+   */
+  public boolean accepts(String path, boolean folder) {
+    if (excludes != null && excludes.matcher(path).find()) {
+      return false;
+    }
+    return folder || includes == null || includes.matcher(path).find();
+  }
+
+  @Override
+  public String toString() {
+    return description;
+  }
+
+  private static Pattern compile(List<String> rules) {
+    if (rules.isEmpty()) {
+      return null;
+    }
+    List<String> regexes = new ArrayList<>();
+    for (String rule : rules) {
+      if (rule.startsWith(REGEX_PREFIX)) {
+        String regex = rule.substring(REGEX_PREFIX.length());
+        // Compiled alone first, so that a malformed rule is reported as such.
+        Pattern.compile(regex);
+        regexes.add("(?:" + regex + ")");
+      } else if (rule.startsWith(GLOB_PREFIX)) {
+        regexes.add(globToRegex(rule.substring(GLOB_PREFIX.length())));
+      } else {
+        regexes.add(globToRegex(rule));
+      }
+    }
+    return Pattern.compile(String.join("|", regexes),
+        Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+  }
+
+  /**
+   * Converts a glob to a regular expression matching the whole path or the path of a parent.
+   *
+   * @param glob glob such as {@code /Projects/*}{@code /build}
+   * @return regular expression
+   * @throws IllegalArgumentException if the glob is empty
+   */
+  static String globToRegex(String glob) {
+    String pattern = glob;
+    StringBuilder regex = new StringBuilder("(?:^");
+    if (pattern.startsWith("/")) {
+      pattern = pattern.substring(1);
+      regex.append('/');
+    } else {
+      if (pattern.startsWith("**/")) {
+        pattern = pattern.substring(3);
+      }
+      regex.append(".*/");
+    }
+    if (pattern.isEmpty()) {
+      throw new IllegalArgumentException("path rule must not be empty: " + glob);
+    }
+    for (int i = 0; i < pattern.length(); i++) {
+      char c = pattern.charAt(i);
+      if (c == '*' && i + 1 < pattern.length() && pattern.charAt(i + 1) == '*') {
+        i++;
+        regex.append(".*");
+      } else if (c == '*') {
+        regex.append("[^/]*");
+      } else if (c == '?') {
+        regex.append("[^/]");
+      } else if ("\\.[]{}()+-^$|".indexOf(c) >= 0) {
+        regex.append('\\').append(c);
+      } else {
+        regex.append(c);
+      }
+    }
+    return regex.append("(?:/.*)?$)").toString();
+  }
+}
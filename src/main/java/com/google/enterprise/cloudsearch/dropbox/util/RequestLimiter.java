@@ -0,0 +1,111 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.util.concurrent.RateLimiter;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Limits the rate of DropBox requests and the number of requests in flight at the same time.
+ *
+ * <p>
+ * When the blocking requests run on virtual threads, the number of threads no longer bounds the
+ * load put on DropBox, so every request goes through this limiter instead.
+ */
+public final class RequestLimiter {
+  /** Limiter of the request rate, or {@code null} if not limited */
+  private final RateLimiter rateLimiter;
+  /** Permits of the requests in flight, or {@code null} if not limited */
+  private final Semaphore inFlightPermits;
+  /** Maximum number of requests in flight, or 0 for no limit */
+  private final int maxInFlight;
+
+  /**
+   * Get an instance of {@link RequestLimiter}.
+   *
+   * @param requestsPerSecond requests started per second, or 0 for no limit
+   * @param maxInFlight       maximum number of requests in flight, or 0 for no limit
+   */
+  public RequestLimiter(int requestsPerSecond, int maxInFlight) {
+    checkArgument(requestsPerSecond >= 0, "requests per second must not be negative");
+    checkArgument(maxInFlight >= 0, "max in flight must not be negative");
+    this.rateLimiter = requestsPerSecond > 0 ? RateLimiter.create(requestsPerSecond) : null;
+    this.inFlightPermits = maxInFlight > 0 ? new Semaphore(maxInFlight, true) : null;
+    this.maxInFlight = maxInFlight;
+  }
+
+  /**
+   * Gets an instance of {@link RequestLimiter} that does not limit anything.
+   *
+   * @return unlimited request limiter
+   */
+  public static RequestLimiter unlimited() {
+    return new RequestLimiter(0, 0);
+  }
+
+  /**
+   * Waits for the rate and for a slot among the requests in flight.
+   *
+   * @return slot, which must be closed once the response has been read
+   * @throws InterruptedException when interrupted while waiting for a slot
+   */
+  public Slot acquire() throws InterruptedException {
+    acquireRate();
+    if (inFlightPermits == null) {
+      return new Slot(false);
+    }
+    inFlightPermits.acquire();
+    return new Slot(true);
+  }
+
+  /**
+   * Waits for the rate only. Used for long-poll requests, which are idle most of the time and
+   * would otherwise hold slots for minutes.
+   */
+  public void acquireRate() {
+    if (rateLimiter != null) {
+      rateLimiter.acquire();
+    }
+  }
+
+  /** Gets number of requests in flight, or 0 if not limited. */
+  public int getInFlight() {
+    return inFlightPermits == null ? 0 : maxInFlight - inFlightPermits.availablePermits();
+  }
+
+  /** Slot of a request in flight. */
+  public final class Slot implements AutoCloseable {
+    /** Whether the slot holds a permit */
+    private final boolean holdsPermit;
+    /** Whether the slot has been released */
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private Slot(boolean holdsPermit) {
+      this.holdsPermit = holdsPermit;
+    }
+
+    /** Releases the slot. Closing more than once has no effect. */
+    @Override
+    public void close() {
+      if (released.compareAndSet(false, true) && holdsPermit) {
+        inFlightPermits.release();
+      }
+    }
+  }
+}
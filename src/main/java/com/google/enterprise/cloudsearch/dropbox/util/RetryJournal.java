@@ -0,0 +1,309 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * On-disk journal of the items that failed to be processed, to be retried later with an
+ * exponential backoff.
+ *
+ * <p>
+ * Each failure and each recovery is appended to a journal file as a line, so the pending retries
+ * survive a restart. The journal is compacted when it is opened and when it has grown well
+ * beyond the pending entries. An item failing too many times is given up and written to a
+ * dead-letter file, which is meant to be read by people.
+ */
+public final class RetryJournal implements Closeable {
+  /** Log output */
+  private static final Logger log = Logger.getLogger(RetryJournal.class.getName());
+  /** Name of the journal file */
+  static final String JOURNAL_FILE = "retry-journal.log";
+  /** Name of the dead-letter file */
+  static final String DEAD_LETTER_FILE = "dead-letter.log";
+  /** Record of a failed attempt */
+  private static final String FAILED = "FAILED";
+  /** Record of a recovered or given up item */
+  private static final String DONE = "DONE";
+  /** Maximum delay between two attempts */
+  private static final long MAX_DELAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+  /** Number of stale records beyond which the journal is compacted */
+  private static final int COMPACTION_SLACK = 1000;
+
+  /** Journal file */
+  private final File journalFile;
+  /** Dead-letter file */
+  private final File deadLetterFile;
+  /** Number of attempts after which an item is given up */
+  private final int maxAttempts;
+  /** Delay before the first retry */
+  private final long initialDelayMillis;
+  /** Pending entries keyed by item name, in the order they first failed */
+  private final Map<String, Entry> entries = new LinkedHashMap<>();
+  /** Writer appending to the journal */
+  private Writer journal;
+  /** Number of records in the journal */
+  private long records;
+
+  private RetryJournal(File directory, int maxAttempts, long initialDelayMillis)
+      throws IOException {
+    this.journalFile = new File(directory, JOURNAL_FILE);
+    this.deadLetterFile = new File(directory, DEAD_LETTER_FILE);
+    this.maxAttempts = maxAttempts;
+    this.initialDelayMillis = initialDelayMillis;
+    load();
+    compact();
+  }
+
+  /**
+   * Opens the journal in the directory, creating it if it does not exist.
+   *
+   * @param directory          directory of the journal and the dead-letter file
+   * @param maxAttempts        number of attempts after which an item is given up
+   * @param initialDelayMillis delay before the first retry, doubled after each failed retry
+   * @return an instance of {@link RetryJournal}
+   * @throws IOException when the journal can not be opened
+   */
+  public static RetryJournal open(File directory, int maxAttempts, long initialDelayMillis)
+      throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Failed to create directory " + directory);
+    }
+    return new RetryJournal(directory, maxAttempts, initialDelayMillis);
+  }
+
+  /**
+   * Records a failed attempt to process the item. The item is given up once it has failed the
+   * maximum number of attempts.
+   *
+   * @param name    item name
+   * @param payload item payload, needed to process the item again
+   * @param cause   cause of the failure
+   * @return {@code true} if the item is to be retried, {@code false} if it has been given up
+   * @throws IOException when the journal can not be written
+   */
+  public synchronized boolean recordFailure(String name, byte[] payload, String cause)
+      throws IOException {
+    Entry previous = entries.get(name);
+    int attempts = previous == null ? 1 : previous.attempts + 1;
+    if (attempts >= maxAttempts) {
+      entries.remove(name);
+      append(DONE, encode(name));
+      writeDeadLetter(name, attempts, cause);
+      return false;
+    }
+    long delayMillis = Math.min(initialDelayMillis << Math.min(attempts - 1, 30),
+        MAX_DELAY_MILLIS);
+    Entry entry =
+        new Entry(name, payload, attempts, System.currentTimeMillis() + delayMillis, cause);
+    entries.put(name, entry);
+    append(FAILED, encode(name), String.valueOf(attempts),
+        String.valueOf(entry.nextAttemptMillis), encode(payload), encode(cause));
+    return true;
+  }
+
+  /**
+   * Records the item as processed successfully.
+   *
+   * @param name item name
+   * @return {@code true} if the item was pending a retry
+   * @throws IOException when the journal can not be written
+   */
+  public synchronized boolean resolve(String name) throws IOException {
+    if (entries.remove(name) == null) {
+      return false;
+    }
+    append(DONE, encode(name));
+    return true;
+  }
+
+  /**
+   * Gets the entries due for a retry, oldest first.
+   *
+   * @param nowMillis current time in milliseconds
+   * @param max       maximum number of entries to return
+   * @return due entries
+   */
+  public synchronized List<Entry> getDue(long nowMillis, int max) {
+    List<Entry> due = new ArrayList<>();
+    for (Entry entry : entries.values()) {
+      if (due.size() >= max) {
+        break;
+      }
+      if (entry.nextAttemptMillis <= nowMillis) {
+        due.add(entry);
+      }
+    }
+    return due;
+  }
+
+  /** Gets number of items pending a retry. */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /** Closes the journal. */
+  @Override
+  public synchronized void close() {
+    try {
+      journal.close();
+    } catch (IOException e) {
+      log.log(Level.WARNING, "Failed to close " + journalFile, e);
+    }
+  }
+
+  private void load() throws IOException {
+    if (!journalFile.exists()) {
+      return;
+    }
+    try (BufferedReader reader =
+        Files.newBufferedReader(journalFile.toPath(), StandardCharsets.UTF_8)) {
+      for (String line; (line = reader.readLine()) != null; ) {
+        String[] fields = line.split("\t", -1);
+        try {
+          if (fields[0].equals(FAILED) && fields.length == 6) {
+            String name = decodeString(fields[1]);
+            entries.put(name, new Entry(name, decode(fields[4]), Integer.parseInt(fields[2]),
+                Long.parseLong(fields[3]), decodeString(fields[5])));
+          } else if (fields[0].equals(DONE) && fields.length == 2) {
+            entries.remove(decodeString(fields[1]));
+          } else {
+            log.log(Level.WARNING, "Skipped malformed retry journal record: {0}", line);
+          }
+        } catch (IllegalArgumentException e) {
+          // NumberFormatException is an IllegalArgumentException, so is a Base64 error
+          log.log(Level.WARNING, "Skipped malformed retry journal record: " + line, e);
+        }
+      }
+    }
+  }
+
+  private void compact() throws IOException {
+    File compacted = new File(journalFile.getParentFile(), JOURNAL_FILE + ".tmp");
+    records = 0;
+    journal = Files.newBufferedWriter(compacted.toPath(), StandardCharsets.UTF_8);
+    for (Entry entry : entries.values()) {
+      append(FAILED, encode(entry.name), String.valueOf(entry.attempts),
+          String.valueOf(entry.nextAttemptMillis), encode(entry.payload), encode(entry.cause));
+    }
+    journal.close();
+    Files.move(compacted.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    journal = Files.newBufferedWriter(journalFile.toPath(), StandardCharsets.UTF_8,
+        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+  }
+
+  private void append(String... fields) throws IOException {
+    journal.write(String.join("\t", fields));
+    journal.write('\n');
+    journal.flush();
+    records++;
+    if (records > entries.size() * 2L + COMPACTION_SLACK) {
+      journal.close();
+      compact();
+    }
+  }
+
+  private void writeDeadLetter(String name, int attempts, String cause) throws IOException {
+    String line = String.join("\t", Instant.now().toString(), name, String.valueOf(attempts),
+        cause.replaceAll("\\s+", " ")) + "\n";
+    Files.write(deadLetterFile.toPath(), line.getBytes(StandardCharsets.UTF_8),
+        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    log.log(Level.WARNING, "item has been given up after {0} attempts [{1}]",
+        new Object[] {attempts, name});
+  }
+
+  private static String encode(String value) {
+    return encode(value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String encode(byte[] value) {
+    return Base64.getEncoder().encodeToString(value);
+  }
+
+  private static byte[] decode(String value) {
+    return Base64.getDecoder().decode(value);
+  }
+
+  private static String decodeString(String value) {
+    return new String(decode(value), StandardCharsets.UTF_8);
+  }
+
+  /** Item pending a retry. */
+  public static final class Entry {
+    /** Item name */
+    private final String name;
+    /** Item payload */
+    private final byte[] payload;
+    /** Number of failed attempts */
+    private final int attempts;
+    /** Time of the next attempt in milliseconds */
+    private final long nextAttemptMillis;
+    /** Cause of the last failure */
+    private final String cause;
+
+    Entry(String name, byte[] payload, int attempts, long nextAttemptMillis, String cause) {
+      this.name = name;
+      this.payload = payload;
+      this.attempts = attempts;
+      this.nextAttemptMillis = nextAttemptMillis;
+      this.cause = cause;
+    }
+
+    /** Gets item name. */
+    public String getName() {
+      return name;
+    }
+
+    /** Gets item payload. */
+    public byte[] getPayload() {
+      return payload;
+    }
+
+    /** Gets number of failed attempts. */
+    public int getAttempts() {
+      return attempts;
+    }
+
+    /** Gets time of the next attempt in milliseconds. */
+    public long getNextAttemptMillis() {
+      return nextAttemptMillis;
+    }
+
+    /** Gets cause of the last failure. */
+    public String getCause() {
+      return cause;
+    }
+  }
+}
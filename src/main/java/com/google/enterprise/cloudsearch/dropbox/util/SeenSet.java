@@ -0,0 +1,148 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.util;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Set of the item names seen during a traversal, compact enough for tens of millions of items.
+ *
+ * <p>
+ * Names are kept as 64-bit fingerprints in an open-addressing hash table with linear probing,
+ * allocated outside of the heap and split into segments of up to 1 GB, so a set of 30 million
+ * names takes about 512 MB of native memory and nothing of the heap. Two names sharing a
+ * fingerprint are seen together, which, as in {@link MetadataStore}, is unlikely enough to be
+ * ignored.
+ */
+public final class SeenSet {
+  /** Bits of the slot index selecting the slot within a segment */
+  private static final int SEGMENT_BITS = 27;
+  /** Maximum number of slots of a segment */
+  private static final long SEGMENT_SLOTS = 1L << SEGMENT_BITS;
+  /** Minimum number of slots, which must be a power of two */
+  private static final long MIN_SLOTS = 1 << 10;
+  /** Fraction of the slots in use beyond which the table grows */
+  private static final double MAX_LOAD_FACTOR = 0.75;
+
+  /** Segments of the table, guarded by {@code this} */
+  private LongBuffer[] segments;
+  /** Number of slots, a power of two, guarded by {@code this} */
+  private long slots;
+  /** Number of fingerprints, guarded by {@code this} */
+  private long size;
+
+  /**
+   * Get an instance of {@link SeenSet}.
+   *
+   * @param expectedSize number of names expected, which only sizes the initial table
+   */
+  public SeenSet(long expectedSize) {
+    long initialSlots = MIN_SLOTS;
+    while (initialSlots * MAX_LOAD_FACTOR < expectedSize) {
+      initialSlots <<= 1;
+    }
+    allocate(initialSlots);
+  }
+
+  /**
+   * Adds the name to the set.
+   *
+   * @param name item name
+   * @return {@code true} if the name had not been seen
+   */
+  public synchronized boolean add(String name) {
+    if (size + 1 > slots * MAX_LOAD_FACTOR) {
+      grow();
+    }
+    if (insert(Fingerprint.of(name))) {
+      size++;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Gets whether the name has been seen.
+   *
+   * @param name item name
+   * @return {@code true} if the name is in the set
+   */
+  public synchronized boolean contains(String name) {
+    long fingerprint = Fingerprint.of(name);
+    for (long slot = fingerprint & (slots - 1); ; slot = (slot + 1) & (slots - 1)) {
+      long current = get(slot);
+      if (current == 0) {
+        return false;
+      }
+      if (current == fingerprint) {
+        return true;
+      }
+    }
+  }
+
+  /** Gets number of names in the set. */
+  public synchronized long size() {
+    return size;
+  }
+
+  /** Gets bytes of native memory held by the table. */
+  public synchronized long getCapacityBytes() {
+    return slots * Long.BYTES;
+  }
+
+  private void allocate(long newSlots) {
+    int segmentCount = (int) Math.max(1, newSlots / SEGMENT_SLOTS);
+    int segmentSlots = (int) Math.min(newSlots, SEGMENT_SLOTS);
+    segments = new LongBuffer[segmentCount];
+    for (int i = 0; i < segmentCount; i++) {
+      segments[i] = ByteBuffer.allocateDirect(segmentSlots * Long.BYTES).asLongBuffer();
+    }
+    slots = newSlots;
+  }
+
+  private void grow() {
+    LongBuffer[] oldSegments = segments;
+    allocate(slots << 1);
+    for (LongBuffer segment : oldSegments) {
+      for (int i = 0; i < segment.capacity(); i++) {
+        long fingerprint = segment.get(i);
+        if (fingerprint != 0) {
+          insert(fingerprint);
+        }
+      }
+    }
+  }
+
+  /** Inserts the fingerprint, which is never 0, unless it is already in the table. */
+  private boolean insert(long fingerprint) {
+    for (long slot = fingerprint & (slots - 1); ; slot = (slot + 1) & (slots - 1)) {
+      long current = get(slot);
+      if (current == fingerprint) {
+        return false;
+      }
+      if (current == 0) {
+        segments[(int) (slot >>> SEGMENT_BITS)].put((int) (slot & (SEGMENT_SLOTS - 1)),
+            fingerprint);
+        return true;
+      }
+    }
+  }
+
+  private long get(long slot) {
+    return segments[(int) (slot >>> SEGMENT_BITS)].get((int) (slot & (SEGMENT_SLOTS - 1)));
+  }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Factory of JDK Flight Recorder events timing DropBox calls and the phases of indexing an item.
+ *
+ * <p>
+ * This version, used on Java 11 and later, commits {@code jdk.jfr} events in the
+ * {@code DropBox Connector} category, so that DropBox latency can be read along with garbage
+ * collection, lock contention and thread states in the same recording. While no recording
+ * enables an event, its spans are shared no-op instances and cost no allocation, as the event
+ * type is checked before any event is created.
+ */
+public class FlightEvents {
+  /** Outcome of an operation that did not fail */
+  public static final String SUCCESS = "success";
+  /** Category of the events */
+  private static final String CATEGORY = "DropBox Connector";
+  /** Span recording nothing */
+  private static final Span NO_SPAN = new NoSpan();
+  /** Type of the DropBox call events */
+  private static final EventType DROPBOX_CALL = EventType.getEventType(DropBoxCallEvent.class);
+  /** Type of the download events */
+  private static final EventType DOWNLOAD = EventType.getEventType(DownloadEvent.class);
+  /** Type of the ACL lookup events */
+  private static final EventType ACL_LOOKUP = EventType.getEventType(AclLookupEvent.class);
+  /** Type of the document build events */
+  private static final EventType DOCUMENT_BUILD =
+      EventType.getEventType(DocumentBuildEvent.class);
+
+  private FlightEvents() {
+  }
+
+  /**
+   * Starts timing a DropBox call.
+   *
+   * @param route        route of the endpoint, such as {@code files/list_folder}
+   * @param teamMemberId team member ID, or an empty string for a call made as the team
+   * @return span to close once the call has completed
+   */
+  public static Span dropBoxCall(String route, String teamMemberId) {
+    if (!DROPBOX_CALL.isEnabled()) {
+      return NO_SPAN;
+    }
+    DropBoxCallEvent event = new DropBoxCallEvent();
+    event.route = route;
+    event.teamMemberId = teamMemberId;
+    return new EventSpan(event);
+  }
+
+  /**
+   * Starts timing the download of a file content, from DropBox or from the content cache.
+   *
+   * @param teamMemberId team member ID
+   * @param path         path of the file
+   * @return span to close once the content has been downloaded
+   */
+  public static Span download(String teamMemberId, String path) {
+    if (!DOWNLOAD.isEnabled()) {
+      return NO_SPAN;
+    }
+    DownloadEvent event = new DownloadEvent();
+    event.teamMemberId = teamMemberId;
+    event.path = path;
+    return new EventSpan(event);
+  }
+
+  /**
+   * Starts timing the lookup of the sharing information of an item.
+   *
+   * @param itemName item name
+   * @return span to close once the sharing information has been fetched
+   */
+  public static Span aclLookup(String itemName) {
+    if (!ACL_LOOKUP.isEnabled()) {
+      return NO_SPAN;
+    }
+    AclLookupEvent event = new AclLookupEvent();
+    event.itemName = itemName;
+    return new EventSpan(event);
+  }
+
+  /**
+   * Starts timing the build of the document of a polled item.
+   *
+   * @param itemName   item name
+   * @param objectType DropBox object type of the item
+   * @return span to close once the document has been built
+   */
+  public static Span documentBuild(String itemName, String objectType) {
+    if (!DOCUMENT_BUILD.isEnabled()) {
+      return NO_SPAN;
+    }
+    DocumentBuildEvent event = new DocumentBuildEvent();
+    event.itemName = itemName;
+    event.objectType = objectType;
+    return new EventSpan(event);
+  }
+
+  /** Operation timed by an event, which is committed when the span is closed. */
+  public interface Span extends AutoCloseable {
+    /**
+     * Sets the number of bytes transferred by the operation.
+     *
+     * @param bytes number of bytes
+     */
+    void setBytes(long bytes);
+
+    /**
+     * Sets the outcome of the operation, which is {@link FlightEvents#SUCCESS} unless set.
+     *
+     * @param outcome outcome
+     */
+    void setOutcome(String outcome);
+
+    /**
+     * Sets the outcome of the operation to the class of its failure.
+     *
+     * @param cause failure of the operation
+     */
+    default void setFailure(Throwable cause) {
+      setOutcome(cause.getClass().getSimpleName());
+    }
+
+    /** Ends the operation and commits the event. */
+    @Override
+    void close();
+  }
+
+  /** Span recording nothing. */
+  private static final class NoSpan implements Span {
+    @Override
+    public void setBytes(long bytes) {
+    }
+
+    @Override
+    public void setOutcome(String outcome) {
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  /** Span committing an event. */
+  private static final class EventSpan implements Span {
+    /** Event timing the operation */
+    private final OperationEvent event;
+
+    EventSpan(OperationEvent event) {
+      this.event = event;
+      event.begin();
+    }
+
+    @Override
+    public void setBytes(long bytes) {
+      event.bytes = bytes;
+    }
+
+    @Override
+    public void setOutcome(String outcome) {
+      event.outcome = outcome;
+    }
+
+    @Override
+    public void close() {
+      event.commit();
+    }
+  }
+
+  /** Fields common to the events of the connector. */
+  abstract static class OperationEvent extends Event {
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Outcome")
+    @Description("Outcome of the operation, or the class of its failure")
+    String outcome = SUCCESS;
+  }
+
+  @Name("com.google.enterprise.cloudsearch.dropbox.DropBoxCall")
+  @Label("DropBox Call")
+  @Description("Request made to the DropBox API, including a retry with a refreshed token")
+  @Category(CATEGORY)
+  static final class DropBoxCallEvent extends OperationEvent {
+    @Label("Route")
+    String route;
+
+    @Label("Team Member ID")
+    String teamMemberId;
+  }
+
+  @Name("com.google.enterprise.cloudsearch.dropbox.Download")
+  @Label("Download")
+  @Description("Download of a file content from DropBox or from the content cache")
+  @Category(CATEGORY)
+  static final class DownloadEvent extends OperationEvent {
+    @Label("Team Member ID")
+    String teamMemberId;
+
+    @Label("Path")
+    String path;
+  }
+
+  @Name("com.google.enterprise.cloudsearch.dropbox.AclLookup")
+  @Label("ACL Lookup")
+  @Description("Lookup of the sharing information of a folder or a file")
+  @Category(CATEGORY)
+  static final class AclLookupEvent extends OperationEvent {
+    @Label("Item Name")
+    String itemName;
+  }
+
+  @Name("com.google.enterprise.cloudsearch.dropbox.DocumentBuild")
+  @Label("Document Build")
+  @Description("Build of the document of a polled item, including its ACL lookup and download")
+  @Category(CATEGORY)
+  static final class DocumentBuildEvent extends OperationEvent {
+    @Label("Item Name")
+    String itemName;
+
+    @Label("Object Type")
+    String objectType;
+  }
+}
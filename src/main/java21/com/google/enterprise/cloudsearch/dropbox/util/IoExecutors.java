@@ -0,0 +1,124 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.util;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Factory of executors running tasks that block on DropBox I/O.
+ *
+ * <p>
+ * This version, used on Java 21 and later, starts a virtual thread per task, so a blocked task
+ * holds no platform thread. Tasks are not limited to the number of threads of the executor: the
+ * load on DropBox is bounded by {@code dropbox.requests.maxInFlight} instead. Only the number of
+ * unfinished tasks is bounded, so that a burst of submissions does not start unbounded threads.
+ */
+public class IoExecutors {
+
+  private IoExecutors() {
+  }
+
+  /**
+   * Gets whether the tasks run on virtual threads.
+   *
+   * @return {@code true}
+   */
+  public static boolean isVirtual() {
+    return true;
+  }
+
+  /**
+   * Creates an executor for tasks blocking on DropBox I/O. Tasks submitted while the executor
+   * already holds as many pending tasks as its capacity are rejected with a
+   * {@link RejectedExecutionException}.
+   *
+   * @param nameFormat    format of the thread names, with {@code %d} for the thread number
+   * @param threads       number of threads of the platform version, counting in the capacity
+   * @param queueCapacity number of tasks waiting for a thread in the platform version, counting
+   *                      in the capacity
+   * @return executor
+   */
+  public static ExecutorService newExecutor(String nameFormat, int threads, int queueCapacity) {
+    String prefix = nameFormat.replace("%d", "");
+    ExecutorService executor =
+        Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(prefix, 0).factory());
+    return new BoundedExecutor(executor,
+        (int) Math.min(Integer.MAX_VALUE, (long) threads + queueCapacity));
+  }
+
+  /** Executor rejecting the tasks submitted beyond its capacity. */
+  private static final class BoundedExecutor extends AbstractExecutorService {
+    /** Executor running the tasks */
+    private final ExecutorService delegate;
+    /** Permits of the tasks not finished yet */
+    private final Semaphore pending;
+
+    BoundedExecutor(ExecutorService delegate, int capacity) {
+      this.delegate = delegate;
+      this.pending = new Semaphore(capacity);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+      if (!pending.tryAcquire()) {
+        throw new RejectedExecutionException("Too many pending tasks");
+      }
+      try {
+        delegate.execute(() -> {
+          try {
+            task.run();
+          } finally {
+            pending.release();
+          }
+        });
+      } catch (RuntimeException e) {
+        pending.release();
+        throw e;
+      }
+    }
+
+    @Override
+    public void shutdown() {
+      delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+      return delegate.awaitTermination(timeout, unit);
+    }
+  }
+}
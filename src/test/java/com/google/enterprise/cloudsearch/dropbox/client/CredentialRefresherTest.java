@@ -0,0 +1,98 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.dropbox.core.DbxRequestConfig;
+import com.dropbox.core.oauth.DbxCredential;
+import com.dropbox.core.oauth.DbxRefreshResult;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class CredentialRefresherTest {
+  private static final DbxRequestConfig REQUEST_CONFIG = new DbxRequestConfig("test");
+
+  @Test
+  public void testExpiredTokenRefreshedOnStart() {
+    FakeCredential credential =
+        new FakeCredential(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(1));
+    CredentialRefresher refresher = new CredentialRefresher(credential, REQUEST_CONFIG, "");
+    try {
+      assertEquals("token-1", refresher.getAccessToken());
+      assertEquals(1, credential.refreshes.get());
+    } finally {
+      refresher.close();
+    }
+  }
+
+  @Test
+  public void testValidTokenNotRefreshedOnStart() {
+    FakeCredential credential =
+        new FakeCredential(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(4));
+    CredentialRefresher refresher = new CredentialRefresher(credential, REQUEST_CONFIG, "");
+    try {
+      assertEquals("token-0", refresher.getAccessToken());
+      assertEquals(0, credential.refreshes.get());
+    } finally {
+      refresher.close();
+    }
+  }
+
+  @Test
+  public void testRefreshRejected() {
+    FakeCredential credential =
+        new FakeCredential(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(1));
+    CredentialRefresher refresher = new CredentialRefresher(credential, REQUEST_CONFIG, "");
+    try {
+      assertTrue(refresher.refreshRejected("token-1"));
+      assertEquals("token-2", refresher.getAccessToken());
+      assertTrue(refresher.refreshRejected("token-1"));
+      assertEquals(2, credential.refreshes.get());
+    } finally {
+      refresher.close();
+    }
+  }
+
+  @Test
+  public void testRefreshRejectedNotRefreshable() {
+    DbxCredential credential = new DbxCredential("token-0");
+    CredentialRefresher refresher = new CredentialRefresher(credential, REQUEST_CONFIG, "");
+    try {
+      assertFalse(refresher.refreshRejected("token-0"));
+    } finally {
+      refresher.close();
+    }
+  }
+
+  /** Credential issuing numbered tokens valid for four hours. */
+  private static class FakeCredential extends DbxCredential {
+    private final AtomicInteger refreshes = new AtomicInteger();
+
+    FakeCredential(Long expiresAt) {
+      super("token-0", expiresAt, "refresh-token", "app-key", "app-secret");
+    }
+
+    @Override
+    public DbxRefreshResult refresh(DbxRequestConfig requestConfig) {
+      return new DbxRefreshResult("token-" + refreshes.incrementAndGet(),
+          TimeUnit.HOURS.toSeconds(4));
+    }
+  }
+}
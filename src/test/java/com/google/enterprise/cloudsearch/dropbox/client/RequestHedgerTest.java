@@ -0,0 +1,184 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.dropbox.core.DbxException;
+import com.dropbox.core.NetworkIOException;
+import com.dropbox.core.ServerException;
+import com.google.enterprise.cloudsearch.dropbox.util.Metrics;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class RequestHedgerTest {
+  /** Number of latencies recorded before the hedger estimates when to hedge */
+  private static final int WARM_UP_REQUESTS = 20;
+
+  @Test
+  public void testHedgeWins() throws Exception {
+    RequestHedger hedger = new RequestHedger(true, 0, 2);
+    try {
+      warmUp(hedger, "hedgeWins");
+      long hedgeWins = metric("hedging.hedgeWins");
+      CountDownLatch primaryInterrupted = new CountDownLatch(1);
+      AtomicInteger attempts = new AtomicInteger();
+
+      String result = hedger.execute("hedgeWins", () -> {
+        if (attempts.incrementAndGet() == 1) {
+          try {
+            new CountDownLatch(1).await();
+          } catch (InterruptedException e) {
+            primaryInterrupted.countDown();
+          }
+          return "primary";
+        }
+        return "hedge";
+      });
+
+      assertEquals("hedge", result);
+      assertEquals(hedgeWins + 1, metric("hedging.hedgeWins"));
+      // the losing attempt is cancelled
+      assertTrue(primaryInterrupted.await(10, TimeUnit.SECONDS));
+    } finally {
+      hedger.close();
+    }
+  }
+
+  @Test
+  public void testBothAttemptsFail() throws Exception {
+    RequestHedger hedger = new RequestHedger(true, 0, 2);
+    try {
+      warmUp(hedger, "bothFail");
+      CountDownLatch hedgeStarted = new CountDownLatch(1);
+      AtomicInteger attempts = new AtomicInteger();
+
+      try {
+        hedger.execute("bothFail", () -> {
+          if (attempts.incrementAndGet() == 1) {
+            try {
+              hedgeStarted.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            throw new ServerException("request", "primary failed");
+          }
+          hedgeStarted.countDown();
+          throw new ServerException("request", "hedge failed");
+        });
+        fail("expected ServerException");
+      } catch (ServerException e) {
+        // the failure of whichever attempt completed last is thrown
+        assertTrue(e.getMessage().endsWith(" failed"));
+      }
+      assertEquals(2, attempts.get());
+    } finally {
+      hedger.close();
+    }
+  }
+
+  @Test
+  public void testTimeoutInterruptsAttempt() throws Exception {
+    RequestHedger hedger = new RequestHedger(false, 100, 1);
+    try {
+      long timedOut = metric("requests.timedOut");
+      CountDownLatch interrupted = new CountDownLatch(1);
+
+      try {
+        hedger.execute("timeout", () -> {
+          try {
+            new CountDownLatch(1).await();
+          } catch (InterruptedException e) {
+            interrupted.countDown();
+          }
+          return "late";
+        });
+        fail("expected NetworkIOException");
+      } catch (NetworkIOException e) {
+        assertTrue(e.getCause() instanceof SocketTimeoutException);
+      }
+      assertEquals(timedOut + 1, metric("requests.timedOut"));
+      assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+    } finally {
+      hedger.close();
+    }
+  }
+
+  @Test
+  public void testHedgeWaitingForThreadCountsInTimeout() throws Exception {
+    RequestHedger hedger = new RequestHedger(true, 200, 1);
+    try {
+      warmUp(hedger, "queued");
+      AtomicInteger attempts = new AtomicInteger();
+
+      try {
+        // the hedge would answer at once, but waits for the only thread, held by the primary
+        hedger.execute("queued", () -> {
+          if (attempts.incrementAndGet() == 1) {
+            try {
+              new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            return "primary";
+          }
+          return "hedge";
+        });
+        fail("expected NetworkIOException");
+      } catch (NetworkIOException e) {
+        assertTrue(e.getCause() instanceof SocketTimeoutException);
+      }
+      assertEquals(1, attempts.get());
+    } finally {
+      hedger.close();
+    }
+  }
+
+  @Test
+  public void testRejectedSubmissionRunsOnCallingThread() throws Exception {
+    RequestHedger hedger = new RequestHedger(true, 100, 1);
+    hedger.close();
+    Thread caller = Thread.currentThread();
+
+    Thread attemptThread = hedger.execute("rejected", Thread::currentThread);
+
+    assertSame(caller, attemptThread);
+  }
+
+  @Test
+  public void testDirectWithoutHedgingNorTimeout() throws Exception {
+    RequestHedger hedger = new RequestHedger(false, 0, 1);
+    Thread caller = Thread.currentThread();
+
+    assertSame(caller, hedger.execute("direct", Thread::currentThread));
+  }
+
+  private static void warmUp(RequestHedger hedger, String route) throws DbxException {
+    for (int i = 0; i < WARM_UP_REQUESTS; i++) {
+      hedger.execute(route, () -> "warm");
+    }
+  }
+
+  private static long metric(String name) {
+    return Metrics.snapshot().getOrDefault(name, 0L);
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.contents;
+
+import static org.junit.Assert.assertEquals;
+
+import com.dropbox.core.DbxException;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.ListFolderContinueError;
+import com.dropbox.core.v2.files.ListFolderContinueErrorException;
+import com.dropbox.core.v2.files.Metadata;
+import com.google.enterprise.cloudsearch.dropbox.model.FolderChanges;
+import com.google.enterprise.cloudsearch.dropbox.util.Metrics;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChangePollerTest {
+  private static final long HOT_SECS = 60;
+  private static final long WARM_SECS = 600;
+  private static final long COLD_SECS = 3600;
+  private static final int HOT_MIN_CHANGES = 5;
+  private static final Metadata CHANGE = FileMetadata.newBuilder("file.txt", "id:1", new Date(),
+      new Date(), "015f9a5b3c4d0000000000001", 10).build();
+
+  private final AtomicLong clock = new AtomicLong(TimeUnit.DAYS.toMillis(1));
+  private final AtomicInteger handledChanges = new AtomicInteger();
+  private final FakeChangeLister changeLister = new FakeChangeLister();
+  private ChangePoller poller;
+
+  @Before
+  public void setUp() {
+    poller = new ChangePoller(1, HOT_SECS, WARM_SECS, COLD_SECS, HOT_MIN_CHANGES,
+        (team, teamMemberId, memberName, changes) -> handledChanges.addAndGet(changes.size()),
+        clock::get);
+    poller.track(changeLister, "", "dbmid:1", "member");
+  }
+
+  @After
+  public void tearDown() {
+    poller.close();
+  }
+
+  @Test
+  public void testFirstPollFetchesCursor() throws Exception {
+    poller.pollDue();
+    assertEquals(1, changeLister.cursorCalls.get());
+    assertEquals(0, changeLister.changeCalls.get());
+    assertEquals(1L, gauge("changes.warmMembers"));
+
+    assertPolledAfter(WARM_SECS);
+    assertEquals(1, changeLister.cursorCalls.get());
+  }
+
+  @Test
+  public void testActiveMemberPolledAtHotInterval() throws Exception {
+    poller.pollDue();
+    changeLister.results.add(HOT_MIN_CHANGES);
+    assertPolledAfter(WARM_SECS);
+    assertEquals(HOT_MIN_CHANGES, handledChanges.get());
+    assertEquals(1L, gauge("changes.hotMembers"));
+
+    changeLister.results.add(HOT_MIN_CHANGES);
+    assertPolledAfter(HOT_SECS);
+    assertEquals(1L, gauge("changes.hotMembers"));
+  }
+
+  @Test
+  public void testActivityDecays() throws Exception {
+    poller.pollDue();
+    changeLister.results.add(HOT_MIN_CHANGES);
+    assertPolledAfter(WARM_SECS);
+    assertEquals(1L, gauge("changes.hotMembers"));
+
+    // halved after an hour, the activity no longer reaches the hot number of changes
+    clock.addAndGet(TimeUnit.HOURS.toMillis(1));
+    poller.pollDue();
+    assertEquals(1L, gauge("changes.warmMembers"));
+    assertPolledAfter(WARM_SECS);
+    assertEquals(1L, gauge("changes.warmMembers"));
+  }
+
+  @Test
+  public void testIdleMemberPolledAtColdInterval() throws Exception {
+    poller.pollDue();
+    changeLister.results.add(1);
+    assertPolledAfter(WARM_SECS);
+    assertEquals(1L, gauge("changes.warmMembers"));
+
+    // a single change keeps the member warm for about 3 hours
+    clock.addAndGet(TimeUnit.HOURS.toMillis(4));
+    poller.pollDue();
+    assertEquals(1L, gauge("changes.coldMembers"));
+
+    assertPolledAfter(COLD_SECS);
+    assertEquals(1L, gauge("changes.coldMembers"));
+  }
+
+  @Test
+  public void testResetCursorFetchedAgain() throws Exception {
+    poller.pollDue();
+    changeLister.results.add(new ListFolderContinueErrorException("files/list_folder/continue",
+        "request", null, ListFolderContinueError.RESET));
+    assertPolledAfter(WARM_SECS);
+
+    clock.addAndGet(TimeUnit.SECONDS.toMillis(WARM_SECS));
+    poller.pollDue();
+    assertEquals(2, changeLister.cursorCalls.get());
+  }
+
+  /** Checks that the member is polled after the interval, not a millisecond earlier. */
+  private void assertPolledAfter(long intervalSecs) throws InterruptedException {
+    int polls = changeLister.cursorCalls.get() + changeLister.changeCalls.get();
+    clock.addAndGet(TimeUnit.SECONDS.toMillis(intervalSecs) - 1);
+    poller.pollDue();
+    assertEquals(polls, changeLister.cursorCalls.get() + changeLister.changeCalls.get());
+    clock.incrementAndGet();
+    poller.pollDue();
+    assertEquals(polls + 1, changeLister.cursorCalls.get() + changeLister.changeCalls.get());
+  }
+
+  private static long gauge(String name) {
+    return Metrics.snapshot().get(name);
+  }
+
+  /** Lister returning the queued numbers of changes or failures, and no change otherwise. */
+  private static class FakeChangeLister implements ChangePoller.ChangeLister {
+    private final AtomicInteger cursorCalls = new AtomicInteger();
+    private final AtomicInteger changeCalls = new AtomicInteger();
+    private final Deque<Object> results = new ArrayDeque<>();
+
+    @Override
+    public String getLatestCursor() {
+      return "cursor-" + cursorCalls.incrementAndGet();
+    }
+
+    @Override
+    public FolderChanges listFolderChanges(String cursor) throws DbxException {
+      changeCalls.incrementAndGet();
+      Object result = results.isEmpty() ? 0 : results.removeFirst();
+      if (result instanceof DbxException) {
+        throw (DbxException) result;
+      }
+      return new FolderChanges.Builder(
+          Collections.nCopies((Integer) result, CHANGE), cursor + "+").build();
+    }
+  }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.contents;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.enterprise.cloudsearch.dropbox.client.MemberClient;
+import com.google.enterprise.cloudsearch.dropbox.model.DropBoxObject;
+import com.google.enterprise.cloudsearch.dropbox.model.SharingInfo;
+import com.google.enterprise.cloudsearch.dropbox.util.MemoryBudget;
+import com.google.enterprise.cloudsearch.dropbox.util.Metrics;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import org.junit.After;
+import org.junit.Test;
+
+public class ChildPrefetcherTest {
+  private static final int CONTENT_BYTES = 1000;
+  private static final Date SERVER_MODIFIED = new Date(1000);
+
+  private final MemoryBudget budget = new MemoryBudget(1024 * 1024);
+  private final FileDownloader fileDownloader = mock(FileDownloader.class);
+  private final MemberClient memberClient = mock(MemberClient.class);
+  private ChildPrefetcher prefetcher;
+
+  @After
+  public void tearDown() {
+    if (prefetcher != null) {
+      prefetcher.close();
+    }
+  }
+
+  @Test
+  public void testTakeReturnsPrefetchedFile() throws Exception {
+    SharingInfo sharingInfo =
+        new SharingInfo.Builder(Arrays.asList("user"), Collections.emptyList()).build();
+    DropBoxObject file = file("shared", "rev1", true);
+    when(memberClient.getFileSharingInfo("/shared")).thenReturn(sharingInfo);
+    when(fileDownloader.downloadIfBudgetAvailable(memberClient, file))
+        .thenAnswer(invocation -> content());
+    prefetcher = new ChildPrefetcher(fileDownloader, 2, CONTENT_BYTES, 1024 * 1024, 60);
+
+    prefetcher.prefetch(memberClient, Collections.singletonMap("shared", file));
+    awaitValue(() -> Metrics.snapshot().get("prefetch.cachedFiles"), 1);
+    ChildPrefetcher.PrefetchedFile prefetched = prefetcher.take("shared", file);
+
+    assertNotNull(prefetched);
+    assertSame(sharingInfo, prefetched.getSharingInfo());
+    assertEquals(CONTENT_BYTES, prefetched.getContent().getLength());
+    // the caller owns the taken content
+    prefetcher.close();
+    assertEquals(1024, budget.getReservedBytes());
+    prefetched.getContent().release();
+    assertEquals(0, budget.getReservedBytes());
+  }
+
+  @Test
+  public void testTakeDropsFileWithOtherRevision() throws Exception {
+    DropBoxObject file = file("modified", "rev1", false);
+    when(fileDownloader.downloadIfBudgetAvailable(memberClient, file))
+        .thenAnswer(invocation -> content());
+    prefetcher = new ChildPrefetcher(fileDownloader, 2, CONTENT_BYTES, 1024 * 1024, 60);
+
+    prefetcher.prefetch(memberClient, Collections.singletonMap("modified", file));
+    awaitValue(() -> Metrics.snapshot().get("prefetch.cachedFiles"), 1);
+
+    // same modification time, other revision
+    assertNull(prefetcher.take("modified", file("modified", "rev2", false)));
+    assertEquals(0, budget.getReservedBytes());
+  }
+
+  @Test
+  public void testPrefetchEndingAfterTakeIsDropped() throws Exception {
+    DropBoxObject file = file("late", "rev1", false);
+    CountDownLatch downloading = new CountDownLatch(1);
+    CountDownLatch taken = new CountDownLatch(1);
+    when(fileDownloader.downloadIfBudgetAvailable(memberClient, file)).thenAnswer(invocation -> {
+      downloading.countDown();
+      taken.await();
+      return content();
+    });
+    prefetcher = new ChildPrefetcher(fileDownloader, 2, CONTENT_BYTES, 1024 * 1024, 60);
+    long lateFiles = Metrics.snapshot().getOrDefault("prefetch.lateFiles", 0L);
+
+    prefetcher.prefetch(memberClient, Collections.singletonMap("late", file));
+    assertTrue(downloading.await(10, TimeUnit.SECONDS));
+    assertNull(prefetcher.take("late", file));
+    taken.countDown();
+
+    awaitValue(() -> Metrics.snapshot().get("prefetch.lateFiles"), lateFiles + 1);
+    awaitValue(budget::getReservedBytes, 0);
+    assertEquals(0L, (long) Metrics.snapshot().get("prefetch.cachedFiles"));
+  }
+
+  @Test
+  public void testTakeRacingPrefetchLeaksNoContent() throws Exception {
+    when(fileDownloader.downloadIfBudgetAvailable(any(), any()))
+        .thenAnswer(invocation -> content());
+    prefetcher = new ChildPrefetcher(fileDownloader, 4, CONTENT_BYTES, 1024 * 1024, 60);
+
+    List<ChildPrefetcher.PrefetchedFile> takenFiles = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      String name = "race" + i;
+      DropBoxObject file = file(name, "rev1", false);
+      Thread prefetching =
+          new Thread(() -> prefetcher.prefetch(memberClient, Collections.singletonMap(name, file)));
+      prefetching.start();
+      ChildPrefetcher.PrefetchedFile prefetched = prefetcher.take(name, file);
+      if (prefetched != null) {
+        takenFiles.add(prefetched);
+      }
+      prefetching.join();
+    }
+    for (ChildPrefetcher.PrefetchedFile prefetched : takenFiles) {
+      prefetched.getContent().release();
+    }
+    prefetcher.close();
+
+    awaitValue(budget::getReservedBytes, 0);
+  }
+
+  @Test
+  public void testEvictionReleasesContent() throws Exception {
+    DropBoxObject first = file("first", "rev1", false);
+    DropBoxObject second = file("second", "rev1", false);
+    AtomicLong downloads = new AtomicLong();
+    when(fileDownloader.downloadIfBudgetAvailable(any(), any()))
+        .thenAnswer(invocation -> {
+          DownloadedContent content = content();
+          downloads.incrementAndGet();
+          return content;
+        });
+    // room for a single file and its entry overhead
+    prefetcher = new ChildPrefetcher(fileDownloader, 1, CONTENT_BYTES, 3000, 60);
+
+    prefetcher.prefetch(memberClient, Collections.singletonMap("first", first));
+    awaitValue(() -> Metrics.snapshot().get("prefetch.cachedFiles"), 1);
+    prefetcher.prefetch(memberClient, Collections.singletonMap("second", second));
+    // both files are reserved until the first one is evicted
+    awaitValue(downloads::get, 2);
+    awaitValue(budget::getReservedBytes, 1024);
+
+    assertNull(prefetcher.take("first", first));
+    ChildPrefetcher.PrefetchedFile prefetched = prefetcher.take("second", second);
+    assertNotNull(prefetched);
+    prefetched.getContent().release();
+    assertEquals(0, budget.getReservedBytes());
+  }
+
+  @Test
+  public void testCloseReleasesCachedFiles() throws Exception {
+    DropBoxObject file = file("closed", "rev1", false);
+    when(fileDownloader.downloadIfBudgetAvailable(memberClient, file))
+        .thenAnswer(invocation -> content());
+    prefetcher = new ChildPrefetcher(fileDownloader, 2, CONTENT_BYTES, 1024 * 1024, 60);
+
+    prefetcher.prefetch(memberClient, Collections.singletonMap("closed", file));
+    awaitValue(() -> Metrics.snapshot().get("prefetch.cachedFiles"), 1);
+    assertEquals(1024, budget.getReservedBytes());
+    prefetcher.close();
+
+    assertEquals(0, budget.getReservedBytes());
+    assertNull(prefetcher.take("closed", file));
+  }
+
+  @Test
+  public void testPrefetchWithoutBudgetKeepsSharingInfo() throws Exception {
+    SharingInfo sharingInfo =
+        new SharingInfo.Builder(Arrays.asList("user"), Collections.emptyList()).build();
+    DropBoxObject file = file("noBudget", "rev1", true);
+    when(memberClient.getFileSharingInfo("/noBudget")).thenReturn(sharingInfo);
+    when(fileDownloader.downloadIfBudgetAvailable(memberClient, file)).thenReturn(null);
+    prefetcher = new ChildPrefetcher(fileDownloader, 2, CONTENT_BYTES, 1024 * 1024, 60);
+
+    prefetcher.prefetch(memberClient, Collections.singletonMap("noBudget", file));
+    awaitValue(() -> Metrics.snapshot().get("prefetch.cachedFiles"), 1);
+    ChildPrefetcher.PrefetchedFile prefetched = prefetcher.take("noBudget", file);
+
+    assertNotNull(prefetched);
+    assertSame(sharingInfo, prefetched.getSharingInfo());
+    assertNull(prefetched.getContent());
+  }
+
+  @Test
+  public void testPrefetchSkipsContentOfLargeFile() throws Exception {
+    DropBoxObject file = file("large", "rev1", false);
+    prefetcher = new ChildPrefetcher(fileDownloader, 2, CONTENT_BYTES - 1, 1024 * 1024, 60);
+
+    prefetcher.prefetch(memberClient, Collections.singletonMap("large", file));
+    awaitValue(() -> Metrics.snapshot().get("prefetch.cachedFiles"), 1);
+    ChildPrefetcher.PrefetchedFile prefetched = prefetcher.take("large", file);
+
+    assertNotNull(prefetched);
+    assertNull(prefetched.getContent());
+    verify(fileDownloader, never()).downloadIfBudgetAvailable(any(), any());
+  }
+
+  private DownloadedContent content() {
+    return DownloadedContent.inMemory(
+        "text/plain", new byte[CONTENT_BYTES], budget.tryReserve(CONTENT_BYTES));
+  }
+
+  private static DropBoxObject file(String name, String rev, boolean shared) {
+    return new DropBoxObject.Builder(DropBoxObject.FILE, "dbmid:prefetch", "Prefetch Member")
+        .setName(name)
+        .setPathDisplay("/" + name)
+        .setDownloadable(true)
+        .setServerModified(SERVER_MODIFIED)
+        .setSize(CONTENT_BYTES)
+        .setRev(rev)
+        .setHasExplicitSharedMembers(shared)
+        .build();
+  }
+
+  private static void awaitValue(LongSupplier value, long expected) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (value.getAsLong() != expected) {
+      if (System.nanoTime() > deadline) {
+        fail("expected " + expected + " but was " + value.getAsLong());
+      }
+      Thread.sleep(10);
+    }
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.contents;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.enterprise.cloudsearch.dropbox.util.MetadataStore;
+import com.google.enterprise.cloudsearch.dropbox.util.Metrics;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DeletionSweeperTest {
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File directory;
+  private MetadataStore metadataStore;
+  private final List<String> deleted = new ArrayList<>();
+
+  @Before
+  public void setUp() throws IOException {
+    directory = temporaryFolder.newFolder();
+    metadataStore = MetadataStore.open(directory);
+  }
+
+  @After
+  public void tearDown() {
+    metadataStore.close();
+  }
+
+  @Test
+  public void testSweepDeletesUnseenFiles() throws IOException {
+    DeletionSweeper sweeper = new DeletionSweeper(directory, metadataStore, 100);
+    index(sweeper, "a", "b", "c");
+    sweeper.markSeen("a");
+    sweeper.markSeen("b");
+
+    assertEquals(1, sweeper.sweep(this::delete));
+    assertEquals(Arrays.asList("c"), deleted);
+    assertNull(metadataStore.get("c"));
+
+    // the names of the kept files are logged for the next sweep
+    sweeper.markSeen("a");
+    assertEquals(1, sweeper.sweep(this::delete));
+    assertEquals(Arrays.asList("c", "b"), deleted);
+    assertNotNull(metadataStore.get("a"));
+    sweeper.close();
+  }
+
+  @Test
+  public void testSweepSkippedWithoutSeenItems() throws IOException {
+    DeletionSweeper sweeper = new DeletionSweeper(directory, metadataStore, 100);
+    index(sweeper, "a", "b");
+
+    assertEquals(0, sweeper.sweep(this::delete));
+    assertTrue(deleted.isEmpty());
+    assertFalse(new File(directory, DeletionSweeper.SWEPT_NAMES_FILE).exists());
+    sweeper.close();
+  }
+
+  @Test
+  public void testSweepSkippedOverMaxDeletePercent() throws IOException {
+    DeletionSweeper sweeper = new DeletionSweeper(directory, metadataStore, 50);
+    index(sweeper, "a", "b", "c");
+    long skippedSweeps = metric("sweep.skippedSweeps");
+    sweeper.markSeen("a");
+
+    assertEquals(0, sweeper.sweep(this::delete));
+    assertTrue(deleted.isEmpty());
+    assertEquals(skippedSweeps + 1, metric("sweep.skippedSweeps"));
+    sweeper.close();
+
+    // all the names have been kept
+    sweeper = new DeletionSweeper(directory, metadataStore, 100);
+    sweeper.markSeen("a");
+    assertEquals(2, sweeper.sweep(this::delete));
+    assertEquals(Arrays.asList("b", "c"), deleted);
+    sweeper.close();
+  }
+
+  @Test
+  public void testSweepSkippedWhileContainerUnlisted() throws IOException {
+    DeletionSweeper sweeper = new DeletionSweeper(directory, metadataStore, 100);
+    index(sweeper, "a", "folder/b");
+    long skippedSweeps = metric("sweep.skippedSweeps");
+    sweeper.markSeen("a");
+    sweeper.markSeen("folder");
+    sweeper.markUnlisted("folder");
+    assertEquals(1L, metric("sweep.unlistedContainers"));
+
+    assertEquals(0, sweeper.sweep(this::delete));
+    assertTrue(deleted.isEmpty());
+    assertEquals(skippedSweeps + 1, metric("sweep.skippedSweeps"));
+    assertEquals(0L, metric("sweep.unlistedContainers"));
+
+    // listed later in the same traversal
+    sweeper.markSeen("a");
+    sweeper.markSeen("folder");
+    sweeper.markUnlisted("folder");
+    sweeper.markListed("folder");
+    assertEquals(1, sweeper.sweep(this::delete));
+    assertEquals(Arrays.asList("folder/b"), deleted);
+    sweeper.close();
+  }
+
+  @Test
+  public void testConstructorRecoversLogRenamedBeforeCrash() throws IOException {
+    DeletionSweeper sweeper = new DeletionSweeper(directory, metadataStore, 100);
+    index(sweeper, "a", "b");
+    sweeper.close();
+    File sweptNamesFile = new File(directory, DeletionSweeper.SWEPT_NAMES_FILE);
+    assertTrue(new File(directory, DeletionSweeper.NAMES_FILE).renameTo(sweptNamesFile));
+    try (FileOutputStream out = new FileOutputStream(sweptNamesFile, true)) {
+      // record truncated by the crash
+      out.write(new byte[] {0, 10, 'c'});
+    }
+
+    sweeper = new DeletionSweeper(directory, metadataStore, 100);
+    assertFalse(sweptNamesFile.exists());
+    sweeper.markSeen("a");
+    assertEquals(1, sweeper.sweep(this::delete));
+    assertEquals(Arrays.asList("b"), deleted);
+    sweeper.close();
+  }
+
+  @Test
+  public void testSweepRecoversLogLeftByFailedSweep() throws IOException {
+    DeletionSweeper sweeper = new DeletionSweeper(directory, metadataStore, 100);
+    index(sweeper, "a", "b", "c");
+    sweeper.markSeen("a");
+    try {
+      sweeper.sweep(name -> {
+        throw new IllegalStateException("failed to delete " + name);
+      });
+      fail("expected IllegalStateException");
+    } catch (IllegalStateException expected) {
+    }
+    assertTrue(new File(directory, DeletionSweeper.SWEPT_NAMES_FILE).exists());
+
+    sweeper.markSeen("a");
+    assertEquals(2, sweeper.sweep(this::delete));
+    assertEquals(Arrays.asList("b", "c"), deleted);
+    assertNotNull(metadataStore.get("a"));
+    assertFalse(new File(directory, DeletionSweeper.SWEPT_NAMES_FILE).exists());
+    sweeper.close();
+  }
+
+  private void index(DeletionSweeper sweeper, String... names) throws IOException {
+    for (String name : names) {
+      metadataStore.put(name, new MetadataStore.Entry(1, 2, 3, 4));
+      sweeper.onIndexed(name);
+    }
+  }
+
+  private void delete(String name) {
+    deleted.add(name);
+    metadataStore.remove(name);
+  }
+
+  private static long metric(String name) {
+    return Metrics.snapshot().get(name);
+  }
+}
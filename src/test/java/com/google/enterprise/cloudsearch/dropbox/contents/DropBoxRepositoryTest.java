@@ -0,0 +1,148 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.contents;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.dropbox.core.DbxException;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.google.api.services.cloudsearch.v1.model.Item;
+import com.google.api.services.cloudsearch.v1.model.ItemAcl;
+import com.google.api.services.cloudsearch.v1.model.Principal;
+import com.google.api.services.cloudsearch.v1.model.PushItem;
+import com.google.enterprise.cloudsearch.dropbox.client.MemberClient;
+import com.google.enterprise.cloudsearch.dropbox.model.DropBoxObject;
+import com.google.enterprise.cloudsearch.dropbox.model.SharingInfo;
+import com.google.enterprise.cloudsearch.sdk.indexing.Acl;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import org.junit.Test;
+
+public class DropBoxRepositoryTest {
+  private static final String PARENT = "https://www.dropbox.com/home/folder?role=personal";
+
+  private final MemberClient memberClient = mock(MemberClient.class);
+
+  @Test
+  public void testFileWithoutExplicitSharingInheritsOnly() throws Exception {
+    DropBoxObject file = createFile(false);
+    SharingInfo sharingInfo = DropBoxRepository.getOwnSharingInfo(memberClient, "item", file);
+
+    assertNull(sharingInfo);
+    verify(memberClient, never()).getFileSharingInfo(any());
+    ItemAcl acl = applyAcl(file, sharingInfo);
+    assertEquals(PARENT, acl.getInheritAclFrom());
+    assertEquals(Acl.InheritanceType.CHILD_OVERRIDE.name(), acl.getAclInheritanceType());
+    assertTrue(acl.getReaders() == null || acl.getReaders().isEmpty());
+    assertEquals(Collections.singletonList("inherit:" + PARENT),
+        DropBoxRepository.describeAcl(file, sharingInfo));
+  }
+
+  @Test
+  public void testFileWithUnknownSharingInheritsOnly() throws Exception {
+    DropBoxObject file = createFile(null);
+    SharingInfo sharingInfo = DropBoxRepository.getOwnSharingInfo(memberClient, "item", file);
+
+    assertNull(sharingInfo);
+    verify(memberClient, never()).getFileSharingInfo(any());
+    assertEquals(PARENT, applyAcl(file, sharingInfo).getInheritAclFrom());
+  }
+
+  @Test
+  public void testFileWithExplicitSharingAddsOwnReaders() throws Exception {
+    DropBoxObject file = createFile(true);
+    SharingInfo shared =
+        new SharingInfo.Builder(Arrays.asList("dbmid:1"), Arrays.asList("group")).build();
+    when(memberClient.getFileSharingInfo("/folder/file.txt")).thenReturn(shared);
+    SharingInfo sharingInfo = DropBoxRepository.getOwnSharingInfo(memberClient, "item", file);
+
+    assertSame(shared, sharingInfo);
+    ItemAcl acl = applyAcl(file, sharingInfo);
+    assertEquals(PARENT, acl.getInheritAclFrom());
+    assertEquals(Acl.InheritanceType.CHILD_OVERRIDE.name(), acl.getAclInheritanceType());
+    List<Principal> readers = acl.getReaders();
+    assertEquals(2, readers.size());
+    assertEquals(Acl.getUserPrincipal("dbmid:1").getUserResourceName(),
+        readers.get(0).getUserResourceName());
+    assertEquals(Acl.getGroupPrincipal("group").getGroupResourceName(),
+        readers.get(1).getGroupResourceName());
+    assertEquals(Arrays.asList("inherit:" + PARENT, "user:dbmid:1", "group:group"),
+        DropBoxRepository.describeAcl(file, sharingInfo));
+  }
+
+  @Test
+  public void testFailedSharingLookupThrowsIOException() throws Exception {
+    DropBoxObject file = createFile(true);
+    DbxException cause = new DbxException("failed");
+    when(memberClient.getFileSharingInfo("/folder/file.txt")).thenThrow(cause);
+    try {
+      DropBoxRepository.getOwnSharingInfo(memberClient, "item", file);
+      fail("expected IOException");
+    } catch (IOException e) {
+      assertSame(cause, e.getCause());
+    }
+  }
+
+  @Test
+  public void testGroupsOfNamedTeamScopedToTeam() {
+    DropBoxObject file = createFile("sales", true);
+    SharingInfo sharingInfo =
+        new SharingInfo.Builder(Arrays.asList("dbmid:1"), Arrays.asList("group")).build();
+    assertEquals(Arrays.asList("inherit:" + PARENT, "user:dbmid:1", "group:group#sales"),
+        DropBoxRepository.describeAcl(file, sharingInfo));
+  }
+
+  @Test
+  public void testGivenUpItemPushedBackWithPayload() {
+    byte[] payload = "{\"objectType\":\"file\"}".getBytes(StandardCharsets.UTF_8);
+    PushItem pushItem = DropBoxRepository.createGivenUpPushItem(payload);
+    assertEquals("MODIFIED", pushItem.getType());
+    assertArrayEquals(payload, pushItem.decodePayload());
+  }
+
+  private static ItemAcl applyAcl(DropBoxObject file, SharingInfo sharingInfo) {
+    return DropBoxRepository.createInheritedAcl(file, sharingInfo).applyTo(new Item()).getAcl();
+  }
+
+  private static DropBoxObject createFile(Boolean hasExplicitSharedMembers) {
+    return createFile("", hasExplicitSharedMembers);
+  }
+
+  private static DropBoxObject createFile(String team, Boolean hasExplicitSharedMembers) {
+    Date now = new Date();
+    FileMetadata metadata =
+        FileMetadata.newBuilder("file.txt", "id:1", now, now, "015f9a5b3c4d0000000000001", 10)
+            .withPathDisplay("/folder/file.txt")
+            .withHasExplicitSharedMembers(hasExplicitSharedMembers)
+            .build();
+    return DropBoxRepository.createDropBoxObject(
+        team, "dbmid:0", "member", PARENT, metadata);
+  }
+}
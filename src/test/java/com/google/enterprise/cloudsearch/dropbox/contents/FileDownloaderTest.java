@@ -0,0 +1,341 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.contents;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.dropbox.core.DbxDownloader;
+import com.dropbox.core.ServerException;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.google.common.io.ByteStreams;
+import com.google.enterprise.cloudsearch.dropbox.client.MemberClient;
+import com.google.enterprise.cloudsearch.dropbox.model.DropBoxObject;
+import com.google.enterprise.cloudsearch.dropbox.util.BandwidthLimiter;
+import com.google.enterprise.cloudsearch.dropbox.util.BufferPool;
+import com.google.enterprise.cloudsearch.dropbox.util.ContentHasher;
+import com.google.enterprise.cloudsearch.dropbox.util.MemoryBudget;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileDownloaderTest {
+  private static final String PATH = "/folder/file.bin";
+  private static final String LISTED_REV = "0123456789a";
+  private static final String RESPONSE_REV = "abcdef01234";
+  private static final Date SERVER_MODIFIED = new Date(1000);
+  private static final int SPOOL_THRESHOLD_BYTES = 4 * 1024;
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final MemoryBudget budget = new MemoryBudget(16 * 1024);
+  private final MemberClient memberClient = mock(MemberClient.class);
+  private FileDownloader downloader;
+
+  @After
+  public void tearDown() {
+    if (downloader != null) {
+      downloader.close();
+    }
+  }
+
+  @Test
+  public void testDownloadInMemory() throws Exception {
+    byte[] content = content(1000);
+    downloader = newDownloader(0, 0);
+    when(memberClient.download(PATH)).thenReturn(response(content, 0, content.length));
+
+    DownloadedContent downloaded = downloader.download(memberClient, file(content.length, ""));
+
+    assertFalse(downloaded.isSpooled());
+    assertArrayEquals(content, read(downloaded));
+    assertEquals(1024, budget.getReservedBytes());
+    downloaded.release();
+    assertEquals(0, budget.getReservedBytes());
+  }
+
+  @Test
+  public void testDownloadLegacyPayloadWithoutSize() throws Exception {
+    byte[] content = content(3000);
+    downloader = newDownloader(0, 0);
+    when(memberClient.download(PATH)).thenReturn(response(content, 0, content.length));
+
+    // payloads pushed before the size was recorded declare 0
+    DownloadedContent downloaded = downloader.download(memberClient, file(0, ""));
+
+    assertArrayEquals(content, read(downloaded));
+    assertEquals(3 * 1024, budget.getReservedBytes());
+    downloaded.release();
+    assertEquals(0, budget.getReservedBytes());
+  }
+
+  @Test
+  public void testSpooledDownloadResumedAtRevisionOfFirstResponse() throws Exception {
+    byte[] content = content(3 * SPOOL_THRESHOLD_BYTES);
+    downloader = newDownloader(0, 2);
+    when(memberClient.download(PATH)).thenReturn(failingResponse(content, 0, 5000));
+    when(memberClient.download(PATH, RESPONSE_REV, 5000))
+        .thenReturn(failingResponse(content, 5000, 9000));
+    when(memberClient.download(PATH, RESPONSE_REV, 9000))
+        .thenReturn(response(content, 9000, content.length));
+
+    DownloadedContent downloaded = downloader.download(memberClient, file(content.length, ""));
+
+    assertTrue(downloaded.isSpooled());
+    assertArrayEquals(content, read(downloaded));
+    verify(memberClient, never()).download(eq(PATH), eq(LISTED_REV), anyLong());
+    downloaded.release();
+    assertEquals(0, spoolFiles().length);
+  }
+
+  @Test
+  public void testSpooledDownloadFailsAfterMaxResumes() throws Exception {
+    byte[] content = content(3 * SPOOL_THRESHOLD_BYTES);
+    downloader = newDownloader(0, 1);
+    when(memberClient.download(PATH)).thenReturn(failingResponse(content, 0, 5000));
+    when(memberClient.download(PATH, RESPONSE_REV, 5000))
+        .thenReturn(failingResponse(content, 5000, 9000));
+
+    try {
+      downloader.download(memberClient, file(content.length, ""));
+      fail("expected IOException");
+    } catch (IOException e) {
+      assertEquals("connection reset", e.getMessage());
+    }
+    verify(memberClient, never()).download(PATH, RESPONSE_REV, 9000);
+    assertEquals(0, spoolFiles().length);
+    assertEquals(0, budget.getReservedBytes());
+  }
+
+  @Test
+  public void testParallelDownloadAssemblesRangesInOrder() throws Exception {
+    byte[] content = content(10000);
+    downloader = newDownloader(SPOOL_THRESHOLD_BYTES + 1, 0);
+    stubRanges(content);
+
+    DownloadedContent downloaded = downloader.download(memberClient,
+        file(content.length, ContentHasher.hash(content)));
+
+    assertTrue(downloaded.isSpooled());
+    assertArrayEquals(content, read(downloaded));
+    verify(memberClient, never()).download(PATH);
+    downloaded.release();
+    assertEquals(0, spoolFiles().length);
+  }
+
+  @Test
+  public void testParallelDownloadRejectsHashMismatch() throws Exception {
+    byte[] content = content(10000);
+    downloader = newDownloader(SPOOL_THRESHOLD_BYTES + 1, 0);
+    stubRanges(content);
+    byte[] otherContent = content.clone();
+    otherContent[0]++;
+
+    try {
+      downloader.download(memberClient, file(content.length, ContentHasher.hash(otherContent)));
+      fail("expected IOException");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().startsWith("Content hash mismatch of " + PATH));
+    }
+    assertEquals(0, spoolFiles().length);
+  }
+
+  @Test
+  public void testBudgetReleasedWhenRequestFails() throws Exception {
+    downloader = newDownloader(0, 0);
+    when(memberClient.download(PATH)).thenThrow(new ServerException("request", "unavailable"));
+
+    try {
+      downloader.download(memberClient, file(1000, ""));
+      fail("expected IOException");
+    } catch (IOException e) {
+      assertTrue(e.getCause() instanceof ServerException);
+    }
+    assertEquals(0, budget.getReservedBytes());
+  }
+
+  @Test
+  public void testBudgetReleasedWhenReadingFails() throws Exception {
+    byte[] content = content(1000);
+    downloader = newDownloader(0, 0);
+    when(memberClient.download(PATH)).thenReturn(failingResponse(content, 0, 500));
+
+    try {
+      downloader.download(memberClient, file(content.length, ""));
+      fail("expected IOException");
+    } catch (IOException e) {
+      assertEquals("connection reset", e.getMessage());
+    }
+    assertEquals(0, budget.getReservedBytes());
+  }
+
+  @Test
+  public void testBudgetReleasedWhenSpoolingUndeclaredSizeFails() throws Exception {
+    byte[] content = content(3 * SPOOL_THRESHOLD_BYTES);
+    downloader = newDownloader(0, 0);
+    when(memberClient.download(PATH)).thenReturn(failingResponse(content, 0, 5000));
+
+    // the declared size is reserved, and released once the response turns out to be spooled
+    try {
+      downloader.download(memberClient, file(1000, ""));
+      fail("expected IOException");
+    } catch (IOException e) {
+      assertEquals("connection reset", e.getMessage());
+    }
+    assertEquals(0, budget.getReservedBytes());
+    assertEquals(0, spoolFiles().length);
+  }
+
+  @Test
+  public void testDownloadIfBudgetAvailableSkipsWithoutBudget() throws Exception {
+    byte[] content = content(1000);
+    downloader = newDownloader(0, 0);
+    MemoryBudget.Reservation held = budget.reserve(budget.getCapacityBytes());
+
+    assertNull(downloader.downloadIfBudgetAvailable(memberClient, file(content.length, "")));
+    verify(memberClient, never()).download(anyString());
+    held.release();
+    assertEquals(0, budget.getReservedBytes());
+  }
+
+  @Test
+  public void testDownloadIfBudgetAvailableSkipsLegacyPayloadBeyondBudget() throws Exception {
+    byte[] content = content(SPOOL_THRESHOLD_BYTES);
+    downloader = newDownloader(0, 0);
+    when(memberClient.download(PATH)).thenReturn(response(content, 0, content.length));
+    MemoryBudget.Reservation held = budget.reserve(budget.getCapacityBytes() - 1024);
+
+    assertNull(downloader.downloadIfBudgetAvailable(memberClient, file(0, "")));
+    assertEquals(budget.getCapacityBytes() - 1024, budget.getReservedBytes());
+    held.release();
+    assertEquals(0, budget.getReservedBytes());
+  }
+
+  private FileDownloader newDownloader(long parallelThresholdBytes, int maxResumes) {
+    return new FileDownloader(budget, SPOOL_THRESHOLD_BYTES, temporaryFolder.getRoot(), 0,
+        maxResumes, new BandwidthLimiter(0, Collections.emptyList()), null,
+        parallelThresholdBytes, 3, new BufferPool(1024, 4));
+  }
+
+  /** Serves each range of the content pinned to the listed revision. */
+  private void stubRanges(byte[] content) throws Exception {
+    long rangeBytes = (content.length + 2) / 3;
+    for (long offset = 0; offset < content.length; offset += rangeBytes) {
+      long length = Math.min(rangeBytes, content.length - offset);
+      int start = (int) offset;
+      int end = (int) (offset + length);
+      when(memberClient.download(PATH, LISTED_REV, offset, length))
+          .thenReturn(response(content, start, end));
+    }
+  }
+
+  private File[] spoolFiles() {
+    return temporaryFolder.getRoot().listFiles();
+  }
+
+  private static byte[] content(int size) {
+    byte[] content = new byte[size];
+    new Random(size).nextBytes(content);
+    return content;
+  }
+
+  private static byte[] read(DownloadedContent downloaded) throws IOException {
+    try (InputStream in = downloaded.openStream()) {
+      return ByteStreams.toByteArray(in);
+    }
+  }
+
+  private static DropBoxObject file(long size, String contentHash) {
+    return new DropBoxObject.Builder(DropBoxObject.FILE, "dbmid:downloader", "Downloader Member")
+        .setName("file.bin")
+        .setPathDisplay(PATH)
+        .setDownloadable(true)
+        .setServerModified(SERVER_MODIFIED)
+        .setSize(size)
+        .setRev(LISTED_REV)
+        .setContentHash(contentHash)
+        .build();
+  }
+
+  /** Response serving the content from {@code start} to {@code end}. */
+  private static DbxDownloader<FileMetadata> response(byte[] content, int start, int end) {
+    return new DbxDownloader<>(metadata(content),
+        new ByteArrayInputStream(Arrays.copyOfRange(content, start, end)),
+        "application/octet-stream");
+  }
+
+  /** Response serving the content from {@code start}, then failing at {@code failAt}. */
+  private static DbxDownloader<FileMetadata> failingResponse(byte[] content, int start,
+      int failAt) {
+    return new DbxDownloader<>(metadata(content),
+        new FailingStream(Arrays.copyOfRange(content, start, failAt)),
+        "application/octet-stream");
+  }
+
+  private static FileMetadata metadata(byte[] content) {
+    return FileMetadata.newBuilder("file.bin", "id:file", SERVER_MODIFIED, SERVER_MODIFIED,
+        RESPONSE_REV, content.length)
+        .withPathDisplay(PATH)
+        .build();
+  }
+
+  /** Stream whose connection is reset once its bytes have been read. */
+  private static final class FailingStream extends InputStream {
+    private final ByteArrayInputStream bytes;
+
+    FailingStream(byte[] bytes) {
+      this.bytes = new ByteArrayInputStream(bytes);
+    }
+
+    @Override
+    public int read() throws IOException {
+      return checkRead(bytes.read());
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      return checkRead(bytes.read(buffer, offset, length));
+    }
+
+    private static int checkRead(int read) throws IOException {
+      if (read < 0) {
+        throw new IOException("connection reset");
+      }
+      return read;
+    }
+  }
+}
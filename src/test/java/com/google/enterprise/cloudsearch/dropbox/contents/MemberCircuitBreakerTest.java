@@ -0,0 +1,146 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.contents;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.dropbox.core.BadResponseCodeException;
+import com.dropbox.core.InvalidAccessTokenException;
+import com.dropbox.core.NetworkIOException;
+import com.dropbox.core.RateLimitException;
+import com.dropbox.core.ServerException;
+import com.dropbox.core.v2.auth.AuthError;
+import com.google.enterprise.cloudsearch.dropbox.util.Metrics;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class MemberCircuitBreakerTest {
+  private static final long OPEN_SECS = 60;
+  private static final IOException MEMBER_FAILURE = new IOException(
+      new InvalidAccessTokenException("request", "suspended", AuthError.USER_SUSPENDED));
+
+  private final AtomicLong clock = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+
+  @Test
+  public void testOpensAfterConsecutiveFailures() {
+    MemberCircuitBreaker breaker = new MemberCircuitBreaker(3, OPEN_SECS, clock::get);
+    breaker.onFailure("failing", MEMBER_FAILURE);
+    breaker.onFailure("failing", MEMBER_FAILURE);
+    assertTrue(breaker.allows("failing"));
+    assertEquals(0L, gauge("breaker.openMembers"));
+    assertEquals(1L, gauge("breaker.failingMembers"));
+
+    breaker.onFailure("failing", MEMBER_FAILURE);
+    assertFalse(breaker.allows("failing"));
+    assertTrue(breaker.allows("healthy"));
+    assertEquals(1L, gauge("breaker.openMembers"));
+  }
+
+  @Test
+  public void testSuccessResetsFailures() {
+    MemberCircuitBreaker breaker = new MemberCircuitBreaker(2, OPEN_SECS, clock::get);
+    breaker.onFailure("recovering", MEMBER_FAILURE);
+    breaker.onSuccess("recovering");
+    breaker.onFailure("recovering", MEMBER_FAILURE);
+    assertTrue(breaker.allows("recovering"));
+    assertEquals(1L, gauge("breaker.failingMembers"));
+    breaker.onSuccess("recovering");
+    assertEquals(0L, gauge("breaker.failingMembers"));
+  }
+
+  @Test
+  public void testItemFailuresIgnored() {
+    MemberCircuitBreaker breaker = new MemberCircuitBreaker(1, OPEN_SECS, clock::get);
+    breaker.onFailure("itemFailing", new FileNotFoundException("missing"));
+    breaker.onFailure("itemFailing",
+        new IOException(new BadResponseCodeException("request", "conflict", 409)));
+    breaker.onFailure("itemFailing", new IOException(new NetworkIOException(new IOException())));
+    assertTrue(breaker.allows("itemFailing"));
+  }
+
+  @Test
+  public void testHalfOpenLetsSingleProbeThrough() {
+    MemberCircuitBreaker breaker = new MemberCircuitBreaker(1, OPEN_SECS, clock::get);
+    breaker.onFailure("probed", MEMBER_FAILURE);
+    clock.addAndGet(TimeUnit.SECONDS.toNanos(OPEN_SECS - 1));
+    assertFalse(breaker.allows("probed"));
+
+    clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    assertTrue(breaker.allows("probed"));
+    assertEquals(1L, gauge("breaker.probingMembers"));
+    assertEquals(0L, gauge("breaker.openMembers"));
+    assertFalse(breaker.allows("probed"));
+
+    // a probe whose outcome is never recorded is replaced after the open time
+    clock.addAndGet(TimeUnit.SECONDS.toNanos(OPEN_SECS));
+    assertTrue(breaker.allows("probed"));
+
+    breaker.onSuccess("probed");
+    assertEquals(0L, gauge("breaker.probingMembers"));
+    assertTrue(breaker.allows("probed"));
+    assertTrue(breaker.allows("probed"));
+  }
+
+  @Test
+  public void testFailedProbeDoublesOpenTime() {
+    MemberCircuitBreaker breaker = new MemberCircuitBreaker(1, OPEN_SECS, clock::get);
+    breaker.onFailure("backingOff", MEMBER_FAILURE);
+    long openSecs = OPEN_SECS;
+    for (int factor = 2; factor <= 32; factor *= 2) {
+      clock.addAndGet(TimeUnit.SECONDS.toNanos(openSecs));
+      assertTrue(breaker.allows("backingOff"));
+      breaker.onFailure("backingOff", MEMBER_FAILURE);
+      assertEquals(1L, gauge("breaker.openMembers"));
+
+      openSecs = OPEN_SECS * Math.min(factor, 16);
+      clock.addAndGet(TimeUnit.SECONDS.toNanos(openSecs - 1));
+      assertFalse(breaker.allows("backingOff"));
+      clock.addAndGet(-TimeUnit.SECONDS.toNanos(openSecs - 1));
+    }
+  }
+
+  @Test
+  public void testNeverOpensWithoutThreshold() {
+    MemberCircuitBreaker breaker = new MemberCircuitBreaker(0, OPEN_SECS, clock::get);
+    for (int i = 0; i < 100; i++) {
+      breaker.onFailure("disabled", MEMBER_FAILURE);
+    }
+    assertTrue(breaker.allows("disabled"));
+  }
+
+  @Test
+  public void testIsMemberFailure() {
+    assertTrue(MemberCircuitBreaker.isMemberFailure(MEMBER_FAILURE));
+    assertTrue(MemberCircuitBreaker.isMemberFailure(
+        new IOException(new RateLimitException("request", "too many", 1, TimeUnit.SECONDS))));
+    assertTrue(MemberCircuitBreaker.isMemberFailure(
+        new IOException(new ServerException("request", "internal"))));
+    assertTrue(MemberCircuitBreaker.isMemberFailure(
+        new IOException(new BadResponseCodeException("request", "bad gateway", 502))));
+    assertFalse(MemberCircuitBreaker.isMemberFailure(
+        new IOException(new BadResponseCodeException("request", "not found", 404))));
+    assertFalse(MemberCircuitBreaker.isMemberFailure(new IOException("content hash mismatch")));
+  }
+
+  private static long gauge(String name) {
+    return Metrics.snapshot().get(name);
+  }
+}
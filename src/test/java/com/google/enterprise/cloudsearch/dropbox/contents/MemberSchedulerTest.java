@@ -0,0 +1,110 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.contents;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.google.enterprise.cloudsearch.dropbox.util.Metrics;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class MemberSchedulerTest {
+  private final AtomicLong clock = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+
+  @Test
+  public void testTryStartLimitsConcurrentItems() {
+    MemberScheduler scheduler = new MemberScheduler(2, 0, clock::get);
+    long processedItems = gauge("fairness.processedItems");
+    long deferredItems = gauge("fairness.deferredItems");
+    MemberScheduler.Permit first = scheduler.tryStart("concurrent", false);
+    MemberScheduler.Permit second = scheduler.tryStart("concurrent", false);
+    assertNotNull(first);
+    assertNotNull(second);
+    assertNull(scheduler.tryStart("concurrent", false));
+    assertNotNull(scheduler.tryStart("concurrentOther", false));
+
+    first.close();
+    assertNotNull(scheduler.tryStart("concurrent", false));
+    assertEquals(processedItems + 1, gauge("fairness.processedItems"));
+    assertEquals(deferredItems + 1, gauge("fairness.deferredItems"));
+    assertEquals(3L, gauge("fairness.activeItems"));
+  }
+
+  @Test
+  public void testTryStartDefersFolderBeyondBacklog() {
+    MemberScheduler scheduler = new MemberScheduler(0, 2, clock::get);
+    scheduler.tryStart("largeMember", true).close();
+    scheduler.onChildrenPushed("largeMember", 3);
+    scheduler.tryStart("smallMember", false).close();
+
+    assertNull(scheduler.tryStart("largeMember", true));
+    assertNotNull(scheduler.tryStart("largeMember", false));
+    assertEquals(3L, gauge("fairness.backlogItems"));
+    assertEquals(1L, gauge("fairness.membersOverBacklog"));
+  }
+
+  @Test
+  public void testTryStartDoesNotDeferWithoutOtherActiveMember() {
+    MemberScheduler scheduler = new MemberScheduler(0, 2, clock::get);
+    scheduler.onChildrenPushed("aloneMember", 3);
+    scheduler.tryStart("idleMember", false).close();
+    clock.addAndGet(TimeUnit.MINUTES.toNanos(2));
+
+    assertNotNull(scheduler.tryStart("aloneMember", true));
+  }
+
+  @Test
+  public void testProcessedItemsReduceBacklog() {
+    MemberScheduler scheduler = new MemberScheduler(0, 2, clock::get);
+    scheduler.onChildrenPushed("drainedMember", 3);
+    scheduler.tryStart("busyMember", false).close();
+    scheduler.tryStart("drainedMember", false).close();
+    assertEquals(2L, gauge("fairness.backlogItems"));
+
+    MemberScheduler.Permit permit = scheduler.tryStart("drainedMember", true);
+    assertNotNull(permit);
+    permit.close();
+    assertEquals(1L, gauge("fairness.backlogItems"));
+  }
+
+  @Test
+  public void testBacklogExpires() {
+    MemberScheduler scheduler = new MemberScheduler(0, 2, clock::get);
+    scheduler.onChildrenPushed("expiredMember", 5);
+    clock.addAndGet(MemberScheduler.BACKLOG_EXPIRY_NANOS / 2);
+    scheduler.onChildrenPushed("expiredMember", 4);
+    scheduler.tryStart("activeMember", false).close();
+    assertNull(scheduler.tryStart("expiredMember", true));
+    assertEquals(9L, gauge("fairness.backlogItems"));
+
+    clock.addAndGet(MemberScheduler.BACKLOG_EXPIRY_NANOS / 2);
+    scheduler.tryStart("activeMember", false).close();
+    assertEquals(4L, gauge("fairness.backlogItems"));
+    assertNull(scheduler.tryStart("expiredMember", true));
+
+    clock.addAndGet(MemberScheduler.BACKLOG_EXPIRY_NANOS / 2);
+    scheduler.tryStart("activeMember", false).close();
+    assertNotNull(scheduler.tryStart("expiredMember", true));
+    assertEquals(0L, gauge("fairness.backlogItems"));
+  }
+
+  private static long gauge(String name) {
+    return Metrics.snapshot().get(name);
+  }
+}
@@ -16,6 +16,8 @@
 package com.google.enterprise.cloudsearch.dropbox.model;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import com.google.enterprise.cloudsearch.sdk.InvalidConfigurationException;
 import com.google.enterprise.cloudsearch.sdk.config.Configuration.ResetConfigRule;
@@ -56,17 +58,576 @@ public class DropBoxConfigurationTest {
     DropBoxConfiguration configuration = DropBoxConfiguration.fromConfiguration();
     assertEquals("path/to/file", configuration.getCredentialFile());
     assertEquals(Collections.emptyList(), configuration.getTeamMemberIds());
+    assertEquals(1, configuration.getTeams().size());
+    assertEquals("", configuration.getTeams().get(0).getName());
+    assertEquals("path/to/file", configuration.getTeams().get(0).getCredentialFile());
+    assertEquals(Collections.emptyList(), configuration.getTeams().get(0).getTeamMemberIds());
+    assertEquals(Collections.emptyList(), configuration.getLongPollTeamMemberIds());
+    assertEquals(4, configuration.getLongPollMaxConcurrent());
+    assertEquals(30, configuration.getLongPollTimeoutSecs());
+    assertFalse(configuration.isExtractionEnabled());
+    assertEquals(1024 * 1024, configuration.getExtractionMaxTextLength());
+    assertEquals(Runtime.getRuntime().availableProcessors(),
+        configuration.getExtractionThreads());
+    assertEquals(60, configuration.getExtractionTimeoutSecs());
+    assertEquals(System.getProperty("java.io.tmpdir"), configuration.getContentSpoolDirectory());
+    assertFalse(configuration.isPrefetchEnabled());
+    assertEquals(4, configuration.getPrefetchThreads());
+    assertEquals(300, configuration.getPrefetchTtlSecs());
+    assertEquals("", configuration.getMetadataStoreDirectory());
+    assertEquals(0, configuration.getFairnessMaxConcurrentPerMember());
+    assertEquals(10000, configuration.getFairnessMaxBacklogPerMember());
+    assertEquals(0, configuration.getRequestsPerSecond());
+    assertEquals(256, configuration.getRequestsMaxInFlight());
+    assertEquals(20, configuration.getTimeoutsConnectSecs());
+    assertEquals(20, configuration.getTimeoutsMetadataReadSecs());
+    assertEquals(0, configuration.getTimeoutsMetadataTotalSecs());
+    assertEquals(20, configuration.getTimeoutsDownloadReadSecs());
+    assertEquals(0, configuration.getTimeoutsDownloadTotalSecs());
+    assertFalse(configuration.isHedgingEnabled());
+    assertEquals(3, configuration.getContentDownloadResumes());
+    assertEquals(8, configuration.getEstimateThreads());
+    assertEquals("dropbox-estimate.txt", configuration.getEstimateReportFile());
+    assertEquals(0, configuration.getBandwidthKbPerSecond());
+    assertTrue(configuration.getBandwidthProfiles().isEmpty());
+    assertTrue(configuration.getPathFilter().accepts("/a/node_modules", true));
+    assertEquals(10, configuration.getBreakerFailureThreshold());
+    assertEquals(60, configuration.getBreakerOpenSecs());
+    assertEquals("", configuration.getRetryJournalDirectory());
+    assertEquals(5, configuration.getRetryMaxAttempts());
+    assertEquals(60, configuration.getRetryInitialDelaySecs());
+    assertEquals("", configuration.getContentCacheDirectory());
+    assertEquals(10240L * 1024 * 1024, configuration.getContentCacheMaxBytes());
+    assertEquals(0, configuration.getContentParallelThresholdBytes());
+    assertEquals(4, configuration.getContentParallelChunks());
+    assertEquals(256, configuration.getContentBufferPoolSize());
+    assertFalse(configuration.isDeletionSweepEnabled());
+    assertEquals(10, configuration.getDeletionSweepMaxDeletePercent());
+    assertFalse(configuration.isChangesEnabled());
+    assertEquals(60, configuration.getChangesHotIntervalSecs());
+    assertEquals(900, configuration.getChangesWarmIntervalSecs());
+    assertEquals(3600, configuration.getChangesColdIntervalSecs());
+    assertEquals(10, configuration.getChangesHotMinChanges());
+    assertEquals(4, configuration.getChangesThreads());
   }
 
   @Test
   public void testFromConfigurationWithNonDefaults() throws Exception {
     Properties baseConfiguration = getBaseConfiguration();
     baseConfiguration.put("dropbox.teamMemberIds", "dbmid:ABCDEFGHIJKLMNOPQRSTUVWXYZ123456789");
+    baseConfiguration.put("dropbox.longPoll.teamMemberIds",
+        "dbmid:ABCDEFGHIJKLMNOPQRSTUVWXYZ123456789");
+    baseConfiguration.put("dropbox.longPoll.maxConcurrent", "2");
+    baseConfiguration.put("dropbox.longPoll.timeoutSecs", "480");
+    baseConfiguration.put("dropbox.extraction.enabled", "true");
+    baseConfiguration.put("dropbox.extraction.maxTextLength", "1000");
+    baseConfiguration.put("dropbox.extraction.threads", "3");
+    baseConfiguration.put("dropbox.extraction.timeoutSecs", "10");
+    baseConfiguration.put("dropbox.content.memoryBudgetMb", "512");
+    baseConfiguration.put("dropbox.content.spoolThresholdMb", "64");
+    baseConfiguration.put("dropbox.content.spoolDirectory", "path/to/spool");
+    baseConfiguration.put("dropbox.prefetch.enabled", "true");
+    baseConfiguration.put("dropbox.prefetch.threads", "8");
+    baseConfiguration.put("dropbox.prefetch.maxFileSizeKb", "256");
+    baseConfiguration.put("dropbox.prefetch.cacheMb", "128");
+    baseConfiguration.put("dropbox.prefetch.ttlSecs", "60");
+    baseConfiguration.put("dropbox.metadataStore.directory", "path/to/store");
+    baseConfiguration.put("dropbox.fairness.maxConcurrentPerMember", "2");
+    baseConfiguration.put("dropbox.fairness.maxBacklogPerMember", "0");
+    baseConfiguration.put("dropbox.requests.perSecond", "100");
+    baseConfiguration.put("dropbox.requests.maxInFlight", "0");
+    baseConfiguration.put("dropbox.timeouts.connectSecs", "5");
+    baseConfiguration.put("dropbox.timeouts.metadataReadSecs", "10");
+    baseConfiguration.put("dropbox.timeouts.metadataTotalSecs", "30");
+    baseConfiguration.put("dropbox.timeouts.downloadReadSecs", "60");
+    baseConfiguration.put("dropbox.timeouts.downloadTotalSecs", "600");
+    baseConfiguration.put("dropbox.hedging.enabled", "true");
+    baseConfiguration.put("dropbox.content.downloadResumes", "0");
+    baseConfiguration.put("dropbox.estimate.threads", "2");
+    baseConfiguration.put("dropbox.estimate.reportFile", "path/to/report.txt");
+    baseConfiguration.put("dropbox.bandwidth.kbPerSecond", "2048");
+    baseConfiguration.put("dropbox.bandwidth.profiles", "09:00-18:00=512,22:00-06:00=0");
+    baseConfiguration.put("dropbox.paths.include", "*.pdf");
+    baseConfiguration.put("dropbox.paths.exclude", "node_modules,regex:/\\.git$");
+    baseConfiguration.put("dropbox.breaker.failureThreshold", "0");
+    baseConfiguration.put("dropbox.breaker.openSecs", "300");
+    baseConfiguration.put("dropbox.retry.journalDirectory", "retry");
+    baseConfiguration.put("dropbox.retry.maxAttempts", "8");
+    baseConfiguration.put("dropbox.retry.initialDelaySecs", "30");
+    baseConfiguration.put("dropbox.contentCache.directory", "cache");
+    baseConfiguration.put("dropbox.contentCache.maxMb", "512");
+    baseConfiguration.put("dropbox.content.parallelThresholdMb", "256");
+    baseConfiguration.put("dropbox.content.parallelChunks", "8");
+    baseConfiguration.put("dropbox.content.bufferPoolSize", "0");
+    baseConfiguration.put("dropbox.deletionSweep.enabled", "true");
+    baseConfiguration.put("dropbox.deletionSweep.maxDeletePercent", "50");
+    baseConfiguration.put("dropbox.changes.enabled", "true");
+    baseConfiguration.put("dropbox.changes.hotIntervalSecs", "30");
+    baseConfiguration.put("dropbox.changes.warmIntervalSecs", "600");
+    baseConfiguration.put("dropbox.changes.coldIntervalSecs", "7200");
+    baseConfiguration.put("dropbox.changes.hotMinChanges", "20");
+    baseConfiguration.put("dropbox.changes.threads", "8");
     setupConfig.initConfig(baseConfiguration);
     DropBoxConfiguration configuration = DropBoxConfiguration.fromConfiguration();
     assertEquals("path/to/file", configuration.getCredentialFile());
     assertEquals(Arrays.asList("dbmid:ABCDEFGHIJKLMNOPQRSTUVWXYZ123456789"),
         configuration.getTeamMemberIds());
+    assertEquals(Arrays.asList("dbmid:ABCDEFGHIJKLMNOPQRSTUVWXYZ123456789"),
+        configuration.getLongPollTeamMemberIds());
+    assertEquals(2, configuration.getLongPollMaxConcurrent());
+    assertEquals(480, configuration.getLongPollTimeoutSecs());
+    assertTrue(configuration.isExtractionEnabled());
+    assertEquals(1000, configuration.getExtractionMaxTextLength());
+    assertEquals(3, configuration.getExtractionThreads());
+    assertEquals(10, configuration.getExtractionTimeoutSecs());
+    assertEquals(512L * 1024 * 1024, configuration.getContentMemoryBudgetBytes());
+    assertEquals(64L * 1024 * 1024, configuration.getContentSpoolThresholdBytes());
+    assertEquals("path/to/spool", configuration.getContentSpoolDirectory());
+    assertTrue(configuration.isPrefetchEnabled());
+    assertEquals(8, configuration.getPrefetchThreads());
+    assertEquals(256L * 1024, configuration.getPrefetchMaxFileSizeBytes());
+    assertEquals(128L * 1024 * 1024, configuration.getPrefetchCacheBytes());
+    assertEquals(60, configuration.getPrefetchTtlSecs());
+    assertEquals("path/to/store", configuration.getMetadataStoreDirectory());
+    assertEquals(2, configuration.getFairnessMaxConcurrentPerMember());
+    assertEquals(0, configuration.getFairnessMaxBacklogPerMember());
+    assertEquals(100, configuration.getRequestsPerSecond());
+    assertEquals(0, configuration.getRequestsMaxInFlight());
+    assertEquals(5, configuration.getTimeoutsConnectSecs());
+    assertEquals(10, configuration.getTimeoutsMetadataReadSecs());
+    assertEquals(30, configuration.getTimeoutsMetadataTotalSecs());
+    assertEquals(60, configuration.getTimeoutsDownloadReadSecs());
+    assertEquals(600, configuration.getTimeoutsDownloadTotalSecs());
+    assertTrue(configuration.isHedgingEnabled());
+    assertEquals(0, configuration.getContentDownloadResumes());
+    assertEquals(2, configuration.getEstimateThreads());
+    assertEquals("path/to/report.txt", configuration.getEstimateReportFile());
+    assertEquals(2048, configuration.getBandwidthKbPerSecond());
+    assertEquals(2, configuration.getBandwidthProfiles().size());
+    assertEquals(512 * 1024, configuration.getBandwidthProfiles().get(0).getBytesPerSecond());
+    assertEquals(0, configuration.getBandwidthProfiles().get(1).getBytesPerSecond());
+    assertFalse(configuration.getPathFilter().accepts("/a/node_modules", true));
+    assertFalse(configuration.getPathFilter().accepts("/a/.git", true));
+    assertTrue(configuration.getPathFilter().accepts("/a/b.pdf", false));
+    assertFalse(configuration.getPathFilter().accepts("/a/b.txt", false));
+    assertEquals(0, configuration.getBreakerFailureThreshold());
+    assertEquals(300, configuration.getBreakerOpenSecs());
+    assertEquals("retry", configuration.getRetryJournalDirectory());
+    assertEquals(8, configuration.getRetryMaxAttempts());
+    assertEquals(30, configuration.getRetryInitialDelaySecs());
+    assertEquals("cache", configuration.getContentCacheDirectory());
+    assertEquals(512L * 1024 * 1024, configuration.getContentCacheMaxBytes());
+    assertEquals(256L * 1024 * 1024, configuration.getContentParallelThresholdBytes());
+    assertEquals(8, configuration.getContentParallelChunks());
+    assertEquals(0, configuration.getContentBufferPoolSize());
+    assertTrue(configuration.isDeletionSweepEnabled());
+    assertEquals(50, configuration.getDeletionSweepMaxDeletePercent());
+    assertTrue(configuration.isChangesEnabled());
+    assertEquals(30, configuration.getChangesHotIntervalSecs());
+    assertEquals(600, configuration.getChangesWarmIntervalSecs());
+    assertEquals(7200, configuration.getChangesColdIntervalSecs());
+    assertEquals(20, configuration.getChangesHotMinChanges());
+    assertEquals(8, configuration.getChangesThreads());
+  }
+
+  @Test
+  public void testFromConfigurationInvalidChangesWarmIntervalSecs() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.changes.warmIntervalSecs", "30");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("changes.warmIntervalSecs must not be less than changes.hotIntervalSecs");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationInvalidChangesColdIntervalSecs() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.changes.coldIntervalSecs", "600");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("changes.coldIntervalSecs must not be less than changes.warmIntervalSecs");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationInvalidDeletionSweepMaxDeletePercent() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.deletionSweep.maxDeletePercent", "101");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("deletionSweep.maxDeletePercent must be between 1 and 100");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationInvalidDeletionSweepWithoutMetadataStore() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.deletionSweep.enabled", "true");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("deletionSweep.enabled requires metadataStore.directory");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationInvalidContentBufferPoolSize() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.content.bufferPoolSize", "-1");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("content.bufferPoolSize must not be negative");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationInvalidContentParallelChunks() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.content.parallelChunks", "1");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("content.parallelChunks must be greater than 1");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationWithTeams() {
+    Properties properties = new Properties();
+    properties.put("dropbox.teams", "main,subsidiary");
+    properties.put("dropbox.team.main.credentialFile", "path/to/main");
+    properties.put("dropbox.team.subsidiary.credentialFile", "path/to/subsidiary");
+    properties.put("dropbox.team.subsidiary.teamMemberIds", "dbmid:A,dbmid:B");
+    setupConfig.initConfig(properties);
+    DropBoxConfiguration configuration = DropBoxConfiguration.fromConfiguration();
+    assertEquals(2, configuration.getTeams().size());
+    TeamConfiguration main = configuration.getTeams().get(0);
+    assertEquals("main", main.getName());
+    assertEquals("path/to/main", main.getCredentialFile());
+    assertEquals(Collections.emptyList(), main.getTeamMemberIds());
+    TeamConfiguration subsidiary = configuration.getTeams().get(1);
+    assertEquals("subsidiary", subsidiary.getName());
+    assertEquals("path/to/subsidiary", subsidiary.getCredentialFile());
+    assertEquals(Arrays.asList("dbmid:A", "dbmid:B"), subsidiary.getTeamMemberIds());
+  }
+
+  @Test
+  public void testFromConfigurationInvalidTeamCredentialFile() {
+    Properties properties = new Properties();
+    properties.put("dropbox.teams", "main");
+    setupConfig.initConfig(properties);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("team.main.credentialFile can not be empty");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationInvalidTeams() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.teams", "main,main");
+    baseConfiguration.put("dropbox.team.main.credentialFile", "path/to/main");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("teams must not be duplicated: main");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationInvalidContentCacheMaxMb() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.contentCache.maxMb", "0");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("contentCache.maxMb must be greater than 0");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationInvalidRetryMaxAttempts() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.retry.maxAttempts", "0");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("retry.maxAttempts must be greater than 0");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationInvalidRetryInitialDelaySecs() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.retry.initialDelaySecs", "0");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("retry.initialDelaySecs must be greater than 0");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationInvalidBreakerFailureThreshold() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.breaker.failureThreshold", "-1");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("breaker.failureThreshold must not be negative");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationInvalidBreakerOpenSecs() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.breaker.openSecs", "0");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("breaker.openSecs must be greater than 0");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationInvalidPathsExclude() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.paths.exclude", "regex:[");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("Invalid path rule");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationInvalidBandwidthKbPerSecond() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.bandwidth.kbPerSecond", "-1");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("bandwidth.kbPerSecond must not be negative");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationInvalidBandwidthProfiles() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.bandwidth.profiles", "9:00-18:00");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("bandwidth profile must be HH:mm-HH:mm=kbPerSecond");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationInvalidEstimateThreads() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.estimate.threads", "0");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("estimate.threads must be greater than 0");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationInvalidContentDownloadResumes() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.content.downloadResumes", "-1");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("content.downloadResumes must not be negative");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationInvalidTimeoutsConnectSecs() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.timeouts.connectSecs", "0");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("timeouts.connectSecs must be greater than 0");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationInvalidTimeoutsMetadataTotalSecs() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.timeouts.metadataTotalSecs", "-1");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("timeouts.metadataTotalSecs must not be negative");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationInvalidRequestsPerSecond() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.requests.perSecond", "-1");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("requests.perSecond must not be negative");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationInvalidRequestsMaxInFlight() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.requests.maxInFlight", "-1");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("requests.maxInFlight must not be negative");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationInvalidFairnessMaxConcurrentPerMember() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.fairness.maxConcurrentPerMember", "-1");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("fairness.maxConcurrentPerMember must not be negative");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationInvalidFairnessMaxBacklogPerMember() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.fairness.maxBacklogPerMember", "-1");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("fairness.maxBacklogPerMember must not be negative");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationInvalidPrefetchThreads() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.prefetch.threads", "0");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("prefetch.threads must be greater than 0");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationPrefetchCacheAboveMemoryBudget() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.content.memoryBudgetMb", "32");
+    baseConfiguration.put("dropbox.prefetch.enabled", "true");
+    baseConfiguration.put("dropbox.prefetch.cacheMb", "64");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("prefetch.cacheMb must be between 1 and content.memoryBudgetMb minus");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationPrefetchCacheLeavingNoRoomForSpoolThreshold() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.content.memoryBudgetMb", "64");
+    baseConfiguration.put("dropbox.content.spoolThresholdMb", "16");
+    baseConfiguration.put("dropbox.prefetch.enabled", "true");
+    baseConfiguration.put("dropbox.prefetch.cacheMb", "64");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("prefetch.cacheMb must be between 1 and content.memoryBudgetMb minus");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationPrefetchCacheDefaultLeavesRoomForSpoolThreshold() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.content.memoryBudgetMb", "48");
+    baseConfiguration.put("dropbox.content.spoolThresholdMb", "16");
+    baseConfiguration.put("dropbox.prefetch.enabled", "true");
+    setupConfig.initConfig(baseConfiguration);
+    DropBoxConfiguration configuration = DropBoxConfiguration.fromConfiguration();
+    assertEquals(32L * 1024 * 1024, configuration.getPrefetchCacheBytes());
+  }
+
+  @Test
+  public void testFromConfigurationPrefetchMaxFileSizeAboveSpoolThreshold() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.content.memoryBudgetMb", "32");
+    baseConfiguration.put("dropbox.content.spoolThresholdMb", "1");
+    baseConfiguration.put("dropbox.prefetch.maxFileSizeKb", "2048");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("prefetch.maxFileSizeKb must be between 0 and the smaller of");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationInvalidPrefetchTtl() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.prefetch.ttlSecs", "0");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("prefetch.ttlSecs must be greater than 0");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationInvalidContentMemoryBudget() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.content.memoryBudgetMb", "0");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("content.memoryBudgetMb must be greater than 0");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationSpoolThresholdAboveMemoryBudget() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.content.memoryBudgetMb", "32");
+    baseConfiguration.put("dropbox.content.spoolThresholdMb", "64");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("content.spoolThresholdMb must be between 0 and content.memoryBudgetMb");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationInvalidExtractionMaxTextLength() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.extraction.maxTextLength", "0");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("extraction.maxTextLength must be greater than 0");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationInvalidExtractionThreads() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.extraction.threads", "0");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("extraction.threads must be greater than 0");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationInvalidExtractionTimeoutSecs() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.extraction.timeoutSecs", "0");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("extraction.timeoutSecs must be greater than 0");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationInvalidLongPollMaxConcurrent() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.longPoll.maxConcurrent", "0");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("longPoll.maxConcurrent must be greater than 0");
+    DropBoxConfiguration.fromConfiguration();
+  }
+
+  @Test
+  public void testFromConfigurationInvalidLongPollTimeout() {
+    Properties baseConfiguration = getBaseConfiguration();
+    baseConfiguration.put("dropbox.longPoll.timeoutSecs", "10");
+    setupConfig.initConfig(baseConfiguration);
+    thrown.expect(InvalidConfigurationException.class);
+    thrown.expectMessage("longPoll.timeoutSecs must be between 30 and 480");
+    DropBoxConfiguration.fromConfiguration();
   }
 
   private Properties getBaseConfiguration() {
@@ -22,10 +22,13 @@ import static org.junit.Assert.assertTrue;
 import com.google.api.client.json.GenericJson;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.common.collect.Lists;
 import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 import org.junit.Test;
 
 public class DropBoxObjectTest {
@@ -50,16 +53,22 @@ public class DropBoxObjectTest {
     assertEquals("my-folder", folder1.getName());
     assertEquals("/my-folder", folder1.getPathDisplay());
     assertEquals("", folder1.getSharedFolderId());
+    assertEquals("", folder1.getRev());
+    assertEquals("", folder1.getContentHash());
+    assertEquals("", folder1.getTeam());
+    assertEquals("", folder1.getParentItemName());
 
     DropBoxObject folder2 = new DropBoxObject.Builder(
         DropBoxObject.FOLDER, "dbmid:ABCDEFGHIJKLMNOPQRSTUVWXYZ123456789", "my name")
             .setName("my-folder")
             .setPathDisplay("/my-folder")
             .setSharedFolderId("1234567890")
+            .setTeam("subsidiary")
             .build();
     assertTrue(folder2.isValid());
     validateParseAndEquals(folder2);
     assertEquals("1234567890", folder2.getSharedFolderId());
+    assertEquals("subsidiary", folder2.getTeam());
 
     DropBoxObject file1 = new DropBoxObject.Builder(
         DropBoxObject.FOLDER, "dbmid:ABCDEFGHIJKLMNOPQRSTUVWXYZ123456789", "my name")
@@ -67,6 +76,11 @@ public class DropBoxObjectTest {
             .setPathDisplay("/my-file.txt")
             .setDownloadable(true)
             .setServerModified(NOW)
+            .setSize(1024)
+            .setRev("015f9a5b3c4d0000000000001")
+            .setContentHash("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855")
+            .setParentItemName("https://www.dropbox.com/home/my name")
+            .setHasExplicitSharedMembers(false)
             .build();
     assertTrue(file1.isValid());
     // validateParseAndEquals(file1);
@@ -74,6 +88,12 @@ public class DropBoxObjectTest {
     assertEquals("/my-file.txt", file1.getPathDisplay());
     assertEquals(true, file1.getIsDownloadable());
     assertEquals(NOW, file1.getServerModified());
+    assertEquals(1024, file1.getSize());
+    assertEquals("015f9a5b3c4d0000000000001", file1.getRev());
+    assertEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855",
+        file1.getContentHash());
+    assertEquals("https://www.dropbox.com/home/my name", file1.getParentItemName());
+    assertFalse(file1.getHasExplicitSharedMembers());
   }
 
   @Test
@@ -100,6 +120,31 @@ public class DropBoxObjectTest {
     assertFalse(file1.isValid());
   }
 
+  @Test
+  public void testPushOrder() {
+    DropBoxObject folder = new DropBoxObject.Builder(
+        DropBoxObject.FOLDER, "dbmid:ABCDEFGHIJKLMNOPQRSTUVWXYZ123456789", "my name")
+            .setName("my-folder")
+            .setPathDisplay("/my-folder")
+            .build();
+    DropBoxObject oldFile = new DropBoxObject.Builder(
+        DropBoxObject.FILE, "dbmid:ABCDEFGHIJKLMNOPQRSTUVWXYZ123456789", "my name")
+            .setName("old.txt")
+            .setPathDisplay("/old.txt")
+            .setServerModified(new Date(NOW.getTime() - 1000))
+            .build();
+    DropBoxObject newFile = new DropBoxObject.Builder(
+        DropBoxObject.FILE, "dbmid:ABCDEFGHIJKLMNOPQRSTUVWXYZ123456789", "my name")
+            .setName("new.txt")
+            .setPathDisplay("/new.txt")
+            .setServerModified(NOW)
+            .build();
+
+    List<DropBoxObject> objects = Lists.newArrayList(oldFile, newFile, folder);
+    objects.sort(DropBoxObject.PUSH_ORDER);
+    assertEquals(Arrays.asList(folder, newFile, oldFile), objects);
+  }
+
   public void testParsing() throws IOException {
     GenericJson toParse = new GenericJson();
     toParse.setFactory(JSON_FACTORY);
@@ -111,6 +156,8 @@ public class DropBoxObjectTest {
     toParse.put("sharedFolderId", "0123456789");
     toParse.put("isDownloadable", true);
     toParse.put("serverModified", NOW);
+    toParse.put("size", 1024);
+    toParse.put("rev", "015f9a5b3c4d0000000000001");
     byte[] encoded = toParse.toPrettyString().getBytes();
     DropBoxObject decoded = DropBoxObject.decodePayload(encoded);
     assertTrue(decoded.isValid());
@@ -122,6 +169,12 @@ public class DropBoxObjectTest {
     assertEquals("0123456789", decoded.getSharedFolderId());
     assertEquals(true, decoded.getIsDownloadable());
     assertEquals(NOW, decoded.getServerModified());
+    assertEquals(1024, decoded.getSize());
+    assertEquals("015f9a5b3c4d0000000000001", decoded.getRev());
+    assertEquals("", decoded.getContentHash());
+    assertEquals("", decoded.getTeam());
+    assertEquals("", decoded.getParentItemName());
+    assertFalse(decoded.getHasExplicitSharedMembers());
   }
 
   private static Date now() {
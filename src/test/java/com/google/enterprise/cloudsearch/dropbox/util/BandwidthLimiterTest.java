@@ -0,0 +1,127 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class BandwidthLimiterTest {
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void testParseProfile() {
+    BandwidthLimiter.Profile profile = BandwidthLimiter.Profile.parse("09:00-18:00=512");
+    assertEquals(512 * 1024, profile.getBytesPerSecond());
+    assertTrue(profile.contains(LocalTime.of(9, 0)));
+    assertTrue(profile.contains(LocalTime.of(17, 59)));
+    assertFalse(profile.contains(LocalTime.of(18, 0)));
+    assertFalse(profile.contains(LocalTime.of(8, 59)));
+    assertEquals("09:00-18:00=512", profile.toString());
+  }
+
+  @Test
+  public void testParseProfileSpanningMidnight() {
+    BandwidthLimiter.Profile profile = BandwidthLimiter.Profile.parse("22:00-06:00=0");
+    assertEquals(0, profile.getBytesPerSecond());
+    assertTrue(profile.contains(LocalTime.of(23, 0)));
+    assertTrue(profile.contains(LocalTime.of(5, 59)));
+    assertFalse(profile.contains(LocalTime.of(6, 0)));
+    assertFalse(profile.contains(LocalTime.of(12, 0)));
+  }
+
+  @Test
+  public void testParseInvalidProfile() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("bandwidth profile must be HH:mm-HH:mm=kbPerSecond");
+    BandwidthLimiter.Profile.parse("09:00-18:00");
+  }
+
+  @Test
+  public void testParseInvalidTime() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("Invalid bandwidth profile");
+    BandwidthLimiter.Profile.parse("25:00-18:00=512");
+  }
+
+  @Test
+  public void testProfileApplies() {
+    Clock night = Clock.fixed(Instant.parse("2021-01-01T23:00:00Z"), ZoneOffset.UTC);
+    BandwidthLimiter limiter = new BandwidthLimiter(1024,
+        Arrays.asList(BandwidthLimiter.Profile.parse("09:00-18:00=512"),
+            BandwidthLimiter.Profile.parse("22:00-06:00=0")),
+        night);
+    assertEquals(0, limiter.getLimitBytesPerSecond());
+
+    Clock noon = Clock.fixed(Instant.parse("2021-01-01T12:00:00Z"), ZoneOffset.UTC);
+    limiter = new BandwidthLimiter(1024,
+        Arrays.asList(BandwidthLimiter.Profile.parse("09:00-18:00=512")), noon);
+    assertEquals(512 * 1024, limiter.getLimitBytesPerSecond());
+
+    Clock evening = Clock.fixed(Instant.parse("2021-01-01T19:00:00Z"), ZoneOffset.UTC);
+    limiter = new BandwidthLimiter(1024,
+        Arrays.asList(BandwidthLimiter.Profile.parse("09:00-18:00=512")), evening);
+    assertEquals(1024, limiter.getLimitBytesPerSecond());
+  }
+
+  @Test
+  public void testLimitThrottlesReads() throws Exception {
+    BandwidthLimiter limiter = new BandwidthLimiter(64 * 1024, Collections.emptyList());
+    byte[] buffer = new byte[64 * 1024];
+    long start = System.nanoTime();
+    // The first chunk is granted at once, the following three wait for the bandwidth.
+    try (InputStream in = limiter.limit(new ByteArrayInputStream(new byte[64 * 1024]))) {
+      int total = 0;
+      for (int read; (read = in.read(buffer, 0, buffer.length)) > 0; ) {
+        assertTrue(read <= BandwidthLimiter.CHUNK_BYTES);
+        total += read;
+      }
+      assertEquals(64 * 1024, total);
+    }
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    assertTrue("elapsed " + elapsedMillis, elapsedMillis >= 700);
+  }
+
+  @Test
+  public void testUnlimitedReadsWholeBuffer() throws Exception {
+    BandwidthLimiter limiter = new BandwidthLimiter(0, Collections.emptyList());
+    byte[] buffer = new byte[64 * 1024];
+    try (InputStream in = limiter.limit(new ByteArrayInputStream(new byte[64 * 1024]))) {
+      assertEquals(64 * 1024, in.read(buffer, 0, buffer.length));
+    }
+  }
+
+  @Test
+  public void testNegativeBytesPerSecond() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("bytes per second must not be negative");
+    new BandwidthLimiter(-1, Collections.emptyList());
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class BufferPoolTest {
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void testAcquireReusesReleasedBuffer() {
+    BufferPool pool = new BufferPool(1024, 2);
+    byte[] buffer = pool.acquire();
+    assertEquals(1024, buffer.length);
+    assertEquals(1, pool.getAllocatedBuffers());
+    pool.release(buffer);
+    assertEquals(1, pool.size());
+    assertSame(buffer, pool.acquire());
+    assertEquals(0, pool.size());
+    assertEquals(1, pool.getAllocatedBuffers());
+  }
+
+  @Test
+  public void testReleaseBeyondCapacity() {
+    BufferPool pool = new BufferPool(1024, 2);
+    byte[] first = pool.acquire();
+    byte[] second = pool.acquire();
+    byte[] third = pool.acquire();
+    assertEquals(3, pool.getAllocatedBuffers());
+    pool.release(first);
+    pool.release(second);
+    pool.release(third);
+    assertEquals(2, pool.size());
+  }
+
+  @Test
+  public void testReleaseForeignBuffer() {
+    BufferPool pool = new BufferPool(1024, 2);
+    pool.release(new byte[512]);
+    assertEquals(0, pool.size());
+  }
+
+  @Test
+  public void testPoolingDisabled() {
+    BufferPool pool = new BufferPool(1024, 0);
+    byte[] buffer = pool.acquire();
+    pool.release(buffer);
+    assertEquals(0, pool.size());
+    assertNotSame(buffer, pool.acquire());
+    assertEquals(2, pool.getAllocatedBuffers());
+  }
+
+  @Test
+  public void testInvalidBufferSize() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("buffer size must be greater than 0");
+    new BufferPool(0, 2);
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ContentCacheTest {
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final BufferPool bufferPool = new BufferPool(4, 1);
+
+  @Test
+  public void testPutAndGet() throws Exception {
+    ContentCache cache = ContentCache.open(temporaryFolder.newFolder(), 1024, bufferPool);
+    byte[] content = bytes("hello");
+    String hash = ContentHasher.hash(content);
+    assertNull(cache.get(hash, 5));
+
+    assertTrue(cache.put(hash, 5, new ByteArrayInputStream(content)));
+    assertFalse(cache.put(hash, 5, new ByteArrayInputStream(content)));
+    try (ContentCache.Lease lease = cache.get(hash, 5)) {
+      assertNotNull(lease);
+      assertEquals("hello",
+          new String(Files.readAllBytes(lease.getFile().toPath()), StandardCharsets.UTF_8));
+    }
+    assertNull(cache.get(hash, 6));
+    assertEquals(1, cache.size());
+    assertEquals(5, cache.getTotalBytes());
+  }
+
+  @Test
+  public void testHashMismatchIsNotCached() throws Exception {
+    ContentCache cache = ContentCache.open(temporaryFolder.newFolder(), 1024, bufferPool);
+    String hash = ContentHasher.hash(bytes("hello"));
+    assertFalse(cache.put(hash, 5, new ByteArrayInputStream(bytes("world"))));
+    assertNull(cache.get(hash, 5));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsed() throws Exception {
+    ContentCache cache = ContentCache.open(temporaryFolder.newFolder(), 10, bufferPool);
+    String first = put(cache, "aaaa");
+    String second = put(cache, "bbbb");
+    cache.get(first, 4).close();
+    String third = put(cache, "cccc");
+
+    assertNotNull(cache.get(first, 4));
+    assertNull(cache.get(second, 4));
+    assertNotNull(cache.get(third, 4));
+    assertEquals(8, cache.getTotalBytes());
+  }
+
+  @Test
+  public void testLeasedContentIsNotEvicted() throws Exception {
+    ContentCache cache = ContentCache.open(temporaryFolder.newFolder(), 8, bufferPool);
+    String first = put(cache, "aaaa");
+    ContentCache.Lease lease = cache.get(first, 4);
+    String second = put(cache, "bbbb");
+    cache.get(first, 4).close();
+    cache.get(second, 4).close();
+    String third = put(cache, "cccc");
+    assertTrue(lease.getFile().exists());
+    assertNull(cache.get(second, 4));
+
+    lease.close();
+    lease.close();
+    assertNotNull(cache.get(third, 4));
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void testReopenKeepsContent() throws Exception {
+    File directory = temporaryFolder.newFolder();
+    String hash = put(ContentCache.open(directory, 1024, bufferPool), "hello");
+    File stale = new File(new File(directory, hash.substring(0, 2)), "partial.tmp");
+    assertTrue(stale.createNewFile());
+
+    ContentCache cache = ContentCache.open(directory, 1024, bufferPool);
+    assertNotNull(cache.get(hash, 5));
+    assertEquals(5, cache.getTotalBytes());
+    assertFalse(stale.exists());
+  }
+
+  @Test
+  public void testTooLargeIsNotCached() throws Exception {
+    ContentCache cache = ContentCache.open(temporaryFolder.newFolder(), 4, bufferPool);
+    byte[] content = bytes("hello");
+    assertFalse(cache.put(ContentHasher.hash(content), 5, new ByteArrayInputStream(content)));
+  }
+
+  private static String put(ContentCache cache, String value) throws Exception {
+    byte[] content = bytes(value);
+    String hash = ContentHasher.hash(content);
+    assertTrue(cache.put(hash, content.length, new ByteArrayInputStream(content)));
+    return hash;
+  }
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+}
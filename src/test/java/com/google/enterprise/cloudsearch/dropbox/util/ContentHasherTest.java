@@ -0,0 +1,80 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class ContentHasherTest {
+  @Test
+  public void testEmpty() {
+    assertEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855",
+        ContentHasher.hash(new byte[0]));
+  }
+
+  @Test
+  public void testSingleBlock() throws Exception {
+    byte[] content = "abc".getBytes(StandardCharsets.UTF_8);
+    assertEquals(hex(sha256(sha256(content))), ContentHasher.hash(content));
+  }
+
+  @Test
+  public void testBlocks() throws Exception {
+    byte[] content = new byte[ContentHasher.BLOCK_SIZE + 10];
+    Arrays.fill(content, (byte) 7);
+    byte[] first = sha256(Arrays.copyOfRange(content, 0, ContentHasher.BLOCK_SIZE));
+    byte[] second = sha256(Arrays.copyOfRange(content, ContentHasher.BLOCK_SIZE,
+        content.length));
+    byte[] blockHashes = new byte[first.length + second.length];
+    System.arraycopy(first, 0, blockHashes, 0, first.length);
+    System.arraycopy(second, 0, blockHashes, first.length, second.length);
+    String expected = hex(sha256(blockHashes));
+
+    assertEquals(expected, ContentHasher.hash(content));
+
+    ContentHasher hasher = new ContentHasher();
+    for (int offset = 0; offset < content.length; offset += 1000) {
+      hasher.write(content, offset, Math.min(1000, content.length - offset));
+    }
+    assertEquals(expected, hasher.digest());
+  }
+
+  @Test
+  public void testExactBlock() throws Exception {
+    byte[] content = new byte[ContentHasher.BLOCK_SIZE];
+    ContentHasher hasher = new ContentHasher();
+    for (byte b : content) {
+      hasher.write(b);
+    }
+    assertEquals(hex(sha256(sha256(content))), hasher.digest());
+  }
+
+  private static byte[] sha256(byte[] bytes) throws Exception {
+    return MessageDigest.getInstance("SHA-256").digest(bytes);
+  }
+
+  private static String hex(byte[] bytes) {
+    StringBuilder hex = new StringBuilder();
+    for (byte b : bytes) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+public class FingerprintTest {
+  @Test
+  public void testOf() {
+    assertEquals(Fingerprint.of("abc"), Fingerprint.of("abc"));
+    assertNotEquals(Fingerprint.of("abc"), Fingerprint.of("abd"));
+    assertNotEquals(0, Fingerprint.of(""));
+  }
+
+  @Test
+  public void testOfCollectionIgnoresOrder() {
+    assertEquals(Fingerprint.of(Arrays.asList("a", "b")), Fingerprint.of(Arrays.asList("b", "a")));
+    assertNotEquals(Fingerprint.of(Collections.singletonList("ab")),
+        Fingerprint.of(Arrays.asList("a", "b")));
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class LatencyTrackerTest {
+  @Test
+  public void testPercentile() {
+    LatencyTracker tracker = new LatencyTracker(100);
+    for (int i = 1; i <= 100; i++) {
+      tracker.record(i);
+    }
+    assertEquals(95, tracker.percentile(95));
+    assertEquals(50, tracker.percentile(50));
+    assertEquals(100, tracker.percentile(100));
+    assertEquals(1, tracker.percentile(0));
+  }
+
+  @Test
+  public void testTooFewSamples() {
+    LatencyTracker tracker = new LatencyTracker(100);
+    for (int i = 0; i < 19; i++) {
+      tracker.record(10);
+    }
+    assertEquals(-1, tracker.percentile(95));
+    tracker.record(10);
+    assertEquals(10, tracker.percentile(95));
+  }
+
+  @Test
+  public void testKeepsMostRecentSamples() {
+    LatencyTracker tracker = new LatencyTracker(20);
+    for (int i = 0; i < 20; i++) {
+      tracker.record(1000);
+    }
+    for (int i = 0; i < 20; i++) {
+      tracker.record(10);
+    }
+    assertEquals(10, tracker.percentile(95));
+  }
+}
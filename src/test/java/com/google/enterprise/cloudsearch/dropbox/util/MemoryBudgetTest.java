@@ -0,0 +1,89 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class MemoryBudgetTest {
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void testReserveAndRelease() throws Exception {
+    MemoryBudget budget = new MemoryBudget(10 * 1024);
+    MemoryBudget.Reservation reservation = budget.reserve(4000);
+    assertEquals(4 * 1024, budget.getReservedBytes());
+    assertTrue(reservation.release());
+    assertFalse(reservation.release());
+    assertEquals(0, budget.getReservedBytes());
+  }
+
+  @Test
+  public void testReserveWaitsForRelease() throws Exception {
+    MemoryBudget budget = new MemoryBudget(10 * 1024);
+    MemoryBudget.Reservation first = budget.reserve(8 * 1024);
+    CountDownLatch reserved = new CountDownLatch(1);
+    Thread waiter = new Thread(() -> {
+      try {
+        MemoryBudget.Reservation second = budget.reserve(8 * 1024);
+        reserved.countDown();
+        second.release();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    waiter.start();
+
+    assertFalse(reserved.await(100, TimeUnit.MILLISECONDS));
+    assertEquals(1, budget.getWaitingThreads());
+    first.close();
+    assertTrue(reserved.await(10, TimeUnit.SECONDS));
+    waiter.join();
+    assertEquals(0, budget.getWaitingThreads());
+    assertEquals(0, budget.getReservedBytes());
+  }
+
+  @Test
+  public void testTryReserveDoesNotWait() throws Exception {
+    MemoryBudget budget = new MemoryBudget(10 * 1024);
+    MemoryBudget.Reservation first = budget.tryReserve(8 * 1024);
+    assertNotNull(first);
+    assertNull(budget.tryReserve(8 * 1024));
+    assertEquals(0, budget.getWaitingThreads());
+    first.release();
+    MemoryBudget.Reservation second = budget.tryReserve(8 * 1024);
+    assertNotNull(second);
+    second.release();
+    assertEquals(0, budget.getReservedBytes());
+  }
+
+  @Test
+  public void testReserveLargerThanCapacity() throws Exception {
+    MemoryBudget budget = new MemoryBudget(10 * 1024);
+    thrown.expect(IllegalArgumentException.class);
+    budget.reserve(11 * 1024);
+  }
+}
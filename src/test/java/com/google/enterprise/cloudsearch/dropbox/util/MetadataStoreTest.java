@@ -0,0 +1,105 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MetadataStoreTest {
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testPutGetRemove() throws Exception {
+    try (MetadataStore store = MetadataStore.open(temporaryFolder.newFolder())) {
+      assertNull(store.get("item"));
+      store.put("item", new MetadataStore.Entry(1, 2, 3, 4));
+      MetadataStore.Entry entry = store.get("item");
+      assertNotNull(entry);
+      assertEquals(1, entry.getRevFingerprint());
+      assertEquals(2, entry.getContentHashFingerprint());
+      assertEquals(3, entry.getAclFingerprint());
+      assertEquals(4, entry.getIndexedTimeMillis());
+
+      store.put("item", new MetadataStore.Entry(5, 6, 7, 8));
+      assertEquals(5, store.get("item").getRevFingerprint());
+      assertEquals(1, store.size());
+
+      assertTrue(store.remove("item"));
+      assertFalse(store.remove("item"));
+      assertNull(store.get("item"));
+      assertEquals(0, store.size());
+    }
+  }
+
+  @Test
+  public void testGrowAndRemoveKeepOtherEntries() throws Exception {
+    try (MetadataStore store = MetadataStore.open(temporaryFolder.newFolder())) {
+      int entries = 200000;
+      for (int i = 0; i < entries; i++) {
+        store.put("item-" + i, new MetadataStore.Entry(i, i, i, i));
+      }
+      assertEquals(entries, store.size());
+      for (int i = 0; i < entries; i += 2) {
+        assertTrue(store.remove("item-" + i));
+      }
+      assertEquals(entries / 2, store.size());
+      for (int i = 0; i < entries; i++) {
+        MetadataStore.Entry entry = store.get("item-" + i);
+        if (i % 2 == 0) {
+          assertNull(entry);
+        } else {
+          assertEquals(i, entry.getRevFingerprint());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testReopen() throws Exception {
+    File directory = temporaryFolder.newFolder();
+    try (MetadataStore store = MetadataStore.open(directory)) {
+      for (int i = 0; i < 5000; i++) {
+        store.put("item-" + i, new MetadataStore.Entry(i, i, i, i));
+      }
+    }
+    try (MetadataStore store = MetadataStore.open(directory)) {
+      assertEquals(5000, store.size());
+      assertEquals(1234, store.get("item-1234").getAclFingerprint());
+    }
+  }
+
+  @Test
+  public void testReopenAfterCrashRecountsEntries() throws Exception {
+    File directory = temporaryFolder.newFolder();
+    MetadataStore crashed = MetadataStore.open(directory);
+    for (int i = 0; i < 100; i++) {
+      crashed.put("item-" + i, new MetadataStore.Entry(i, i, i, i));
+    }
+    try (MetadataStore store = MetadataStore.open(directory)) {
+      assertEquals(100, store.size());
+      assertEquals(42, store.get("item-42").getRevFingerprint());
+    }
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.ObjectName;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class MetricsTest {
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void testGauge() throws Exception {
+    Metrics.registerGauge("test.gauge", () -> 42);
+    assertEquals(Long.valueOf(42), Metrics.snapshot().get("test.gauge"));
+    assertEquals(42L, ManagementFactory.getPlatformMBeanServer()
+        .getAttribute(new ObjectName(Metrics.OBJECT_NAME), "test.gauge"));
+  }
+
+  @Test
+  public void testCounter() {
+    AtomicLong counter = Metrics.counter("test.counter");
+    counter.addAndGet(3);
+    assertEquals(counter, Metrics.counter("test.counter"));
+    assertEquals(Long.valueOf(3), Metrics.snapshot().get("test.counter"));
+  }
+
+  @Test
+  public void testCounterRegisteredAsGauge() {
+    Metrics.registerGauge("test.registeredGauge", () -> 0);
+    thrown.expect(IllegalArgumentException.class);
+    Metrics.counter("test.registeredGauge");
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.util;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class PathFilterTest {
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void testAcceptAll() {
+    PathFilter filter = PathFilter.acceptAll();
+    assertTrue(filter.accepts("/a/node_modules", true));
+    assertTrue(filter.accepts("/a/b.txt", false));
+  }
+
+  @Test
+  public void testExcludeAtAnyDepth() {
+    PathFilter filter =
+        new PathFilter(Collections.emptyList(), Arrays.asList("node_modules", ".git"));
+    assertFalse(filter.accepts("/node_modules", true));
+    assertFalse(filter.accepts("/Projects/app/Node_Modules", true));
+    assertFalse(filter.accepts("/Projects/app/node_modules/lib/index.js", false));
+    assertFalse(filter.accepts("/Projects/app/.git", true));
+    assertTrue(filter.accepts("/Projects/app/my_node_modules", true));
+    assertTrue(filter.accepts("/Projects/app/xgit", true));
+  }
+
+  @Test
+  public void testExcludeAnchoredGlob() {
+    PathFilter filter = new PathFilter(Collections.emptyList(),
+        Arrays.asList("/Archive", "/Projects/*/build", "**/*.tm?"));
+    assertFalse(filter.accepts("/Archive", true));
+    assertTrue(filter.accepts("/Projects/Archive", true));
+    assertFalse(filter.accepts("/Projects/app/build", true));
+    assertTrue(filter.accepts("/Projects/app/src/build", true));
+    assertFalse(filter.accepts("/a/b/c.tmp", false));
+    assertTrue(filter.accepts("/a/b/c.tmpx", false));
+  }
+
+  @Test
+  public void testDoubleStarCrossesFolders() {
+    PathFilter filter =
+        new PathFilter(Collections.emptyList(), Arrays.asList("/Projects/**/target"));
+    assertFalse(filter.accepts("/Projects/app/target", true));
+    assertFalse(filter.accepts("/Projects/app/module/target", true));
+    assertTrue(filter.accepts("/Other/target", true));
+  }
+
+  @Test
+  public void testExcludeRegex() {
+    PathFilter filter = new PathFilter(Collections.emptyList(),
+        Arrays.asList("regex:\\.(log|bak)$"));
+    assertFalse(filter.accepts("/a/b.log", false));
+    assertFalse(filter.accepts("/a/b.BAK", false));
+    assertTrue(filter.accepts("/a/b.log.txt", false));
+  }
+
+  @Test
+  public void testIncludeAppliesToFiles() {
+    PathFilter filter = new PathFilter(Arrays.asList("glob:*.pdf", "/Shared/Reports"),
+        Arrays.asList("/Shared/Reports/Drafts"));
+    assertTrue(filter.accepts("/a/b.pdf", false));
+    assertFalse(filter.accepts("/a/b.docx", false));
+    assertTrue(filter.accepts("/Shared/Reports/q1.docx", false));
+    assertFalse(filter.accepts("/Shared/Reports/Drafts/q1.docx", false));
+    assertTrue(filter.accepts("/a", true));
+  }
+
+  @Test
+  public void testSpecialCharactersAreLiteral() {
+    PathFilter filter =
+        new PathFilter(Collections.emptyList(), Arrays.asList("/a (copy)/[old]+"));
+    assertFalse(filter.accepts("/a (copy)/[old]+", true));
+    assertTrue(filter.accepts("/a copy/o", true));
+  }
+
+  @Test
+  public void testEmptyRule() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("path rule must not be empty");
+    new PathFilter(Collections.emptyList(), Arrays.asList("/"));
+  }
+
+  @Test
+  public void testInvalidRegex() {
+    thrown.expect(IllegalArgumentException.class);
+    new PathFilter(Collections.emptyList(), Arrays.asList("regex:("));
+  }
+}
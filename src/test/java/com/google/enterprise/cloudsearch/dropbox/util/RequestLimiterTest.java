@@ -0,0 +1,79 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class RequestLimiterTest {
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void testAcquireAndClose() throws Exception {
+    RequestLimiter limiter = new RequestLimiter(0, 2);
+    RequestLimiter.Slot slot = limiter.acquire();
+    assertEquals(1, limiter.getInFlight());
+    slot.close();
+    slot.close();
+    assertEquals(0, limiter.getInFlight());
+  }
+
+  @Test
+  public void testAcquireWaitsForSlot() throws Exception {
+    RequestLimiter limiter = new RequestLimiter(0, 1);
+    RequestLimiter.Slot first = limiter.acquire();
+    CountDownLatch acquired = new CountDownLatch(1);
+    Thread waiter = new Thread(() -> {
+      try {
+        RequestLimiter.Slot second = limiter.acquire();
+        acquired.countDown();
+        second.close();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    waiter.start();
+
+    assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+    first.close();
+    assertTrue(acquired.await(10, TimeUnit.SECONDS));
+    waiter.join();
+    assertEquals(0, limiter.getInFlight());
+  }
+
+  @Test
+  public void testUnlimited() throws Exception {
+    RequestLimiter limiter = RequestLimiter.unlimited();
+    for (int i = 0; i < 1000; i++) {
+      limiter.acquire();
+    }
+    assertEquals(0, limiter.getInFlight());
+  }
+
+  @Test
+  public void testNegativeRate() {
+    thrown.expect(IllegalArgumentException.class);
+    new RequestLimiter(-1, 0);
+  }
+}
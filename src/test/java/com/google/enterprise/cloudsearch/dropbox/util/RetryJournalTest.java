@@ -0,0 +1,123 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RetryJournalTest {
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testRecordFailureAndResolve() throws Exception {
+    try (RetryJournal journal = RetryJournal.open(temporaryFolder.newFolder(), 5, 1000)) {
+      long before = System.currentTimeMillis();
+      assertTrue(journal.recordFailure("item", new byte[] {1, 2}, "java.io.IOException: boom"));
+      assertEquals(1, journal.size());
+      assertTrue(journal.getDue(before, 10).isEmpty());
+
+      List<RetryJournal.Entry> due = journal.getDue(before + 1000 + 60000, 10);
+      assertEquals(1, due.size());
+      RetryJournal.Entry entry = due.get(0);
+      assertEquals("item", entry.getName());
+      assertArrayEquals(new byte[] {1, 2}, entry.getPayload());
+      assertEquals(1, entry.getAttempts());
+      assertEquals("java.io.IOException: boom", entry.getCause());
+      assertTrue(entry.getNextAttemptMillis() >= before + 1000);
+
+      assertTrue(journal.resolve("item"));
+      assertFalse(journal.resolve("item"));
+      assertEquals(0, journal.size());
+    }
+  }
+
+  @Test
+  public void testBackoffDoubles() throws Exception {
+    try (RetryJournal journal = RetryJournal.open(temporaryFolder.newFolder(), 10, 1000)) {
+      long before = System.currentTimeMillis();
+      journal.recordFailure("item", new byte[0], "first");
+      journal.recordFailure("item", new byte[0], "second");
+      journal.recordFailure("item", new byte[0], "third");
+      RetryJournal.Entry entry = journal.getDue(Long.MAX_VALUE, 1).get(0);
+      assertEquals(3, entry.getAttempts());
+      assertEquals("third", entry.getCause());
+      assertTrue(entry.getNextAttemptMillis() >= before + 4000);
+      assertTrue(entry.getNextAttemptMillis() <= System.currentTimeMillis() + 4000);
+    }
+  }
+
+  @Test
+  public void testGiveUpToDeadLetter() throws Exception {
+    File directory = temporaryFolder.newFolder();
+    try (RetryJournal journal = RetryJournal.open(directory, 2, 1000)) {
+      assertTrue(journal.recordFailure("item", new byte[0], "first"));
+      assertFalse(journal.recordFailure("item", new byte[0], "second\nline"));
+      assertEquals(0, journal.size());
+    }
+    List<String> deadLetters = Files.readAllLines(
+        new File(directory, RetryJournal.DEAD_LETTER_FILE).toPath(), StandardCharsets.UTF_8);
+    assertEquals(1, deadLetters.size());
+    assertTrue(deadLetters.get(0).endsWith("\titem\t2\tsecond line"));
+  }
+
+  @Test
+  public void testReopenKeepsPendingEntries() throws Exception {
+    File directory = temporaryFolder.newFolder();
+    try (RetryJournal journal = RetryJournal.open(directory, 5, 1000)) {
+      journal.recordFailure("https://www.dropbox.com/home/a\tb", new byte[] {3}, "cause");
+      journal.recordFailure("resolved", new byte[] {4}, "cause");
+      journal.recordFailure("resolved", new byte[] {4}, "cause");
+      journal.resolve("resolved");
+    }
+    Files.write(new File(directory, RetryJournal.JOURNAL_FILE).toPath(),
+        "FAILED\ttruncated".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+    try (RetryJournal journal = RetryJournal.open(directory, 5, 1000)) {
+      assertEquals(1, journal.size());
+      RetryJournal.Entry entry = journal.getDue(Long.MAX_VALUE, 10).get(0);
+      assertEquals("https://www.dropbox.com/home/a\tb", entry.getName());
+      assertArrayEquals(new byte[] {3}, entry.getPayload());
+    }
+    assertEquals(1, Files.readAllLines(
+        new File(directory, RetryJournal.JOURNAL_FILE).toPath(), StandardCharsets.UTF_8).size());
+  }
+
+  @Test
+  public void testGetDueIsBounded() throws Exception {
+    try (RetryJournal journal = RetryJournal.open(temporaryFolder.newFolder(), 5,
+        TimeUnit.SECONDS.toMillis(1))) {
+      for (int i = 0; i < 5; i++) {
+        journal.recordFailure("item" + i, new byte[0], "cause");
+      }
+      List<RetryJournal.Entry> due = journal.getDue(Long.MAX_VALUE, 3);
+      assertEquals(3, due.size());
+      assertEquals("item0", due.get(0).getName());
+    }
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2021 Ryo H
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.enterprise.cloudsearch.dropbox.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SeenSetTest {
+  @Test
+  public void testAddAndContains() {
+    SeenSet seen = new SeenSet(0);
+    assertTrue(seen.add("https://www.dropbox.com/home/member/a.txt"));
+    assertFalse(seen.add("https://www.dropbox.com/home/member/a.txt"));
+    assertTrue(seen.contains("https://www.dropbox.com/home/member/a.txt"));
+    assertFalse(seen.contains("https://www.dropbox.com/home/member/b.txt"));
+    assertEquals(1, seen.size());
+  }
+
+  @Test
+  public void testGrow() {
+    SeenSet seen = new SeenSet(0);
+    long initialBytes = seen.getCapacityBytes();
+    for (int i = 0; i < 10000; i++) {
+      assertTrue(seen.add("item-" + i));
+    }
+    assertEquals(10000, seen.size());
+    assertTrue(seen.getCapacityBytes() > initialBytes);
+    for (int i = 0; i < 10000; i++) {
+      assertTrue(seen.contains("item-" + i));
+    }
+    assertFalse(seen.contains("item-10000"));
+  }
+
+  @Test
+  public void testExpectedSize() {
+    SeenSet seen = new SeenSet(100000);
+    assertTrue(seen.getCapacityBytes() >= 100000 * Long.BYTES);
+    assertTrue(seen.getCapacityBytes() <= 4 * 100000 * Long.BYTES);
+  }
+}